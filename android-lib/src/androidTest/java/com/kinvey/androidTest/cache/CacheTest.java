@@ -9,8 +9,10 @@ import android.test.suitebuilder.annotation.SmallTest;
 import com.google.api.client.json.GenericJson;
 import com.kinvey.android.Client;
 import com.kinvey.android.cache.RealmCacheManager;
+import com.kinvey.java.Query;
 import com.kinvey.java.cache.ICache;
 import com.kinvey.java.cache.ICacheManager;
+import com.kinvey.java.query.AbstractQuery;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -191,4 +193,27 @@ public class CacheTest {
         }
 
     }
+
+    @Test
+    public void testSortSkipLimit(){
+        ICache<SampleGsonWithInner> cache = cacheManager.getCache("testSortPage", SampleGsonWithInner.class, Long.MAX_VALUE);
+        cache.clear();
+
+        List<SampleGsonWithInner> items = new ArrayList<SampleGsonWithInner>();
+        for (int i = 0 ; i < 10; i++){
+            items.add(new SampleGsonWithInner(String.valueOf(i), new SampleGsonObject1(String.valueOf(i), "test" + (9 - i))));
+        }
+        cache.save(items);
+
+        List<SampleGsonWithInner> page = cache.get(new Query().addSort("_id", AbstractQuery.SortOrder.DESC).setSkip(2).setLimit(3));
+        assertEquals(3, page.size());
+        assertEquals("7", page.get(0).get("_id"));
+        assertEquals("5", page.get(2).get("_id"));
+
+        //nested field is sorted without realm
+        page = cache.get(new Query().addSort("details.title", AbstractQuery.SortOrder.ASC).setSkip(8).setLimit(5));
+        assertEquals(2, page.size());
+        assertEquals("1", page.get(0).get("_id"));
+        assertEquals("0", page.get(1).get("_id"));
+    }
 }
@@ -19,9 +19,15 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import io.realm.DynamicRealm;
+import io.realm.DynamicRealmObject;
 import io.realm.RealmConfiguration;
+import io.realm.RealmFieldType;
+import io.realm.RealmResults;
 import io.realm.RealmSchema;
 
 import static org.junit.Assert.*;
@@ -133,4 +139,118 @@ public class ClassHashTest {
 
 
 
+    public static class BinaryObject extends GenericJson {
+        @Key("_id")
+        public String _id;
+        @Key("title")
+        public String title;
+        @Key("data")
+        public byte[] data;
+    }
+
+    public static class IncompatibleObject extends GenericJson {
+        @Key("_id")
+        public String _id;
+        @Key("title")
+        public Integer title;
+    }
+
+    @Test
+    public void testMigrateScheme(){
+        RealmConfiguration rc = new RealmConfiguration.Builder(context)
+                .name("test_migrate")
+                .build();
+        DynamicRealm realm = DynamicRealm.getInstance(rc);
+
+        realm.beginTransaction();
+        try {
+            if (realm.getSchema().contains("migrate")){
+                realm.where("migrate").findAll().deleteAllFromRealm();
+                assertTrue(ClassHash.migrateScheme("migrate", realm, SampleGsonObject1.class));
+            } else {
+                ClassHash.createScheme("migrate", realm, SampleGsonObject1.class);
+            }
+            ClassHash.saveData("migrate", realm, SampleGsonObject1.class, new SampleGsonObject1("1", "first"));
+
+            //added field keeps existing rows
+            assertTrue(ClassHash.migrateScheme("migrate", realm, SampleGsonObject2.class));
+            assertTrue(realm.getSchema().get("migrate").hasField("test"));
+            SampleGsonObject2 migrated = ClassHash.realmToObject(realm.where("migrate").findFirst(), SampleGsonObject2.class);
+            assertEquals("first", migrated.title);
+            assertNull(migrated.test);
+
+            //removed field
+            assertTrue(ClassHash.migrateScheme("migrate", realm, SampleGsonObject1.class));
+            assertFalse(realm.getSchema().get("migrate").hasField("test"));
+            assertEquals(1, realm.where("migrate").count());
+
+            //binary field keeps its column and data
+            assertTrue(ClassHash.migrateScheme("migrate", realm, BinaryObject.class));
+            assertEquals(RealmFieldType.BINARY, realm.getSchema().get("migrate").getFieldType("data"));
+            BinaryObject binary = new BinaryObject();
+            binary._id = "1";
+            binary.title = "first";
+            binary.data = new byte[]{1, 2, 3};
+            ClassHash.saveData("migrate", realm, BinaryObject.class, binary);
+            assertTrue(ClassHash.migrateScheme("migrate", realm, BinaryObject.class));
+            assertTrue(realm.getSchema().get("migrate").hasField("data"));
+            assertArrayEquals(new byte[]{1, 2, 3},
+                    ClassHash.realmToObject(realm.where("migrate").findFirst(), BinaryObject.class).data);
+
+            //changed type requires table to be recreated, schema stays untouched
+            assertFalse(ClassHash.migrateScheme("migrate", realm, IncompatibleObject.class));
+            assertEquals(RealmFieldType.STRING, realm.getSchema().get("migrate").getFieldType("title"));
+        } finally {
+            realm.commitTransaction();
+            realm.close();
+        }
+    }
+
+    @Test
+    public void testMappingThroughput(){
+        RealmConfiguration rc = new RealmConfiguration.Builder(context)
+                .name("test_throughput")
+                .build();
+        DynamicRealm realm = DynamicRealm.getInstance(rc);
+
+        List<SampleGsonObject1> details = new ArrayList<SampleGsonObject1>();
+        for (int i = 0; i < 3; i++){
+            details.add(new SampleGsonObject1("detail" + i, "title" + i));
+        }
+
+        long saveTime;
+        long readTime;
+        realm.beginTransaction();
+        try {
+            if (!realm.getSchema().contains("throughput")){
+                ClassHash.createScheme("throughput", realm, SampleGsonWithInnerList.class);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < 1000; i++){
+                ClassHash.saveData("throughput", realm, SampleGsonWithInnerList.class,
+                        new SampleGsonWithInnerList(String.valueOf(i), details));
+            }
+            saveTime = System.nanoTime() - start;
+
+            RealmResults<DynamicRealmObject> objects = realm.where("throughput").findAll();
+            assertEquals(1000, objects.size());
+            start = System.nanoTime();
+            for (DynamicRealmObject object : objects){
+                SampleGsonWithInnerList entity = ClassHash.realmToObject(object, SampleGsonWithInnerList.class);
+                assertEquals(3, entity.getDetails().size());
+                assertEquals("title2", entity.getDetails().get(2).title);
+            }
+            readTime = System.nanoTime() - start;
+        } finally {
+            realm.cancelTransaction();
+            realm.close();
+        }
+
+        //mapping plan is computed once per class, 1000 entities with 3 nested objects each map well within the limit
+        assertTrue("saveData took " + TimeUnit.NANOSECONDS.toMillis(saveTime) + " ms",
+                TimeUnit.NANOSECONDS.toMillis(saveTime) < 5000);
+        assertTrue("realmToObject took " + TimeUnit.NANOSECONDS.toMillis(readTime) + " ms",
+                TimeUnit.NANOSECONDS.toMillis(readTime) < 2000);
+    }
+
 }
@@ -23,6 +23,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 
+import io.realm.Case;
 import io.realm.DynamicRealm;
 import io.realm.DynamicRealmObject;
 import io.realm.RealmConfiguration;
@@ -62,6 +63,7 @@ public class QueryTest {
         doReturn(query).when(query).endGroup();
         doReturn(query).when(query).or();
         doReturn(query).when(query).not();
+        doReturn(query).when(query).beginsWith(anyString(), anyString(), any(Case.class));
 
     }
 
@@ -112,5 +114,38 @@ public class QueryTest {
 
     }
 
+    @Test
+    public void testStartsWithClause(){
+
+        Query q = new Query(new MongoQueryFilter.MongoQueryFilterBuilder());
+        q.startsWith("_id", "ab");
+
+        QueryHelper.prepareRealmQuery(query, q.getQueryFilterMap());
+
+        verify(query, times(1)).beginsWith("_id", "ab", Case.SENSITIVE);
+    }
+
+    @Test
+    public void testStartsWithOrClauseReusesPlan(){
+
+        Query q = new Query(new MongoQueryFilter.MongoQueryFilterBuilder());
+        q.startsWith("_id", "ab").or(new Query(new MongoQueryFilter.MongoQueryFilterBuilder()).equals("_id", "1"));
+
+        QueryHelper.prepareRealmQuery(query, q.getQueryFilterMap());
+        QueryHelper.prepareRealmQuery(query, q.getQueryFilterMap());
+
+        verify(query, times(2)).beginsWith("_id", "ab", Case.SENSITIVE);
+        verify(query, times(2)).equalTo("_id", "1");
+        verify(query, times(2)).or();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnsupportedRegex(){
+
+        Query q = new Query(new MongoQueryFilter.MongoQueryFilterBuilder());
+        q.regEx("_id", "^a.*b");
+
+        QueryHelper.prepareRealmQuery(query, q.getQueryFilterMap());
+    }
 
 }
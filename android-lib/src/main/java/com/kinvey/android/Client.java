@@ -30,6 +30,7 @@ import com.google.api.client.json.GenericJson;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.common.base.Preconditions;
+import com.kinvey.android.async.AsyncPushAllRequest;
 import com.kinvey.android.cache.RealmCacheManager;
 import com.kinvey.android.callback.KinveyClientBuilderCallback;
 import com.kinvey.android.callback.KinveyPingCallback;
@@ -37,6 +38,7 @@ import com.kinvey.android.callback.KinveyUserCallback;
 import com.kinvey.android.push.AbstractPush;
 import com.kinvey.android.push.GCMPush;
 import com.kinvey.android.store.FileStore;
+import com.kinvey.android.sync.KinveyPushCallback;
 import com.kinvey.java.AbstractClient;
 import com.kinvey.java.ClientExtension;
 import com.kinvey.java.Logger;
@@ -349,6 +351,20 @@ public class Client extends AbstractClient {
         }
     }
 
+    /**
+     * Asynchronous request to push pending requests of all collections.
+     * <p>
+     * Requests of different entities are executed concurrently, see {@link #setPushConcurrency(int)},
+     * requests of the same entity are executed in the order they were made.
+     * </p>
+     *
+     * @param callback KinveyPushCallback
+     */
+    public void pushAll(KinveyPushCallback callback){
+        Preconditions.checkArgument(isInitialize(), "client must be initialized.");
+        new AsyncPushAllRequest(this, callback).execute();
+    }
+
     /**
      * How long, in milliseconds, should offline wait before retrying a failed request
      *
@@ -0,0 +1,62 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.android.async;
+
+import com.kinvey.android.AsyncClientRequest;
+import com.kinvey.android.sync.KinveyPushCallback;
+import com.kinvey.android.sync.KinveyPushResponse;
+import com.kinvey.java.AbstractClient;
+import com.kinvey.java.store.requests.data.PushAllRequest;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Class represents internal implementation of Async push request that pushes pending requests of all collections
+ */
+public class AsyncPushAllRequest extends AsyncClientRequest<KinveyPushResponse> {
+
+    private final AbstractClient client;
+    private final KinveyPushCallback callback;
+
+    /**
+     * Async push all request constructor
+     *
+     * @param client     Kinvey client instance to be used to execute network requests
+     * @param callback   async callbacks to be invoked when job is done
+     */
+    public AsyncPushAllRequest(AbstractClient client, KinveyPushCallback callback) {
+        super(callback);
+        this.client = client;
+        this.callback = callback;
+    }
+
+    @Override
+    protected KinveyPushResponse executeAsync() throws IOException, InvocationTargetException {
+        PushAllRequest.Result result = new PushAllRequest(client, client.getPushConcurrency(),
+                new PushAllRequest.ProgressListener() {
+            @Override
+            public void onProgress(long current, long all) {
+                callback.onProgress(current, all);
+            }
+        }).execute();
+        KinveyPushResponse pushResponse = new KinveyPushResponse();
+        pushResponse.setSuccessCount(result.getSuccessCount());
+        pushResponse.setListOfExceptions(result.getListOfExceptions());
+        return pushResponse;
+    }
+}
@@ -17,6 +17,7 @@
 package com.kinvey.android.async;
 
 import com.google.api.client.util.Preconditions;
+import com.google.common.base.Objects;
 import com.kinvey.android.AsyncClientRequest;
 import com.kinvey.android.sync.KinveyPushCallback;
 import com.kinvey.android.sync.KinveyPushResponse;
@@ -73,16 +74,38 @@ public class AsyncPushRequest extends AsyncClientRequest<KinveyPushResponse> {
         List<Exception> errors = new ArrayList<>();
         requests = manager.popSingleQueue(collection);
         int progress = 0;
+        //consecutive creates sharing custom headers are pushed with bulk requests
+        List<SyncRequest> created = new ArrayList<>();
 
-        for(SyncRequest syncRequest: requests){
+        for(int i = 0; i < requests.size(); i++){
+            SyncRequest syncRequest = requests.get(i);
 
-            try {
-                manager.executeRequest(client, syncRequest);
-                pushResponse.setSuccessCount(++progress);
-            } catch (AccessControlException | KinveyException e) { //TODO check Exception
-                errors.add(e);
-            } catch (Exception e) {
-                callback.onFailure(e);
+            if (isCreate(syncRequest)){
+                created.add(syncRequest);
+                SyncRequest next = i + 1 < requests.size() ? requests.get(i + 1) : null;
+                if (next != null && isCreate(next) && sameHeaders(syncRequest, next)){
+                    continue;
+                }
+                try {
+                    List<KinveyException> failures = manager.executeBatch(client, collection, created);
+                    errors.addAll(failures);
+                    progress += created.size() - failures.size();
+                    pushResponse.setSuccessCount(progress);
+                } catch (AccessControlException | KinveyException e) {
+                    errors.add(e);
+                } catch (Exception e) {
+                    callback.onFailure(e);
+                }
+                created.clear();
+            } else {
+                try {
+                    manager.executeRequest(client, syncRequest);
+                    pushResponse.setSuccessCount(++progress);
+                } catch (AccessControlException | KinveyException e) { //TODO check Exception
+                    errors.add(e);
+                } catch (Exception e) {
+                    callback.onFailure(e);
+                }
             }
 
 //            notify(pushResponse);
@@ -93,4 +116,13 @@ public class AsyncPushRequest extends AsyncClientRequest<KinveyPushResponse> {
         pushResponse.setListOfExceptions(errors);
         return pushResponse;
     }
+
+    private static boolean isCreate(SyncRequest request) {
+        return request.getHttpVerb() == SyncRequest.HttpVerb.POST && request.getEntityID().data != null;
+    }
+
+    private static boolean sameHeaders(SyncRequest lhs, SyncRequest rhs) {
+        return Objects.equal(lhs.getEntityID().customerVersion, rhs.getEntityID().customerVersion) &&
+                Objects.equal(lhs.getEntityID().customheader, rhs.getEntityID().customheader);
+    }
 }
@@ -23,11 +23,14 @@ import com.google.api.client.util.FieldInfo;
 import com.kinvey.java.model.KinveyMetaData;
 
 import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
@@ -35,14 +38,17 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.realm.DynamicRealm;
 import io.realm.DynamicRealmObject;
 import io.realm.FieldAttribute;
+import io.realm.RealmFieldType;
 import io.realm.RealmList;
 import io.realm.RealmObjectSchema;
 
@@ -156,7 +162,7 @@ public abstract class ClassHash {
             if (fieldInfo == null){
                 continue;
             }
-            if (fieldInfo.getType().isArray() || Collection.class.isAssignableFrom(fieldInfo.getType())){
+            if (isArrayOrCollection(fieldInfo.getType())){
 
                 Class underlying = getUnderlying(f);
 
@@ -195,9 +201,160 @@ public abstract class ClassHash {
 
     }
 
-    public static DynamicRealmObject saveData(String name, DynamicRealm realm, Class<? extends GenericJson> clazz, GenericJson obj) {
+    /**
+     * Update existing schema of the table to match the class in place, rows of the table are kept.
+     * Missing fields and nested tables are added, fields that are not declared anymore are removed
+     * together with their nested tables.
+     * NOTE: this method should be called within existing realm transaction
+     * @return false if type of an existing field was changed, schema is not modified and table should be recreated
+     */
+    public static boolean migrateScheme(String name, DynamicRealm realm, Class<? extends GenericJson> clazz){
+        if (!migrate(name, realm, clazz, false)){
+            return false;
+        }
+        migrate(name, realm, clazz, true);
+        return true;
+    }
 
-        Field[] fields = clazz.getDeclaredFields();
+    /**
+     * @param apply false to only check that existing fields are compatible with the class
+     */
+    private static boolean migrate(String name, DynamicRealm realm, Class<? extends GenericJson> clazz, boolean apply){
+        RealmObjectSchema schema = realm.getSchema().get(name);
+        if (schema == null){
+            if (apply){
+                createScheme(name, realm, clazz);
+            }
+            return true;
+        }
+        Set<String> declared = new HashSet<String>();
+        declared.add("_id");
+        declared.add(TTL_FIELD);
+
+        for (Field f : clazz.getDeclaredFields()){
+            FieldInfo fieldInfo = FieldInfo.of(f);
+            if (fieldInfo == null){
+                continue;
+            }
+            String field = fieldInfo.getName();
+            Class<? extends GenericJson> inner = null;
+            RealmFieldType expected;
+            if (isArrayOrCollection(fieldInfo.getType())){
+                Class underlying = getUnderlying(f);
+                if (underlying == null || !GenericJson.class.isAssignableFrom(underlying)){
+                    continue;
+                }
+                inner = underlying;
+                expected = RealmFieldType.LIST;
+            } else if (GenericJson.class.isAssignableFrom(fieldInfo.getType())){
+                inner = (Class<? extends GenericJson>) fieldInfo.getType();
+                expected = RealmFieldType.OBJECT;
+            } else {
+                expected = realmType(fieldInfo.getType());
+                if (expected == null || field.equals("_id")){
+                    continue;
+                }
+            }
+            declared.add(field);
+
+            if (schema.hasField(field)){
+                if (schema.getFieldType(field) != expected){
+                    return false;
+                }
+                if (inner != null){
+                    if (!migrate(name + "_" + field, realm, inner, apply)){
+                        return false;
+                    }
+                } else if (schema.isNullable(field) == fieldInfo.getType().isPrimitive()){
+                    return false;
+                }
+            } else if (apply){
+                if (inner == null){
+                    schema.addField(field, fieldInfo.getType());
+                } else {
+                    String innerName = name + "_" + field;
+                    migrate(innerName, realm, inner, true);
+                    if (expected == RealmFieldType.LIST){
+                        schema.addRealmListField(field, realm.getSchema().get(innerName));
+                    } else {
+                        schema.addRealmObjectField(field, realm.getSchema().get(innerName));
+                    }
+                }
+            }
+        }
+
+        if (!declared.contains("_kmd") && !name.endsWith("__kmd")){
+            declared.add("_kmd");
+            if (!migrate(name + "__kmd", realm, KinveyMetaData.class, apply)){
+                return false;
+            }
+            if (apply && !schema.hasField("_kmd")){
+                schema.addRealmObjectField("_kmd", realm.getSchema().get(name + "__kmd"));
+            }
+        }
+
+        if (apply){
+            for (String field : new ArrayList<String>(schema.getFieldNames())){
+                if (!declared.contains(field)){
+                    RealmFieldType type = schema.getFieldType(field);
+                    schema.removeField(field);
+                    if (type == RealmFieldType.OBJECT || type == RealmFieldType.LIST){
+                        removeScheme(name + "_" + field, realm);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove table with all its nested tables
+     */
+    private static void removeScheme(String name, DynamicRealm realm){
+        RealmObjectSchema schema = realm.getSchema().get(name);
+        if (schema == null){
+            return;
+        }
+        List<String> nested = new ArrayList<String>();
+        for (String field : schema.getFieldNames()){
+            RealmFieldType type = schema.getFieldType(field);
+            if (type == RealmFieldType.OBJECT || type == RealmFieldType.LIST){
+                nested.add(name + "_" + field);
+            }
+        }
+        if (schema.hasPrimaryKey()){
+            schema.removePrimaryKey();
+        }
+        realm.getSchema().remove(name);
+        for (String innerName : nested){
+            removeScheme(innerName, realm);
+        }
+    }
+
+    /**
+     * @return realm column type of allowed value class, null if values of the class are not stored
+     */
+    private static RealmFieldType realmType(Class type){
+        if (type == boolean.class || type == Boolean.class){
+            return RealmFieldType.BOOLEAN;
+        } else if (type == byte.class || type == short.class || type == int.class || type == long.class ||
+                type == Byte.class || type == Short.class || type == Integer.class || type == Long.class){
+            return RealmFieldType.INTEGER;
+        } else if (type == float.class || type == Float.class){
+            return RealmFieldType.FLOAT;
+        } else if (type == double.class || type == Double.class){
+            return RealmFieldType.DOUBLE;
+        } else if (type == String.class){
+            return RealmFieldType.STRING;
+        } else if (type == Date.class){
+            return RealmFieldType.DATE;
+        } else if (type == byte[].class){
+            return RealmFieldType.BINARY;
+        }
+        return null;
+    }
+
+    public static DynamicRealmObject saveData(String name, DynamicRealm realm, Class<? extends GenericJson> clazz, GenericJson obj) {
 
         DynamicRealmObject object = null;
 
@@ -226,50 +383,40 @@ public abstract class ClassHash {
         }
 
 
-        for (Field f : fields){
-            FieldInfo fieldInfo = FieldInfo.of(f);
-            if (fieldInfo == null){
-                continue;
-            }
-            if (isArrayOrCollection(f.getType()) && fieldInfo.getValue(obj) != null){
-                Class underlying = getUnderlying(f);
-                if (GenericJson.class.isAssignableFrom(underlying)){
-                    RealmList list = new RealmList();
-                    Object collection = fieldInfo.getValue(obj);
-                    if (f.getType().isArray()){
-                        for (int i = 0 ; i < Array.getLength(collection); i++){
-                            list.add(saveData(name + "_" + fieldInfo.getName(),
-                                    realm,
-                                    (Class<? extends GenericJson>)underlying,
-                                    (GenericJson) Array.get(collection, i)));
-                        }
-                    } else {
-                        for (GenericJson genericJson : ((Collection<? extends GenericJson>) collection)) {
-                            list.add(saveData(name + "_" + fieldInfo.getName(),
-                                    realm,
-                                    (Class<? extends GenericJson>) underlying,
-                                    genericJson));
+        for (FieldMapping field : MappingPlan.of(clazz).fields){
+            Object value = field.info.getValue(obj);
+            switch (field.kind){
+                case ARRAY:
+                case COLLECTION:
+                    if (value != null){
+                        RealmList list = new RealmList();
+                        String listName = name + "_" + field.name;
+                        if (field.kind == FieldMapping.Kind.ARRAY){
+                            for (int i = 0 ; i < Array.getLength(value); i++){
+                                list.add(saveData(listName, realm, field.underlying, (GenericJson) Array.get(value, i)));
+                            }
+                        } else {
+                            for (Object genericJson : (Collection) value) {
+                                list.add(saveData(listName, realm, field.underlying, (GenericJson) genericJson));
+                            }
                         }
+                        object.setList(field.name, list);
                     }
-                    object.setList(fieldInfo.getName(), list);
-
-                }
-            } else if (GenericJson.class.isAssignableFrom(fieldInfo.getType()) && fieldInfo.getValue(obj) != null){
-
-                DynamicRealmObject innerObject = saveData(name + "_" + fieldInfo.getName(),
-                        realm,
-                        (Class<? extends GenericJson>) fieldInfo.getType(),
-                        (GenericJson) obj.get(fieldInfo.getName()));
-                object.setObject(fieldInfo.getName(), innerObject);
-            } else {
-                if (!fieldInfo.getName().equals("_id")) {
-                    for (Class c : ALLOWED) {
-                        if (fieldInfo.getType().equals(c)) {
-                            object.set(fieldInfo.getName(), fieldInfo.getValue(obj));
-                            break;
-                        }
+                    break;
+                case OBJECT:
+                    if (value != null){
+                        DynamicRealmObject innerObject = saveData(name + "_" + field.name,
+                                realm,
+                                field.underlying,
+                                (GenericJson) value);
+                        object.setObject(field.name, innerObject);
+                    }
+                    break;
+                default:
+                    if ((field.kind == FieldMapping.Kind.VALUE || field.kind == FieldMapping.Kind.NUMBER)
+                            && !field.name.equals("_id")) {
+                        object.set(field.name, value);
                     }
-                }
             }
         }
         //set dynamic fields
@@ -303,19 +450,18 @@ public abstract class ClassHash {
         if (dynamic == null){
             return null;
         }
+        MappingPlan plan = MappingPlan.of(objectClass);
         T ret = null;
         try {
-            ret = objectClass.newInstance();
-
-            ClassInfo classInfo = ClassInfo.of(objectClass);
+            ret = plan.constructor != null ? (T) plan.constructor.newInstance() : objectClass.newInstance();
 
             for (String field : dynamic.getFieldNames()){
 
-                FieldInfo info = classInfo.getFieldInfo(field);
+                FieldMapping mapping = plan.byName.get(field);
 
                 Object o = dynamic.get(field);
 
-                if (info == null){
+                if (mapping == null){
                     //prevent private fields like "__ttl__" to be published
                     if (!PRIVATE_FIELDS.contains(field)){
                         if (o instanceof DynamicRealmObject){
@@ -327,47 +473,36 @@ public abstract class ClassHash {
                     continue;
                 }
 
-                if (Number.class.isAssignableFrom(info.getType())){
-                    Number n = (Number)dynamic.get(info.getName());
-                    if (Long.class.isAssignableFrom(info.getType())){
-                        ret.put(info.getName(), n.longValue());
-                    } else if (Byte.class.isAssignableFrom(info.getType())){
-                        ret.put(info.getName(), n.byteValue());
-                    } else if (Integer.class.isAssignableFrom(info.getType())){
-                        ret.put(info.getName(), n.intValue());
-                    } else if (Short.class.isAssignableFrom(info.getType())){
-                        ret.put(info.getName(), n.shortValue());
-                    } else if (Float.class.isAssignableFrom(info.getType())){
-                        ret.put(info.getName(), n.floatValue());
-                    } else if (Double.class.isAssignableFrom(info.getType())){
-                        ret.put(info.getName(), n.doubleValue());
+                switch (mapping.kind){
+                    case NUMBER:
+                        Number n = (Number) o;
+                        ret.put(mapping.name, n == null ? null : mapping.convert(n));
+                        break;
+                    case OBJECT:
+                        ret.put(mapping.name, realmToObject(dynamic.getObject(mapping.name), mapping.underlying));
+                        break;
+                    case ARRAY: {
+                        RealmList<DynamicRealmObject> list = dynamic.getList(mapping.name);
+                        GenericJson[] array = (GenericJson[])Array.newInstance(mapping.underlying, list.size());
+                        for (int i = 0 ; i < list.size(); i++){
+                            array[i] = realmToObject(list.get(i), mapping.underlying);
+                        }
+                        ret.put(mapping.name, array);
+                        break;
                     }
-
-                } else if (GenericJson.class.isAssignableFrom(info.getType())) {
-                    ret.put(info.getName(), realmToObject(dynamic.getObject(info.getName()),
-                            (Class<? extends GenericJson>)info.getType()));
-                } else if (isArrayOrCollection(info.getType())){
-                    Class underlying = getUnderlying(info.getField());
-                    if (underlying != null && GenericJson.class.isAssignableFrom(underlying)){
-                        RealmList<DynamicRealmObject> list = dynamic.getList(info.getName());
-                        if (info.getType().isArray()){
-                            GenericJson[] array = (GenericJson[])Array.newInstance(underlying, list.size());
-                            for (int i = 0 ; i < list.size(); i++){
-                                array[i] = realmToObject(list.get(i), underlying);
-                            }
-                            ret.put(info.getName(), array);
-                        } else {
-                            Collection<Object> c = Data.newCollectionInstance(info.getType());
-                            for (int i = 0 ; i < list.size(); i++){
-                                c.add(realmToObject(list.get(i), underlying));
-                            }
-                            ret.put(info.getName(), c);
-
+                    case COLLECTION: {
+                        RealmList<DynamicRealmObject> list = dynamic.getList(mapping.name);
+                        Collection<Object> c = Data.newCollectionInstance(mapping.info.getType());
+                        for (int i = 0 ; i < list.size(); i++){
+                            c.add(realmToObject(list.get(i), mapping.underlying));
                         }
-
+                        ret.put(mapping.name, c);
+                        break;
                     }
-                } else {
-                    ret.put(info.getName(), o);
+                    case SKIP:
+                        break;
+                    default:
+                        ret.put(mapping.name, o);
                 }
 
             }
@@ -378,6 +513,8 @@ public abstract class ClassHash {
             e.printStackTrace();
         } catch (IllegalAccessException e) {
             e.printStackTrace();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
         }
         return ret;
     }
@@ -402,8 +539,139 @@ public abstract class ClassHash {
         return allowed;
     }
 
+    /**
+     * Mapping of a single field between entity class and realm object
+     */
+    private static class FieldMapping {
+
+        enum Kind {
+            //allowed value stored as is
+            VALUE,
+            //value that is not stored, but is published if realm object has such field
+            OTHER,
+            //boxed number that realm returns with its own width
+            NUMBER,
+            OBJECT,
+            ARRAY,
+            COLLECTION,
+            //field that is not stored in realm
+            SKIP
+        }
+
+        final FieldInfo info;
+        final String name;
+        final Kind kind;
+        final Class<? extends GenericJson> underlying;
+        final Class type;
+
+        FieldMapping(FieldInfo info, Kind kind, Class<? extends GenericJson> underlying) {
+            this.info = info;
+            this.name = info.getName();
+            this.kind = kind;
+            this.underlying = underlying;
+            this.type = info.getType();
+        }
+
+        Object convert(Number n){
+            if (type == Long.class){
+                return n.longValue();
+            } else if (type == Byte.class){
+                return n.byteValue();
+            } else if (type == Integer.class){
+                return n.intValue();
+            } else if (type == Short.class){
+                return n.shortValue();
+            } else if (type == Float.class){
+                return n.floatValue();
+            } else {
+                return n.doubleValue();
+            }
+        }
+    }
+
+    /**
+     * Field mappings of an entity class, computed once per class instead of reflecting on every object
+     */
+    private static class MappingPlan {
+
+        private static final ConcurrentHashMap<Class, MappingPlan> PLANS = new ConcurrentHashMap<Class, MappingPlan>();
+
+        final FieldMapping[] fields;
+        final HashMap<String, FieldMapping> byName = new HashMap<String, FieldMapping>();
+        final Constructor constructor;
+
+        private MappingPlan(Class<? extends GenericJson> clazz) {
+            ArrayList<FieldMapping> mappings = new ArrayList<FieldMapping>();
+            for (Field f : clazz.getDeclaredFields()){
+                FieldInfo fieldInfo = FieldInfo.of(f);
+                if (fieldInfo != null){
+                    FieldMapping mapping = mapping(fieldInfo);
+                    mappings.add(mapping);
+                    byName.put(mapping.name, mapping);
+                }
+            }
+            //realm objects of the class may have fields declared by superclasses as well
+            for (String name : ClassInfo.of(clazz).getNames()){
+                if (!byName.containsKey(name)){
+                    byName.put(name, mapping(ClassInfo.of(clazz).getFieldInfo(name)));
+                }
+            }
+            fields = mappings.toArray(new FieldMapping[mappings.size()]);
+            Constructor c = null;
+            try {
+                c = clazz.getDeclaredConstructor();
+                c.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                e.printStackTrace();
+            }
+            constructor = c;
+        }
+
+        static MappingPlan of(Class<? extends GenericJson> clazz) {
+            MappingPlan plan = PLANS.get(clazz);
+            if (plan == null){
+                plan = new MappingPlan(clazz);
+                MappingPlan existing = PLANS.putIfAbsent(clazz, plan);
+                if (existing != null){
+                    plan = existing;
+                }
+            }
+            return plan;
+        }
+
+        private static FieldMapping mapping(FieldInfo info) {
+            Class type = info.getType();
+            if (isArrayOrCollection(type)){
+                Class underlying = type.isArray() || info.getField().getGenericType() instanceof ParameterizedType
+                        ? getUnderlying(info.getField())
+                        : null;
+                if (underlying != null && GenericJson.class.isAssignableFrom(underlying)){
+                    return new FieldMapping(info, type.isArray() ? FieldMapping.Kind.ARRAY : FieldMapping.Kind.COLLECTION,
+                            (Class<? extends GenericJson>) underlying);
+                }
+                return new FieldMapping(info, FieldMapping.Kind.SKIP, null);
+            } else if (GenericJson.class.isAssignableFrom(type)){
+                return new FieldMapping(info, FieldMapping.Kind.OBJECT, (Class<? extends GenericJson>) type);
+            } else if (Number.class.isAssignableFrom(type)){
+                //other Number implementations could not be stored
+                boolean boxed = type == Long.class || type == Byte.class || type == Integer.class ||
+                        type == Short.class || type == Float.class || type == Double.class;
+                return new FieldMapping(info, boxed ? FieldMapping.Kind.NUMBER : FieldMapping.Kind.SKIP, null);
+            }
+            for (Class c : ALLOWED) {
+                if (type.equals(c)) {
+                    return new FieldMapping(info, FieldMapping.Kind.VALUE, null);
+                }
+            }
+            return new FieldMapping(info, FieldMapping.Kind.OTHER, null);
+        }
+    }
+
+    /**
+     * @return true if values of the class are stored as a list of nested objects, byte[] is a binary column
+     */
     private static boolean isArrayOrCollection(Class clazz){
-        return clazz.isArray() || Collection.class.isAssignableFrom(clazz);
+        return (clazz.isArray() && clazz != byte[].class) || Collection.class.isAssignableFrom(clazz);
     }
 
 
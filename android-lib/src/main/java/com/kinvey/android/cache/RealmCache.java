@@ -18,22 +18,29 @@ package com.kinvey.android.cache;
 
 import com.google.api.client.json.GenericJson;
 import com.kinvey.java.Query;
+import com.kinvey.java.cache.CacheBatch;
 import com.kinvey.java.cache.ICache;
+import com.kinvey.java.cache.ICacheCursor;
+import com.kinvey.java.cache.IndexType;
+import com.kinvey.java.cache.QueryMatcher;
+import com.kinvey.java.cache.SweepStats;
 import com.kinvey.java.query.AbstractQuery;
 import com.kinvey.java.query.MongoQueryFilter;
 import com.kinvey.java.sync.dto.SyncRequest;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import io.realm.DynamicRealm;
 import io.realm.DynamicRealmObject;
 import io.realm.FieldAttribute;
+import io.realm.RealmFieldType;
 import io.realm.RealmObjectSchema;
 import io.realm.RealmQuery;
 import io.realm.RealmResults;
@@ -60,170 +67,260 @@ public class RealmCache<T extends GenericJson> implements ICache<T> {
     @Override
     public List<T> get(Query query) {
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
-        RealmQuery<DynamicRealmObject> realmQuery = mRealm.where(mCollection)
-                .greaterThanOrEqualTo(ClassHash.TTL_FIELD, Calendar.getInstance().getTimeInMillis());
-        QueryHelper.prepareRealmQuery(realmQuery, query.getQueryFilterMap());
-
-        RealmResults<DynamicRealmObject> objects = null;
-
-        final Map<String, AbstractQuery.SortOrder> sortingOrders = query.getSort();
         int limit = query.getLimit();
-        int skip = query.getSkip();
-
-        objects = realmQuery.findAll();
+        int skip = Math.max(query.getSkip(), 0);
 
         List<T> ret = new ArrayList<T>();
+        try {
+            RealmResults<DynamicRealmObject> objects = findAll(mRealm, query);
+            int[] order = sortedPositions(mRealm, objects, query.getSort());
 
-        for (Iterator<DynamicRealmObject> iterator = objects.iterator(); iterator.hasNext(); ){
-            DynamicRealmObject obj = iterator.next();
-            ret.add(ClassHash.realmToObject(obj, mCollectionItemClass));
+            //only requested page is converted to entities
+            int end = limit > 0 ? (int) Math.min((long) skip + limit, objects.size()) : objects.size();
+            for (int i = skip; i < end; i++){
+                ret.add(ClassHash.realmToObject(objects.get(order != null ? order[i] : i), mCollectionItemClass));
+            }
+        } finally {
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
+        return ret;
+    }
 
-        //own sorting implementation
-        if (sortingOrders != null && sortingOrders.size() > 0) {
-            Collections.sort(ret, new Comparator<T>() {
-                @Override
-                public int compare(T lhs, T rhs) {
-                    int sortRet = 0;
-
-                    for (Map.Entry<String, AbstractQuery.SortOrder> sortOrderEntry : sortingOrders.entrySet()){
-                        String fieldName = sortOrderEntry.getKey();
-                        String[] path = fieldName.split("\\.");
-                        int pathStep = 0;
-                        Map currentLhsPathObject = lhs;
-                        Map currentRhsPathObject = rhs;
-                        while (pathStep < path.length - 1){
-                            if (currentLhsPathObject != null &&
-                                    currentLhsPathObject.containsKey(path[pathStep]) &&
-                                    Map.class.isAssignableFrom(currentLhsPathObject.get(path[pathStep]).getClass())){
-                                currentLhsPathObject = (Map)currentLhsPathObject.get(path[pathStep]);
-                            } else {
-                                currentLhsPathObject = null;
-                            }
+    /**
+     * Realm instance is kept open until cursor is closed, so cursor should be used and closed
+     * on the thread it was created on
+     */
+    @Override
+    public ICacheCursor<T> iterate(Query query) {
+        final DynamicRealm mRealm = mCacheManager.getDynamicRealm();
+        final RealmResults<DynamicRealmObject> objects;
+        final int[] order;
+        try {
+            objects = findAll(mRealm, query);
+            order = sortedPositions(mRealm, objects, query.getSort());
+        } catch (RuntimeException e){
+            mCacheManager.releaseDynamicRealm(mRealm);
+            throw e;
+        }
+        final int skip = Math.max(query.getSkip(), 0);
+        final int end = query.getLimit() > 0 ? (int) Math.min((long) skip + query.getLimit(), objects.size()) : objects.size();
 
-                            if (currentRhsPathObject != null &&
-                                    currentRhsPathObject.containsKey(path[pathStep]) &&
-                                    Map.class.isAssignableFrom(currentRhsPathObject.get(path[pathStep]).getClass())){
-                                currentRhsPathObject = (Map)currentRhsPathObject.get(path[pathStep]);
-                            } else {
-                                currentRhsPathObject = null;
-                            }
-                            pathStep++;
-                        }
+        return new ICacheCursor<T>() {
+            private int position = skip;
+            private boolean closed;
 
+            @Override
+            public boolean hasNext() {
+                return !closed && position < end;
+            }
 
-                        Object l = currentLhsPathObject != null ? currentLhsPathObject.get(path[path.length - 1]) : null;
-                        Object r = currentRhsPathObject != null ? currentRhsPathObject.get(path[path.length - 1]) : null;
+            @Override
+            public T next() {
+                if (!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                int i = position++;
+                return ClassHash.realmToObject(objects.get(order != null ? order[i] : i), mCollectionItemClass);
+            }
 
-                        if (Comparable.class.isAssignableFrom(l.getClass())){
-                            sortRet = (sortOrderEntry.getValue().equals(Sort.DESCENDING) ? 1 : -1) * ((Comparable)l).compareTo(r);
-                        }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
 
-                        if (sortRet != 0){
-                            break;
-                        }
+            @Override
+            public void close() {
+                if (!closed){
+                    closed = true;
+                    mCacheManager.releaseDynamicRealm(mRealm);
+                }
+            }
+        };
+    }
 
-                    }
+    /**
+     * @return not expired objects matching the query, sorted by realm if it is able to sort them
+     */
+    private RealmResults<DynamicRealmObject> findAll(DynamicRealm mRealm, Query query){
+        RealmQuery<DynamicRealmObject> realmQuery = mRealm.where(mCollection)
+                .greaterThanOrEqualTo(ClassHash.TTL_FIELD, Calendar.getInstance().getTimeInMillis());
+        QueryHelper.prepareRealmQuery(realmQuery, query.getQueryFilterMap());
 
-                    return sortRet;
-                }
-            });
+        Map<String, AbstractQuery.SortOrder> sortingOrders = query.getSort();
+        if (sortingOrders == null || sortingOrders.isEmpty() || !isNativeSort(mRealm, sortingOrders)){
+            return realmQuery.findAll();
         }
+        String[] fields = sortingOrders.keySet().toArray(new String[sortingOrders.size()]);
+        Sort[] orders = new Sort[fields.length];
+        for (int i = 0; i < fields.length; i++){
+            orders[i] = sortingOrders.get(fields[i]) == AbstractQuery.SortOrder.DESC
+                    ? Sort.DESCENDING : Sort.ASCENDING;
+        }
+        return realmQuery.findAllSorted(fields, orders);
+    }
 
-
-        //own skipping implementation
-        if (skip > 0) {
-            for (int i = 0; i < skip; i++) {
-                if (ret.size() > 0) {
-                    ret.remove(0);
-                }
+    /**
+     * Realm sorts only by own fields of the table with simple types
+     */
+    private boolean isNativeSort(DynamicRealm realm, Map<String, AbstractQuery.SortOrder> sortingOrders){
+        RealmObjectSchema schema = realm.getSchema().get(mCollection);
+        if (schema == null){
+            return false;
+        }
+        for (String field : sortingOrders.keySet()){
+            if (field.contains(".") || !schema.hasField(field)){
+                return false;
+            }
+            RealmFieldType type = schema.getFieldType(field);
+            if (type == RealmFieldType.OBJECT || type == RealmFieldType.LIST || type == RealmFieldType.BINARY){
+                return false;
             }
         }
+        return true;
+    }
 
+    /**
+     * Sorts results by nested fields, only sort keys are read from realm
+     * @return positions of results in sorted order, or null if results are already in requested order
+     */
+    private int[] sortedPositions(DynamicRealm realm, RealmResults<DynamicRealmObject> objects,
+                                  Map<String, AbstractQuery.SortOrder> sortingOrders){
+        if (sortingOrders == null || sortingOrders.isEmpty() || isNativeSort(realm, sortingOrders)){
+            return null;
+        }
+        final String[][] paths = new String[sortingOrders.size()][];
+        final boolean[] descending = new boolean[paths.length];
+        int p = 0;
+        for (Map.Entry<String, AbstractQuery.SortOrder> entry : sortingOrders.entrySet()){
+            paths[p] = entry.getKey().split("\\.");
+            descending[p++] = entry.getValue() == AbstractQuery.SortOrder.DESC;
+        }
 
-        //own limit implementation
-        if (limit > 0 && ret.size() > limit) {
-            ret = ret.subList(0, limit);
+        final Object[][] keys = new Object[objects.size()][];
+        Integer[] positions = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++){
+            DynamicRealmObject obj = objects.get(i);
+            keys[i] = new Object[paths.length];
+            for (int k = 0; k < paths.length; k++){
+                keys[i][k] = getValue(obj, paths[k]);
+            }
+            positions[i] = i;
         }
 
-        mRealm.close();
+        Arrays.sort(positions, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                for (int k = 0; k < paths.length; k++){
+                    int ret = QueryMatcher.compare(keys[lhs][k], keys[rhs][k]);
+                    if (ret != 0){
+                        return descending[k] ? -ret : ret;
+                    }
+                }
+                return 0;
+            }
+        });
+
+        int[] ret = new int[positions.length];
+        for (int i = 0; i < ret.length; i++){
+            ret[i] = positions[i];
+        }
         return ret;
     }
 
+    private static Object getValue(DynamicRealmObject obj, String[] path){
+        for (int i = 0; i < path.length; i++){
+            if (obj == null || !obj.hasField(path[i]) || obj.isNull(path[i])){
+                return null;
+            }
+            RealmFieldType type = obj.getFieldType(path[i]);
+            if (i == path.length - 1){
+                return type == RealmFieldType.OBJECT || type == RealmFieldType.LIST ? null : obj.get(path[i]);
+            }
+            obj = type == RealmFieldType.OBJECT ? obj.getObject(path[i]) : null;
+        }
+        return null;
+    }
+
     @Override
     public List<T> get(Iterable<String> ids) {
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
-
-        List<T> ret = new ArrayList<T>();
-        mRealm.beginTransaction();
         try {
-            RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection)
-                    .greaterThanOrEqualTo(ClassHash.TTL_FIELD, Calendar.getInstance().getTimeInMillis())
-                    .beginGroup();
-            Iterator<String> iterator = ids.iterator();
-            if (iterator.hasNext()) {
-                query.equalTo("_id", iterator.next());
-                while (iterator.hasNext()) {
-                    String id = iterator.next();
-                    query.or().equalTo("_id", id);
+            List<T> ret = new ArrayList<T>();
+            mRealm.beginTransaction();
+            try {
+                RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection)
+                        .greaterThanOrEqualTo(ClassHash.TTL_FIELD, Calendar.getInstance().getTimeInMillis())
+                        .beginGroup();
+                Iterator<String> iterator = ids.iterator();
+                if (iterator.hasNext()) {
+                    query.equalTo("_id", iterator.next());
+                    while (iterator.hasNext()) {
+                        String id = iterator.next();
+                        query.or().equalTo("_id", id);
+                    }
                 }
-            }
-            query.endGroup();
+                query.endGroup();
 
-            RealmResults<DynamicRealmObject> objects = query.findAll();
+                RealmResults<DynamicRealmObject> objects = query.findAll();
 
-            for (DynamicRealmObject obj : objects) {
-                ret.add(ClassHash.realmToObject(obj, mCollectionItemClass));
+                for (DynamicRealmObject obj : objects) {
+                    ret.add(ClassHash.realmToObject(obj, mCollectionItemClass));
+                }
+            } finally {
+                mRealm.commitTransaction();
             }
+            return ret;
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
-        mRealm.close();
-        return ret;
     }
 
     @Override
     public T get(String id) {
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
-
-        T ret;
-        mRealm.beginTransaction();
         try {
-            DynamicRealmObject obj = mRealm.where(mCollection)
-                    .equalTo("_id", id)
-                    .greaterThanOrEqualTo(ClassHash.TTL_FIELD, Calendar.getInstance().getTimeInMillis())
-                    .findFirst();
-             ret = obj == null ? null : ClassHash.realmToObject(obj, mCollectionItemClass);
+            T ret;
+            mRealm.beginTransaction();
+            try {
+                DynamicRealmObject obj = mRealm.where(mCollection)
+                        .equalTo("_id", id)
+                        .greaterThanOrEqualTo(ClassHash.TTL_FIELD, Calendar.getInstance().getTimeInMillis())
+                        .findFirst();
+                 ret = obj == null ? null : ClassHash.realmToObject(obj, mCollectionItemClass);
+            } finally {
+                mRealm.commitTransaction();
+            }
+            return ret;
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
-        mRealm.close();
-        return ret;
     }
 
 
     @Override
     public List<T> get() {
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
-
-        List<T> ret = new ArrayList<T>();
-        mRealm.beginTransaction();
         try {
-            RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection)
-                    .greaterThanOrEqualTo(ClassHash.TTL_FIELD, Calendar.getInstance().getTimeInMillis());
+            List<T> ret = new ArrayList<T>();
+            mRealm.beginTransaction();
+            try {
+                RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection)
+                        .greaterThanOrEqualTo(ClassHash.TTL_FIELD, Calendar.getInstance().getTimeInMillis());
 
-            RealmResults<DynamicRealmObject> objects = query
-                    .findAll();
+                RealmResults<DynamicRealmObject> objects = query
+                        .findAll();
 
-            for (DynamicRealmObject obj : objects) {
-                ret.add(ClassHash.realmToObject(obj, mCollectionItemClass));
-            }
+                for (DynamicRealmObject obj : objects) {
+                    ret.add(ClassHash.realmToObject(obj, mCollectionItemClass));
+                }
 
+            } finally {
+                mRealm.commitTransaction();
+            }
+            return ret;
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
-        mRealm.close();
-        return ret;
     }
 
 
@@ -231,19 +328,21 @@ public class RealmCache<T extends GenericJson> implements ICache<T> {
     @Override
     public List<T> save(Iterable<T> items) {
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
-
-        mRealm.beginTransaction();
-        List<T> ret = new ArrayList<T>();
-        try{
-            for (T item : items){
-                item.put("_id", insertOrUpdate(item, mRealm));
-                ret.add(item);
+        try {
+            mRealm.beginTransaction();
+            List<T> ret = new ArrayList<T>();
+            try{
+                for (T item : items){
+                    item.put("_id", insertOrUpdate(item, mRealm));
+                    ret.add(item);
+                }
+            } finally {
+                mRealm.commitTransaction();
             }
+            return ret;
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
-        mRealm.close();
-        return ret;
     }
 
 
@@ -251,92 +350,154 @@ public class RealmCache<T extends GenericJson> implements ICache<T> {
     @Override
     public T save(T item) {
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
+        try {
+            String ret = null;
+            mRealm.beginTransaction();
+            try{
+                item.put("_id", insertOrUpdate(item, mRealm));
 
-        String ret = null;
-        mRealm.beginTransaction();
-        try{
-            item.put("_id", insertOrUpdate(item, mRealm));
-
+            } finally {
+                mRealm.commitTransaction();
+            }
+            return item;
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
-        mRealm.close();
-        return item;
     }
 
     @Override
-    public int delete(Query query) {
-        DynamicRealm mRealm = mCacheManager.getDynamicRealm();
-
-        RealmQuery<DynamicRealmObject> realmQuery = mRealm.where(mCollection);
-        QueryHelper.prepareRealmQuery(realmQuery, query.getQueryFilterMap());
+    public List<T> replace(Query query, Iterable<T> items) {
+        return execute(new CacheBatch<T>().delete(query).save(items));
+    }
 
-        mRealm.beginTransaction();
+    @Override
+    public List<T> execute(CacheBatch<T> batch) {
+        DynamicRealm mRealm = mCacheManager.getDynamicRealm();
 
-        int ret = 0;
+        List<T> ret = new ArrayList<T>();
         try {
-            RealmResults result = realmQuery.findAll();
-
-            ret = result.size();
-            result.deleteAllFromRealm();
+            mRealm.beginTransaction();
+            try{
+                for (CacheBatch.Operation<T> operation : batch.getOperations()){
+                    switch (operation.getType()){
+                        case DELETE_QUERY:
+                            delete(mRealm, operation.getQuery());
+                            break;
+                        case DELETE_IDS:
+                            delete(mRealm, operation.getIds());
+                            break;
+                        case SAVE:
+                            for (T item : operation.getItems()){
+                                item.put("_id", insertOrUpdate(item, mRealm));
+                                ret.add(item);
+                            }
+                            break;
+                    }
+                }
+                mRealm.commitTransaction();
+            } catch (RuntimeException e) {
+                //batch is applied as a whole or not at all
+                mRealm.cancelTransaction();
+                throw e;
+            }
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
-        mRealm.close();
-
         return ret;
+    }
 
+    @Override
+    public int delete(Query query) {
+        DynamicRealm mRealm = mCacheManager.getDynamicRealm();
+        try {
+            mRealm.beginTransaction();
+
+            int ret = 0;
+            try {
+                ret = delete(mRealm, query);
+            } finally {
+                mRealm.commitTransaction();
+            }
+            return ret;
+        } finally {
+            mCacheManager.releaseDynamicRealm(mRealm);
+        }
     }
 
     @Override
     public int delete(Iterable<String> ids) {
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
+        try {
+            int ret = 0;
 
-        int ret = 0;
-
-        mRealm.beginTransaction();
-        try{
-            RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection)
-                    .beginGroup();
-            Iterator<String> iterator = ids.iterator();
-            if (iterator.hasNext()){
-                query.equalTo("_id", iterator.next());
-                for ( ; iterator.hasNext(); ){
-                    query.or().equalTo("_id", iterator.next());
-                }
-
+            mRealm.beginTransaction();
+            try{
+                ret = delete(mRealm, ids);
+            } finally {
+                mRealm.commitTransaction();
             }
-            query.endGroup();
-
-            RealmResults result = query.findAll();
-            ret = result.size();
-            result.deleteAllFromRealm();
+            return ret;
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
-        mRealm.close();
+    }
+
+    /**
+     * NOTE: should be called inside of transaction
+     */
+    private int delete(DynamicRealm mRealm, Query query){
+        RealmQuery<DynamicRealmObject> realmQuery = mRealm.where(mCollection);
+        QueryHelper.prepareRealmQuery(realmQuery, query.getQueryFilterMap());
+
+        RealmResults result = realmQuery.findAll();
+        int ret = result.size();
+        result.deleteAllFromRealm();
+        return ret;
+    }
+
+    /**
+     * NOTE: should be called inside of transaction
+     */
+    private int delete(DynamicRealm mRealm, Iterable<String> ids){
+        Iterator<String> iterator = ids.iterator();
+        if (!iterator.hasNext()){
+            return 0;
+        }
+        RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection)
+                .beginGroup();
+        query.equalTo("_id", iterator.next());
+        for ( ; iterator.hasNext(); ){
+            query.or().equalTo("_id", iterator.next());
+        }
+        query.endGroup();
+
+        RealmResults result = query.findAll();
+        int ret = result.size();
+        result.deleteAllFromRealm();
         return ret;
     }
 
     @Override
     public int delete(String id) {
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
-
-        mRealm.beginTransaction();
-
-        int ret = 0;
-
-        try{
-            RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection)
-                    .equalTo("_id", id);
-            RealmResults realmResults = query.findAll();
-            ret = realmResults.size();
-            realmResults.deleteAllFromRealm();
+        try {
+            mRealm.beginTransaction();
+
+            int ret = 0;
+
+            try{
+                RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection)
+                        .equalTo("_id", id);
+                RealmResults realmResults = query.findAll();
+                ret = realmResults.size();
+                realmResults.deleteAllFromRealm();
+            } finally {
+                mRealm.commitTransaction();
+            }
+            return ret;
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
-        mRealm.close();
-        return ret;
     }
 
     public String getCollection() {
@@ -345,73 +506,139 @@ public class RealmCache<T extends GenericJson> implements ICache<T> {
 
     public void clear(){
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
-
-        mRealm.beginTransaction();
         try {
-            mRealm.where(mCollection)
-                    .findAll()
-                    .deleteAllFromRealm();
+            mRealm.beginTransaction();
+            try {
+                mRealm.where(mCollection)
+                        .findAll()
+                        .deleteAllFromRealm();
+            } finally {
+                mRealm.commitTransaction();
+            }
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
-        mRealm.close();
     }
 
+    /**
+     * Realm does not report size of rows, removed bytes are estimated from the values of own fields of the rows
+     */
     @Override
-    public T getFirst() {
-        DynamicRealm mRealm = mCacheManager.getDynamicRealm();;
-
-        T ret = null;
-
-        mRealm.beginTransaction();
-        try{
-            DynamicRealmObject obj = mRealm.where(mCollection).findFirst();
-            if (obj != null){
-                ret = ClassHash.realmToObject(obj, mCollectionItemClass);
+    public SweepStats deleteExpired(int limit) {
+        DynamicRealm mRealm = mCacheManager.getDynamicRealm();
+        try {
+            int ret = 0;
+            long bytes = 0;
+            mRealm.beginTransaction();
+            try {
+                RealmResults<DynamicRealmObject> expired = mRealm.where(mCollection)
+                        .lessThan(ClassHash.TTL_FIELD, Calendar.getInstance().getTimeInMillis())
+                        .findAll();
+                while (ret < limit && !expired.isEmpty()){
+                    bytes += estimateSize(expired.last());
+                    expired.deleteLastFromRealm();
+                    ret++;
+                }
+                mRealm.commitTransaction();
+            } catch (RuntimeException e) {
+                mRealm.cancelTransaction();
+                throw e;
             }
+            return new SweepStats(ret, bytes);
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
+    }
 
+    private static long estimateSize(DynamicRealmObject obj){
+        long ret = 0;
+        for (String field : obj.getFieldNames()){
+            switch (obj.getFieldType(field)){
+                case STRING:
+                    ret += obj.isNull(field) ? 0 : obj.getString(field).length();
+                    break;
+                case BINARY:
+                    ret += obj.isNull(field) ? 0 : obj.getBlob(field).length;
+                    break;
+                case BOOLEAN:
+                    ret += 1;
+                    break;
+                case FLOAT:
+                    ret += 4;
+                    break;
+                default:
+                    //numbers, dates and links
+                    ret += 8;
+            }
+        }
         return ret;
     }
 
     @Override
-    public T getFirst(Query q) {
+    public T getFirst() {
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
+        try {
+            T ret = null;
 
-        T ret = null;
-
-        mRealm.beginTransaction();
-        try{
-            RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection);
-            QueryHelper.prepareRealmQuery(query, q.getQueryFilterMap());
-            DynamicRealmObject obj = query.findFirst();
-            if (obj != null){
-                ret = ClassHash.realmToObject(obj, mCollectionItemClass);
+            mRealm.beginTransaction();
+            try{
+                DynamicRealmObject obj = mRealm.where(mCollection).findFirst();
+                if (obj != null){
+                    ret = ClassHash.realmToObject(obj, mCollectionItemClass);
+                }
+            } finally {
+                mRealm.commitTransaction();
             }
+
+            return ret;
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
+    }
 
-        return ret;
+    @Override
+    public T getFirst(Query q) {
+        DynamicRealm mRealm = mCacheManager.getDynamicRealm();
+        try {
+            T ret = null;
+
+            mRealm.beginTransaction();
+            try{
+                RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection);
+                QueryHelper.prepareRealmQuery(query, q.getQueryFilterMap());
+                DynamicRealmObject obj = query.findFirst();
+                if (obj != null){
+                    ret = ClassHash.realmToObject(obj, mCollectionItemClass);
+                }
+            } finally {
+                mRealm.commitTransaction();
+            }
+
+            return ret;
+        } finally {
+            mCacheManager.releaseDynamicRealm(mRealm);
+        }
     }
 
     @Override
     public long count(Query q) {
         DynamicRealm mRealm = mCacheManager.getDynamicRealm();
-        long ret = 0;
+        try {
+            long ret = 0;
 
-        mRealm.beginTransaction();
-        try{
-            RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection);
-            QueryHelper.prepareRealmQuery(query, q.getQueryFilterMap());
-            ret = query.count();
+            mRealm.beginTransaction();
+            try{
+                RealmQuery<DynamicRealmObject> query = mRealm.where(mCollection);
+                QueryHelper.prepareRealmQuery(query, q.getQueryFilterMap());
+                ret = query.count();
 
+            } finally {
+                mRealm.commitTransaction();
+            }
+            return ret;
         } finally {
-            mRealm.commitTransaction();
+            mCacheManager.releaseDynamicRealm(mRealm);
         }
-        return ret;
     }
 
     public Class<T> getCollectionItemClass() {
@@ -448,6 +675,39 @@ public class RealmCache<T extends GenericJson> implements ICache<T> {
         this.ttl = ttl > 0 ? ttl : 0;
     }
 
+    /**
+     * Realm keeps single search index type, it is used for both hash and sorted index declarations,
+     * fields of types that could not be indexed by Realm are ignored
+     */
+    @Override
+    public void createIndex(String field, IndexType type) {
+        DynamicRealm mRealm = mCacheManager.getDynamicRealm();
+        try {
+            mRealm.beginTransaction();
+            try {
+                //nested objects are stored in tables named after parent table and field
+                String[] path = field.split("\\.");
+                String table = mCollection;
+                for (int i = 0; i < path.length - 1; i++){
+                    table = table + "_" + path[i];
+                }
+                String name = path[path.length - 1];
+                RealmObjectSchema schema = mRealm.getSchema().get(table);
+                if (schema != null && schema.hasField(name) && !schema.hasIndex(name)){
+                    try {
+                        schema.addIndex(name);
+                    } catch (IllegalArgumentException e){
+                        //field type does not support indexing
+                    }
+                }
+            } finally {
+                mRealm.commitTransaction();
+            }
+        } finally {
+            mCacheManager.releaseDynamicRealm(mRealm);
+        }
+    }
+
     private long getItemExpireTime(){
         long currentTime = Calendar.getInstance().getTimeInMillis();
         return currentTime + ttl < 0 ? Long.MAX_VALUE : currentTime + ttl;
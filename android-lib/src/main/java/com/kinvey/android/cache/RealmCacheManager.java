@@ -23,12 +23,16 @@ import com.google.api.client.json.GenericJson;
 import com.kinvey.android.Client;
 import com.kinvey.java.AbstractClient;
 import com.kinvey.java.KinveyException;
+import com.kinvey.java.cache.ExpirySweeper;
 import com.kinvey.java.cache.ICache;
 import com.kinvey.java.cache.ICacheManager;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.realm.DynamicRealm;
 import io.realm.DynamicRealmObject;
@@ -48,8 +52,30 @@ public class RealmCacheManager implements ICacheManager {
     private String prefix = "";
 
 
+    //cache of the class that was registered first for the collection, guarded by LOCK
     private HashMap<String, RealmCache> mCacheMap = new HashMap<String, RealmCache>();
+    //cache instances by collection, item class and ttl, read without locking
+    private final ConcurrentHashMap<String, RealmCache> mInstances = new ConcurrentHashMap<String, RealmCache>();
+    //tables of realm files that were checked against class hash by this process
+    private static final Set<String> VERIFIED_TABLES = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     private static final Object LOCK = new Object();
+    private final ExpirySweeper sweeper = new ExpirySweeper();
+
+    private final ThreadLocal<Handle> handles = new ThreadLocal<Handle>();
+    private volatile RealmConfiguration configuration;
+    private volatile boolean initialized;
+
+    /**
+     * Realm instance of a thread with the number of operations using it
+     */
+    private static class Handle {
+        final DynamicRealm realm;
+        int refs;
+
+        Handle(DynamicRealm realm){
+            this.realm = realm;
+        }
+    }
 
 
     public RealmCacheManager(Client client){
@@ -65,80 +91,143 @@ public class RealmCacheManager implements ICacheManager {
 
     @Override
     public <T extends GenericJson> ICache<T> getCache(String collection, Class<T> collectionItemClass, Long ttl) {
+        String cacheKey = getClientHash()+ File.separator + collection;
+        String instanceKey = cacheKey + File.separator + collectionItemClass.getName() + File.separator + ttl;
+        RealmCache<T> cache = (RealmCache<T>)mInstances.get(instanceKey);
+        if (cache != null){
+            return cache;
+        }
         synchronized (LOCK){
-            DynamicRealm mRealm = getDynamicRealm();
-            String cacheKey = getClientHash()+ File.separator + collection;
-            RealmCache<T> cache = (RealmCache<T>)mCacheMap.get(cacheKey);
-
-            if (cache == null){
+            cache = (RealmCache<T>)mInstances.get(instanceKey);
+            if (cache != null){
+                return cache;
+            }
+            RealmCache registered = mCacheMap.get(cacheKey);
+            if (registered == null){
                 cache = new RealmCache<T>(collection, this, collectionItemClass, ttl);
-                if (!cache.getHash().equals(getTableHash(collection, mRealm))){
-                    //Recreate table
-                    mRealm.beginTransaction();
-                    try {
-                        //remove existing table if any
-                        RealmSchema currentSceme = mRealm.getSchema();
-                        for (RealmObjectSchema schema : currentSceme.getAll()){
-                            if (schema.getClassName().equals(collection) || schema.getClassName().startsWith(collection + "_")){
-                                String className = schema.getClassName();
-                                if (mRealm.getSchema().get(className).hasPrimaryKey()) {
-                                    mRealm.getSchema().get(className).removePrimaryKey();
-                                }
-                                currentSceme.remove(className);
-                            }
-                        }
-                    } finally {
-                        mRealm.commitTransaction();
-                    }
-
-                    //split table remove and ceate
-                    mRealm.beginTransaction();
-                    try{
-                        //create table scheme
-                        cache.createRealmTable(mRealm);
-                        //store table hash for futher usage
-                        setTableHash(collection, cache.getHash(), mRealm);
-                    } finally {
-                        mRealm.commitTransaction();
-                    }
-
+                String tableKey = getRealmName() + File.separator + collection + File.separator + cache.getHash();
+                if (!VERIFIED_TABLES.contains(tableKey)){
+                    verifyTable(collection, cache);
+                    VERIFIED_TABLES.add(tableKey);
                 }
                 mCacheMap.put(cacheKey, cache);
             } else {
-                if (!collectionItemClass.isAssignableFrom(cache.getCollectionItemClass()) &&
-                        !cache.getCollectionItemClass().isAssignableFrom(collectionItemClass)){
+                if (!collectionItemClass.isAssignableFrom(registered.getCollectionItemClass()) &&
+                        !registered.getCollectionItemClass().isAssignableFrom(collectionItemClass)){
                     throw new KinveyException("Class implementation for collection have been changed during runtime",
                             "Please review the BaseDataStore usage, parameter should remain the same for same collection",
                             "Seems like you have used different classes for same colledtion in AsyncAppDataCreaton");
                 }
                 //create new instance because ttl values differs for diffetent store types and
                 cache = new RealmCache<T>(collection, this, collectionItemClass, ttl);
-
             }
-            cache.setTtl(ttl);
-            mRealm.close();
+            sweeper.register(collection, cache);
+            mInstances.put(instanceKey, cache);
             return cache;
         }
     }
 
+    /**
+     * Migrate table of the collection if it was created for another version of the collection class,
+     * table is recreated only if type of an existing field was changed
+     */
+    private void verifyTable(String collection, RealmCache cache){
+        DynamicRealm mRealm = getDynamicRealm();
+        try {
+            if (!cache.getHash().equals(getTableHash(collection, mRealm)) && !migrateTable(collection, cache, mRealm)){
+                //Recreate table
+                mRealm.beginTransaction();
+                try {
+                    //remove existing table if any
+                    RealmSchema currentSceme = mRealm.getSchema();
+                    for (RealmObjectSchema schema : currentSceme.getAll()){
+                        if (schema.getClassName().equals(collection) || schema.getClassName().startsWith(collection + "_")){
+                            String className = schema.getClassName();
+                            if (mRealm.getSchema().get(className).hasPrimaryKey()) {
+                                mRealm.getSchema().get(className).removePrimaryKey();
+                            }
+                            currentSceme.remove(className);
+                        }
+                    }
+                } finally {
+                    mRealm.commitTransaction();
+                }
+
+                //split table remove and ceate
+                mRealm.beginTransaction();
+                try{
+                    //create table scheme
+                    cache.createRealmTable(mRealm);
+                    //store table hash for futher usage
+                    setTableHash(collection, cache.getHash(), mRealm);
+                } finally {
+                    mRealm.commitTransaction();
+                }
+            }
+        } finally {
+            releaseDynamicRealm(mRealm);
+        }
+    }
+
 
 
 
+    /**
+     * Add and remove columns and nested tables in place, so cached rows survive changes of the collection class
+     * @return false if table could not be migrated and should be recreated
+     */
+    private boolean migrateTable(String collection, RealmCache cache, DynamicRealm mRealm){
+        if (!mRealm.getSchema().contains(collection)){
+            return false;
+        }
+        mRealm.beginTransaction();
+        boolean migrated = false;
+        try {
+            migrated = ClassHash.migrateScheme(collection, mRealm, cache.getCollectionItemClass());
+            if (migrated){
+                setTableHash(collection, cache.getHash(), mRealm);
+            }
+        } finally {
+            mRealm.commitTransaction();
+        }
+        return migrated;
+    }
+
     @Override
     public void clear() {
         synchronized (LOCK) {
             DynamicRealm mRealm = getDynamicRealm();
-            Set<RealmObjectSchema> schemas = mRealm.getSchema().getAll();
-            mRealm.beginTransaction();
-            for (RealmObjectSchema schema : schemas) {
-                schema.removePrimaryKey();
-                mRealm.getSchema().remove(schema.getClassName());
+            try {
+                Set<RealmObjectSchema> schemas = mRealm.getSchema().getAll();
+                mRealm.beginTransaction();
+                for (RealmObjectSchema schema : schemas) {
+                    schema.removePrimaryKey();
+                    mRealm.getSchema().remove(schema.getClassName());
+                }
+                mRealm.commitTransaction();
+                //hash table is removed as well and should be recreated by next getDynamicRealm
+                initialized = false;
+                mCacheMap.clear();
+                mInstances.clear();
+                String realmName = getRealmName() + File.separator;
+                for (Iterator<String> it = VERIFIED_TABLES.iterator(); it.hasNext(); ){
+                    if (it.next().startsWith(realmName)){
+                        it.remove();
+                    }
+                }
+            } finally {
+                releaseDynamicRealm(mRealm);
             }
-            mRealm.commitTransaction();
-            mRealm.close();
         }
     }
 
+    /**
+     * @return sweeper removing expired rows of collections obtained from this manager
+     */
+    public ExpirySweeper getSweeper() {
+        return sweeper;
+    }
+
     private void init(DynamicRealm mRealm){
         RealmSchema schema = mRealm.getSchema();
         RealmObjectSchema tableHashScheme = schema.get(TABLE_HASH_NAME);
@@ -159,8 +248,7 @@ public class RealmCacheManager implements ICacheManager {
 
     private String getTableHash(String collection, DynamicRealm mRealm){
 
-        DynamicRealm realm = DynamicRealm.getInstance(mRealm.getConfiguration());
-        DynamicRealmObject res = realm.where(TABLE_HASH_NAME)
+        DynamicRealmObject res = mRealm.where(TABLE_HASH_NAME)
                 .equalTo("collection", collection)
                 .findFirst();
         return res != null ? res.getString("hash") : "";
@@ -183,25 +271,74 @@ public class RealmCacheManager implements ICacheManager {
     }
 
 
+    private String getRealmName(){
+        return prefix + "_" + getClientHash();
+    }
+
     private String getClientHash(){
         Uri server = Uri.parse(client.getBaseUrl());
         return server.getHost()+"_"+server.getPort();
     }
 
     /**
-     * get Prepared DynamicRealm since realm object can not be shared between threads
+     * get Prepared DynamicRealm since realm object can not be shared between threads,
+     * calls on the same thread share one instance, every call should be paired with {@link #releaseDynamicRealm(DynamicRealm)}
+     * in a finally block. Instance is kept open between operations of the thread and refreshed to the latest
+     * version when the first of nested operations starts
      */
 
     DynamicRealm getDynamicRealm(){
-        synchronized (LOCK){
-            Uri server = Uri.parse(client.getBaseUrl());
-            RealmConfiguration rc = new RealmConfiguration.Builder(context)
-                    .name(prefix + "_" + getClientHash())
-                    .build();
-            DynamicRealm realm = DynamicRealm.getInstance(rc);
-            init(realm);
-            return realm;
+        Handle handle = handles.get();
+        if (handle != null && handle.realm.isClosed()){
+            handles.remove();
+            handle = null;
+        }
+        if (handle == null){
+            handle = new Handle(DynamicRealm.getInstance(getConfiguration()));
+            handles.set(handle);
+        } else if (handle.refs == 0 && !handle.realm.isInTransaction()){
+            handle.realm.refresh();
+        }
+        if (!initialized && !handle.realm.isInTransaction()){
+            synchronized (LOCK){
+                if (!initialized){
+                    init(handle.realm);
+                    initialized = true;
+                }
+            }
+        }
+        handle.refs++;
+        return handle.realm;
+    }
+
+    /**
+     * Release realm obtained with {@link #getDynamicRealm()}, instance stays open for next operations of the thread,
+     * it keeps the version of its last operation until the next one refreshes it
+     */
+    void releaseDynamicRealm(DynamicRealm realm){
+        Handle handle = handles.get();
+        if (handle == null || handle.realm != realm){
+            realm.close();
+            return;
+        }
+        if (handle.refs > 0){
+            handle.refs--;
+        }
+    }
+
+    private RealmConfiguration getConfiguration(){
+        RealmConfiguration rc = configuration;
+        if (rc == null){
+            synchronized (LOCK){
+                if (configuration == null){
+                    configuration = new RealmConfiguration.Builder(context)
+                            .name(getRealmName())
+                            .build();
+                }
+                rc = configuration;
+            }
         }
+        return rc;
     }
 
 }
@@ -0,0 +1,580 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.android.cache;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.realm.Case;
+import io.realm.DynamicRealmObject;
+import io.realm.RealmQuery;
+
+/**
+ * Query filter map translated into a flat list of typed {@link RealmQuery} calls.
+ *
+ * Plans are cached by query shape: field names, operators and value types with the values themselves left out,
+ * so queries that differ only in values share single plan and are applied without any lookups.
+ */
+final class RealmQueryPlan {
+
+    private static final int MAX_CACHED_PLANS = 256;
+    private static final ConcurrentHashMap<String, RealmQueryPlan> PLANS = new ConcurrentHashMap<String, RealmQueryPlan>();
+
+    private final Step[] steps;
+
+    private RealmQueryPlan(List<Step> steps) {
+        this.steps = steps.toArray(new Step[steps.size()]);
+    }
+
+    /**
+     * Apply query filter map to the realm query
+     * @throws UnsupportedOperationException if filter could not be expressed with realm query
+     */
+    static void apply(RealmQuery<DynamicRealmObject> query, Map<String, Object> filter) {
+        if (filter == null || filter.isEmpty()){
+            return;
+        }
+        StringBuilder shape = new StringBuilder();
+        List<Object> args = new ArrayList<Object>();
+        flatten(filter, shape, args);
+        String key = shape.toString();
+
+        RealmQueryPlan plan = PLANS.get(key);
+        if (plan == null){
+            Compiler compiler = new Compiler();
+            compiler.filter(filter);
+            plan = new RealmQueryPlan(compiler.steps);
+            if (PLANS.size() >= MAX_CACHED_PLANS){
+                PLANS.clear();
+            }
+            PLANS.put(key, plan);
+        }
+
+        Object[] values = args.toArray();
+        for (Step step : plan.steps){
+            step.apply(query, values);
+        }
+    }
+
+    /**
+     * Build shape of the filter and collect its values in the order they are consumed by compiled steps
+     */
+    private static void flatten(Object value, StringBuilder shape, List<Object> args) {
+        if (value instanceof Map){
+            shape.append('{');
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()){
+                String key = entry.getKey();
+                shape.append(key).append(':');
+                if (key.equals("$regex")){
+                    Regex regex = Regex.parse(entry.getValue());
+                    shape.append(regex.kind);
+                    args.add(regex.literal);
+                } else if (key.equals("$options") || key.equals("$size") || key.equals("$exists")){
+                    //these values change the plan itself
+                    shape.append(entry.getValue());
+                } else {
+                    flatten(entry.getValue(), shape, args);
+                }
+                shape.append(',');
+            }
+            shape.append('}');
+        } else if (isArrayOrCollection(value)){
+            List<Object> values = asList(value);
+            shape.append('[').append(values.size());
+            for (Object o : values){
+                shape.append(',');
+                flatten(o, shape, args);
+            }
+            shape.append(']');
+        } else {
+            shape.append(ValueType.of(value).code);
+            args.add(value);
+        }
+    }
+
+    private static boolean isArrayOrCollection(Object o) {
+        return o instanceof Collection || (o != null && o.getClass().isArray());
+    }
+
+    private static List<Object> asList(Object o) {
+        List<Object> ret = new ArrayList<Object>();
+        if (o instanceof Collection){
+            ret.addAll((Collection<?>) o);
+        } else {
+            for (int i = 0; i < Array.getLength(o); i++){
+                ret.add(Array.get(o, i));
+            }
+        }
+        return ret;
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("this query is not supported by cache");
+    }
+
+    /**
+     * Translates filter map into steps, consumes values in the same order as {@link #flatten(Object, StringBuilder, List)}
+     */
+    private static class Compiler {
+        final List<Step> steps = new ArrayList<Step>();
+        int arg;
+
+        void filter(Map<String, Object> filter) {
+            for (Map.Entry<String, Object> entry : filter.entrySet()){
+                String field = entry.getKey();
+                Object params = entry.getValue();
+                if (field.equalsIgnoreCase("$or")){
+                    List<Object> components = asList(params);
+                    steps.add(Step.BEGIN_GROUP);
+                    for (int i = 0; i < components.size(); i++){
+                        if (i > 0){
+                            steps.add(Step.OR);
+                        }
+                        steps.add(Step.BEGIN_GROUP);
+                        filter(component(components.get(i)));
+                        steps.add(Step.END_GROUP);
+                    }
+                    steps.add(Step.END_GROUP);
+                } else if (field.equalsIgnoreCase("$and")){
+                    for (Object component : asList(params)){
+                        steps.add(Step.BEGIN_GROUP);
+                        filter(component(component));
+                        steps.add(Step.END_GROUP);
+                    }
+                } else if (field.startsWith("$")){
+                    throw unsupported();
+                } else if (params instanceof Map){
+                    operators(field, (Map<String, Object>) params);
+                } else if (isArrayOrCollection(params)){
+                    throw unsupported();
+                } else {
+                    compare(field, Operation.EQ);
+                }
+            }
+        }
+
+        private void operators(String field, Map<String, Object> operators) {
+            for (Map.Entry<String, Object> entry : operators.entrySet()){
+                String operation = entry.getKey();
+                Object param = entry.getValue();
+                if (operation.equalsIgnoreCase("$in")){
+                    in(field, param);
+                } else if (operation.equalsIgnoreCase("$nin")){
+                    steps.add(Step.BEGIN_GROUP);
+                    steps.add(Step.NOT);
+                    in(field, param);
+                    steps.add(Step.END_GROUP);
+                } else if (operation.equalsIgnoreCase("$gt")){
+                    checkValue(param);
+                    compare(field, Operation.GT);
+                } else if (operation.equalsIgnoreCase("$gte")){
+                    checkValue(param);
+                    compare(field, Operation.GTE);
+                } else if (operation.equalsIgnoreCase("$lt")){
+                    checkValue(param);
+                    compare(field, Operation.LT);
+                } else if (operation.equalsIgnoreCase("$lte")){
+                    checkValue(param);
+                    compare(field, Operation.LTE);
+                } else if (operation.equalsIgnoreCase("$ne")){
+                    checkValue(param);
+                    compare(field, Operation.NE);
+                } else if (operation.equalsIgnoreCase("$all")){
+                    //every value should be present in the list, realm matches list path if any element matches
+                    steps.add(Step.BEGIN_GROUP);
+                    for (Object value : asList(param)){
+                        checkValue(value);
+                        compare(field, Operation.EQ);
+                    }
+                    steps.add(Step.END_GROUP);
+                } else if (operation.equalsIgnoreCase("$regex")){
+                    regex(field, Regex.parse(param), operators.get("$options"));
+                } else if (operation.equalsIgnoreCase("$options")){
+                    //handled by $regex
+                } else if (operation.equalsIgnoreCase("$size")){
+                    if (!(param instanceof Number) || ((Number) param).intValue() != 0){
+                        //realm could only check if list is empty
+                        throw unsupported();
+                    }
+                    steps.add(new IsEmpty(field));
+                } else if (operation.equalsIgnoreCase("$exists")){
+                    steps.add(new IsNull(field, Boolean.parseBoolean(String.valueOf(param))));
+                } else if (operation.equalsIgnoreCase("$not")){
+                    if (!(param instanceof Map)){
+                        throw unsupported();
+                    }
+                    steps.add(Step.NOT);
+                    steps.add(Step.BEGIN_GROUP);
+                    operators(field, (Map<String, Object>) param);
+                    steps.add(Step.END_GROUP);
+                } else {
+                    throw unsupported();
+                }
+            }
+        }
+
+        private void in(String field, Object params) {
+            List<Object> values = asList(params);
+            steps.add(Step.BEGIN_GROUP);
+            for (int i = 0; i < values.size(); i++){
+                if (i > 0){
+                    steps.add(Step.OR);
+                }
+                checkValue(values.get(i));
+                compare(field, Operation.EQ);
+            }
+            steps.add(Step.END_GROUP);
+        }
+
+        private void compare(String field, Operation operation) {
+            steps.add(new Compare(field, operation, arg++));
+        }
+
+        private void regex(String field, Regex regex, Object options) {
+            if (regex.kind == Regex.UNSUPPORTED){
+                throw unsupported();
+            }
+            Case casing = Case.SENSITIVE;
+            if (options != null){
+                for (char c : options.toString().toCharArray()){
+                    if (c == 'i'){
+                        casing = Case.INSENSITIVE;
+                    } else if (c != 's'){
+                        throw unsupported();
+                    }
+                }
+            }
+            steps.add(new StringMatch(field, regex.kind, casing, arg++));
+        }
+
+        private static void checkValue(Object value) {
+            if (value instanceof Map || isArrayOrCollection(value)){
+                throw unsupported();
+            }
+        }
+
+        private static Map<String, Object> component(Object o) {
+            if (!(o instanceof Map)){
+                throw unsupported();
+            }
+            return (Map<String, Object>) o;
+        }
+    }
+
+    /**
+     * Literal regular expression that could be mapped to realm string predicate
+     */
+    private static class Regex {
+        static final char UNSUPPORTED = 'X';
+        static final char EQUALS = 'Q';
+        static final char BEGINS = 'B';
+        static final char ENDS = 'E';
+        static final char CONTAINS = 'C';
+
+        final char kind;
+        final String literal;
+
+        private Regex(char kind, String literal) {
+            this.kind = kind;
+            this.literal = literal;
+        }
+
+        static Regex parse(Object param) {
+            String pattern = String.valueOf(param);
+            boolean begins = pattern.startsWith("^");
+            boolean ends = pattern.endsWith("$") && !pattern.endsWith("\\$");
+            String body = pattern.substring(begins ? 1 : 0, Math.max(begins ? 1 : 0, pattern.length() - (ends ? 1 : 0)));
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < body.length(); i++){
+                char c = body.charAt(i);
+                if (c == '\\'){
+                    if (i + 1 == body.length() || Character.isLetterOrDigit(body.charAt(i + 1))){
+                        //character classes like \d could not be expressed
+                        return new Regex(UNSUPPORTED, pattern);
+                    }
+                    literal.append(body.charAt(++i));
+                } else if (".[]{}()*+?|^$".indexOf(c) >= 0){
+                    return new Regex(UNSUPPORTED, pattern);
+                } else {
+                    literal.append(c);
+                }
+            }
+            char kind = begins && ends ? EQUALS : begins ? BEGINS : ends ? ENDS : CONTAINS;
+            return new Regex(kind, literal.toString());
+        }
+    }
+
+    private enum Operation {
+        EQ, NE, GT, GTE, LT, LTE
+    }
+
+    /**
+     * Java types of filter values, realm query methods are selected by them
+     */
+    private enum ValueType {
+        STRING('s'), INTEGER('i'), LONG('l'), SHORT('h'), BYTE('y'), DOUBLE('d'), FLOAT('f'),
+        OTHER_NUMBER('n'), BOOLEAN('b'), DATE('t'), NULL('0'), OTHER('x');
+
+        final char code;
+
+        ValueType(char code) {
+            this.code = code;
+        }
+
+        static ValueType of(Object value) {
+            if (value == null){
+                return NULL;
+            } else if (value instanceof String){
+                return STRING;
+            } else if (value instanceof Integer){
+                return INTEGER;
+            } else if (value instanceof Long){
+                return LONG;
+            } else if (value instanceof Double){
+                return DOUBLE;
+            } else if (value instanceof Float){
+                return FLOAT;
+            } else if (value instanceof Short){
+                return SHORT;
+            } else if (value instanceof Byte){
+                return BYTE;
+            } else if (value instanceof Number){
+                return OTHER_NUMBER;
+            } else if (value instanceof Boolean){
+                return BOOLEAN;
+            } else if (value instanceof Date){
+                return DATE;
+            }
+            return OTHER;
+        }
+    }
+
+    /**
+     * Single call on realm query
+     */
+    private abstract static class Step {
+        static final Step BEGIN_GROUP = new Step() {
+            @Override
+            void apply(RealmQuery<DynamicRealmObject> query, Object[] args) {
+                query.beginGroup();
+            }
+        };
+        static final Step END_GROUP = new Step() {
+            @Override
+            void apply(RealmQuery<DynamicRealmObject> query, Object[] args) {
+                query.endGroup();
+            }
+        };
+        static final Step OR = new Step() {
+            @Override
+            void apply(RealmQuery<DynamicRealmObject> query, Object[] args) {
+                query.or();
+            }
+        };
+        static final Step NOT = new Step() {
+            @Override
+            void apply(RealmQuery<DynamicRealmObject> query, Object[] args) {
+                query.not();
+            }
+        };
+
+        abstract void apply(RealmQuery<DynamicRealmObject> query, Object[] args);
+    }
+
+    private static class Compare extends Step {
+        private final String field;
+        private final Operation operation;
+        private final int arg;
+
+        Compare(String field, Operation operation, int arg) {
+            this.field = field;
+            this.operation = operation;
+            this.arg = arg;
+        }
+
+        @Override
+        void apply(RealmQuery<DynamicRealmObject> query, Object[] args) {
+            Object value = args[arg];
+            switch (ValueType.of(value)){
+                case NULL:
+                    if (operation == Operation.EQ){
+                        query.isNull(field);
+                    } else if (operation == Operation.NE){
+                        query.isNotNull(field);
+                    } else {
+                        throw unsupported();
+                    }
+                    break;
+                case STRING:
+                    if (operation == Operation.EQ){
+                        query.equalTo(field, (String) value);
+                    } else if (operation == Operation.NE){
+                        query.notEqualTo(field, (String) value);
+                    } else {
+                        throw unsupported();
+                    }
+                    break;
+                case BOOLEAN:
+                    if (operation == Operation.EQ){
+                        query.equalTo(field, (Boolean) value);
+                    } else if (operation == Operation.NE){
+                        query.notEqualTo(field, (Boolean) value);
+                    } else {
+                        throw unsupported();
+                    }
+                    break;
+                case DATE:
+                    applyDate(query, (Date) value);
+                    break;
+                case INTEGER:
+                case SHORT:
+                case BYTE:
+                    applyInt(query, ((Number) value).intValue());
+                    break;
+                case LONG:
+                    applyLong(query, (Long) value);
+                    break;
+                case FLOAT:
+                    applyFloat(query, (Float) value);
+                    break;
+                case DOUBLE:
+                case OTHER_NUMBER:
+                    applyDouble(query, ((Number) value).doubleValue());
+                    break;
+                default:
+                    throw unsupported();
+            }
+        }
+
+        private void applyInt(RealmQuery<DynamicRealmObject> query, int value) {
+            switch (operation){
+                case EQ: query.equalTo(field, value); break;
+                case NE: query.notEqualTo(field, value); break;
+                case GT: query.greaterThan(field, value); break;
+                case GTE: query.greaterThanOrEqualTo(field, value); break;
+                case LT: query.lessThan(field, value); break;
+                case LTE: query.lessThanOrEqualTo(field, value); break;
+            }
+        }
+
+        private void applyLong(RealmQuery<DynamicRealmObject> query, long value) {
+            switch (operation){
+                case EQ: query.equalTo(field, value); break;
+                case NE: query.notEqualTo(field, value); break;
+                case GT: query.greaterThan(field, value); break;
+                case GTE: query.greaterThanOrEqualTo(field, value); break;
+                case LT: query.lessThan(field, value); break;
+                case LTE: query.lessThanOrEqualTo(field, value); break;
+            }
+        }
+
+        private void applyFloat(RealmQuery<DynamicRealmObject> query, float value) {
+            switch (operation){
+                case EQ: query.equalTo(field, value); break;
+                case NE: query.notEqualTo(field, value); break;
+                case GT: query.greaterThan(field, value); break;
+                case GTE: query.greaterThanOrEqualTo(field, value); break;
+                case LT: query.lessThan(field, value); break;
+                case LTE: query.lessThanOrEqualTo(field, value); break;
+            }
+        }
+
+        private void applyDouble(RealmQuery<DynamicRealmObject> query, double value) {
+            switch (operation){
+                case EQ: query.equalTo(field, value); break;
+                case NE: query.notEqualTo(field, value); break;
+                case GT: query.greaterThan(field, value); break;
+                case GTE: query.greaterThanOrEqualTo(field, value); break;
+                case LT: query.lessThan(field, value); break;
+                case LTE: query.lessThanOrEqualTo(field, value); break;
+            }
+        }
+
+        private void applyDate(RealmQuery<DynamicRealmObject> query, Date value) {
+            switch (operation){
+                case EQ: query.equalTo(field, value); break;
+                case NE: query.notEqualTo(field, value); break;
+                case GT: query.greaterThan(field, value); break;
+                case GTE: query.greaterThanOrEqualTo(field, value); break;
+                case LT: query.lessThan(field, value); break;
+                case LTE: query.lessThanOrEqualTo(field, value); break;
+            }
+        }
+    }
+
+    private static class StringMatch extends Step {
+        private final String field;
+        private final char kind;
+        private final Case casing;
+        private final int arg;
+
+        StringMatch(String field, char kind, Case casing, int arg) {
+            this.field = field;
+            this.kind = kind;
+            this.casing = casing;
+            this.arg = arg;
+        }
+
+        @Override
+        void apply(RealmQuery<DynamicRealmObject> query, Object[] args) {
+            String value = (String) args[arg];
+            switch (kind){
+                case Regex.EQUALS: query.equalTo(field, value, casing); break;
+                case Regex.BEGINS: query.beginsWith(field, value, casing); break;
+                case Regex.ENDS: query.endsWith(field, value, casing); break;
+                default: query.contains(field, value, casing); break;
+            }
+        }
+    }
+
+    private static class IsEmpty extends Step {
+        private final String field;
+
+        IsEmpty(String field) {
+            this.field = field;
+        }
+
+        @Override
+        void apply(RealmQuery<DynamicRealmObject> query, Object[] args) {
+            query.isEmpty(field);
+        }
+    }
+
+    private static class IsNull extends Step {
+        private final String field;
+        private final boolean exists;
+
+        IsNull(String field, boolean exists) {
+            this.field = field;
+            this.exists = exists;
+        }
+
+        @Override
+        void apply(RealmQuery<DynamicRealmObject> query, Object[] args) {
+            if (exists){
+                query.isNotNull(field);
+            } else {
+                query.isNull(field);
+            }
+        }
+    }
+}
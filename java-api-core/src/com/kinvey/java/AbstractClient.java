@@ -42,6 +42,8 @@ import com.kinvey.java.dto.User;
 import com.kinvey.java.network.NetworkFileManager;
 import com.kinvey.java.query.MongoQueryFilter;
 import com.kinvey.java.store.BaseFileStore;
+import com.kinvey.java.store.QueryResultCache;
+import com.kinvey.java.store.requests.data.PushAllRequest;
 import com.kinvey.java.store.StoreType;
 import com.kinvey.java.sync.SyncManager;
 
@@ -85,6 +87,12 @@ public abstract class AbstractClient extends AbstractKinveyJsonClient {
 
     private String MICApiVersion;
 
+    /** Recent query results shared by data stores of this client **/
+    private final QueryResultCache queryResultCache = new QueryResultCache();
+
+    /** Count of sync requests executed at the same time by {@link #pushAllBlocking()} **/
+    private int pushConcurrency = 4;
+
     public void setMICApiVersion(String version){
         if (!version.startsWith("v")){
             version = "v" + version;
@@ -486,4 +494,34 @@ public abstract class AbstractClient extends AbstractKinveyJsonClient {
         return new SyncManager(getSyncCacheManager());
     }
 
+    public QueryResultCache getQueryResultCache(){
+        return queryResultCache;
+    }
+
+    public int getPushConcurrency() {
+        return pushConcurrency;
+    }
+
+    /**
+     * @param pushConcurrency count of sync requests executed at the same time by {@link #pushAllBlocking()}
+     * @throws IllegalArgumentException if the count is less than 1
+     */
+    public void setPushConcurrency(int pushConcurrency) throws IllegalArgumentException {
+        if (pushConcurrency < 1){
+            throw new IllegalArgumentException("push concurrency should be at least 1");
+        }
+        this.pushConcurrency = pushConcurrency;
+    }
+
+    /**
+     * Push pending requests of all collections, requests of different entities are executed concurrently,
+     * see {@link PushAllRequest}
+     *
+     * @return count of pushed requests and failures
+     * @throws IOException
+     */
+    public PushAllRequest.Result pushAllBlocking() throws IOException {
+        return new PushAllRequest(this, pushConcurrency, null).execute();
+    }
+
 }
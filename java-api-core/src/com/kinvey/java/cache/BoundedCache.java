@@ -0,0 +1,233 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link ICache} of {@link BoundedCacheManager}, reports reads and writes to the manager for eviction
+ */
+class BoundedCache<T extends GenericJson> implements ICache<T> {
+
+    private final String collection;
+    private final ICache<T> cache;
+    private final BoundedCacheManager manager;
+
+    BoundedCache(String collection, ICache<T> cache, BoundedCacheManager manager) {
+        this.collection = collection;
+        this.cache = cache;
+        this.manager = manager;
+    }
+
+    @Override
+    public List<T> get(Query query) {
+        return accessed(cache.get(query));
+    }
+
+    @Override
+    public ICacheCursor<T> iterate(Query query) {
+        final ICacheCursor<T> cursor = cache.iterate(query);
+        return new ICacheCursor<T>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public T next() {
+                T ret = cursor.next();
+                manager.accessed(collection, ret);
+                return ret;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+        };
+    }
+
+    @Override
+    public List<T> get(Iterable<String> ids) {
+        return accessed(cache.get(ids));
+    }
+
+    @Override
+    public T get(String id) {
+        return accessed(cache.get(id));
+    }
+
+    @Override
+    public List<T> get() {
+        return accessed(cache.get());
+    }
+
+    @Override
+    public List<T> save(Iterable<T> items) {
+        List<T> ret = cache.save(items);
+        for (T item : ret){
+            manager.saved(collection, item);
+        }
+        manager.evict(collection);
+        return ret;
+    }
+
+    @Override
+    public T save(T item) {
+        T ret = cache.save(item);
+        manager.saved(collection, ret);
+        manager.evict(collection);
+        return ret;
+    }
+
+    @Override
+    public List<T> replace(Query query, Iterable<T> items) {
+        return execute(new CacheBatch<T>().delete(query).save(items));
+    }
+
+    @Override
+    public List<T> execute(CacheBatch<T> batch) {
+        List<String> removed = new ArrayList<String>();
+        for (CacheBatch.Operation<T> operation : batch.getOperations()){
+            if (operation.getType() == CacheBatch.Operation.Type.DELETE_QUERY){
+                removed.addAll(matchingIds(operation.getQuery()));
+            } else if (operation.getType() == CacheBatch.Operation.Type.DELETE_IDS){
+                for (String id : operation.getIds()){
+                    removed.add(id);
+                }
+            }
+        }
+        List<T> ret = cache.execute(batch);
+        for (String id : removed){
+            manager.removed(collection, id);
+        }
+        for (T item : ret){
+            manager.saved(collection, item);
+        }
+        manager.evict(collection);
+        return ret;
+    }
+
+    @Override
+    public int delete(Query query) {
+        List<String> matched = matchingIds(query);
+        int ret = cache.delete(query);
+        for (String id : matched){
+            manager.removed(collection, id);
+        }
+        return ret;
+    }
+
+    /**
+     * Ids of the entities a delete by the query removes, that is all stored matches regardless of the query
+     * skip, limit and the entities expiration
+     * @param query query of the delete
+     * @return matching ids
+     */
+    private List<String> matchingIds(Query query) {
+        if (cache instanceof IdLookup){
+            return ((IdLookup) cache).matchingIds(query.getQueryFilterMap());
+        }
+        List<String> ret = new ArrayList<String>();
+        for (T item : cache.get()){
+            if (QueryMatcher.matches(item, query.getQueryFilterMap())){
+                ret.add(item.get("_id").toString());
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete(Iterable<String> ids) {
+        int ret = cache.delete(ids);
+        for (String id : ids){
+            manager.removed(collection, id);
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete(String id) {
+        return delete(Collections.singletonList(id));
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+        manager.cleared(collection);
+    }
+
+    /**
+     * Entities removed by expiration stay tracked until they are selected for eviction
+     */
+    @Override
+    public SweepStats deleteExpired(int limit) {
+        return cache.deleteExpired(limit);
+    }
+
+    @Override
+    public T getFirst() {
+        return accessed(cache.getFirst());
+    }
+
+    @Override
+    public T getFirst(Query q) {
+        return accessed(cache.getFirst(q));
+    }
+
+    @Override
+    public long count(Query q) {
+        return cache.count(q);
+    }
+
+    @Override
+    public long getTtl() {
+        return cache.getTtl();
+    }
+
+    @Override
+    public void setTtl(long ttl) {
+        cache.setTtl(ttl);
+    }
+
+    @Override
+    public void createIndex(String field, IndexType type) {
+        cache.createIndex(field, type);
+    }
+
+    private T accessed(T item) {
+        manager.accessed(collection, item);
+        return item;
+    }
+
+    private List<T> accessed(List<T> items) {
+        for (T item : items){
+            manager.accessed(collection, item);
+        }
+        return items;
+    }
+}
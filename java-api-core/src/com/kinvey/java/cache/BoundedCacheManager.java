@@ -0,0 +1,320 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.Query;
+import com.kinvey.java.sync.SyncManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ICacheManager} that keeps collections of another cache manager within size limits.
+ *
+ * Limits are set per collection and for all collections together, as count of entities and as approximate
+ * size of their json. Once a save exceeds a limit, entities are evicted in the order of {@link EvictionPolicy},
+ * entities with requests waiting to be pushed by {@link SyncManager} are never evicted.
+ *
+ * Entities stored before the collection was first requested from this manager are tracked from that moment,
+ * as if they were just added.
+ */
+public class BoundedCacheManager implements ICacheManager {
+
+    private final ICacheManager cacheManager;
+    private final SyncManager syncManager;
+    private final Evictor evictor;
+
+    private final ConcurrentHashMap<String, ICache<?>> caches = new ConcurrentHashMap<String, ICache<?>>();
+    private final HashMap<Evictor.Key, Long> sizes = new HashMap<Evictor.Key, Long>();
+    private final HashMap<String, Usage> usages = new HashMap<String, Usage>();
+    private final Usage total = new Usage();
+    private long evicted;
+
+    /**
+     * Amount of tracked data and its limits
+     */
+    private static class Usage {
+        long entries;
+        long bytes;
+        long maxEntries;
+        long maxBytes;
+    }
+
+    /**
+     * @param cacheManager cache manager to keep data in
+     * @param policy order of eviction
+     * @param syncManager sync manager with pending requests, could be null if sync is not used
+     */
+    public BoundedCacheManager(ICacheManager cacheManager, EvictionPolicy policy, SyncManager syncManager) {
+        this.cacheManager = cacheManager;
+        this.syncManager = syncManager;
+        this.evictor = policy.create();
+    }
+
+    /**
+     * @param maxEntries maximum count of entities in the collection, 0 for no limit
+     * @param maxBytes maximum approximate size of entities of the collection, 0 for no limit
+     */
+    public synchronized void setLimit(String collection, long maxEntries, long maxBytes) {
+        Usage usage = usage(collection);
+        usage.maxEntries = Math.max(maxEntries, 0);
+        usage.maxBytes = Math.max(maxBytes, 0);
+    }
+
+    /**
+     * @param maxEntries maximum count of entities in all collections, 0 for no limit
+     * @param maxBytes maximum approximate size of entities of all collections, 0 for no limit
+     */
+    public synchronized void setGlobalLimit(long maxEntries, long maxBytes) {
+        total.maxEntries = Math.max(maxEntries, 0);
+        total.maxBytes = Math.max(maxBytes, 0);
+    }
+
+    /**
+     * @return count of entities in the collection
+     */
+    public synchronized long getEntries(String collection) {
+        Usage usage = usages.get(collection);
+        return usage != null ? usage.entries : 0;
+    }
+
+    /**
+     * @return approximate size of entities in the collection
+     */
+    public synchronized long getBytes(String collection) {
+        Usage usage = usages.get(collection);
+        return usage != null ? usage.bytes : 0;
+    }
+
+    /**
+     * @return count of entities evicted so far
+     */
+    public synchronized long getEvictedCount() {
+        return evicted;
+    }
+
+    @Override
+    public <T extends GenericJson> ICache<T> getCache(String collection, Class<T> collectionItemClass, Long ttl) {
+        ICache<T> cache = cacheManager.getCache(collection, collectionItemClass, ttl);
+        if (caches.put(collection, cache) == null){
+            ICacheCursor<T> cursor = cache.iterate(new Query());
+            try {
+                while (cursor.hasNext()){
+                    saved(collection, cursor.next());
+                }
+            } finally {
+                cursor.close();
+            }
+            evict(collection);
+        }
+        return new BoundedCache<T>(collection, cache, this);
+    }
+
+    @Override
+    public void clear() {
+        cacheManager.clear();
+        synchronized (this){
+            for (Evictor.Key key : sizes.keySet()){
+                evictor.remove(key);
+            }
+            sizes.clear();
+            for (Usage usage : usages.values()){
+                usage.entries = 0;
+                usage.bytes = 0;
+            }
+            total.entries = 0;
+            total.bytes = 0;
+        }
+    }
+
+    synchronized void accessed(String collection, Map<?, ?> item) {
+        if (item != null && item.get("_id") != null){
+            Evictor.Key key = new Evictor.Key(collection, item.get("_id").toString());
+            if (sizes.containsKey(key)){
+                evictor.access(key);
+            }
+        }
+    }
+
+    synchronized void saved(String collection, Map<?, ?> item) {
+        if (item.get("_id") == null){
+            return;
+        }
+        Evictor.Key key = new Evictor.Key(collection, item.get("_id").toString());
+        long size = estimateSize(item);
+        Long previous = sizes.put(key, size);
+        Usage usage = usage(collection);
+        if (previous == null){
+            evictor.add(key);
+            usage.entries++;
+            total.entries++;
+        } else {
+            evictor.access(key);
+            usage.bytes -= previous;
+            total.bytes -= previous;
+        }
+        usage.bytes += size;
+        total.bytes += size;
+    }
+
+    synchronized void removed(String collection, String id) {
+        Evictor.Key key = new Evictor.Key(collection, id);
+        Long size = sizes.remove(key);
+        if (size != null){
+            evictor.remove(key);
+            Usage usage = usage(collection);
+            usage.entries--;
+            usage.bytes -= size;
+            total.entries--;
+            total.bytes -= size;
+        }
+    }
+
+    synchronized void cleared(String collection) {
+        List<String> ids = new ArrayList<String>();
+        for (Evictor.Key key : sizes.keySet()){
+            if (key.collection.equals(collection)){
+                ids.add(key.id);
+            }
+        }
+        for (String id : ids){
+            removed(collection, id);
+        }
+    }
+
+    /**
+     * Evict entities until the collection and all collections together are within limits
+     */
+    void evict(String collection) {
+        Map<String, List<String>> victims = victims(collection);
+        for (Map.Entry<String, List<String>> entry : victims.entrySet()){
+            ICache<?> cache = caches.get(entry.getKey());
+            if (cache != null){
+                cache.delete(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Select entities to be evicted and stop tracking them
+     * @return ids to be deleted by collection
+     */
+    private synchronized Map<String, List<String>> victims(String collection) {
+        Map<String, List<String>> ret = new HashMap<String, List<String>>();
+        Usage usage = usage(collection);
+        Map<String, Set<String>> pending = new HashMap<String, Set<String>>();
+        Set<Evictor.Key> selected = new LinkedHashSet<Evictor.Key>();
+
+        long entries = usage.entries;
+        long bytes = usage.bytes;
+        for (Iterator<Evictor.Key> iterator = evictor.order(); iterator.hasNext() && exceeded(entries, bytes, usage); ){
+            Evictor.Key key = iterator.next();
+            if (key.collection.equals(collection) && !isPending(key, pending)){
+                entries--;
+                bytes -= sizes.get(key);
+                selected.add(key);
+            }
+        }
+
+        entries = total.entries;
+        bytes = total.bytes;
+        for (Evictor.Key key : selected){
+            entries--;
+            bytes -= sizes.get(key);
+        }
+        for (Iterator<Evictor.Key> iterator = evictor.order(); iterator.hasNext() && exceeded(entries, bytes, total); ){
+            Evictor.Key key = iterator.next();
+            if (!selected.contains(key) && !isPending(key, pending)){
+                entries--;
+                bytes -= sizes.get(key);
+                selected.add(key);
+            }
+        }
+
+        for (Evictor.Key key : selected){
+            removed(key.collection, key.id);
+            List<String> ids = ret.get(key.collection);
+            if (ids == null){
+                ids = new ArrayList<String>();
+                ret.put(key.collection, ids);
+            }
+            ids.add(key.id);
+        }
+        evicted += selected.size();
+        return ret;
+    }
+
+    private boolean isPending(Evictor.Key key, Map<String, Set<String>> pending) {
+        if (syncManager == null){
+            return false;
+        }
+        Set<String> ids = pending.get(key.collection);
+        if (ids == null){
+            ids = new HashSet<String>(syncManager.getPendingIds(key.collection));
+            pending.put(key.collection, ids);
+        }
+        return ids.contains(key.id);
+    }
+
+    private static boolean exceeded(long entries, long bytes, Usage limits) {
+        return (limits.maxEntries > 0 && entries > limits.maxEntries) || (limits.maxBytes > 0 && bytes > limits.maxBytes);
+    }
+
+    private Usage usage(String collection) {
+        Usage ret = usages.get(collection);
+        if (ret == null){
+            ret = new Usage();
+            usages.put(collection, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @return approximate length of json representation of the value
+     */
+    static long estimateSize(Object value) {
+        if (value == null){
+            return 4;
+        } else if (value instanceof Map){
+            long ret = 2;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()){
+                ret += String.valueOf(entry.getKey()).length() + 4 + estimateSize(entry.getValue());
+            }
+            return ret;
+        } else if (value instanceof Collection){
+            long ret = 2;
+            for (Object o : (Collection<?>) value){
+                ret += estimateSize(o) + 1;
+            }
+            return ret;
+        } else if (value.getClass().isArray()){
+            return estimateSize(QueryMatcher.asList(value));
+        } else if (value instanceof String){
+            return ((String) value).length() + 2;
+        }
+        return String.valueOf(value).length();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Deletes and saves to be applied to a cached collection at once, see {@link ICache#execute(CacheBatch)}
+ */
+public class CacheBatch<T extends GenericJson> {
+
+    /**
+     * Single operation of the batch
+     */
+    public static class Operation<T> {
+
+        public enum Type {
+            DELETE_QUERY,
+            DELETE_IDS,
+            SAVE
+        }
+
+        private final Type type;
+        private final Query query;
+        private final Iterable<String> ids;
+        private final Iterable<T> items;
+
+        private Operation(Type type, Query query, Iterable<String> ids, Iterable<T> items) {
+            this.type = type;
+            this.query = query;
+            this.ids = ids;
+            this.items = items;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return query of {@link Type#DELETE_QUERY} operation
+         */
+        public Query getQuery() {
+            return query;
+        }
+
+        /**
+         * @return ids of {@link Type#DELETE_IDS} operation
+         */
+        public Iterable<String> getIds() {
+            return ids;
+        }
+
+        /**
+         * @return items of {@link Type#SAVE} operation
+         */
+        public Iterable<T> getItems() {
+            return items;
+        }
+    }
+
+    private final List<Operation<T>> operations = new ArrayList<Operation<T>>();
+
+    /**
+     * Delete all objects matching the query
+     */
+    public CacheBatch<T> delete(Query query) {
+        operations.add(new Operation<T>(Operation.Type.DELETE_QUERY, query, null, null));
+        return this;
+    }
+
+    /**
+     * Delete objects with given ids
+     */
+    public CacheBatch<T> delete(Iterable<String> ids) {
+        operations.add(new Operation<T>(Operation.Type.DELETE_IDS, null, ids, null));
+        return this;
+    }
+
+    /**
+     * Save given items, items without _id get one assigned
+     */
+    public CacheBatch<T> save(Iterable<T> items) {
+        operations.add(new Operation<T>(Operation.Type.SAVE, null, null, items));
+        return this;
+    }
+
+    /**
+     * @return operations in the order they were added
+     */
+    public List<Operation<T>> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+/**
+ * Order in which entities are evicted from size bounded collections, see {@link BoundedCacheManager}
+ */
+public enum EvictionPolicy {
+    /**
+     * least recently used entities are evicted first
+     */
+    LRU {
+        @Override
+        Evictor create() {
+            return new Evictor.Lru();
+        }
+    },
+    /**
+     * least frequently used entities are evicted first, least recently used among equally used ones
+     */
+    LFU {
+        @Override
+        Evictor create() {
+            return new Evictor.Lfu();
+        }
+    },
+    /**
+     * new entities stay in a small recency window, leaving it they replace main region entities
+     * only if they are used more often, so occasional scans do not flush frequently used entities
+     */
+    W_TINY_LFU {
+        @Override
+        Evictor create() {
+            return new Evictor.TinyLfu();
+        }
+    };
+
+    abstract Evictor create();
+}
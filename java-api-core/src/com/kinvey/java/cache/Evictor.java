@@ -0,0 +1,364 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Eviction order of tracked entities of all collections of {@link BoundedCacheManager}
+ *
+ * NOTE: not thread safe, callers guard it with the lock of the manager
+ */
+abstract class Evictor {
+
+    /**
+     * Entity of a collection
+     */
+    static final class Key {
+        final String collection;
+        final String id;
+
+        Key(String collection, String id) {
+            this.collection = collection;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)){
+                return false;
+            }
+            Key key = (Key) o;
+            return collection.equals(key.collection) && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * collection.hashCode() + id.hashCode();
+        }
+    }
+
+    /**
+     * Start tracking new entity
+     */
+    abstract void add(Key key);
+
+    /**
+     * Tracked entity was read or updated
+     */
+    abstract void access(Key key);
+
+    abstract void remove(Key key);
+
+    /**
+     * @return tracked entities in the order they should be evicted, should not be used after the evictor is modified
+     */
+    abstract Iterator<Key> order();
+
+    static class Lru extends Evictor {
+        private final LinkedHashMap<Key, Boolean> keys = new LinkedHashMap<Key, Boolean>(16, 0.75f, true);
+
+        @Override
+        void add(Key key) {
+            keys.put(key, Boolean.TRUE);
+        }
+
+        @Override
+        void access(Key key) {
+            keys.get(key);
+        }
+
+        @Override
+        void remove(Key key) {
+            keys.remove(key);
+        }
+
+        @Override
+        Iterator<Key> order() {
+            return keys.keySet().iterator();
+        }
+    }
+
+    static class Lfu extends Evictor {
+        private final HashMap<Key, Long> counts = new HashMap<Key, Long>();
+        private final TreeMap<Long, LinkedHashSet<Key>> buckets = new TreeMap<Long, LinkedHashSet<Key>>();
+
+        @Override
+        void add(Key key) {
+            remove(key);
+            counts.put(key, 1L);
+            bucket(1L).add(key);
+        }
+
+        @Override
+        void access(Key key) {
+            Long count = counts.get(key);
+            if (count == null){
+                return;
+            }
+            unlink(key, count);
+            counts.put(key, count + 1);
+            bucket(count + 1).add(key);
+        }
+
+        @Override
+        void remove(Key key) {
+            Long count = counts.remove(key);
+            if (count != null){
+                unlink(key, count);
+            }
+        }
+
+        @Override
+        Iterator<Key> order() {
+            return new Iterator<Key>() {
+                private final Iterator<LinkedHashSet<Key>> frequencies = buckets.values().iterator();
+                private Iterator<Key> current;
+
+                @Override
+                public boolean hasNext() {
+                    while ((current == null || !current.hasNext()) && frequencies.hasNext()){
+                        current = frequencies.next().iterator();
+                    }
+                    return current != null && current.hasNext();
+                }
+
+                @Override
+                public Key next() {
+                    if (!hasNext()){
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        private LinkedHashSet<Key> bucket(long count) {
+            LinkedHashSet<Key> ret = buckets.get(count);
+            if (ret == null){
+                ret = new LinkedHashSet<Key>();
+                buckets.put(count, ret);
+            }
+            return ret;
+        }
+
+        private void unlink(Key key, long count) {
+            Set<Key> bucket = buckets.get(count);
+            bucket.remove(key);
+            if (bucket.isEmpty()){
+                buckets.remove(count);
+            }
+        }
+    }
+
+    /**
+     * Window TinyLFU: small LRU window in front of segmented LRU main region. Entities leaving the window are
+     * admission candidates, evicting them or main region victims first is decided by popularity estimated with
+     * {@link FrequencySketch}
+     */
+    static class TinyLfu extends Evictor {
+        private static final int WINDOW_PERCENT = 1;
+        private static final int PROTECTED_PERCENT = 80;
+
+        private final FrequencySketch sketch = new FrequencySketch();
+        private final LinkedHashMap<Key, Boolean> window = new LinkedHashMap<Key, Boolean>();
+        private final LinkedHashMap<Key, Boolean> candidates = new LinkedHashMap<Key, Boolean>();
+        private final LinkedHashMap<Key, Boolean> probation = new LinkedHashMap<Key, Boolean>();
+        private final LinkedHashMap<Key, Boolean> protect = new LinkedHashMap<Key, Boolean>();
+
+        @Override
+        void add(Key key) {
+            remove(key);
+            sketch.increment(key);
+            window.put(key, Boolean.TRUE);
+            balance();
+        }
+
+        @Override
+        void access(Key key) {
+            sketch.increment(key);
+            if (window.remove(key) != null){
+                window.put(key, Boolean.TRUE);
+            } else if (candidates.remove(key) != null || probation.remove(key) != null){
+                protect.put(key, Boolean.TRUE);
+                balance();
+            } else if (protect.remove(key) != null){
+                protect.put(key, Boolean.TRUE);
+            }
+        }
+
+        @Override
+        void remove(Key key) {
+            if (window.remove(key) == null && candidates.remove(key) == null && probation.remove(key) == null){
+                protect.remove(key);
+            }
+        }
+
+        @Override
+        Iterator<Key> order() {
+            return new Iterator<Key>() {
+                private final Iterator<Key> newcomers = candidates.keySet().iterator();
+                private final Iterator<Key> victims = probation.keySet().iterator();
+                private final Iterator<Key> recent = window.keySet().iterator();
+                private final Iterator<Key> rest = protect.keySet().iterator();
+                private Key candidate;
+                private Key victim;
+
+                @Override
+                public boolean hasNext() {
+                    return candidate != null || victim != null || newcomers.hasNext() || victims.hasNext()
+                            || recent.hasNext() || rest.hasNext();
+                }
+
+                @Override
+                public Key next() {
+                    if (candidate == null && newcomers.hasNext()){
+                        candidate = newcomers.next();
+                    }
+                    if (victim == null && victims.hasNext()){
+                        victim = victims.next();
+                    }
+                    Key ret;
+                    //candidate is admitted to main region only if it is used more often than the victim
+                    if (candidate != null && (victim == null || sketch.frequency(candidate) <= sketch.frequency(victim))){
+                        ret = candidate;
+                        candidate = null;
+                    } else if (victim != null){
+                        ret = victim;
+                        victim = null;
+                    } else if (recent.hasNext()){
+                        ret = recent.next();
+                    } else {
+                        ret = rest.next();
+                    }
+                    return ret;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        private void balance() {
+            int size = window.size() + candidates.size() + probation.size() + protect.size();
+            sketch.ensureCapacity(size);
+            int windowCapacity = Math.max(1, size * WINDOW_PERCENT / 100);
+            while (window.size() > windowCapacity){
+                moveFirst(window, candidates);
+            }
+            int protectedCapacity = (size - window.size()) * PROTECTED_PERCENT / 100;
+            while (protect.size() > protectedCapacity){
+                moveFirst(protect, probation);
+            }
+        }
+
+        private static void moveFirst(LinkedHashMap<Key, Boolean> from, LinkedHashMap<Key, Boolean> to) {
+            Iterator<Map.Entry<Key, Boolean>> iterator = from.entrySet().iterator();
+            Key key = iterator.next().getKey();
+            iterator.remove();
+            to.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Count-min sketch of 4 bit counters, counters are halved periodically so popularity ages
+     */
+    static class FrequencySketch {
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private byte[][] table;
+        private int mask;
+        private int additions;
+        private int sampleSize;
+
+        FrequencySketch() {
+            init(64);
+        }
+
+        void ensureCapacity(int size) {
+            if (size > table[0].length){
+                init(Integer.highestOneBit(size - 1) << 1);
+            }
+        }
+
+        void increment(Object o) {
+            int hash = spread(o.hashCode());
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++){
+                int index = index(hash, i);
+                if (table[i][index] < MAX_COUNT){
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize){
+                reset();
+            }
+        }
+
+        int frequency(Object o) {
+            int hash = spread(o.hashCode());
+            int ret = MAX_COUNT;
+            for (int i = 0; i < SEEDS.length; i++){
+                ret = Math.min(ret, table[i][index(hash, i)]);
+            }
+            return ret;
+        }
+
+        private void init(int width) {
+            table = new byte[SEEDS.length][width];
+            mask = width - 1;
+            sampleSize = 10 * width;
+            additions = 0;
+        }
+
+        private void reset() {
+            for (byte[] row : table){
+                for (int i = 0; i < row.length; i++){
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        private int index(int hash, int i) {
+            int h = (hash ^ SEEDS[i]) * SEEDS[i];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 17;
+            h *= 0xED5AD4BB;
+            return h ^ (h >>> 11);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.kinvey.java.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically removes expired entities of cached collections, so expired data does not keep occupying storage
+ * and is not skipped by every query.
+ *
+ * Every pass removes at most one batch per collection, remaining expired entities are removed by following passes,
+ * so a sweep never holds a collection locked for long. Sweeping starts once the first collection is registered.
+ */
+public class ExpirySweeper {
+
+    public static final long DEFAULT_PERIOD = 60 * 1000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final ConcurrentHashMap<String, ICache<?>> caches = new ConcurrentHashMap<String, ICache<?>>();
+    private final ConcurrentHashMap<String, Integer> batchSizes = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentHashMap<String, SweepStats> stats = new ConcurrentHashMap<String, SweepStats>();
+    private volatile int defaultBatchSize = DEFAULT_BATCH_SIZE;
+    private long period = DEFAULT_PERIOD;
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> task;
+    private boolean stopped;
+
+    /**
+     * Register collection to be swept, cache registered for the same collection before is replaced
+     */
+    public void register(String collection, ICache<?> cache) {
+        caches.put(collection, cache);
+        start();
+    }
+
+    /**
+     * @param batchSize maximum count of entities removed from the collection by single pass, 0 disables sweeping of it
+     */
+    public void setBatchSize(String collection, int batchSize) {
+        batchSizes.put(collection, Math.max(batchSize, 0));
+    }
+
+    /**
+     * @param batchSize batch size of collections without own configuration
+     */
+    public void setDefaultBatchSize(int batchSize) {
+        this.defaultBatchSize = Math.max(batchSize, 0);
+    }
+
+    /**
+     * @param period time between passes in milliseconds
+     */
+    public synchronized void setPeriod(long period) {
+        if (period <= 0){
+            throw new IllegalArgumentException("period should be positive");
+        }
+        this.period = period;
+        if (task != null){
+            task.cancel(false);
+            task = schedule();
+        }
+    }
+
+    public synchronized long getPeriod() {
+        return period;
+    }
+
+    /**
+     * Stop background sweeping, {@link #sweep()} could still be called explicitly
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (executor != null){
+            executor.shutdown();
+            executor = null;
+            task = null;
+        }
+    }
+
+    /**
+     * Run single pass over all registered collections on the calling thread
+     * @return data removed by this pass
+     */
+    public synchronized SweepStats sweep() {
+        SweepStats ret = SweepStats.EMPTY;
+        for (Map.Entry<String, ICache<?>> entry : caches.entrySet()){
+            String collection = entry.getKey();
+            Integer batchSize = batchSizes.get(collection);
+            int limit = batchSize != null ? batchSize : defaultBatchSize;
+            if (limit == 0){
+                continue;
+            }
+            try {
+                SweepStats removed = entry.getValue().deleteExpired(limit);
+                if (removed.getRows() > 0){
+                    stats.put(collection, getStats(collection).add(removed));
+                    ret = ret.add(removed);
+                }
+            } catch (RuntimeException e) {
+                Logger.ERROR("Could not remove expired data of " + collection + ": " + e.getMessage());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return data removed from the collection since it was registered
+     */
+    public SweepStats getStats(String collection) {
+        SweepStats ret = stats.get(collection);
+        return ret != null ? ret : SweepStats.EMPTY;
+    }
+
+    /**
+     * @return data removed from all collections
+     */
+    public SweepStats getStats() {
+        SweepStats ret = SweepStats.EMPTY;
+        for (SweepStats collectionStats : stats.values()){
+            ret = ret.add(collectionStats);
+        }
+        return ret;
+    }
+
+    private synchronized void start() {
+        if (executor != null || stopped){
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "KinveyCacheExpiry");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        task = schedule();
+    }
+
+    private ScheduledFuture<?> schedule() {
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sweep();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.kinvey.java.Query;
+import com.kinvey.java.query.AbstractQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes of a single cached collection, map field values to entity ids.
+ *
+ * Indexes only narrow down the set of entities to be checked, every candidate is still evaluated with
+ * {@link QueryMatcher}, so results are the same as with a full scan. Entities matched through an index
+ * are visited in storage order, that is the order entities were first added in, as a scan visits them.
+ *
+ * NOTE: not thread safe, callers guard it with the lock of the collection
+ */
+class FieldIndexes {
+
+    private static final Comparator<Object> KEY_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(Object lhs, Object rhs) {
+            return QueryMatcher.compare(lhs, rhs);
+        }
+    };
+
+    private final HashMap<String, FieldIndex> indexes = new HashMap<String, FieldIndex>();
+    //storage order of indexed entities, kept while entity is updated
+    private final HashMap<String, Long> positions = new HashMap<String, Long>();
+    private long nextPosition;
+
+    private final Comparator<String> storageOrder = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            return positions.get(lhs).compareTo(positions.get(rhs));
+        }
+    };
+
+    /**
+     * Ids to be visited for a query
+     */
+    static class QueryPlan {
+        final Iterator<String> ids;
+        final boolean sorted;
+
+        QueryPlan(Iterator<String> ids, boolean sorted) {
+            this.ids = ids;
+            this.sorted = sorted;
+        }
+    }
+
+    boolean isEmpty() {
+        return indexes.isEmpty();
+    }
+
+    /**
+     * Declare index, index of the same type on the same field is kept
+     * @return true if new empty index was created and should be filled with {@link #add(String, String, Map)}
+     */
+    boolean create(String field, IndexType type) {
+        FieldIndex existing = indexes.get(field);
+        if (existing != null && existing.type == type){
+            return false;
+        }
+        indexes.put(field, new FieldIndex(field, type));
+        return true;
+    }
+
+    /**
+     * Add or replace entity in all indexes
+     */
+    void add(String id, Map<?, ?> entity) {
+        if (indexes.isEmpty()){
+            return;
+        }
+        position(id);
+        for (FieldIndex index : indexes.values()){
+            index.add(id, entity);
+        }
+    }
+
+    /**
+     * Add or replace entity in index of given field, entities are expected to be added in storage order
+     */
+    void add(String field, String id, Map<?, ?> entity) {
+        position(id);
+        indexes.get(field).add(id, entity);
+    }
+
+    void remove(String id) {
+        positions.remove(id);
+        for (FieldIndex index : indexes.values()){
+            index.remove(id);
+        }
+    }
+
+    void clear() {
+        positions.clear();
+        for (FieldIndex index : indexes.values()){
+            index.clear();
+        }
+    }
+
+    /**
+     * @return ids of entities that could match the filter, or null if no index applies and collection should be scanned
+     */
+    Set<String> candidates(Map<?, ?> filter) {
+        if (filter == null || indexes.isEmpty()){
+            return null;
+        }
+        Set<String> best = null;
+        for (Map.Entry<?, ?> entry : filter.entrySet()){
+            String field = String.valueOf(entry.getKey());
+            Set<String> current = null;
+            if (field.equalsIgnoreCase("$and")){
+                for (Object component : QueryMatcher.asList(entry.getValue())){
+                    if (component instanceof Map){
+                        current = smaller(current, candidates((Map<?, ?>) component));
+                    }
+                }
+            } else if (field.equalsIgnoreCase("$or")){
+                current = new LinkedHashSet<String>();
+                for (Object component : QueryMatcher.asList(entry.getValue())){
+                    Set<String> ids = component instanceof Map ? candidates((Map<?, ?>) component) : null;
+                    if (ids == null){
+                        current = null;
+                        break;
+                    }
+                    current.addAll(ids);
+                }
+            } else if (indexes.containsKey(field)){
+                current = indexes.get(field).candidates(entry.getValue());
+            }
+            best = smaller(best, current);
+            if (best != null && best.isEmpty()){
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return ids to be visited to answer the query, or null if collection should be scanned
+     */
+    QueryPlan plan(Query query) {
+        if (indexes.isEmpty()){
+            return null;
+        }
+        Set<String> candidates = candidates(query.getQueryFilterMap());
+        if (candidates != null){
+            //index order would differ from a scan, also for ties of a sort
+            List<String> ids = new ArrayList<String>(candidates.size());
+            for (String id : candidates){
+                if (positions.containsKey(id)){
+                    ids.add(id);
+                }
+            }
+            Collections.sort(ids, storageOrder);
+            return new QueryPlan(ids.iterator(), false);
+        }
+        Map<String, AbstractQuery.SortOrder> sort = query.getSort();
+        if (sort == null || sort.size() != 1){
+            return null;
+        }
+        Map.Entry<String, AbstractQuery.SortOrder> order = sort.entrySet().iterator().next();
+        FieldIndex index = indexes.get(order.getKey());
+        if (index == null || index.type != IndexType.SORTED || index.multiKey){
+            return null;
+        }
+        return new QueryPlan(index.ordered(order.getValue() == AbstractQuery.SortOrder.DESC), true);
+    }
+
+    private void position(String id) {
+        if (!positions.containsKey(id)){
+            positions.put(id, nextPosition++);
+        }
+    }
+
+    private static Set<String> smaller(Set<String> lhs, Set<String> rhs) {
+        if (lhs == null){
+            return rhs;
+        }
+        return rhs == null || lhs.size() <= rhs.size() ? lhs : rhs;
+    }
+
+    /**
+     * Numbers are equal by value, so they are indexed as doubles
+     */
+    private static Object normalize(Object value) {
+        return value instanceof Number ? Double.valueOf(((Number) value).doubleValue()) : value;
+    }
+
+    /**
+     * Index of a single field
+     */
+    private static class FieldIndex {
+        final String[] path;
+        final IndexType type;
+        final Map<Object, Set<String>> buckets;
+        final HashMap<String, Object[]> keysById = new HashMap<String, Object[]>();
+        //true once an array value was indexed, such index could not be used for sorting
+        boolean multiKey;
+
+        FieldIndex(String field, IndexType type) {
+            this.path = field.split("\\.");
+            this.type = type;
+            this.buckets = type != IndexType.HASH
+                    ? new TreeMap<Object, Set<String>>(KEY_ORDER)
+                    : new HashMap<Object, Set<String>>();
+        }
+
+        void add(String id, Map<?, ?> entity) {
+            remove(id);
+            Object value = QueryMatcher.getValue(entity, path);
+            Object[] keys;
+            if (type == IndexType.GEO){
+                double[] point = GeoMatcher.point(value);
+                keys = point != null ? new Object[]{GeoMatcher.encode(point)} : new Object[0];
+            } else if (QueryMatcher.isArrayOrCollection(value)){
+                multiKey = true;
+                Set<Object> unique = new LinkedHashSet<Object>();
+                for (Object o : QueryMatcher.asList(value)){
+                    unique.add(normalize(o));
+                }
+                keys = unique.toArray();
+            } else {
+                keys = new Object[]{normalize(value)};
+            }
+            for (Object key : keys){
+                Set<String> bucket = buckets.get(key);
+                if (bucket == null){
+                    bucket = new LinkedHashSet<String>();
+                    buckets.put(key, bucket);
+                }
+                bucket.add(id);
+            }
+            keysById.put(id, keys);
+        }
+
+        void remove(String id) {
+            Object[] keys = keysById.remove(id);
+            if (keys == null){
+                return;
+            }
+            for (Object key : keys){
+                Set<String> bucket = buckets.get(key);
+                if (bucket != null){
+                    bucket.remove(id);
+                    if (bucket.isEmpty()){
+                        buckets.remove(key);
+                    }
+                }
+            }
+        }
+
+        void clear() {
+            buckets.clear();
+            keysById.clear();
+            multiKey = false;
+        }
+
+        /**
+         * @return ids for condition of the query filter on this field, or null if condition could not be served
+         */
+        Set<String> candidates(Object params) {
+            if (type == IndexType.GEO){
+                return params instanceof Map ? area((Map<?, ?>) params) : null;
+            }
+            if (!(params instanceof Map) || !QueryMatcher.isOperatorMap((Map<?, ?>) params)){
+                if (params instanceof Map || QueryMatcher.isArrayOrCollection(params)){
+                    return null;
+                }
+                return lookup(Collections.singletonList(params));
+            }
+            Map<?, ?> operators = (Map<?, ?>) params;
+            Set<String> ret = null;
+            if (operators.containsKey("$in")){
+                List<Object> values = QueryMatcher.asList(operators.get("$in"));
+                for (Object value : values){
+                    if (value instanceof Map || QueryMatcher.isArrayOrCollection(value)){
+                        return null;
+                    }
+                }
+                ret = lookup(values);
+            }
+            if (type == IndexType.SORTED){
+                Set<String> range = null;
+                if (operators.containsKey("$gt") || operators.containsKey("$gte")){
+                    boolean inclusive = !operators.containsKey("$gt");
+                    Object lower = operators.get(inclusive ? "$gte" : "$gt");
+                    range = range(lower, inclusive, true);
+                }
+                if (operators.containsKey("$lt") || operators.containsKey("$lte")){
+                    boolean inclusive = !operators.containsKey("$lt");
+                    Object upper = operators.get(inclusive ? "$lte" : "$lt");
+                    Set<String> below = range(upper, inclusive, false);
+                    if (range == null){
+                        range = below;
+                    } else {
+                        range.retainAll(below);
+                    }
+                }
+                String prefix = operators.containsKey("$regex")
+                        ? QueryMatcher.prefix(operators.get("$regex"), operators.get("$options"))
+                        : null;
+                if (prefix != null){
+                    Set<String> prefixed = prefixed(prefix);
+                    if (range == null){
+                        range = prefixed;
+                    } else {
+                        range.retainAll(prefixed);
+                    }
+                }
+                if (range != null){
+                    if (ret == null){
+                        ret = range;
+                    } else {
+                        ret.retainAll(range);
+                    }
+                }
+            }
+            return ret;
+        }
+
+        private Set<String> lookup(List<Object> values) {
+            Set<String> ret = new LinkedHashSet<String>();
+            for (Object value : values){
+                Set<String> bucket = buckets.get(normalize(value));
+                if (bucket != null){
+                    ret.addAll(bucket);
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Ids of points in cells that cover area of the geospatial condition
+         */
+        private Set<String> area(Map<?, ?> operators) {
+            List<long[]> ranges = GeoMatcher.cover(operators);
+            if (ranges == null){
+                return null;
+            }
+            Set<String> ret = new LinkedHashSet<String>();
+            NavigableMap<Object, Set<String>> cells = (NavigableMap<Object, Set<String>>) buckets;
+            for (long[] range : ranges){
+                for (Set<String> bucket : cells.subMap(range[0], true, range[1], false).values()){
+                    ret.addAll(bucket);
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Ids with keys of the same type as the bound, above or below it
+         */
+        private Set<String> range(Object bound, boolean inclusive, boolean above) {
+            Set<String> ret = new LinkedHashSet<String>();
+            if (bound == null){
+                return ret;
+            }
+            NavigableMap<Object, Set<String>> sorted = (NavigableMap<Object, Set<String>>) buckets;
+            Object key = normalize(bound);
+            NavigableMap<Object, Set<String>> view = above
+                    ? sorted.tailMap(key, inclusive)
+                    : sorted.headMap(key, inclusive).descendingMap();
+            int rank = QueryMatcher.typeRank(key);
+            for (Map.Entry<Object, Set<String>> entry : view.entrySet()){
+                if (QueryMatcher.typeRank(entry.getKey()) != rank){
+                    break;
+                }
+                ret.addAll(entry.getValue());
+            }
+            return ret;
+        }
+
+        /**
+         * Ids with string keys starting with the prefix, they are adjacent in the key order
+         */
+        private Set<String> prefixed(String prefix) {
+            Set<String> ret = new LinkedHashSet<String>();
+            NavigableMap<Object, Set<String>> sorted = (NavigableMap<Object, Set<String>>) buckets;
+            for (Map.Entry<Object, Set<String>> entry : sorted.tailMap(prefix, true).entrySet()){
+                Object key = entry.getKey();
+                if (QueryMatcher.typeRank(key) != QueryMatcher.typeRank(prefix) || !key.toString().startsWith(prefix)){
+                    break;
+                }
+                ret.addAll(entry.getValue());
+            }
+            return ret;
+        }
+
+        /**
+         * @return all indexed ids in order of their keys
+         */
+        Iterator<String> ordered(boolean descending) {
+            final Iterator<Set<String>> keys = descending
+                    ? ((NavigableMap<Object, Set<String>>) buckets).descendingMap().values().iterator()
+                    : buckets.values().iterator();
+            return new Iterator<String>() {
+                private Iterator<String> current = Collections.<String>emptyList().iterator();
+
+                @Override
+                public boolean hasNext() {
+                    while (!current.hasNext() && keys.hasNext()){
+                        current = keys.next().iterator();
+                    }
+                    return current.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()){
+                        throw new NoSuchElementException();
+                    }
+                    return current.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates geospatial conditions of query filters ($nearSphere with $maxDistance, $within with $box or $polygon)
+ * and maps points to cells of {@link IndexType#GEO} indexes.
+ *
+ * Points are [longitude, latitude] pairs as in "_geoloc" field, distances are in miles as on the server.
+ */
+abstract class GeoMatcher {
+
+    static final double EARTH_RADIUS_MILES = 3963.2;
+
+    //bits per axis of a cell code, cells are about 2 feet wide at the finest level
+    private static final int BITS = 26;
+    //maximal number of cells covering searched area, larger areas are covered with coarser cells
+    private static final int MAX_CELLS = 64;
+
+    /**
+     * @return [longitude, latitude] of the value, or null if value is not a point
+     */
+    static double[] point(Object value) {
+        if (!QueryMatcher.isArrayOrCollection(value)){
+            return null;
+        }
+        List<Object> coordinates = QueryMatcher.asList(value);
+        if (coordinates.size() != 2 || !(coordinates.get(0) instanceof Number) || !(coordinates.get(1) instanceof Number)){
+            return null;
+        }
+        return new double[]{((Number) coordinates.get(0)).doubleValue(), ((Number) coordinates.get(1)).doubleValue()};
+    }
+
+    /**
+     * @return center of $nearSphere condition of the filter, or null if there is no such top level condition
+     */
+    static double[] nearCenter(Map<String, Object> filter, String[] field) {
+        if (filter == null){
+            return null;
+        }
+        for (Map.Entry<String, Object> entry : filter.entrySet()){
+            if (entry.getValue() instanceof Map && ((Map<?, ?>) entry.getValue()).containsKey("$nearSphere")){
+                field[0] = entry.getKey();
+                return point(((Map<?, ?>) entry.getValue()).get("$nearSphere"));
+            }
+        }
+        return null;
+    }
+
+    static boolean nearSphere(Object value, Object center, Object maxDistance) {
+        double[] p = point(value);
+        double[] c = point(center);
+        if (p == null || c == null){
+            return false;
+        }
+        return !(maxDistance instanceof Number) || distance(p, c) <= ((Number) maxDistance).doubleValue();
+    }
+
+    static boolean within(Object value, Object shape) {
+        double[] p = point(value);
+        if (!(shape instanceof Map)){
+            throw new UnsupportedOperationException("this query is not supported by cache");
+        }
+        Map<?, ?> operators = (Map<?, ?>) shape;
+        if (operators.containsKey("$box")){
+            double[][] corners = points(operators.get("$box"));
+            return p != null && corners.length == 2 && inBox(p, bounds(corners));
+        } else if (operators.containsKey("$polygon")){
+            double[][] vertices = points(operators.get("$polygon"));
+            return p != null && vertices.length >= 3 && inPolygon(p, vertices);
+        }
+        throw new UnsupportedOperationException("this query is not supported by cache");
+    }
+
+    /**
+     * Great circle distance between points
+     * @return distance in miles
+     */
+    static double distance(double[] a, double[] b) {
+        double lat1 = Math.toRadians(a[1]);
+        double lat2 = Math.toRadians(b[1]);
+        double dLat = lat2 - lat1;
+        double dLon = Math.toRadians(b[0] - a[0]);
+        double h = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_MILES * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * @return cell code of the point, codes of close points share prefixes
+     */
+    static long encode(double[] point) {
+        return interleave(cell(point[0], -180, 360, BITS), cell(point[1], -90, 180, BITS), BITS);
+    }
+
+    /**
+     * @return ranges [from, to) of cell codes that contain all points matching the condition,
+     * or null if condition does not limit the area
+     */
+    static List<long[]> cover(Map<?, ?> operators) {
+        if (operators.containsKey("$nearSphere") && operators.get("$maxDistance") instanceof Number){
+            double[] center = point(operators.get("$nearSphere"));
+            if (center == null){
+                return null;
+            }
+            double angle = ((Number) operators.get("$maxDistance")).doubleValue() / EARTH_RADIUS_MILES;
+            double dLat = Math.toDegrees(angle);
+            if (center[1] + dLat >= 90 || center[1] - dLat <= -90){
+                return null;
+            }
+            double sin = Math.sin(angle) / Math.cos(Math.toRadians(center[1]));
+            double dLon = sin >= 1 ? 180 : Math.toDegrees(Math.asin(sin));
+            if (center[0] - dLon < -180 || center[0] + dLon > 180){
+                //circle crosses antimeridian
+                return null;
+            }
+            return cover(new double[]{center[0] - dLon, center[1] - dLat, center[0] + dLon, center[1] + dLat});
+        }
+        if (operators.get("$within") instanceof Map){
+            Map<?, ?> shape = (Map<?, ?>) operators.get("$within");
+            Object points = shape.containsKey("$box") ? shape.get("$box") : shape.get("$polygon");
+            double[][] vertices = points(points);
+            return vertices.length > 0 ? cover(bounds(vertices)) : null;
+        }
+        return null;
+    }
+
+    /**
+     * @param bounds minLon, minLat, maxLon, maxLat
+     */
+    private static List<long[]> cover(double[] bounds) {
+        for (int level = BITS; ; level--){
+            long x0 = cell(bounds[0], -180, 360, level);
+            long x1 = cell(bounds[2], -180, 360, level);
+            long y0 = cell(bounds[1], -90, 180, level);
+            long y1 = cell(bounds[3], -90, 180, level);
+            if ((x1 - x0 + 1) * (y1 - y0 + 1) <= MAX_CELLS){
+                List<long[]> ret = new ArrayList<long[]>();
+                int shift = 2 * (BITS - level);
+                for (long x = x0; x <= x1; x++){
+                    for (long y = y0; y <= y1; y++){
+                        long prefix = interleave(x, y, level);
+                        ret.add(new long[]{prefix << shift, (prefix + 1) << shift});
+                    }
+                }
+                return ret;
+            }
+        }
+    }
+
+    private static long cell(double value, double min, double range, int bits) {
+        long cells = 1L << bits;
+        long ret = (long) Math.floor((value - min) / range * cells);
+        return Math.max(0, Math.min(cells - 1, ret));
+    }
+
+    private static long interleave(long x, long y, int bits) {
+        long ret = 0;
+        for (int i = bits - 1; i >= 0; i--){
+            ret = (ret << 2) | (((x >> i) & 1) << 1) | ((y >> i) & 1);
+        }
+        return ret;
+    }
+
+    private static double[][] points(Object value) {
+        List<Object> items = QueryMatcher.asList(value);
+        double[][] ret = new double[items.size()][];
+        for (int i = 0; i < ret.length; i++){
+            ret[i] = point(items.get(i));
+            if (ret[i] == null){
+                throw new UnsupportedOperationException("this query is not supported by cache");
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return minLon, minLat, maxLon, maxLat of the points
+     */
+    private static double[] bounds(double[][] points) {
+        double[] ret = new double[]{Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (double[] p : points){
+            ret[0] = Math.min(ret[0], p[0]);
+            ret[1] = Math.min(ret[1], p[1]);
+            ret[2] = Math.max(ret[2], p[0]);
+            ret[3] = Math.max(ret[3], p[1]);
+        }
+        return ret;
+    }
+
+    private static boolean inBox(double[] p, double[] bounds) {
+        return p[0] >= bounds[0] && p[0] <= bounds[2] && p[1] >= bounds[1] && p[1] <= bounds[3];
+    }
+
+    /**
+     * Ray casting, points on the edges may fall either side
+     */
+    private static boolean inPolygon(double[] p, double[][] vertices) {
+        boolean inside = false;
+        for (int i = 0, j = vertices.length - 1; i < vertices.length; j = i++){
+            double[] a = vertices[i];
+            double[] b = vertices[j];
+            if ((a[1] > p[1]) != (b[1] > p[1]) &&
+                    p[0] < (b[0] - a[0]) * (p[1] - a[1]) / (b[1] - a[1]) + a[0]){
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
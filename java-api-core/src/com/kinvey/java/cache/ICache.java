@@ -32,6 +32,14 @@ public interface ICache<T extends GenericJson> {
      */
     List<T> get(Query query);   //run query
 
+    /**
+     * Query cache for objects matching query without loading all of them at once,
+     * objects are decoded as the cursor advances
+     * @param query
+     * @return cursor over matched objects, should be closed when it is not needed anymore
+     */
+    ICacheCursor<T> iterate(Query query);
+
     /**
      * Query cache for objects with given ids
      * @param ids
@@ -67,6 +75,22 @@ public interface ICache<T extends GenericJson> {
      * @return id of saved items
      */
     T save (T item);   //store objects in cache
+    /**
+     * Delete all objects matching query and save given items in a single transaction,
+     * so readers never see the collection without either old or new objects
+     * @param query
+     * @param items
+     * @return saved items
+     */
+    List<T> replace(Query query, Iterable<T> items);
+
+    /**
+     * Apply all operations of the batch in a single transaction, in the order they were added
+     * @param batch
+     * @return items saved by the batch
+     */
+    List<T> execute(CacheBatch<T> batch);
+
     /**
      * Delete all object that matches query
      * @param query
@@ -91,6 +115,13 @@ public interface ICache<T extends GenericJson> {
     void clear();
 
 
+    /**
+     * Remove expired objects from the cache
+     * @param limit maximum count of objects to be removed
+     * @return count and size of removed objects
+     */
+    SweepStats deleteExpired(int limit);
+
     /**
      * gets the first item from the cache
      * @return first item
@@ -120,4 +151,12 @@ public interface ICache<T extends GenericJson> {
      * @param ttl ttl value to be set in milliseconds
      */
     void setTtl(long ttl);
+
+    /**
+     * Declare secondary index on the field of this collection, so queries filtering or sorting
+     * by the field do not have to check every cached item
+     * @param field name of the field, nested fields are separated by dot, for example "_kmd.lmt"
+     * @param type type of the index
+     */
+    void createIndex(String field, IndexType type);
 }
@@ -0,0 +1,34 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Lazy result of a cache query, entities are read and decoded one by one as the cursor advances.
+ *
+ * Cursor could be abandoned at any position, but it should be closed so resources held by it are released.
+ */
+public interface ICacheCursor<T> extends Iterator<T>, Closeable {
+
+    /**
+     * Release resources held by the cursor, closed cursor has no more elements
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,33 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache that could list ids of stored entities matching a filter regardless of paging and expiration,
+ * which are the entities removed by a delete by query
+ */
+interface IdLookup {
+
+    /**
+     * @param filter query filter map, see {@link com.kinvey.java.Query#getQueryFilterMap()}
+     * @return ids of all stored entities matching the filter, expired ones included
+     */
+    List<String> matchingIds(Map<?, ?> filter);
+}
@@ -0,0 +1,511 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.KinveyException;
+import com.kinvey.java.Query;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Heap based {@link ICache} implementation, used by clients that run on a plain JVM where no embedded database is available.
+ *
+ * Entities are stored as copies, so changes made by the caller to saved or returned objects do not affect cached data.
+ * Reads are served concurrently, writes are exclusive per collection.
+ */
+public class InMemoryCache<T extends GenericJson> implements ICache<T>, IdLookup {
+
+    private final String collection;
+    private final Storage storage;
+    private final Class<T> collectionItemClass;
+    private long ttl;
+
+    InMemoryCache(String collection, Storage storage, Class<T> collectionItemClass, long ttl) {
+        this.collection = collection;
+        this.storage = storage;
+        this.collectionItemClass = collectionItemClass;
+        this.ttl = ttl > 0 ? ttl : 0;
+    }
+
+    @Override
+    public List<T> get(Query query) {
+        List<GenericJson> matched = new ArrayList<GenericJson>();
+        long now = System.currentTimeMillis();
+        int skip = Math.max(query.getSkip(), 0);
+        int limit = query.getLimit();
+        boolean sorted = false;
+        storage.lock.readLock().lock();
+        try {
+            FieldIndexes.QueryPlan plan = storage.indexes.plan(query);
+            if (plan != null){
+                sorted = plan.sorted;
+                while (plan.ids.hasNext() && !(sorted && limit > 0 && matched.size() >= skip + limit)){
+                    Entry entry = storage.entries.get(plan.ids.next());
+                    if (entry != null && entry.isAlive(now) && QueryMatcher.matches(entry.item, query.getQueryFilterMap())){
+                        matched.add(entry.item);
+                    }
+                }
+            } else {
+                for (Entry entry : storage.entries.values()){
+                    if (entry.isAlive(now) && QueryMatcher.matches(entry.item, query.getQueryFilterMap())){
+                        matched.add(entry.item);
+                    }
+                }
+            }
+        } finally {
+            storage.lock.readLock().unlock();
+        }
+
+        if (!sorted){
+            QueryMatcher.sort(matched, query);
+        }
+
+        int end = limit > 0 ? Math.min(matched.size(), skip + limit) : matched.size();
+
+        List<T> ret = new ArrayList<T>();
+        for (int i = skip; i < end; i++){
+            ret.add(copyAs(matched.get(i)));
+        }
+        return ret;
+    }
+
+    @Override
+    public ICacheCursor<T> iterate(Query query) {
+        List<String> ids;
+        storage.lock.readLock().lock();
+        try {
+            FieldIndexes.QueryPlan plan = storage.indexes.plan(query);
+            if (QueryCursor.isSorted(query) && (plan == null || !plan.sorted)){
+                ids = null;
+            } else if (plan != null){
+                ids = new ArrayList<String>();
+                while (plan.ids.hasNext()){
+                    ids.add(plan.ids.next());
+                }
+            } else {
+                ids = new ArrayList<String>(storage.entries.keySet());
+            }
+        } finally {
+            storage.lock.readLock().unlock();
+        }
+        if (ids == null){
+            //all matched entities are needed to sort them
+            return QueryCursor.of(get(query));
+        }
+        return new QueryCursor<T>(ids.iterator(), query) {
+            @Override
+            protected T load(String id) {
+                return get(id);
+            }
+        };
+    }
+
+    @Override
+    public List<T> get(Iterable<String> ids) {
+        List<T> ret = new ArrayList<T>();
+        long now = System.currentTimeMillis();
+        storage.lock.readLock().lock();
+        try {
+            for (String id : ids){
+                Entry entry = storage.entries.get(id);
+                if (entry != null && entry.isAlive(now)){
+                    ret.add(copyAs(entry.item));
+                }
+            }
+        } finally {
+            storage.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public T get(String id) {
+        storage.lock.readLock().lock();
+        try {
+            Entry entry = storage.entries.get(id);
+            return entry != null && entry.isAlive(System.currentTimeMillis()) ? copyAs(entry.item) : null;
+        } finally {
+            storage.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<T> get() {
+        List<T> ret = new ArrayList<T>();
+        long now = System.currentTimeMillis();
+        storage.lock.readLock().lock();
+        try {
+            for (Entry entry : storage.entries.values()){
+                if (entry.isAlive(now)){
+                    ret.add(copyAs(entry.item));
+                }
+            }
+        } finally {
+            storage.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public List<T> save(Iterable<T> items) {
+        List<T> ret = new ArrayList<T>();
+        long expireAt = getItemExpireTime();
+        storage.lock.writeLock().lock();
+        try {
+            for (T item : items){
+                insertOrUpdate(item, expireAt);
+                ret.add(item);
+            }
+        } finally {
+            storage.lock.writeLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public T save(T item) {
+        long expireAt = getItemExpireTime();
+        storage.lock.writeLock().lock();
+        try {
+            insertOrUpdate(item, expireAt);
+        } finally {
+            storage.lock.writeLock().unlock();
+        }
+        return item;
+    }
+
+    @Override
+    public List<T> replace(Query query, Iterable<T> items) {
+        return execute(new CacheBatch<T>().delete(query).save(items));
+    }
+
+    @Override
+    public List<T> execute(CacheBatch<T> batch) {
+        List<T> ret = new ArrayList<T>();
+        //write lock is reentrant, readers see either none or all of the operations
+        storage.lock.writeLock().lock();
+        try {
+            for (CacheBatch.Operation<T> operation : batch.getOperations()){
+                switch (operation.getType()){
+                    case DELETE_QUERY:
+                        delete(operation.getQuery());
+                        break;
+                    case DELETE_IDS:
+                        delete(operation.getIds());
+                        break;
+                    case SAVE:
+                        ret.addAll(save(operation.getItems()));
+                        break;
+                }
+            }
+        } finally {
+            storage.lock.writeLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete(Query query) {
+        int ret = 0;
+        storage.lock.writeLock().lock();
+        try {
+            Set<String> candidates = storage.indexes.candidates(query.getQueryFilterMap());
+            for (Iterator<Map.Entry<String, Entry>> iterator = storage.entries.entrySet().iterator(); iterator.hasNext(); ){
+                Map.Entry<String, Entry> entry = iterator.next();
+                if ((candidates == null || candidates.contains(entry.getKey()))
+                        && QueryMatcher.matches(entry.getValue().item, query.getQueryFilterMap())){
+                    iterator.remove();
+                    storage.indexes.remove(entry.getKey());
+                    ret++;
+                }
+            }
+        } finally {
+            storage.lock.writeLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public List<String> matchingIds(Map<?, ?> filter) {
+        List<String> ret = new ArrayList<String>();
+        storage.lock.readLock().lock();
+        try {
+            Set<String> candidates = storage.indexes.candidates(filter);
+            for (Map.Entry<String, Entry> entry : storage.entries.entrySet()){
+                if ((candidates == null || candidates.contains(entry.getKey()))
+                        && QueryMatcher.matches(entry.getValue().item, filter)){
+                    ret.add(entry.getKey());
+                }
+            }
+        } finally {
+            storage.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete(Iterable<String> ids) {
+        int ret = 0;
+        storage.lock.writeLock().lock();
+        try {
+            for (String id : ids){
+                if (storage.entries.remove(id) != null){
+                    storage.indexes.remove(id);
+                    ret++;
+                }
+            }
+        } finally {
+            storage.lock.writeLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete(String id) {
+        storage.lock.writeLock().lock();
+        try {
+            if (storage.entries.remove(id) == null){
+                return 0;
+            }
+            storage.indexes.remove(id);
+            return 1;
+        } finally {
+            storage.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        storage.clear();
+    }
+
+    /**
+     * Heap usage of entities is not tracked, so removed bytes are not reported
+     */
+    @Override
+    public SweepStats deleteExpired(int limit) {
+        int ret = 0;
+        long now = System.currentTimeMillis();
+        storage.lock.writeLock().lock();
+        try {
+            for (Iterator<Map.Entry<String, Entry>> iterator = storage.entries.entrySet().iterator();
+                 iterator.hasNext() && ret < limit; ){
+                Map.Entry<String, Entry> entry = iterator.next();
+                if (!entry.getValue().isAlive(now)){
+                    iterator.remove();
+                    storage.indexes.remove(entry.getKey());
+                    ret++;
+                }
+            }
+        } finally {
+            storage.lock.writeLock().unlock();
+        }
+        return new SweepStats(ret, 0);
+    }
+
+    @Override
+    public T getFirst() {
+        long now = System.currentTimeMillis();
+        storage.lock.readLock().lock();
+        try {
+            for (Entry entry : storage.entries.values()){
+                if (entry.isAlive(now)){
+                    return copyAs(entry.item);
+                }
+            }
+        } finally {
+            storage.lock.readLock().unlock();
+        }
+        return null;
+    }
+
+    @Override
+    public T getFirst(Query q) {
+        long now = System.currentTimeMillis();
+        storage.lock.readLock().lock();
+        try {
+            for (Entry entry : entries(storage.indexes.candidates(q.getQueryFilterMap()))){
+                if (entry.isAlive(now) && QueryMatcher.matches(entry.item, q.getQueryFilterMap())){
+                    return copyAs(entry.item);
+                }
+            }
+        } finally {
+            storage.lock.readLock().unlock();
+        }
+        return null;
+    }
+
+    @Override
+    public long count(Query q) {
+        long ret = 0;
+        long now = System.currentTimeMillis();
+        storage.lock.readLock().lock();
+        try {
+            for (Entry entry : entries(q == null ? null : storage.indexes.candidates(q.getQueryFilterMap()))){
+                if (entry.isAlive(now) && (q == null || QueryMatcher.matches(entry.item, q.getQueryFilterMap()))){
+                    ret++;
+                }
+            }
+        } finally {
+            storage.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public long getTtl() {
+        return ttl;
+    }
+
+    @Override
+    public void setTtl(long ttl) {
+        this.ttl = ttl > 0 ? ttl : 0;
+    }
+
+    @Override
+    public void createIndex(String field, IndexType type) {
+        storage.lock.writeLock().lock();
+        try {
+            if (storage.indexes.create(field, type)){
+                for (Map.Entry<String, Entry> entry : storage.entries.entrySet()){
+                    storage.indexes.add(field, entry.getKey(), entry.getValue().item);
+                }
+            }
+        } finally {
+            storage.lock.writeLock().unlock();
+        }
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public Class<T> getCollectionItemClass() {
+        return collectionItemClass;
+    }
+
+    /**
+     * NOTE: should be called with write lock held
+     */
+    private void insertOrUpdate(T item, long expireAt){
+        if (item.get("_id") == null){
+            item.put("_id", UUID.randomUUID().toString());
+        }
+        String id = item.get("_id").toString();
+        //keep position of updated entity to preserve insertion order
+        GenericJson copy = item.clone();
+        storage.entries.put(id, new Entry(copy, expireAt));
+        storage.indexes.add(id, copy);
+    }
+
+    /**
+     * @return entries with given ids, or all entries if ids are null
+     * NOTE: should be called with lock held
+     */
+    private Collection<Entry> entries(Set<String> ids){
+        if (ids == null){
+            return storage.entries.values();
+        }
+        List<Entry> ret = new ArrayList<Entry>(ids.size());
+        for (String id : ids){
+            Entry entry = storage.entries.get(id);
+            if (entry != null){
+                ret.add(entry);
+            }
+        }
+        return ret;
+    }
+
+    private T copyAs(GenericJson item){
+        if (collectionItemClass.isInstance(item)){
+            return collectionItemClass.cast(item.clone());
+        }
+        try {
+            T ret = collectionItemClass.getDeclaredConstructor().newInstance();
+            ret.putAll(item.clone());
+            return ret;
+        } catch (InstantiationException e) {
+            throw new KinveyException("Could not create instance of " + collectionItemClass.getName(),
+                    "Make sure collection item class has public default constructor", e.getMessage());
+        } catch (IllegalAccessException e) {
+            throw new KinveyException("Could not create instance of " + collectionItemClass.getName(),
+                    "Make sure collection item class has public default constructor", e.getMessage());
+        } catch (NoSuchMethodException e) {
+            throw new KinveyException("Could not create instance of " + collectionItemClass.getName(),
+                    "Make sure collection item class has public default constructor", e.getMessage());
+        } catch (InvocationTargetException e) {
+            throw new KinveyException("Could not create instance of " + collectionItemClass.getName(),
+                    "Make sure collection item class has public default constructor", e.getMessage());
+        }
+    }
+
+    private long getItemExpireTime(){
+        long currentTime = System.currentTimeMillis();
+        return currentTime + ttl < 0 ? Long.MAX_VALUE : currentTime + ttl;
+    }
+
+    /**
+     * Single cached entity with its expiration time
+     */
+    static class Entry {
+        final GenericJson item;
+        final long expireAt;
+
+        Entry(GenericJson item, long expireAt) {
+            this.item = item;
+            this.expireAt = expireAt;
+        }
+
+        boolean isAlive(long now){
+            return expireAt >= now;
+        }
+    }
+
+    /**
+     * Data of single collection, shared between all cache instances created for that collection
+     */
+    static class Storage {
+        final Class<? extends GenericJson> itemClass;
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final FieldIndexes indexes = new FieldIndexes();
+
+        Storage(Class<? extends GenericJson> itemClass) {
+            this.itemClass = itemClass;
+        }
+
+        void clear(){
+            lock.writeLock().lock();
+            try {
+                entries.clear();
+                indexes.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.KinveyException;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ICacheManager} that keeps all collections on the heap.
+ *
+ * Data lives as long as the manager instance, so it is suitable for server side clients
+ * that want to serve repeated reads locally, but not for data that has to survive restarts.
+ */
+public class InMemoryCacheManager implements ICacheManager {
+
+    private final ConcurrentHashMap<String, InMemoryCache.Storage> storages =
+            new ConcurrentHashMap<String, InMemoryCache.Storage>();
+    private final ExpirySweeper sweeper = new ExpirySweeper();
+
+    @Override
+    public <T extends GenericJson> ICache<T> getCache(String collection, Class<T> collectionItemClass, Long ttl) {
+        InMemoryCache.Storage storage = storages.get(collection);
+        if (storage == null){
+            InMemoryCache.Storage created = new InMemoryCache.Storage(collectionItemClass);
+            storage = storages.putIfAbsent(collection, created);
+            if (storage == null){
+                storage = created;
+            }
+        }
+        if (!collectionItemClass.isAssignableFrom(storage.itemClass) &&
+                !storage.itemClass.isAssignableFrom(collectionItemClass)){
+            throw new KinveyException("Class implementation for collection have been changed during runtime",
+                    "Please review the BaseDataStore usage, parameter should remain the same for same collection",
+                    "Seems like you have used different classes for same colledtion in AsyncAppDataCreaton");
+        }
+        ICache<T> cache = new InMemoryCache<T>(collection, storage, collectionItemClass, ttl == null ? 0 : ttl);
+        sweeper.register(collection, cache);
+        return cache;
+    }
+
+    @Override
+    public void clear() {
+        for (InMemoryCache.Storage storage : storages.values()){
+            storage.clear();
+        }
+        storages.clear();
+    }
+
+    /**
+     * @return sweeper removing expired entities of collections obtained from this manager
+     */
+    public ExpirySweeper getSweeper() {
+        return sweeper;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+/**
+ * Type of secondary index that could be declared on a cached collection field, see {@link ICache#createIndex(String, IndexType)}
+ */
+public enum IndexType {
+    /**
+     * Serves equality and $in conditions
+     */
+    HASH,
+    /**
+     * Serves equality, $in, range conditions ($gt, $gte, $lt, $lte), anchored $regex conditions such as
+     * {@link com.kinvey.java.Query#startsWith(String, Object)} and sorting by the field
+     */
+    SORTED,
+    /**
+     * Serves $nearSphere with $maxDistance and $within ($box, $polygon) conditions on [longitude, latitude] points,
+     * such as "_geoloc" field
+     */
+    GEO
+}
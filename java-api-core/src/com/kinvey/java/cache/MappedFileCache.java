@@ -0,0 +1,527 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Charsets;
+import com.kinvey.java.KinveyException;
+import com.kinvey.java.Query;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link ICache} implementation that persists collection in an append only {@link SegmentFile}.
+ *
+ * Entities are stored as json, lookups by id read only the requested records, queries decode
+ * not expired records one by one and evaluate them with {@link QueryMatcher}.
+ */
+public class MappedFileCache<T extends GenericJson> implements ICache<T>, IdLookup {
+
+    private final String collection;
+    private final SegmentFile segment;
+    private final MappedFileCacheManager manager;
+    private final Class<T> collectionItemClass;
+    private long ttl;
+
+    MappedFileCache(String collection, SegmentFile segment, MappedFileCacheManager manager,
+                    Class<T> collectionItemClass, long ttl) {
+        this.collection = collection;
+        this.segment = segment;
+        this.manager = manager;
+        this.collectionItemClass = collectionItemClass;
+        this.ttl = ttl > 0 ? ttl : 0;
+    }
+
+    @Override
+    public List<T> get(Query query) {
+        List<T> ret = new ArrayList<T>();
+        long now = System.currentTimeMillis();
+        int skip = Math.max(query.getSkip(), 0);
+        int limit = query.getLimit();
+        boolean sorted = false;
+        segment.lock.readLock().lock();
+        try {
+            FieldIndexes.QueryPlan plan = segment.indexes.plan(query);
+            if (plan != null){
+                sorted = plan.sorted;
+                while (plan.ids.hasNext() && !(sorted && limit > 0 && ret.size() >= skip + limit)){
+                    SegmentFile.Location location = segment.locate(plan.ids.next());
+                    if (location != null && location.isAlive(now)){
+                        T item = read(location);
+                        if (QueryMatcher.matches(item, query.getQueryFilterMap())){
+                            ret.add(item);
+                        }
+                    }
+                }
+            } else {
+                for (Map.Entry<String, SegmentFile.Location> entry : segment.entries()){
+                    if (entry.getValue().isAlive(now)){
+                        T item = read(entry.getValue());
+                        if (QueryMatcher.matches(item, query.getQueryFilterMap())){
+                            ret.add(item);
+                        }
+                    }
+                }
+            }
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+
+        if (!sorted){
+            QueryMatcher.sort(ret, query);
+        }
+
+        if (skip == 0 && limit <= 0){
+            return ret;
+        }
+        int end = limit > 0 ? Math.min(ret.size(), skip + limit) : ret.size();
+        return skip < end ? new ArrayList<T>(ret.subList(skip, end)) : new ArrayList<T>();
+    }
+
+    @Override
+    public ICacheCursor<T> iterate(Query query) {
+        List<String> ids;
+        segment.lock.readLock().lock();
+        try {
+            FieldIndexes.QueryPlan plan = segment.indexes.plan(query);
+            if (QueryCursor.isSorted(query) && (plan == null || !plan.sorted)){
+                ids = null;
+            } else if (plan != null){
+                ids = new ArrayList<String>();
+                while (plan.ids.hasNext()){
+                    ids.add(plan.ids.next());
+                }
+            } else {
+                ids = segment.ids();
+            }
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+        if (ids == null){
+            //all matched entities are needed to sort them
+            return QueryCursor.of(get(query));
+        }
+        return new QueryCursor<T>(ids.iterator(), query) {
+            @Override
+            protected T load(String id) {
+                return get(id);
+            }
+        };
+    }
+
+    @Override
+    public List<T> get(Iterable<String> ids) {
+        List<T> ret = new ArrayList<T>();
+        long now = System.currentTimeMillis();
+        segment.lock.readLock().lock();
+        try {
+            for (String id : ids){
+                SegmentFile.Location location = segment.locate(id);
+                if (location != null && location.isAlive(now)){
+                    ret.add(read(location));
+                }
+            }
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public T get(String id) {
+        List<T> ret = get(Collections.singletonList(id));
+        return ret.isEmpty() ? null : ret.get(0);
+    }
+
+    @Override
+    public List<T> get() {
+        List<T> ret = new ArrayList<T>();
+        long now = System.currentTimeMillis();
+        segment.lock.readLock().lock();
+        try {
+            for (Map.Entry<String, SegmentFile.Location> entry : segment.entries()){
+                if (entry.getValue().isAlive(now)){
+                    ret.add(read(entry.getValue()));
+                }
+            }
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public List<T> save(Iterable<T> items) {
+        List<T> ret = new ArrayList<T>();
+        List<SegmentFile.Record> records = new ArrayList<SegmentFile.Record>();
+        long expireAt = getItemExpireTime();
+        for (T item : items){
+            records.add(toRecord(item, expireAt));
+            ret.add(item);
+        }
+        write(records, ret);
+        return ret;
+    }
+
+    @Override
+    public T save(T item) {
+        write(Collections.singletonList(toRecord(item, getItemExpireTime())), Collections.singletonList(item));
+        return item;
+    }
+
+    @Override
+    public List<T> replace(Query query, Iterable<T> items) {
+        return execute(new CacheBatch<T>().delete(query).save(items));
+    }
+
+    @Override
+    public List<T> execute(CacheBatch<T> batch) {
+        List<T> ret = new ArrayList<T>();
+        long expireAt = getItemExpireTime();
+        Set<String> deleted = new LinkedHashSet<String>();
+        //records written by the batch so far, later operations of the batch see them instead of stored ones
+        LinkedHashMap<String, SegmentFile.Record> records = new LinkedHashMap<String, SegmentFile.Record>();
+        LinkedHashMap<String, T> saved = new LinkedHashMap<String, T>();
+        segment.lock.writeLock().lock();
+        try {
+            for (CacheBatch.Operation<T> operation : batch.getOperations()){
+                switch (operation.getType()){
+                    case DELETE_QUERY:
+                        Map<String, Object> filter = operation.getQuery().getQueryFilterMap();
+                        for (Map.Entry<String, SegmentFile.Location> entry : entries(segment.indexes.candidates(filter))){
+                            String id = entry.getKey();
+                            if (!deleted.contains(id) && !saved.containsKey(id) &&
+                                    QueryMatcher.matches(read(entry.getValue()), filter)){
+                                deleted.add(id);
+                            }
+                        }
+                        for (Iterator<Map.Entry<String, T>> it = saved.entrySet().iterator(); it.hasNext(); ){
+                            Map.Entry<String, T> entry = it.next();
+                            if (QueryMatcher.matches(entry.getValue(), filter)){
+                                deleted.add(entry.getKey());
+                                records.remove(entry.getKey());
+                                it.remove();
+                            }
+                        }
+                        break;
+                    case DELETE_IDS:
+                        for (String id : operation.getIds()){
+                            deleted.add(id);
+                            records.remove(id);
+                            saved.remove(id);
+                        }
+                        break;
+                    case SAVE:
+                        for (T item : operation.getItems()){
+                            SegmentFile.Record record = toRecord(item, expireAt);
+                            records.remove(record.id);
+                            records.put(record.id, record);
+                            saved.remove(record.id);
+                            saved.put(record.id, item);
+                            ret.add(item);
+                        }
+                        break;
+                }
+            }
+            //tombstones and records go to the log with a single append
+            segment.write(deleted, new ArrayList<SegmentFile.Record>(records.values()));
+            for (String id : deleted){
+                segment.indexes.remove(id);
+            }
+            for (Map.Entry<String, T> entry : saved.entrySet()){
+                segment.indexes.add(entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
+            throw fileError(e);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        manager.afterWrite(collection, segment);
+        return ret;
+    }
+
+    @Override
+    public int delete(Query query) {
+        int ret;
+        segment.lock.writeLock().lock();
+        try {
+            List<String> ids = matching(query.getQueryFilterMap());
+            ret = segment.delete(ids);
+            for (String id : ids){
+                segment.indexes.remove(id);
+            }
+        } catch (IOException e) {
+            throw fileError(e);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        manager.afterWrite(collection, segment);
+        return ret;
+    }
+
+    @Override
+    public List<String> matchingIds(Map<?, ?> filter) {
+        segment.lock.readLock().lock();
+        try {
+            return matching(filter);
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int delete(Iterable<String> ids) {
+        int ret;
+        segment.lock.writeLock().lock();
+        try {
+            ret = segment.delete(ids);
+            for (String id : ids){
+                segment.indexes.remove(id);
+            }
+        } catch (IOException e) {
+            throw fileError(e);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        manager.afterWrite(collection, segment);
+        return ret;
+    }
+
+    @Override
+    public int delete(String id) {
+        return delete(Collections.singletonList(id));
+    }
+
+    @Override
+    public void clear() {
+        segment.lock.writeLock().lock();
+        try {
+            segment.clear();
+        } catch (IOException e) {
+            throw fileError(e);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public SweepStats deleteExpired(int limit) {
+        long bytes = 0;
+        long now = System.currentTimeMillis();
+        List<String> ids = new ArrayList<String>();
+        segment.lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, SegmentFile.Location> entry : segment.entries()){
+                if (ids.size() >= limit){
+                    break;
+                }
+                if (!entry.getValue().isAlive(now)){
+                    ids.add(entry.getKey());
+                    bytes += entry.getValue().size();
+                }
+            }
+            if (ids.isEmpty()){
+                return SweepStats.EMPTY;
+            }
+            segment.delete(ids);
+            for (String id : ids){
+                segment.indexes.remove(id);
+            }
+        } catch (IOException e) {
+            throw fileError(e);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        //space is reclaimed by compaction
+        manager.afterWrite(collection, segment);
+        return new SweepStats(ids.size(), bytes);
+    }
+
+    @Override
+    public T getFirst() {
+        long now = System.currentTimeMillis();
+        segment.lock.readLock().lock();
+        try {
+            for (Map.Entry<String, SegmentFile.Location> entry : segment.entries()){
+                if (entry.getValue().isAlive(now)){
+                    return read(entry.getValue());
+                }
+            }
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+        return null;
+    }
+
+    @Override
+    public T getFirst(Query q) {
+        long now = System.currentTimeMillis();
+        segment.lock.readLock().lock();
+        try {
+            for (Map.Entry<String, SegmentFile.Location> entry : entries(segment.indexes.candidates(q.getQueryFilterMap()))){
+                if (entry.getValue().isAlive(now)){
+                    T item = read(entry.getValue());
+                    if (QueryMatcher.matches(item, q.getQueryFilterMap())){
+                        return item;
+                    }
+                }
+            }
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+        return null;
+    }
+
+    @Override
+    public long count(Query q) {
+        long ret = 0;
+        long now = System.currentTimeMillis();
+        boolean filtered = q != null && q.getQueryFilterMap() != null && !q.getQueryFilterMap().isEmpty();
+        segment.lock.readLock().lock();
+        try {
+            for (Map.Entry<String, SegmentFile.Location> entry : entries(filtered ? segment.indexes.candidates(q.getQueryFilterMap()) : null)){
+                if (entry.getValue().isAlive(now) &&
+                        (!filtered || QueryMatcher.matches(read(entry.getValue()), q.getQueryFilterMap()))){
+                    ret++;
+                }
+            }
+        } finally {
+            segment.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public long getTtl() {
+        return ttl;
+    }
+
+    @Override
+    public void setTtl(long ttl) {
+        this.ttl = ttl > 0 ? ttl : 0;
+    }
+
+    @Override
+    public void createIndex(String field, IndexType type) {
+        segment.lock.writeLock().lock();
+        try {
+            if (segment.indexes.create(field, type)){
+                for (Map.Entry<String, SegmentFile.Location> entry : segment.entries()){
+                    segment.indexes.add(field, entry.getKey(), read(entry.getValue()));
+                }
+            }
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public Class<T> getCollectionItemClass() {
+        return collectionItemClass;
+    }
+
+    private void write(List<SegmentFile.Record> records, List<T> items) {
+        segment.lock.writeLock().lock();
+        try {
+            segment.put(records);
+            for (int i = 0; i < records.size(); i++){
+                segment.indexes.add(records.get(i).id, items.get(i));
+            }
+        } catch (IOException e) {
+            throw fileError(e);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        manager.afterWrite(collection, segment);
+    }
+
+    /**
+     * @return index entries with given ids, or all entries if ids are null
+     * NOTE: should be called with read or write lock held
+     */
+    private List<String> matching(Map<?, ?> filter) {
+        List<String> ret = new ArrayList<String>();
+        for (Map.Entry<String, SegmentFile.Location> entry : entries(segment.indexes.candidates(filter))){
+            if (QueryMatcher.matches(read(entry.getValue()), filter)){
+                ret.add(entry.getKey());
+            }
+        }
+        return ret;
+    }
+
+    private List<Map.Entry<String, SegmentFile.Location>> entries(Set<String> ids) {
+        if (ids == null){
+            return segment.entries();
+        }
+        List<Map.Entry<String, SegmentFile.Location>> ret = new ArrayList<Map.Entry<String, SegmentFile.Location>>(ids.size());
+        for (String id : ids){
+            SegmentFile.Location location = segment.locate(id);
+            if (location != null){
+                ret.add(new AbstractMap.SimpleImmutableEntry<String, SegmentFile.Location>(id, location));
+            }
+        }
+        return ret;
+    }
+
+    private SegmentFile.Record toRecord(T item, long expireAt) {
+        if (item.get("_id") == null){
+            item.put("_id", UUID.randomUUID().toString());
+        }
+        try {
+            return new SegmentFile.Record(item.get("_id").toString(), expireAt, manager.getJsonFactory().toByteArray(item));
+        } catch (IOException e) {
+            throw fileError(e);
+        }
+    }
+
+    /**
+     * NOTE: should be called with read or write lock held
+     */
+    private T read(SegmentFile.Location location) {
+        try {
+            return manager.getJsonFactory()
+                    .createJsonParser(new ByteArrayInputStream(segment.read(location)), Charsets.UTF_8)
+                    .parse(collectionItemClass);
+        } catch (IOException e) {
+            throw fileError(e);
+        }
+    }
+
+    private long getItemExpireTime(){
+        long currentTime = System.currentTimeMillis();
+        return currentTime + ttl < 0 ? Long.MAX_VALUE : currentTime + ttl;
+    }
+
+    private KinveyException fileError(IOException e){
+        return new KinveyException("Could not access local cache of collection " + collection,
+                "Make sure cache folder is writable and has enough free space", e.getMessage());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.kinvey.java.KinveyException;
+import com.kinvey.java.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link ICacheManager} that keeps every collection in its own append only log file inside given folder,
+ * so cached data and sync queue survive restarts of the client without an embedded database.
+ *
+ * Logs are compacted on a background thread once overwritten and deleted records take more space than live ones.
+ */
+public class MappedFileCacheManager implements ICacheManager {
+
+    private static final long MIN_GARBAGE = 1024 * 1024;
+    private static final String FILE_EXTENSION = ".log";
+
+    private final File directory;
+    private final JsonFactory jsonFactory;
+    private final boolean sync;
+
+    private final HashMap<String, SegmentFile> segments = new HashMap<String, SegmentFile>();
+    private final ConcurrentHashMap<String, Boolean> scheduled = new ConcurrentHashMap<String, Boolean>();
+    private final ExpirySweeper sweeper = new ExpirySweeper();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "KinveyCacheCompaction");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * @param directory folder to keep collection files in, created if not exists
+     * @param jsonFactory factory used to serialize entities
+     */
+    public MappedFileCacheManager(File directory, JsonFactory jsonFactory) {
+        this(directory, jsonFactory, true);
+    }
+
+    /**
+     * @param directory folder to keep collection files in, created if not exists
+     * @param jsonFactory factory used to serialize entities
+     * @param sync if true every write is flushed to the storage device before the call returns
+     */
+    public MappedFileCacheManager(File directory, JsonFactory jsonFactory, boolean sync) {
+        this.directory = directory;
+        this.jsonFactory = jsonFactory;
+        this.sync = sync;
+        if (!directory.exists() && !directory.mkdirs()){
+            throw new KinveyException("Could not create cache folder " + directory.getPath(),
+                    "Make sure the application has write access to the cache folder", "");
+        }
+    }
+
+    @Override
+    public <T extends GenericJson> ICache<T> getCache(String collection, Class<T> collectionItemClass, Long ttl) {
+        SegmentFile segment;
+        synchronized (segments){
+            segment = segments.get(collection);
+            if (segment == null){
+                try {
+                    segment = new SegmentFile(new File(directory, getFileName(collection)), sync);
+                } catch (IOException e) {
+                    throw new KinveyException("Could not open local cache of collection " + collection,
+                            "Make sure cache folder is writable", e.getMessage());
+                }
+                segment.itemClass = collectionItemClass;
+                segments.put(collection, segment);
+            }
+        }
+        if (!collectionItemClass.isAssignableFrom(segment.itemClass) &&
+                !segment.itemClass.isAssignableFrom(collectionItemClass)){
+            throw new KinveyException("Class implementation for collection have been changed during runtime",
+                    "Please review the BaseDataStore usage, parameter should remain the same for same collection",
+                    "Seems like you have used different classes for same colledtion in AsyncAppDataCreaton");
+        }
+        ICache<T> cache = new MappedFileCache<T>(collection, segment, this, collectionItemClass, ttl == null ? 0 : ttl);
+        sweeper.register(collection, cache);
+        return cache;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (segments){
+            for (SegmentFile segment : segments.values()){
+                segment.lock.writeLock().lock();
+                try {
+                    segment.clear();
+                } catch (IOException e) {
+                    Logger.ERROR("Could not clear cache file: " + e.getMessage());
+                } finally {
+                    segment.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop background compaction and sweeping, release all opened files, caches obtained from this manager
+     * should not be used after this call
+     */
+    public void close() {
+        sweeper.stop();
+        compactor.shutdown();
+        synchronized (segments){
+            for (SegmentFile segment : segments.values()){
+                segment.lock.writeLock().lock();
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    Logger.ERROR("Could not close cache file: " + e.getMessage());
+                } finally {
+                    segment.lock.writeLock().unlock();
+                }
+            }
+            segments.clear();
+        }
+    }
+
+    /**
+     * @return sweeper removing expired entities of collections obtained from this manager
+     */
+    public ExpirySweeper getSweeper() {
+        return sweeper;
+    }
+
+    JsonFactory getJsonFactory() {
+        return jsonFactory;
+    }
+
+    /**
+     * Schedule compaction of the collection log if there is enough garbage in it
+     */
+    void afterWrite(final String collection, final SegmentFile segment) {
+        if (segment.garbage() < Math.max(MIN_GARBAGE, segment.size() / 2)
+                || compactor.isShutdown()
+                || scheduled.putIfAbsent(collection, Boolean.TRUE) != null){
+            return;
+        }
+        try {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    scheduled.remove(collection);
+                    segment.lock.writeLock().lock();
+                    try {
+                        segment.compact();
+                    } catch (IOException e) {
+                        Logger.ERROR("Could not compact cache file of " + collection + ": " + e.getMessage());
+                    } finally {
+                        segment.lock.writeLock().unlock();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //manager was closed after the check, write itself succeeded
+            scheduled.remove(collection);
+        }
+    }
+
+    /**
+     * Map collection name to a safe file name, names that had to be changed get hash suffix to stay unique
+     */
+    private static String getFileName(String collection) {
+        String safe = collection.replaceAll("[^A-Za-z0-9_\\-]", "_");
+        if (!safe.equals(collection)){
+            safe += "_" + Integer.toHexString(collection.hashCode());
+        }
+        return safe + FILE_EXTENSION;
+    }
+}
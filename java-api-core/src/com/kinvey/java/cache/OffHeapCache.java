@@ -0,0 +1,481 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Charsets;
+import com.kinvey.java.KinveyException;
+import com.kinvey.java.Query;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link ICache} implementation that keeps entities serialized in direct memory, see {@link OffHeapTable}.
+ *
+ * Entities are decoded only when they are read, lookups by id and ttl checks do not decode anything.
+ */
+public class OffHeapCache<T extends GenericJson> implements ICache<T>, IdLookup {
+
+    private final String collection;
+    private final OffHeapTable table;
+    private final OffHeapCacheManager manager;
+    private final Class<T> collectionItemClass;
+    private long ttl;
+
+    OffHeapCache(String collection, OffHeapTable table, OffHeapCacheManager manager,
+                 Class<T> collectionItemClass, long ttl) {
+        this.collection = collection;
+        this.table = table;
+        this.manager = manager;
+        this.collectionItemClass = collectionItemClass;
+        this.ttl = ttl > 0 ? ttl : 0;
+    }
+
+    @Override
+    public List<T> get(Query query) {
+        List<T> ret = new ArrayList<T>();
+        long now = System.currentTimeMillis();
+        int skip = Math.max(query.getSkip(), 0);
+        int limit = query.getLimit();
+        boolean sorted = false;
+        table.lock.readLock().lock();
+        try {
+            FieldIndexes.QueryPlan plan = table.indexes.plan(query);
+            if (plan != null){
+                sorted = plan.sorted;
+                while (plan.ids.hasNext() && !(sorted && limit > 0 && ret.size() >= skip + limit)){
+                    long address = table.find(plan.ids.next());
+                    if (OffHeapTable.exists(address) && table.expireAt(address) >= now){
+                        T item = read(address);
+                        if (QueryMatcher.matches(item, query.getQueryFilterMap())){
+                            ret.add(item);
+                        }
+                    }
+                }
+            } else {
+                for (long address : table.addresses()){
+                    if (table.expireAt(address) >= now){
+                        T item = read(address);
+                        if (QueryMatcher.matches(item, query.getQueryFilterMap())){
+                            ret.add(item);
+                        }
+                    }
+                }
+            }
+        } finally {
+            table.lock.readLock().unlock();
+        }
+
+        if (!sorted){
+            QueryMatcher.sort(ret, query);
+        }
+
+        if (skip == 0 && limit <= 0){
+            return ret;
+        }
+        int end = limit > 0 ? Math.min(ret.size(), skip + limit) : ret.size();
+        return skip < end ? new ArrayList<T>(ret.subList(skip, end)) : new ArrayList<T>();
+    }
+
+    @Override
+    public ICacheCursor<T> iterate(Query query) {
+        List<String> ids;
+        table.lock.readLock().lock();
+        try {
+            FieldIndexes.QueryPlan plan = table.indexes.plan(query);
+            if (QueryCursor.isSorted(query) && (plan == null || !plan.sorted)){
+                ids = null;
+            } else if (plan != null){
+                ids = new ArrayList<String>();
+                while (plan.ids.hasNext()){
+                    ids.add(plan.ids.next());
+                }
+            } else {
+                long[] addresses = table.addresses();
+                ids = new ArrayList<String>(addresses.length);
+                for (long address : addresses){
+                    ids.add(table.id(address));
+                }
+            }
+        } finally {
+            table.lock.readLock().unlock();
+        }
+        if (ids == null){
+            //all matched entities are needed to sort them
+            return QueryCursor.of(get(query));
+        }
+        return new QueryCursor<T>(ids.iterator(), query) {
+            @Override
+            protected T load(String id) {
+                return get(id);
+            }
+        };
+    }
+
+    @Override
+    public List<T> get(Iterable<String> ids) {
+        List<T> ret = new ArrayList<T>();
+        long now = System.currentTimeMillis();
+        table.lock.readLock().lock();
+        try {
+            for (String id : ids){
+                long address = table.find(id);
+                if (OffHeapTable.exists(address) && table.expireAt(address) >= now){
+                    ret.add(read(address));
+                }
+            }
+        } finally {
+            table.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public T get(String id) {
+        List<T> ret = get(Collections.singletonList(id));
+        return ret.isEmpty() ? null : ret.get(0);
+    }
+
+    @Override
+    public List<T> get() {
+        List<T> ret = new ArrayList<T>();
+        long now = System.currentTimeMillis();
+        table.lock.readLock().lock();
+        try {
+            for (long address : table.addresses()){
+                if (table.expireAt(address) >= now){
+                    ret.add(read(address));
+                }
+            }
+        } finally {
+            table.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public List<T> save(Iterable<T> items) {
+        //either all of the items are saved or none of them
+        return execute(new CacheBatch<T>().save(items));
+    }
+
+    @Override
+    public T save(T item) {
+        long expireAt = getItemExpireTime();
+        table.lock.writeLock().lock();
+        try {
+            insertOrUpdate(item, expireAt);
+        } finally {
+            table.lock.writeLock().unlock();
+        }
+        return item;
+    }
+
+    @Override
+    public List<T> replace(Query query, Iterable<T> items) {
+        return execute(new CacheBatch<T>().delete(query).save(items));
+    }
+
+    @Override
+    public List<T> execute(CacheBatch<T> batch) {
+        List<T> ret = new ArrayList<T>();
+        long expireAt = getItemExpireTime();
+        //write lock is reentrant, readers see either none or all of the operations
+        table.lock.writeLock().lock();
+        try {
+            table.begin();
+            try {
+                for (CacheBatch.Operation<T> operation : batch.getOperations()){
+                    switch (operation.getType()){
+                        case DELETE_QUERY:
+                            delete(operation.getQuery());
+                            break;
+                        case DELETE_IDS:
+                            delete(operation.getIds());
+                            break;
+                        case SAVE:
+                            for (T item : operation.getItems()){
+                                insertOrUpdate(item, expireAt);
+                                ret.add(item);
+                            }
+                            break;
+                    }
+                }
+                table.commit();
+            } catch (RuntimeException e) {
+                //e.g. budget is exhausted by a save, collection is left as it was before the batch
+                for (String id : table.rollback()){
+                    table.indexes.remove(id);
+                    long address = table.find(id);
+                    if (OffHeapTable.exists(address)){
+                        table.indexes.add(id, read(address));
+                    }
+                }
+                throw e;
+            }
+        } finally {
+            table.lock.writeLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete(Query query) {
+        int ret = 0;
+        table.lock.writeLock().lock();
+        try {
+            for (long address : addresses(table.indexes.candidates(query.getQueryFilterMap()))){
+                String id = table.id(address);
+                if (QueryMatcher.matches(read(address), query.getQueryFilterMap()) && table.remove(id)){
+                    table.indexes.remove(id);
+                    ret++;
+                }
+            }
+        } finally {
+            table.lock.writeLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public List<String> matchingIds(Map<?, ?> filter) {
+        List<String> ret = new ArrayList<String>();
+        table.lock.readLock().lock();
+        try {
+            for (long address : addresses(table.indexes.candidates(filter))){
+                if (QueryMatcher.matches(read(address), filter)){
+                    ret.add(table.id(address));
+                }
+            }
+        } finally {
+            table.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete(Iterable<String> ids) {
+        int ret = 0;
+        table.lock.writeLock().lock();
+        try {
+            for (String id : ids){
+                if (table.remove(id)){
+                    table.indexes.remove(id);
+                    ret++;
+                }
+            }
+        } finally {
+            table.lock.writeLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public int delete(String id) {
+        return delete(Collections.singletonList(id));
+    }
+
+    @Override
+    public void clear() {
+        table.lock.writeLock().lock();
+        try {
+            table.clear();
+        } finally {
+            table.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public SweepStats deleteExpired(int limit) {
+        int ret = 0;
+        long bytes = 0;
+        long now = System.currentTimeMillis();
+        table.lock.writeLock().lock();
+        try {
+            for (long address : table.addresses()){
+                if (ret >= limit){
+                    break;
+                }
+                if (table.expireAt(address) < now){
+                    String id = table.id(address);
+                    bytes += table.chunkSize(address);
+                    table.remove(id);
+                    table.indexes.remove(id);
+                    ret++;
+                }
+            }
+        } finally {
+            table.lock.writeLock().unlock();
+        }
+        return new SweepStats(ret, bytes);
+    }
+
+    @Override
+    public T getFirst() {
+        long now = System.currentTimeMillis();
+        table.lock.readLock().lock();
+        try {
+            for (long address : table.addresses()){
+                if (table.expireAt(address) >= now){
+                    return read(address);
+                }
+            }
+        } finally {
+            table.lock.readLock().unlock();
+        }
+        return null;
+    }
+
+    @Override
+    public T getFirst(Query q) {
+        long now = System.currentTimeMillis();
+        table.lock.readLock().lock();
+        try {
+            for (long address : addresses(table.indexes.candidates(q.getQueryFilterMap()))){
+                if (table.expireAt(address) >= now){
+                    T item = read(address);
+                    if (QueryMatcher.matches(item, q.getQueryFilterMap())){
+                        return item;
+                    }
+                }
+            }
+        } finally {
+            table.lock.readLock().unlock();
+        }
+        return null;
+    }
+
+    @Override
+    public long count(Query q) {
+        long ret = 0;
+        long now = System.currentTimeMillis();
+        boolean filtered = q != null && q.getQueryFilterMap() != null && !q.getQueryFilterMap().isEmpty();
+        table.lock.readLock().lock();
+        try {
+            for (long address : addresses(filtered ? table.indexes.candidates(q.getQueryFilterMap()) : null)){
+                if (table.expireAt(address) >= now &&
+                        (!filtered || QueryMatcher.matches(read(address), q.getQueryFilterMap()))){
+                    ret++;
+                }
+            }
+        } finally {
+            table.lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    @Override
+    public long getTtl() {
+        return ttl;
+    }
+
+    @Override
+    public void setTtl(long ttl) {
+        this.ttl = ttl > 0 ? ttl : 0;
+    }
+
+    @Override
+    public void createIndex(String field, IndexType type) {
+        table.lock.writeLock().lock();
+        try {
+            if (table.indexes.create(field, type)){
+                for (long address : table.addresses()){
+                    table.indexes.add(field, table.id(address), read(address));
+                }
+            }
+        } finally {
+            table.lock.writeLock().unlock();
+        }
+    }
+
+    public String getCollection() {
+        return collection;
+    }
+
+    public Class<T> getCollectionItemClass() {
+        return collectionItemClass;
+    }
+
+    /**
+     * NOTE: should be called with write lock held
+     */
+    private void insertOrUpdate(T item, long expireAt) {
+        if (item.get("_id") == null){
+            item.put("_id", UUID.randomUUID().toString());
+        }
+        byte[] body;
+        try {
+            body = manager.getJsonFactory().toByteArray(item);
+        } catch (IOException e) {
+            throw new KinveyException("Could not serialize entity of collection " + collection,
+                    "Make sure entity class could be serialized to json", e.getMessage());
+        }
+        String id = item.get("_id").toString();
+        if (!table.put(id, expireAt, body)){
+            throw new KinveyException("Off-heap cache budget is exhausted",
+                    "Increase the budget of OffHeapCacheManager or reduce amount of locally stored data",
+                    "Could not store entity of collection " + collection + ", " + body.length + " bytes");
+        }
+        table.indexes.add(id, item);
+    }
+
+    /**
+     * @return addresses of records with given ids, or of all records if ids are null
+     * NOTE: should be called with read or write lock held
+     */
+    private long[] addresses(Set<String> ids) {
+        if (ids == null){
+            return table.addresses();
+        }
+        long[] ret = new long[ids.size()];
+        int size = 0;
+        for (String id : ids){
+            long address = table.find(id);
+            if (OffHeapTable.exists(address)){
+                ret[size++] = address;
+            }
+        }
+        return Arrays.copyOf(ret, size);
+    }
+
+    /**
+     * NOTE: should be called with read or write lock held
+     */
+    private T read(long address) {
+        try {
+            return manager.getJsonFactory()
+                    .createJsonParser(new ByteArrayInputStream(table.body(address)), Charsets.UTF_8)
+                    .parse(collectionItemClass);
+        } catch (IOException e) {
+            throw new KinveyException("Could not read entity of collection " + collection,
+                    "Make sure collection item class matches stored entities", e.getMessage());
+        }
+    }
+
+    private long getItemExpireTime(){
+        long currentTime = System.currentTimeMillis();
+        return currentTime + ttl < 0 ? Long.MAX_VALUE : currentTime + ttl;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.kinvey.java.KinveyException;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ICacheManager} that keeps entities serialized in direct memory outside of the java heap.
+ *
+ * All collections share single fixed budget, so large local collections neither grow the heap nor
+ * slow down garbage collection. Saving entities fails with {@link KinveyException} once the budget is exhausted.
+ */
+public class OffHeapCacheManager implements ICacheManager {
+
+    private static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    private final SlabAllocator allocator;
+    private final JsonFactory jsonFactory;
+    private final ConcurrentHashMap<String, OffHeapTable> tables = new ConcurrentHashMap<String, OffHeapTable>();
+    private final ExpirySweeper sweeper = new ExpirySweeper();
+
+    /**
+     * @param budget maximum amount of direct memory used by all collections, in bytes
+     * @param jsonFactory factory used to serialize entities
+     */
+    public OffHeapCacheManager(long budget, JsonFactory jsonFactory) {
+        this(budget, DEFAULT_SLAB_SIZE, jsonFactory);
+    }
+
+    /**
+     * @param budget maximum amount of direct memory used by all collections, in bytes
+     * @param slabSize size of memory blocks allocated at once, power of two, limits size of a single entity
+     * @param jsonFactory factory used to serialize entities
+     */
+    public OffHeapCacheManager(long budget, int slabSize, JsonFactory jsonFactory) {
+        this.allocator = new SlabAllocator(budget, slabSize);
+        this.jsonFactory = jsonFactory;
+    }
+
+    @Override
+    public <T extends GenericJson> ICache<T> getCache(String collection, Class<T> collectionItemClass, Long ttl) {
+        OffHeapTable table = tables.get(collection);
+        if (table == null){
+            OffHeapTable created = new OffHeapTable(allocator, collectionItemClass);
+            table = tables.putIfAbsent(collection, created);
+            if (table == null){
+                table = created;
+            }
+        }
+        if (!collectionItemClass.isAssignableFrom(table.itemClass) &&
+                !table.itemClass.isAssignableFrom(collectionItemClass)){
+            throw new KinveyException("Class implementation for collection have been changed during runtime",
+                    "Please review the BaseDataStore usage, parameter should remain the same for same collection",
+                    "Seems like you have used different classes for same colledtion in AsyncAppDataCreaton");
+        }
+        ICache<T> cache = new OffHeapCache<T>(collection, table, this, collectionItemClass, ttl == null ? 0 : ttl);
+        sweeper.register(collection, cache);
+        return cache;
+    }
+
+    @Override
+    public void clear() {
+        for (OffHeapTable table : tables.values()){
+            table.lock.writeLock().lock();
+            try {
+                table.clear();
+            } finally {
+                table.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return amount of direct memory taken so far, never exceeds the budget
+     */
+    public long getUsedBytes() {
+        return allocator.getUsedBytes();
+    }
+
+    public long getBudget() {
+        return allocator.getBudget();
+    }
+
+    /**
+     * @return sweeper removing expired entities of collections obtained from this manager
+     */
+    public ExpirySweeper getSweeper() {
+        return sweeper;
+    }
+
+    JsonFactory getJsonFactory() {
+        return jsonFactory;
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.KinveyException;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Records of a single collection stored in {@link SlabAllocator} chunks.
+ *
+ * Record layout is {@code [long expireAt][int id length][int body length][id][json body]}. The only on-heap
+ * structure is an open addressing table of primitive arrays, that maps 64 bit hash of an id to the record address
+ * and links records in insertion order. Ids are verified against the record, so hash collisions are harmless.
+ */
+class OffHeapTable {
+
+    static final int HEADER_SIZE = 16;
+
+    private static final long EMPTY = -1;
+    private static final int NONE = -1;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final SlabAllocator allocator;
+
+    private long[] hashes;
+    private long[] addresses;
+    private int[] prev;
+    private int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+    private int size;
+
+    //addresses records changed since begin() had before the change, EMPTY if there was no record,
+    //null if no batch is running
+    private Map<String, Long> originals;
+    //chunks of the original records, they are neither freed nor overwritten until the batch is finished
+    private Set<Long> reserved;
+
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    final FieldIndexes indexes = new FieldIndexes();
+    final Class<? extends GenericJson> itemClass;
+
+    OffHeapTable(SlabAllocator allocator, Class<? extends GenericJson> itemClass) {
+        this.allocator = allocator;
+        this.itemClass = itemClass;
+        init(16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return address of the record or {@link #EMPTY} if there is no record with given id
+     * NOTE: should be called with read lock held
+     */
+    long find(String id) {
+        byte[] idBytes = bytes(id);
+        int slot = slot(idBytes, hash(idBytes));
+        return slot == NONE ? EMPTY : addresses[slot];
+    }
+
+    static boolean exists(long address) {
+        return address != EMPTY;
+    }
+
+    /**
+     * @return addresses of all records in insertion order
+     * NOTE: should be called with read lock held
+     */
+    long[] addresses() {
+        long[] ret = new long[size];
+        int i = 0;
+        for (int slot = head; slot != NONE; slot = next[slot]){
+            ret[i++] = addresses[slot];
+        }
+        return ret;
+    }
+
+    /**
+     * Store record, existing record with the same id is overwritten in place if it fits into its chunk
+     * NOTE: should be called with write lock held
+     * @return false if there is no more space in the budget
+     */
+    boolean put(String id, long expireAt, byte[] body) {
+        byte[] idBytes = bytes(id);
+        long hash = hash(idBytes);
+        int recordSize = HEADER_SIZE + idBytes.length + body.length;
+        int slot = slot(idBytes, hash);
+        keep(id, slot);
+        if (slot != NONE && !isReserved(addresses[slot]) && allocator.capacity(addresses[slot]) >= recordSize){
+            write(addresses[slot], expireAt, idBytes, body);
+            return true;
+        }
+        long address = allocator.allocate(recordSize);
+        if (address == SlabAllocator.NO_SPACE){
+            return false;
+        }
+        write(address, expireAt, idBytes, body);
+        if (slot != NONE){
+            release(addresses[slot]);
+            addresses[slot] = address;
+            return true;
+        }
+        if (size + 1 > hashes.length * LOAD_FACTOR){
+            resize(hashes.length * 2);
+        }
+        insert(hash, address);
+        return true;
+    }
+
+    /**
+     * NOTE: should be called with write lock held
+     * @return true if record was removed
+     */
+    boolean remove(String id) {
+        byte[] idBytes = bytes(id);
+        int slot = slot(idBytes, hash(idBytes));
+        if (slot == NONE){
+            return false;
+        }
+        keep(id, slot);
+        release(addresses[slot]);
+        drop(slot);
+        return true;
+    }
+
+    /**
+     * Remove the slot from the table, chunk of the record is left as is
+     */
+    private void drop(int slot) {
+        unlink(slot);
+        size--;
+
+        //backward shift deletion keeps probe sequences unbroken without tombstones
+        int mask = hashes.length - 1;
+        int hole = slot;
+        int i = slot;
+        while (true){
+            i = (i + 1) & mask;
+            if (addresses[i] == EMPTY){
+                break;
+            }
+            int home = home(hashes[i]);
+            boolean stays = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+            if (!stays){
+                move(i, hole);
+                hole = i;
+            }
+        }
+        addresses[hole] = EMPTY;
+    }
+
+    /**
+     * NOTE: should be called with write lock held
+     */
+    void clear() {
+        for (int slot = head; slot != NONE; slot = next[slot]){
+            allocator.free(addresses[slot]);
+        }
+        init(16);
+        indexes.clear();
+    }
+
+    /**
+     * Start keeping previous state of changed records, so changes could be undone by {@link #rollback()}.
+     * Chunks of changed records stay reserved until the batch is finished, so the rollback never allocates
+     * and could not fail, the batch needs budget for both old and new versions of records it changes.
+     * NOTE: should be called with write lock held
+     */
+    void begin() {
+        originals = new LinkedHashMap<String, Long>();
+        reserved = new HashSet<Long>();
+    }
+
+    /**
+     * Keep changes made since {@link #begin()}, chunks of replaced and removed records are freed
+     * NOTE: should be called with write lock held
+     */
+    void commit() {
+        Map<String, Long> records = originals;
+        originals = null;
+        reserved = null;
+        for (Map.Entry<String, Long> record : records.entrySet()){
+            long address = record.getValue();
+            if (exists(address) && find(record.getKey()) != address){
+                allocator.free(address);
+            }
+        }
+    }
+
+    /**
+     * Undo changes made since {@link #begin()}, restored records are put to the end of insertion order
+     * NOTE: should be called with write lock held
+     * @return ids of changed records, their index entries should be updated
+     */
+    List<String> rollback() {
+        Map<String, Long> records = originals;
+        originals = null;
+        reserved = null;
+        List<String> ret = new ArrayList<String>(records.size());
+        //records written by the batch are dropped first, original chunks were not touched and are linked back
+        for (Map.Entry<String, Long> record : records.entrySet()){
+            byte[] idBytes = bytes(record.getKey());
+            int slot = slot(idBytes, hash(idBytes));
+            if (slot != NONE){
+                if (addresses[slot] != record.getValue()){
+                    allocator.free(addresses[slot]);
+                }
+                drop(slot);
+            }
+            ret.add(record.getKey());
+        }
+        for (Map.Entry<String, Long> record : records.entrySet()){
+            if (exists(record.getValue())){
+                if (size + 1 > hashes.length * LOAD_FACTOR){
+                    resize(hashes.length * 2);
+                }
+                insert(hash(bytes(record.getKey())), record.getValue());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return size of memory chunk occupied by the record
+     */
+    int chunkSize(long address) {
+        return allocator.capacity(address);
+    }
+
+    long expireAt(long address) {
+        return allocator.chunk(address).getLong();
+    }
+
+    String id(long address) {
+        ByteBuffer chunk = allocator.chunk(address);
+        chunk.getLong();
+        byte[] id = new byte[chunk.getInt()];
+        chunk.getInt();
+        chunk.get(id);
+        try {
+            return new String(id, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new KinveyException(e.getMessage());
+        }
+    }
+
+    byte[] body(long address) {
+        ByteBuffer chunk = allocator.chunk(address);
+        chunk.getLong();
+        int idLength = chunk.getInt();
+        byte[] body = new byte[chunk.getInt()];
+        chunk.position(chunk.position() + idLength);
+        chunk.get(body);
+        return body;
+    }
+
+    /**
+     * Keep address of the record before its first change in the running batch
+     */
+    private void keep(String id, int slot) {
+        if (originals != null && !originals.containsKey(id)){
+            long address = slot == NONE ? EMPTY : addresses[slot];
+            originals.put(id, address);
+            if (exists(address)){
+                reserved.add(address);
+            }
+        }
+    }
+
+    private boolean isReserved(long address) {
+        return reserved != null && reserved.contains(address);
+    }
+
+    /**
+     * Free the chunk unless it is reserved by the running batch, then it is freed by {@link #commit()}
+     */
+    private void release(long address) {
+        if (!isReserved(address)){
+            allocator.free(address);
+        }
+    }
+
+    private void write(long address, long expireAt, byte[] idBytes, byte[] body) {
+        ByteBuffer chunk = allocator.chunk(address);
+        chunk.putLong(expireAt);
+        chunk.putInt(idBytes.length);
+        chunk.putInt(body.length);
+        chunk.put(idBytes);
+        chunk.put(body);
+    }
+
+    private int slot(byte[] idBytes, long hash) {
+        int mask = hashes.length - 1;
+        for (int i = home(hash); addresses[i] != EMPTY; i = (i + 1) & mask){
+            if (hashes[i] == hash && idEquals(addresses[i], idBytes)){
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    private boolean idEquals(long address, byte[] idBytes) {
+        ByteBuffer chunk = allocator.chunk(address);
+        int start = chunk.position();
+        if (chunk.getInt(start + 8) != idBytes.length){
+            return false;
+        }
+        for (int i = 0; i < idBytes.length; i++){
+            if (chunk.get(start + HEADER_SIZE + i) != idBytes[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(long hash, long address) {
+        int mask = hashes.length - 1;
+        int i = home(hash);
+        while (addresses[i] != EMPTY){
+            i = (i + 1) & mask;
+        }
+        hashes[i] = hash;
+        addresses[i] = address;
+        prev[i] = tail;
+        next[i] = NONE;
+        if (tail != NONE){
+            next[tail] = i;
+        } else {
+            head = i;
+        }
+        tail = i;
+        size++;
+    }
+
+    private void unlink(int slot) {
+        if (prev[slot] != NONE){
+            next[prev[slot]] = next[slot];
+        } else {
+            head = next[slot];
+        }
+        if (next[slot] != NONE){
+            prev[next[slot]] = prev[slot];
+        } else {
+            tail = prev[slot];
+        }
+    }
+
+    private void move(int from, int to) {
+        hashes[to] = hashes[from];
+        addresses[to] = addresses[from];
+        prev[to] = prev[from];
+        next[to] = next[from];
+        if (prev[to] != NONE){
+            next[prev[to]] = to;
+        } else {
+            head = to;
+        }
+        if (next[to] != NONE){
+            prev[next[to]] = to;
+        } else {
+            tail = to;
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldHashes = hashes;
+        long[] oldAddresses = addresses;
+        int[] oldNext = next;
+        int oldHead = head;
+        init(capacity);
+        for (int slot = oldHead; slot != NONE; slot = oldNext[slot]){
+            insert(oldHashes[slot], oldAddresses[slot]);
+        }
+    }
+
+    private void init(int capacity) {
+        hashes = new long[capacity];
+        addresses = new long[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        Arrays.fill(addresses, EMPTY);
+        head = NONE;
+        tail = NONE;
+        size = 0;
+    }
+
+    private int home(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & (hashes.length - 1);
+    }
+
+    /**
+     * 64 bit FNV-1a hash
+     */
+    private static long hash(byte[] bytes) {
+        long ret = 0xcbf29ce484222325L;
+        for (byte b : bytes){
+            ret ^= b & 0xff;
+            ret *= 0x100000001b3L;
+        }
+        return ret;
+    }
+
+    private static byte[] bytes(String id) {
+        try {
+            return id.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new KinveyException(e.getMessage());
+        }
+    }
+}
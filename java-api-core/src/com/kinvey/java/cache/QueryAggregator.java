@@ -0,0 +1,151 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.kinvey.java.model.AggregateEntity;
+import com.kinvey.java.model.Aggregation;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes grouped count, sum, min, max and average over locally stored entities, results have the same shape
+ * as results of the server side group request, see {@link AggregateEntity}.
+ *
+ * Entities are visited once and are not retained, only one accumulator per group is kept in memory.
+ */
+public abstract class QueryAggregator {
+
+    /**
+     * Aggregate entities in a single pass
+     * @param entities entities to be aggregated, usually a {@link ICacheCursor}
+     * @param fields fields to group by, dot separated paths are allowed
+     * @param type aggregation type
+     * @param aggregateField field to aggregate on, ignored for {@link AggregateEntity.AggregateType#COUNT},
+     *                       entities without numeric value of the field are skipped
+     * @return results in order groups were first seen
+     */
+    public static Aggregation aggregate(Iterator<? extends Map<?, ?>> entities, List<String> fields,
+                                        AggregateEntity.AggregateType type, String aggregateField) {
+        String[][] groupPaths = new String[fields.size()][];
+        for (int i = 0; i < groupPaths.length; i++){
+            groupPaths[i] = fields.get(i).split("\\.");
+        }
+        String[] valuePath = aggregateField != null ? aggregateField.split("\\.") : null;
+
+        LinkedHashMap<List<Object>, Accumulator> groups = new LinkedHashMap<List<Object>, Accumulator>();
+        while (entities.hasNext()){
+            Map<?, ?> entity = entities.next();
+            Object[] key = new Object[groupPaths.length];
+            for (int i = 0; i < key.length; i++){
+                key[i] = QueryMatcher.getValue(entity, groupPaths[i]);
+            }
+            List<Object> groupKey = groupKey(key);
+            Accumulator accumulator = groups.get(groupKey);
+            if (accumulator == null){
+                accumulator = new Accumulator(key);
+                groups.put(groupKey, accumulator);
+            }
+            if (type == AggregateEntity.AggregateType.COUNT){
+                accumulator.count++;
+            } else {
+                Object value = QueryMatcher.getValue(entity, valuePath);
+                if (value instanceof Number){
+                    accumulator.add((Number) value);
+                }
+            }
+        }
+
+        Aggregation.Result[] results = new Aggregation.Result[groups.size()];
+        int i = 0;
+        for (Accumulator accumulator : groups.values()){
+            Aggregation.Result result = new Aggregation.Result();
+            for (int j = 0; j < groupPaths.length; j++){
+                result.put(fields.get(j), accumulator.key[j]);
+            }
+            result.result = accumulator.result(type);
+            results[i++] = result;
+        }
+        return new Aggregation(results);
+    }
+
+    /**
+     * Numbers are equal by value, so 1 and 1.0 fall into the same group
+     */
+    private static List<Object> groupKey(Object[] key) {
+        Object[] normalized = new Object[key.length];
+        for (int i = 0; i < key.length; i++){
+            normalized[i] = key[i] instanceof Number ? Double.valueOf(((Number) key[i]).doubleValue()) : key[i];
+        }
+        return Arrays.asList(normalized);
+    }
+
+    private static boolean isIntegral(Number n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+
+    /**
+     * Running values of a single group
+     */
+    private static class Accumulator {
+        final Object[] key;
+        long count;
+        double sum;
+        long longSum;
+        boolean integral = true;
+        Number min;
+        Number max;
+
+        Accumulator(Object[] key) {
+            this.key = key;
+        }
+
+        void add(Number value) {
+            count++;
+            sum += value.doubleValue();
+            if (isIntegral(value)){
+                longSum += value.longValue();
+            } else {
+                integral = false;
+            }
+            if (min == null || QueryMatcher.compare(value, min) < 0){
+                min = value;
+            }
+            if (max == null || QueryMatcher.compare(value, max) > 0){
+                max = value;
+            }
+        }
+
+        Number result(AggregateEntity.AggregateType type) {
+            switch (type){
+                case COUNT:
+                    return count;
+                case SUM:
+                    return integral ? (Number) longSum : (Number) sum;
+                case MIN:
+                    return min;
+                case MAX:
+                    return max;
+                default:
+                    return count > 0 ? (Number) (sum / count) : null;
+            }
+        }
+    }
+}
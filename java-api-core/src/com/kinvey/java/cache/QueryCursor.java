@@ -0,0 +1,131 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.kinvey.java.Query;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link ICacheCursor} over ids of candidate entities, entities are loaded only when cursor reaches them,
+ * then checked against query filter, skip and limit of the query are applied while iterating.
+ */
+public abstract class QueryCursor<T extends Map<?, ?>> implements ICacheCursor<T> {
+
+    private final Iterator<String> ids;
+    private final Map<String, Object> filter;
+    private int skip;
+    //-1 for unlimited cursor
+    private int remaining;
+    private T next;
+    private boolean closed;
+
+    /**
+     * @param ids ids of entities to be visited, in the order of results
+     * @param query query to be applied, its sort should already be reflected by the order of ids
+     */
+    protected QueryCursor(Iterator<String> ids, Query query) {
+        this.ids = ids;
+        this.filter = query.getQueryFilterMap();
+        this.skip = Math.max(query.getSkip(), 0);
+        this.remaining = query.getLimit() > 0 ? query.getLimit() : -1;
+    }
+
+    /**
+     * Cursor over already loaded results
+     */
+    public static <T> ICacheCursor<T> of(final List<T> items) {
+        return new ICacheCursor<T>() {
+            private Iterator<T> iterator = items.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+                iterator = Collections.<T>emptyList().iterator();
+            }
+        };
+    }
+
+    /**
+     * @return true if entities for the query should be sorted before they could be iterated
+     */
+    static boolean isSorted(Query query) {
+        return QueryMatcher.isOrdered(query);
+    }
+
+    /**
+     * @return not expired entity with given id, or null if there is no such entity anymore
+     */
+    protected abstract T load(String id);
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && !closed && remaining != 0 && ids.hasNext()){
+            T item = load(ids.next());
+            if (item != null && QueryMatcher.matches(item, filter)){
+                if (skip > 0){
+                    skip--;
+                } else {
+                    next = item;
+                }
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()){
+            throw new NoSuchElementException();
+        }
+        T ret = next;
+        next = null;
+        if (remaining > 0){
+            remaining--;
+        }
+        return ret;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        next = null;
+    }
+}
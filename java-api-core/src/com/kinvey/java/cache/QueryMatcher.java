@@ -0,0 +1,486 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.kinvey.java.Query;
+import com.kinvey.java.query.AbstractQuery;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates Mongo style query filter maps (as produced by {@link com.kinvey.java.query.MongoQueryFilter})
+ * against entities held in memory, so caches that are not backed by a database can answer queries locally.
+ */
+public abstract class QueryMatcher {
+
+    /**
+     * Max amount of compiled patterns kept, typeahead queries create a new pattern for every prefix
+     */
+    static final int MAX_PATTERNS = 128;
+
+    //least recently used patterns are dropped first, guarded by its own monitor
+    private static final Map<String, Pattern> PATTERNS = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+            return size() > MAX_PATTERNS;
+        }
+    };
+
+    /**
+     * Check if entity matches given query filter map
+     * @param entity entity to be checked
+     * @param filter query filter map, see {@link com.kinvey.java.Query#getQueryFilterMap()}
+     * @return true if all conditions of the filter are satisfied
+     */
+    public static boolean matches(Map<?, ?> entity, Map<?, ?> filter) {
+        if (filter == null){
+            return true;
+        }
+        for (Map.Entry<?, ?> entry : filter.entrySet()){
+            String field = String.valueOf(entry.getKey());
+            Object params = entry.getValue();
+
+            if (field.equalsIgnoreCase("$or")){
+                if (!matchesAny(entity, params)){
+                    return false;
+                }
+            } else if (field.equalsIgnoreCase("$and")){
+                for (Map<?, ?> component : components(params)){
+                    if (!matches(entity, component)){
+                        return false;
+                    }
+                }
+            } else if (field.equalsIgnoreCase("$nor")){
+                if (matchesAny(entity, params)){
+                    return false;
+                }
+            } else if (params instanceof Map && isOperatorMap((Map<?, ?>) params)){
+                if (!matchesOperators(entity, field, (Map<?, ?>) params)){
+                    return false;
+                }
+            } else {
+                if (!valueEquals(getValue(entity, field), params)){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get value from entity for given dot separated field path, for example "_kmd.lmt"
+     * @param entity entity to get value from
+     * @param path field path
+     * @return field value or null if path can not be resolved
+     */
+    public static Object getValue(Map<?, ?> entity, String path) {
+        if (entity == null){
+            return null;
+        }
+        if (path.indexOf('.') < 0 || entity.containsKey(path)){
+            return entity.get(path);
+        }
+        return getValue(entity, path.split("\\."));
+    }
+
+    /**
+     * Get value from entity for given already split field path
+     * @param entity entity to get value from
+     * @param path field path components
+     * @return field value or null if path can not be resolved
+     */
+    public static Object getValue(Map<?, ?> entity, String[] path) {
+        Object current = entity;
+        for (String step : path){
+            if (!(current instanceof Map)){
+                return null;
+            }
+            current = ((Map<?, ?>) current).get(step);
+        }
+        return current;
+    }
+
+    /**
+     * Sort entities in place with given sort orders
+     * @param items entities to be sorted
+     * @param sortOrders sort orders, see {@link com.kinvey.java.Query#getSort()}
+     */
+    public static <T extends Map<?, ?>> void sort(List<T> items, Map<String, AbstractQuery.SortOrder> sortOrders) {
+        if (sortOrders == null || sortOrders.isEmpty() || items.size() < 2){
+            return;
+        }
+        Collections.sort(items, comparator(sortOrders));
+    }
+
+    /**
+     * Sort entities in place in order query defines: by sort orders of the query,
+     * or by distance from the center for $nearSphere query without sort orders
+     * @param items entities to be sorted
+     * @param query query entities were matched with
+     */
+    public static <T extends Map<?, ?>> void sort(List<T> items, Query query) {
+        if (query.getSort() != null && !query.getSort().isEmpty()){
+            sort(items, query.getSort());
+            return;
+        }
+        String[] field = new String[1];
+        final double[] center = GeoMatcher.nearCenter(query.getQueryFilterMap(), field);
+        if (center == null || items.size() < 2){
+            return;
+        }
+        final String[] path = field[0].split("\\.");
+        final IdentityHashMap<T, Double> distances = new IdentityHashMap<T, Double>();
+        for (T item : items){
+            double[] point = GeoMatcher.point(getValue(item, path));
+            distances.put(item, point != null ? GeoMatcher.distance(point, center) : Double.MAX_VALUE);
+        }
+        Collections.sort(items, new Comparator<T>() {
+            @Override
+            public int compare(T lhs, T rhs) {
+                return Double.compare(distances.get(lhs), distances.get(rhs));
+            }
+        });
+    }
+
+    /**
+     * @return true if matched entities are returned in some order, so all of them are needed before the first one is known
+     */
+    static boolean isOrdered(Query query) {
+        return (query.getSort() != null && !query.getSort().isEmpty()) ||
+                GeoMatcher.nearCenter(query.getQueryFilterMap(), new String[1]) != null;
+    }
+
+    /**
+     * Create comparator for given sort orders, field paths are split only once
+     * @param sortOrders sort orders, see {@link com.kinvey.java.Query#getSort()}
+     * @return comparator that could be reused for multiple sorts
+     */
+    public static <T extends Map<?, ?>> Comparator<T> comparator(Map<String, AbstractQuery.SortOrder> sortOrders) {
+        final List<String[]> paths = new ArrayList<String[]>(sortOrders.size());
+        final List<Integer> directions = new ArrayList<Integer>(sortOrders.size());
+        for (Map.Entry<String, AbstractQuery.SortOrder> entry : sortOrders.entrySet()){
+            paths.add(entry.getKey().split("\\."));
+            directions.add(entry.getValue() == AbstractQuery.SortOrder.DESC ? -1 : 1);
+        }
+        return new Comparator<T>() {
+            @Override
+            public int compare(T lhs, T rhs) {
+                for (int i = 0; i < paths.size(); i++){
+                    int ret = QueryMatcher.compare(getValue(lhs, paths.get(i)), getValue(rhs, paths.get(i)));
+                    if (ret != 0){
+                        return directions.get(i) * ret;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Compare two field values, values of different types are ordered as nulls, numbers, strings, other values, booleans;
+     * numbers are compared by value regardless of their type
+     * @return negative, zero or positive value as in {@link Comparable#compareTo(Object)}
+     */
+    public static int compare(Object l, Object r) {
+        if (l == r){
+            return 0;
+        }
+        int lRank = typeRank(l);
+        int rRank = typeRank(r);
+        if (lRank != rRank){
+            return lRank < rRank ? -1 : 1;
+        }
+        if (l instanceof Number){
+            return Double.compare(((Number) l).doubleValue(), ((Number) r).doubleValue());
+        }
+        if (l instanceof Comparable && l.getClass().isAssignableFrom(r.getClass())){
+            //r is an instance of the class of l
+            @SuppressWarnings("unchecked")
+            Comparable<Object> comparable = (Comparable<Object>) l;
+            return comparable.compareTo(r);
+        }
+        return l.toString().compareTo(r.toString());
+    }
+
+    /**
+     * @return position of value type in the sort order, only values of the same rank are compared by value
+     */
+    static int typeRank(Object o) {
+        if (o == null){
+            return 0;
+        } else if (o instanceof Number){
+            return 1;
+        } else if (o instanceof String || o instanceof Character){
+            return 2;
+        } else if (o instanceof Boolean){
+            return 4;
+        }
+        return 3;
+    }
+
+    private static boolean matchesAny(Map<?, ?> entity, Object params) {
+        for (Map<?, ?> component : components(params)){
+            if (matches(entity, component)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesOperators(Map<?, ?> entity, String field, Map<?, ?> operators) {
+        Object value = getValue(entity, field);
+        for (Map.Entry<?, ?> operator : operators.entrySet()){
+            String operation = String.valueOf(operator.getKey());
+            Object param = operator.getValue();
+            boolean ret;
+            if (operation.equalsIgnoreCase("$in")){
+                ret = in(value, param);
+            } else if (operation.equalsIgnoreCase("$nin")){
+                ret = !in(value, param);
+            } else if (operation.equalsIgnoreCase("$gt")
+                    || operation.equalsIgnoreCase("$gte")
+                    || operation.equalsIgnoreCase("$lt")
+                    || operation.equalsIgnoreCase("$lte")){
+                ret = compare(value, param, operation.toLowerCase());
+            } else if (operation.equalsIgnoreCase("$ne")){
+                ret = !valueEquals(value, param);
+            } else if (operation.equalsIgnoreCase("$exists")){
+                ret = (value != null) == Boolean.parseBoolean(String.valueOf(param));
+            } else if (operation.equalsIgnoreCase("$all")){
+                ret = all(value, param);
+            } else if (operation.equalsIgnoreCase("$size")){
+                ret = isArrayOrCollection(value) && asList(value).size() == ((Number) param).intValue();
+            } else if (operation.equalsIgnoreCase("$regex")){
+                ret = regex(value, param, operators.get("$options"));
+            } else if (operation.equalsIgnoreCase("$options")){
+                //handled by $regex
+                ret = true;
+            } else if (operation.equalsIgnoreCase("$nearSphere")){
+                ret = GeoMatcher.nearSphere(value, param, operators.get("$maxDistance"));
+            } else if (operation.equalsIgnoreCase("$maxDistance")){
+                //handled by $nearSphere
+                ret = true;
+            } else if (operation.equalsIgnoreCase("$within")){
+                ret = GeoMatcher.within(value, param);
+            } else if (operation.equalsIgnoreCase("$not")){
+                if (!(param instanceof Map)){
+                    throw new UnsupportedOperationException("$not should contain operator expression");
+                }
+                ret = !matchesOperators(entity, field, (Map<?, ?>) param);
+            } else {
+                throw new UnsupportedOperationException("this query is not supported by cache");
+            }
+            if (!ret){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isOperatorMap(Map<?, ?> map) {
+        for (Object key : map.keySet()){
+            if (!String.valueOf(key).startsWith("$")){
+                return false;
+            }
+        }
+        return !map.isEmpty();
+    }
+
+    private static List<Map<?, ?>> components(Object params) {
+        List<Map<?, ?>> ret = new ArrayList<Map<?, ?>>();
+        for (Object o : asList(params)){
+            if (o instanceof Map){
+                ret.add((Map<?, ?>) o);
+            }
+        }
+        return ret;
+    }
+
+    private static boolean in(Object value, Object param) {
+        for (Object candidate : asList(param)){
+            if (valueEquals(value, candidate)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean all(Object value, Object param) {
+        for (Object candidate : asList(param)){
+            if (!valueEquals(value, candidate)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regex(Object value, Object param, Object options) {
+        if (value == null){
+            return false;
+        }
+        String regex = param.toString();
+        String key = options == null ? regex : regex + "/" + options;
+        Pattern pattern;
+        synchronized (PATTERNS){
+            pattern = PATTERNS.get(key);
+        }
+        if (pattern == null){
+            int flags = 0;
+            if (options != null){
+                String opt = options.toString();
+                flags |= opt.contains("i") ? Pattern.CASE_INSENSITIVE : 0;
+                flags |= opt.contains("m") ? Pattern.MULTILINE : 0;
+                flags |= opt.contains("s") ? Pattern.DOTALL : 0;
+            }
+            pattern = Pattern.compile(regex, flags);
+            synchronized (PATTERNS){
+                PATTERNS.put(key, pattern);
+            }
+        }
+        //as on the backend, only string values are matched
+        if (isArrayOrCollection(value)){
+            for (Object o : asList(value)){
+                if (typeRank(o) == 2 && pattern.matcher(o.toString()).find()){
+                    return true;
+                }
+            }
+            return false;
+        }
+        return typeRank(value) == 2 && pattern.matcher(value.toString()).find();
+    }
+
+    /**
+     * Literal text every match of anchored regular expression starts with, e.g. "abc" for "^abc.*"
+     * @return the prefix, or null if expression is not anchored or its options change meaning of the anchor or letters
+     */
+    static String prefix(Object regex, Object options) {
+        if (regex == null || (options != null && options.toString().length() > 0)){
+            return null;
+        }
+        String pattern = regex.toString();
+        if (!pattern.startsWith("^") || pattern.indexOf('|') >= 0){
+            //alternation could make the rest of expression unanchored
+            return null;
+        }
+        StringBuilder ret = new StringBuilder();
+        for (int i = 1; i < pattern.length(); i++){
+            char c = pattern.charAt(i);
+            if (c == '\\'){
+                if (i + 1 == pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1))){
+                    //character classes like \d, escapes like \Q
+                    break;
+                }
+                c = pattern.charAt(++i);
+            } else if ("?*{".indexOf(c) >= 0){
+                //previous character is optional
+                if (ret.length() > 0){
+                    ret.setLength(ret.length() - 1);
+                }
+                break;
+            } else if (".[]()+^$".indexOf(c) >= 0){
+                break;
+            }
+            ret.append(c);
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Equality with Mongo semantic: array field matches if any of its elements are equal to the value
+     */
+    private static boolean valueEquals(Object value, Object param) {
+        if (isArrayOrCollection(value) && !isArrayOrCollection(param)){
+            for (Object o : asList(value)){
+                if (scalarEquals(o, param)){
+                    return true;
+                }
+            }
+            return false;
+        }
+        return scalarEquals(value, param);
+    }
+
+    private static boolean scalarEquals(Object l, Object r) {
+        if (l == null || r == null){
+            return l == r;
+        }
+        if (l instanceof Number && r instanceof Number){
+            return ((Number) l).doubleValue() == ((Number) r).doubleValue();
+        }
+        if (isArrayOrCollection(l) && isArrayOrCollection(r)){
+            return asList(l).equals(asList(r));
+        }
+        return l.equals(r);
+    }
+
+    /**
+     * Range comparison with Mongo semantic: array field matches if any of its elements satisfies the comparison,
+     * values are compared only with parameters of the same type
+     */
+    private static boolean compare(Object value, Object param, String operation) {
+        if (value == null){
+            return false;
+        }
+        if (isArrayOrCollection(value)){
+            for (Object o : asList(value)){
+                if (compare(o, param, operation)){
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (typeRank(value) != typeRank(param)){
+            return false;
+        }
+        int ret = compare(value, param);
+        if (operation.equals("$gt")){
+            return ret > 0;
+        } else if (operation.equals("$gte")){
+            return ret >= 0;
+        } else if (operation.equals("$lt")){
+            return ret < 0;
+        }
+        return ret <= 0;
+    }
+
+    static boolean isArrayOrCollection(Object o) {
+        return o != null && (o instanceof Collection || o.getClass().isArray());
+    }
+
+    static List<Object> asList(Object o) {
+        List<Object> ret = new ArrayList<Object>();
+        if (o instanceof Collection){
+            ret.addAll((Collection<?>) o);
+        } else if (o != null && o.getClass().isArray()){
+            for (int i = 0; i < Array.getLength(o); i++){
+                ret.add(Array.get(o, i));
+            }
+        } else if (o != null){
+            ret.add(o);
+        }
+        return ret;
+    }
+}
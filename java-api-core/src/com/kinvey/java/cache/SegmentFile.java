@@ -0,0 +1,518 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.KinveyException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of a single collection.
+ *
+ * Every record is stored as {@code [int payload length][int crc32 of payload][payload]}, where payload is
+ * {@code [byte type][long expireAt][short id length][id][json body]}. Updates and deletes are appended,
+ * the latest record of an id wins. Offsets of live records are kept in memory, so entities are read
+ * from the memory mapped file without scanning it.
+ *
+ * Writes of more than one record are framed by {@code BEGIN} and {@code COMMIT} records, which have an empty
+ * id and body. On open the log is replayed and cut at the first incomplete or corrupted record, which is what an
+ * interrupted write leaves behind, records of a batch without its {@code COMMIT} are dropped as well.
+ * Garbage left by updates and deletes is removed by {@link #compact()}.
+ */
+class SegmentFile {
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final byte BEGIN = 3;
+    static final byte COMMIT = 4;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int PAYLOAD_PREFIX_SIZE = 11;
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private final File file;
+    private final boolean sync;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+
+    private final LinkedHashMap<String, Location> index = new LinkedHashMap<String, Location>();
+    private long size;
+    private long liveBytes;
+
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    final FieldIndexes indexes = new FieldIndexes();
+    Class<? extends GenericJson> itemClass;
+
+    /**
+     * Position of the latest record of an entity
+     */
+    static class Location {
+        final long offset;
+        final int length;
+        final long expireAt;
+
+        Location(long offset, int length, long expireAt) {
+            this.offset = offset;
+            this.length = length;
+            this.expireAt = expireAt;
+        }
+
+        boolean isAlive(long now){
+            return expireAt >= now;
+        }
+
+        /**
+         * @return size of the whole record in the file
+         */
+        int size(){
+            return HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * Entity record to be appended
+     */
+    static class Record {
+        final String id;
+        final long expireAt;
+        final byte[] body;
+
+        Record(String id, long expireAt, byte[] body) {
+            this.id = id;
+            this.expireAt = expireAt;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Record read from the log, kept until the batch it belongs to is committed
+     */
+    private static class Replayed {
+        final byte type;
+        final String id;
+        final Location location;
+
+        Replayed(byte type, String id, Location location) {
+            this.type = type;
+            this.id = id;
+            this.location = location;
+        }
+    }
+
+    SegmentFile(File file, boolean sync) throws IOException {
+        this.file = file;
+        this.sync = sync;
+        open();
+    }
+
+    /**
+     * @return ids of live entities in insertion order
+     * NOTE: should be called with read lock held
+     */
+    List<String> ids(){
+        return new ArrayList<String>(index.keySet());
+    }
+
+    /**
+     * NOTE: should be called with read lock held
+     */
+    Location locate(String id){
+        return index.get(id);
+    }
+
+    /**
+     * @return snapshot of current index, NOTE: should be called with read lock held
+     */
+    List<Map.Entry<String, Location>> entries(){
+        return new ArrayList<Map.Entry<String, Location>>(index.entrySet());
+    }
+
+    /**
+     * Read json body of the record
+     * NOTE: should be called with read lock held
+     */
+    byte[] read(Location location) throws IOException {
+        ByteBuffer buffer = record(location);
+        buffer.position(buffer.position() + HEADER_SIZE + PAYLOAD_PREFIX_SIZE - 2);
+        int idLength = buffer.getShort() & 0xFFFF;
+        buffer.position(buffer.position() + idLength);
+        byte[] body = new byte[location.length - PAYLOAD_PREFIX_SIZE - idLength];
+        buffer.get(body);
+        return body;
+    }
+
+    /**
+     * Append records and update index
+     * NOTE: should be called with write lock held
+     */
+    void put(List<Record> records) throws IOException {
+        write(Collections.<String>emptyList(), records);
+    }
+
+    /**
+     * Append tombstones for existing ids
+     * NOTE: should be called with write lock held
+     * @return number of removed entities
+     */
+    int delete(Iterable<String> ids) throws IOException {
+        return write(ids, Collections.<Record>emptyList());
+    }
+
+    /**
+     * Append tombstones for existing ids followed by records in a single write and update index,
+     * ids that are both deleted and written end up with the written record
+     * NOTE: should be called with write lock held
+     * @return number of removed entities
+     */
+    int write(Iterable<String> ids, List<Record> records) throws IOException {
+        List<Record> removed = new ArrayList<Record>();
+        Set<String> unique = new HashSet<String>();
+        for (String id : ids){
+            if (index.containsKey(id) && unique.add(id)){
+                removed.add(new Record(id, 0, new byte[0]));
+            }
+        }
+        if (removed.isEmpty() && records.isEmpty()){
+            return 0;
+        }
+        //single record is atomic by its checksum, batches are applied on open only if their commit is there
+        boolean framed = removed.size() + records.size() > 1;
+        long frameSize = framed ? 2 * (HEADER_SIZE + PAYLOAD_PREFIX_SIZE) : 0;
+        long bufferSize = encodedSize(removed, DELETE) + encodedSize(records, PUT) + frameSize;
+        if (bufferSize > Integer.MAX_VALUE){
+            throw new KinveyException("Too many entities saved at once, please split the request");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) bufferSize);
+        if (framed){
+            encode(buffer, BEGIN, "", 0, new byte[0]);
+        }
+        for (Record record : removed){
+            encode(buffer, DELETE, record.id, 0, record.body);
+        }
+        List<Location> locations = new ArrayList<Location>(records.size());
+        for (Record record : records){
+            locations.add(encode(buffer, PUT, record.id, record.expireAt, record.body));
+        }
+        if (framed){
+            encode(buffer, COMMIT, "", 0, new byte[0]);
+        }
+        append(buffer);
+        for (Record record : removed){
+            Location previous = index.remove(record.id);
+            liveBytes -= HEADER_SIZE + previous.length;
+        }
+        for (int i = 0; i < records.size(); i++){
+            Location previous = index.put(records.get(i).id, locations.get(i));
+            if (previous != null){
+                liveBytes -= HEADER_SIZE + previous.length;
+            }
+            liveBytes += HEADER_SIZE + locations.get(i).length;
+        }
+        return removed.size();
+    }
+
+    /**
+     * Drop all records
+     * NOTE: should be called with write lock held
+     */
+    void clear() throws IOException {
+        mapped = null;
+        channel.truncate(0);
+        if (sync){
+            channel.force(true);
+        }
+        index.clear();
+        indexes.clear();
+        size = 0;
+        liveBytes = 0;
+    }
+
+    /**
+     * @return size of the log that is taken by overwritten, deleted or expired records
+     */
+    long garbage(){
+        return size - liveBytes;
+    }
+
+    long size(){
+        return size;
+    }
+
+    /**
+     * Rewrite the log with live, not expired records only and replace the original file with the result
+     * NOTE: should be called with write lock held
+     */
+    void compact() throws IOException {
+        File compacted = new File(file.getPath() + COMPACT_SUFFIX);
+        long now = System.currentTimeMillis();
+        RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+        try {
+            out.setLength(0);
+            FileChannel outChannel = out.getChannel();
+            long position = 0;
+            for (Map.Entry<String, Location> entry : index.entrySet()){
+                Location location = entry.getValue();
+                if (!location.isAlive(now)){
+                    indexes.remove(entry.getKey());
+                    continue;
+                }
+                ByteBuffer record = record(location);
+                while (record.hasRemaining()){
+                    position += outChannel.write(record, position);
+                }
+            }
+            outChannel.force(true);
+        } finally {
+            out.close();
+        }
+
+        close();
+        try {
+            if (!compacted.renameTo(file)){
+                //some platforms do not allow to replace existing file, open() completes this step after a crash
+                file.delete();
+                compacted.renameTo(file);
+            }
+        } finally {
+            open();
+        }
+    }
+
+    void close() throws IOException {
+        mapped = null;
+        raf.close();
+    }
+
+    private void open() throws IOException {
+        File compacted = new File(file.getPath() + COMPACT_SUFFIX);
+        if (compacted.exists()){
+            if (file.exists()){
+                //compaction was interrupted before replacing the log, original is still valid
+                compacted.delete();
+            } else if (!compacted.renameTo(file)){
+                throw new IOException("Could not restore compacted log " + compacted.getPath());
+            }
+        }
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        index.clear();
+        size = 0;
+        liveBytes = 0;
+        recover();
+    }
+
+    /**
+     * Replay the log to rebuild the index, log is truncated after the last valid record
+     * that is not part of an incomplete batch
+     */
+    private void recover() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize == 0){
+            return;
+        }
+        checkCapacity(fileSize);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        CRC32 crc = new CRC32();
+        int position = 0;
+        //end of the last record applied to the index
+        int valid = 0;
+        //records of the batch being read, null if records are outside of a batch
+        List<Replayed> batch = null;
+        while (position + HEADER_SIZE <= fileSize){
+            int length = buffer.getInt(position);
+            int checksum = buffer.getInt(position + 4);
+            if (length < PAYLOAD_PREFIX_SIZE || position + HEADER_SIZE + (long) length > fileSize){
+                break;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer record = buffer.duplicate();
+            record.position(position + HEADER_SIZE);
+            record.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum){
+                break;
+            }
+            ByteBuffer fields = ByteBuffer.wrap(payload);
+            byte type = fields.get();
+            long expireAt = fields.getLong();
+            int idLength = fields.getShort() & 0xFFFF;
+            if (PAYLOAD_PREFIX_SIZE + idLength > length){
+                break;
+            }
+            String id = new String(payload, PAYLOAD_PREFIX_SIZE, idLength, "UTF-8");
+            Location location = new Location(position, length, expireAt);
+            if (type == BEGIN && batch == null){
+                batch = new ArrayList<Replayed>();
+            } else if (type == COMMIT && batch != null){
+                for (Replayed pending : batch){
+                    replay(pending.type, pending.id, pending.location);
+                }
+                batch = null;
+            } else if (type == PUT || type == DELETE){
+                if (batch != null){
+                    batch.add(new Replayed(type, id, location));
+                } else {
+                    replay(type, id, location);
+                }
+            } else {
+                break;
+            }
+            position += HEADER_SIZE + length;
+            if (batch == null){
+                valid = position;
+            }
+        }
+        size = valid;
+        if (valid < fileSize){
+            channel.truncate(valid);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Apply record read from the log to the index
+     */
+    private void replay(byte type, String id, Location location){
+        Location previous;
+        if (type == PUT){
+            previous = index.put(id, location);
+            liveBytes += HEADER_SIZE + location.length;
+        } else {
+            previous = index.remove(id);
+        }
+        if (previous != null){
+            liveBytes -= HEADER_SIZE + previous.length;
+        }
+    }
+
+    private void append(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        checkCapacity(size + buffer.remaining());
+        long position = size;
+        while (buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+        if (sync){
+            channel.force(false);
+        }
+        size = position;
+    }
+
+    /**
+     * Records appended after the log was mapped are read with positional reads, see {@link #mapping(long)}
+     * @return buffer positioned at the start of the record and limited by its end
+     */
+    private ByteBuffer record(Location location) throws IOException {
+        long end = location.offset + HEADER_SIZE + location.length;
+        MappedByteBuffer current = mapping(end);
+        if (current.capacity() >= end){
+            ByteBuffer ret = current.duplicate();
+            ret.limit((int) end);
+            ret.position((int) location.offset);
+            return ret;
+        }
+        ByteBuffer ret = ByteBuffer.allocate(HEADER_SIZE + location.length);
+        long position = location.offset;
+        while (ret.hasRemaining()){
+            int read = channel.read(ret, position);
+            if (read < 0){
+                throw new IOException("Unexpected end of cache file " + file.getName());
+            }
+            position += read;
+        }
+        ret.flip();
+        return ret;
+    }
+
+    /**
+     * Mapping is grown geometrically, the log is remapped only once it doubled since it was mapped,
+     * so appends followed by reads do not remap the whole file every time
+     * @return mapping that covers a prefix of the log, not necessarily up to given position
+     */
+    private MappedByteBuffer mapping(long end) throws IOException {
+        MappedByteBuffer current = mapped;
+        if (current == null || (current.capacity() < end && size >= 2L * current.capacity())){
+            synchronized (this){
+                current = mapped;
+                if (current == null || (current.capacity() < end && size >= 2L * current.capacity())){
+                    current = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    mapped = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Encode record to the buffer, offset of returned location is relative to the end of the log
+     */
+    private Location encode(ByteBuffer buffer, byte type, String id, long expireAt, byte[] body)
+            throws UnsupportedEncodingException {
+        byte[] idBytes = id.getBytes("UTF-8");
+        int length = PAYLOAD_PREFIX_SIZE + idBytes.length + body.length;
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putLong(expireAt);
+        buffer.putShort((short) idBytes.length);
+        buffer.put(idBytes);
+        buffer.put(body);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), start + HEADER_SIZE, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        return new Location(size + start, length, expireAt);
+    }
+
+    private static long encodedSize(List<Record> records, byte type) throws UnsupportedEncodingException {
+        long ret = 0;
+        for (Record record : records){
+            int idLength = record.id.getBytes("UTF-8").length;
+            if (idLength > 0xFFFF){
+                throw new KinveyException("Entity id is too long to be cached: " + record.id);
+            }
+            ret += HEADER_SIZE + PAYLOAD_PREFIX_SIZE + idLength + (type == PUT ? record.body.length : 0);
+        }
+        return ret;
+    }
+
+    private void checkCapacity(long end){
+        if (end > Integer.MAX_VALUE){
+            throw new KinveyException("Cache file " + file.getName() + " exceeded maximum size",
+                    "Clear the cache or reduce amount of locally stored data",
+                    "Collection log could not be larger than 2GB");
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Allocates fixed size chunks from direct {@link ByteBuffer} slabs, no more than given budget is ever allocated.
+ *
+ * Chunk sizes are powers of two, every slab is split into chunks of a single size when it is taken into use.
+ * Freed chunks are reused by allocations of the same size, so memory usage stays flat once the working set is reached.
+ * A slab whose chunks are all freed is reclaimed and could be split again for any other size.
+ * Chunk address is {@code slab index << 32 | offset in slab}.
+ */
+class SlabAllocator {
+
+    static final long NO_SPACE = -1;
+
+    private static final int MIN_CHUNK_SHIFT = 6;
+
+    private final long budget;
+    private final int slabSize;
+    private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+    private final List<Integer> slabChunkShifts = new ArrayList<Integer>();
+    private final List<Integer> emptySlabs = new ArrayList<Integer>();
+    private int[] slabLiveChunks = new int[16];
+    private final SizeClass[] classes;
+    private long usedBytes;
+
+    /**
+     * Chunks of a single size
+     */
+    private static class SizeClass {
+        long[] free = new long[16];
+        int freeCount;
+        int currentSlab = -1;
+        int next;
+    }
+
+    /**
+     * @param budget maximum amount of direct memory to allocate, in bytes
+     * @param slabSize size of the single slab, should be power of two, it is also the maximum size of a chunk
+     */
+    SlabAllocator(long budget, int slabSize) {
+        if (Integer.bitCount(slabSize) != 1 || slabSize < (1 << MIN_CHUNK_SHIFT)){
+            throw new IllegalArgumentException("slab size should be power of two not less than " + (1 << MIN_CHUNK_SHIFT));
+        }
+        this.budget = budget;
+        this.slabSize = slabSize;
+        this.classes = new SizeClass[shift(slabSize) - MIN_CHUNK_SHIFT + 1];
+        for (int i = 0; i < classes.length; i++){
+            classes[i] = new SizeClass();
+        }
+    }
+
+    /**
+     * @param size required chunk size
+     * @return address of the chunk or {@link #NO_SPACE} if budget is exhausted
+     */
+    synchronized long allocate(int size) {
+        if (size > slabSize){
+            return NO_SPACE;
+        }
+        int shift = Math.max(shift(size), MIN_CHUNK_SHIFT);
+        SizeClass sizeClass = classes[shift - MIN_CHUNK_SHIFT];
+        if (sizeClass.freeCount > 0){
+            long address = sizeClass.free[--sizeClass.freeCount];
+            slabLiveChunks[slab(address)]++;
+            return address;
+        }
+        if (sizeClass.currentSlab < 0 || sizeClass.next + (1 << shift) > slabSize){
+            if (!emptySlabs.isEmpty()){
+                sizeClass.currentSlab = emptySlabs.remove(emptySlabs.size() - 1);
+                slabChunkShifts.set(sizeClass.currentSlab, shift);
+            } else if (usedBytes + slabSize > budget){
+                return NO_SPACE;
+            } else {
+                slabs.add(ByteBuffer.allocateDirect(slabSize));
+                slabChunkShifts.add(shift);
+                usedBytes += slabSize;
+                if (slabLiveChunks.length < slabs.size()){
+                    slabLiveChunks = Arrays.copyOf(slabLiveChunks, slabLiveChunks.length * 2);
+                }
+                sizeClass.currentSlab = slabs.size() - 1;
+            }
+            sizeClass.next = 0;
+        }
+        long address = ((long) sizeClass.currentSlab << 32) | sizeClass.next;
+        sizeClass.next += 1 << shift;
+        slabLiveChunks[sizeClass.currentSlab]++;
+        return address;
+    }
+
+    synchronized void free(long address) {
+        int slab = slab(address);
+        SizeClass sizeClass = classes[slabChunkShifts.get(slab) - MIN_CHUNK_SHIFT];
+        if (--slabLiveChunks[slab] == 0){
+            reclaim(sizeClass, slab);
+            return;
+        }
+        if (sizeClass.freeCount == sizeClass.free.length){
+            sizeClass.free = Arrays.copyOf(sizeClass.free, sizeClass.free.length * 2);
+        }
+        sizeClass.free[sizeClass.freeCount++] = address;
+    }
+
+    /**
+     * @return capacity of the chunk at given address
+     */
+    synchronized int capacity(long address) {
+        return 1 << slabChunkShifts.get(slab(address));
+    }
+
+    /**
+     * @return independent view of the chunk, positioned at its start and limited by its capacity
+     */
+    ByteBuffer chunk(long address) {
+        ByteBuffer slab;
+        int capacity;
+        synchronized (this){
+            slab = slabs.get(slab(address));
+            capacity = 1 << slabChunkShifts.get(slab(address));
+        }
+        ByteBuffer ret = slab.duplicate();
+        int offset = (int) address;
+        ret.limit(offset + capacity);
+        ret.position(offset);
+        return ret;
+    }
+
+    /**
+     * @return amount of direct memory taken by slabs
+     */
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    int getSlabSize() {
+        return slabSize;
+    }
+
+    /**
+     * Take chunks of the slab out of the size class, so the slab could be split for another size
+     */
+    private void reclaim(SizeClass sizeClass, int slab) {
+        int count = 0;
+        for (int i = 0; i < sizeClass.freeCount; i++){
+            if (slab(sizeClass.free[i]) != slab){
+                sizeClass.free[count++] = sizeClass.free[i];
+            }
+        }
+        sizeClass.freeCount = count;
+        if (sizeClass.currentSlab == slab){
+            sizeClass.currentSlab = -1;
+        }
+        emptySlabs.add(slab);
+    }
+
+    private static int slab(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int shift(int size) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+    }
+}
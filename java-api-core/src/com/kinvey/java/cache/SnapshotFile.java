@@ -0,0 +1,186 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Read only binary copy of a collection, written at once and read back from a memory mapped file.
+ * Bodies are read straight from the mapping, they are not copied to the heap before they are parsed.
+ *
+ * File is {@code [int magic][int version][long createdAt][int count][count x ([int length][json body])][int crc32]},
+ * crc covers everything before it. File is written to a temporary file which then replaces the previous snapshot,
+ * so a reader sees either the old or the new snapshot.
+ */
+class SnapshotFile {
+
+    private static final int MAGIC = 0x4b56534e;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int CRC_CHUNK_SIZE = 8 * 1024;
+
+    private final ByteBuffer buffer;
+
+    private SnapshotFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return time the snapshot was written, in milliseconds
+     */
+    long getCreatedAt() {
+        return buffer.getLong(8);
+    }
+
+    /**
+     * Verify the snapshot and get its serialized entities
+     * @return streams over serialized entities in the order they were written
+     * @throws IOException if the snapshot is corrupted
+     */
+    List<InputStream> getBodies() throws IOException {
+        int size = buffer.limit();
+        ByteBuffer content = buffer.duplicate();
+        content.limit(size - 4);
+        byte[] chunk = new byte[CRC_CHUNK_SIZE];
+        CRC32 crc = new CRC32();
+        while (content.hasRemaining()){
+            int length = Math.min(chunk.length, content.remaining());
+            content.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        if ((int) crc.getValue() != buffer.getInt(size - 4)){
+            throw new IOException("Snapshot checksum does not match");
+        }
+        ByteBuffer records = buffer.duplicate();
+        records.position(HEADER_SIZE - 4);
+        int count = records.getInt();
+        List<InputStream> ret = new ArrayList<InputStream>(Math.max(count, 0));
+        for (int i = 0; i < count; i++){
+            int length = records.getInt();
+            ByteBuffer body = records.slice();
+            body.limit(length);
+            records.position(records.position() + length);
+            ret.add(new BodyInputStream(body));
+        }
+        return ret;
+    }
+
+    /**
+     * Replace snapshot in given file
+     */
+    static void write(File file, long createdAt, List<byte[]> bodies) throws IOException {
+        long size = HEADER_SIZE + 4;
+        for (byte[] body : bodies){
+            size += 4 + body.length;
+        }
+        if (size > Integer.MAX_VALUE){
+            throw new IOException("Snapshot is too large: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(createdAt).putInt(bodies.size());
+        for (byte[] body : bodies){
+            buffer.putInt(body.length).put(body);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(buffer.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)){
+            //rename does not replace existing files on some platforms
+            file.delete();
+            if (!temp.renameTo(file)){
+                throw new IOException("Could not replace snapshot " + file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Map snapshot stored in given file, only the header is checked, see {@link #getBodies()}
+     * @return snapshot stored in given file, or null if there is no snapshot
+     */
+    static SnapshotFile read(File file) throws IOException {
+        if (!file.exists() || file.length() < HEADER_SIZE + 4 || file.length() > Integer.MAX_VALUE){
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            int size = (int) channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION){
+                return null;
+            }
+            //mapping stays valid after the file is closed
+            return new SnapshotFile(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Stream over a body in the mapped file
+     */
+    private static class BodyInputStream extends InputStream {
+        private final ByteBuffer body;
+
+        BodyInputStream(ByteBuffer body) {
+            this.body = body;
+        }
+
+        @Override
+        public int read() {
+            return body.hasRemaining() ? body.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0){
+                return 0;
+            }
+            if (!body.hasRemaining()){
+                return -1;
+            }
+            int ret = Math.min(len, body.remaining());
+            body.get(b, off, ret);
+            return ret;
+        }
+
+        @Override
+        public int available() {
+            return body.remaining();
+        }
+    }
+}
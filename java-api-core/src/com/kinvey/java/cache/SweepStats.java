@@ -0,0 +1,56 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+/**
+ * Amount of expired data removed from the cache
+ */
+public final class SweepStats {
+
+    public static final SweepStats EMPTY = new SweepStats(0, 0);
+
+    private final long rows;
+    private final long bytes;
+
+    public SweepStats(long rows, long bytes) {
+        this.rows = rows;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return count of removed entities
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return storage space released by removed entities, estimated for storages that do not track it
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public SweepStats add(SweepStats other) {
+        return new SweepStats(rows + other.rows, bytes + other.bytes);
+    }
+
+    @Override
+    public String toString() {
+        return rows + " rows, " + bytes + " bytes";
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.KinveyException;
+import com.kinvey.java.Query;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * {@link ICache} of {@link WarmStartCacheManager}, reads are served from the snapshot until the collection is opened,
+ * writes wait for the collection to be opened
+ */
+class WarmStartCache<T extends GenericJson> implements ICache<T> {
+
+    private final Future<ICache<T>> cache;
+    //null once reads are switched to the opened cache
+    private volatile Future<ICache<T>> snapshot;
+    //indexes created before the collection was opened
+    private final LinkedHashMap<String, IndexType> indexes = new LinkedHashMap<String, IndexType>();
+
+    WarmStartCache(Future<ICache<T>> cache, Future<ICache<T>> snapshot) {
+        this.cache = cache;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return cache to read from
+     */
+    private ICache<T> reader() {
+        ICache<T> ret = snapshot();
+        if (ret != null){
+            return ret;
+        }
+        snapshot = null;
+        return writer();
+    }
+
+    /**
+     * @return decoded snapshot, waits until it is decoded, or null if the collection is opened
+     * or the snapshot could not be decoded
+     */
+    private ICache<T> snapshot() {
+        Future<ICache<T>> current = snapshot;
+        if (current == null || cache.isDone()){
+            return null;
+        }
+        try {
+            return current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KinveyException("Interrupted while opening local cache", "Retry the operation", e.getMessage());
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return opened cache, waits until the collection is opened
+     */
+    private ICache<T> writer() {
+        try {
+            ICache<T> ret = cache.get();
+            synchronized (indexes){
+                for (Map.Entry<String, IndexType> index : indexes.entrySet()){
+                    ret.createIndex(index.getKey(), index.getValue());
+                }
+                indexes.clear();
+            }
+            return ret;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KinveyException("Interrupted while opening local cache", "Retry the operation", e.getMessage());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new KinveyException("Could not open local cache", "Check the cache manager", String.valueOf(e.getCause()));
+        }
+    }
+
+    @Override
+    public List<T> get(Query query) {
+        return reader().get(query);
+    }
+
+    @Override
+    public ICacheCursor<T> iterate(Query query) {
+        return reader().iterate(query);
+    }
+
+    @Override
+    public List<T> get(Iterable<String> ids) {
+        return reader().get(ids);
+    }
+
+    @Override
+    public T get(String id) {
+        return reader().get(id);
+    }
+
+    @Override
+    public List<T> get() {
+        return reader().get();
+    }
+
+    @Override
+    public List<T> save(Iterable<T> items) {
+        return writer().save(items);
+    }
+
+    @Override
+    public T save(T item) {
+        return writer().save(item);
+    }
+
+    @Override
+    public List<T> replace(Query query, Iterable<T> items) {
+        return writer().replace(query, items);
+    }
+
+    @Override
+    public List<T> execute(CacheBatch<T> batch) {
+        return writer().execute(batch);
+    }
+
+    @Override
+    public int delete(Query query) {
+        return writer().delete(query);
+    }
+
+    @Override
+    public int delete(Iterable<String> ids) {
+        return writer().delete(ids);
+    }
+
+    @Override
+    public int delete(String id) {
+        return writer().delete(id);
+    }
+
+    @Override
+    public void clear() {
+        writer().clear();
+    }
+
+    @Override
+    public SweepStats deleteExpired(int limit) {
+        return writer().deleteExpired(limit);
+    }
+
+    @Override
+    public T getFirst() {
+        return reader().getFirst();
+    }
+
+    @Override
+    public T getFirst(Query q) {
+        return reader().getFirst(q);
+    }
+
+    @Override
+    public long count(Query q) {
+        return reader().count(q);
+    }
+
+    @Override
+    public long getTtl() {
+        return reader().getTtl();
+    }
+
+    @Override
+    public void setTtl(long ttl) {
+        ICache<T> current = snapshot();
+        if (current != null){
+            current.setTtl(ttl);
+        }
+        writer().setTtl(ttl);
+    }
+
+    @Override
+    public void createIndex(String field, IndexType type) {
+        ICache<T> current = snapshot();
+        if (current != null){
+            current.createIndex(field, type);
+            synchronized (indexes){
+                indexes.put(field, type);
+            }
+            return;
+        }
+        writer().createIndex(field, type);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.util.Charsets;
+import com.kinvey.java.KinveyException;
+import com.kinvey.java.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link ICacheManager} that lets hot collections of a slow to open cache manager be read right after start.
+ *
+ * Collections are opened by the underlying manager on a background thread. Until that is done, reads of a hot
+ * collection are served from its snapshot written by {@link #writeSnapshots()} during the previous run, writes
+ * wait for the collection to be opened. Snapshots are decoded on another background thread, in parallel with
+ * opening of the collections. Collections that are not hot, or have no snapshot yet, are opened on the
+ * calling thread as usual.
+ */
+public class WarmStartCacheManager implements ICacheManager {
+
+    private static final String FILE_EXTENSION = ".snapshot";
+
+    private final ICacheManager cacheManager;
+    private final File directory;
+    private final JsonFactory jsonFactory;
+    private final Set<String> hotCollections;
+
+    //caches of the underlying manager, by collection, once opened
+    private final ConcurrentHashMap<String, ICache<?>> opened = new ConcurrentHashMap<String, ICache<?>>();
+    //collections being opened with their snapshots loaded into memory
+    private final HashMap<String, Opening<?>> opening = new HashMap<String, Opening<?>>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("KinveyCacheWarmStart"));
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor(new DaemonThreadFactory("KinveyCacheSnapshot"));
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Collection being opened on the background thread
+     */
+    private static class Opening<T extends GenericJson> {
+        final Class<T> type;
+        final Future<ICache<T>> cache;
+        final Future<ICache<T>> snapshot;
+
+        Opening(Class<T> type, Future<ICache<T>> cache, Future<ICache<T>> snapshot) {
+            this.type = type;
+            this.cache = cache;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * @param cacheManager cache manager that keeps the data
+     * @param directory folder to keep snapshots in, created if not exists
+     * @param jsonFactory factory used to serialize entities
+     * @param hotCollections collections to be snapshotted and served from snapshots on start
+     */
+    public WarmStartCacheManager(ICacheManager cacheManager, File directory, JsonFactory jsonFactory,
+                                 String... hotCollections) {
+        this.cacheManager = cacheManager;
+        this.directory = directory;
+        this.jsonFactory = jsonFactory;
+        this.hotCollections = new HashSet<String>(Arrays.asList(hotCollections));
+        if (!directory.exists() && !directory.mkdirs()){
+            throw new KinveyException("Could not create snapshot folder " + directory.getPath(),
+                    "Make sure the application has write access to the snapshot folder", "");
+        }
+    }
+
+    @Override
+    public <T extends GenericJson> ICache<T> getCache(final String collection, final Class<T> collectionItemClass,
+                                                      final Long ttl) {
+        if (!hotCollections.contains(collection) || opened.containsKey(collection)){
+            return open(collection, collectionItemClass, ttl);
+        }
+        Opening<T> current;
+        synchronized (opening){
+            Opening<?> existing = opening.get(collection);
+            if (existing != null && existing.type != collectionItemClass){
+                return open(collection, collectionItemClass, ttl);
+            }
+            //type of the opening is checked above
+            @SuppressWarnings("unchecked")
+            Opening<T> typed = (Opening<T>) existing;
+            current = typed;
+            if (current == null){
+                final SnapshotFile snapshot = findSnapshot(collection, ttl);
+                if (snapshot == null){
+                    return open(collection, collectionItemClass, ttl);
+                }
+                current = new Opening<T>(collectionItemClass, executor.submit(new Callable<ICache<T>>() {
+                    @Override
+                    public ICache<T> call() {
+                        return open(collection, collectionItemClass, ttl);
+                    }
+                }), decoder.submit(new Callable<ICache<T>>() {
+                    @Override
+                    public ICache<T> call() {
+                        return loadSnapshot(collection, snapshot, collectionItemClass, ttl);
+                    }
+                }));
+                opening.put(collection, current);
+                //runs once the collection is opened, snapshot is released by caches when they switch to the collection
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (opening){
+                            opening.remove(collection);
+                        }
+                    }
+                });
+            }
+        }
+        return new WarmStartCache<T>(current.cache, current.snapshot);
+    }
+
+    @Override
+    public void clear() {
+        cacheManager.clear();
+        for (String collection : hotCollections){
+            new File(directory, getFileName(collection)).delete();
+        }
+    }
+
+    /**
+     * Write snapshots of hot collections that were opened on a background thread, snapshots are used
+     * on the next start of the application
+     * @return future completed once snapshots are written
+     */
+    public Future<?> writeSnapshots() {
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (String collection : hotCollections){
+                    ICache<?> cache = opened.get(collection);
+                    if (cache != null){
+                        try {
+                            writeSnapshot(collection, cache);
+                        } catch (IOException e) {
+                            Logger.ERROR("Could not write snapshot of " + collection + ": " + e.getMessage());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop background thread, caches obtained from this manager could wait for their collections forever
+     * if they were not opened yet
+     */
+    public void close() {
+        executor.shutdown();
+        decoder.shutdown();
+    }
+
+    private <T extends GenericJson> ICache<T> open(String collection, Class<T> collectionItemClass, Long ttl) {
+        ICache<T> ret = cacheManager.getCache(collection, collectionItemClass, ttl);
+        if (hotCollections.contains(collection)){
+            opened.put(collection, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @return snapshot of the collection that is not older than ttl, or null if there is no such snapshot
+     */
+    private SnapshotFile findSnapshot(String collection, Long ttl) {
+        try {
+            SnapshotFile ret = SnapshotFile.read(new File(directory, getFileName(collection)));
+            if (ret == null || (ttl != null && System.currentTimeMillis() - ret.getCreatedAt() > ttl)){
+                return null;
+            }
+            return ret;
+        } catch (IOException e) {
+            Logger.ERROR("Could not read snapshot of " + collection + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Load snapshot of the collection into memory
+     * @return cache with entities of the snapshot, or null if the snapshot is not usable
+     */
+    private <T extends GenericJson> ICache<T> loadSnapshot(String collection, SnapshotFile snapshot,
+                                                           Class<T> collectionItemClass, Long ttl) {
+        List<T> items = new ArrayList<T>();
+        try {
+            for (InputStream body : snapshot.getBodies()){
+                items.add(jsonFactory.createJsonParser(body, Charsets.UTF_8).parse(collectionItemClass));
+            }
+        } catch (IOException e) {
+            Logger.ERROR("Could not read snapshot of " + collection + ": " + e.getMessage());
+            return null;
+        }
+        ICache<T> ret = new InMemoryCache<T>(collection, new InMemoryCache.Storage(collectionItemClass),
+                collectionItemClass, ttl == null ? 0 : ttl);
+        ret.save(items);
+        return ret;
+    }
+
+    private void writeSnapshot(String collection, ICache<?> cache) throws IOException {
+        long createdAt = System.currentTimeMillis();
+        List<byte[]> bodies = new ArrayList<byte[]>();
+        for (GenericJson item : cache.get()){
+            bodies.add(jsonFactory.toByteArray(item));
+        }
+        SnapshotFile.write(new File(directory, getFileName(collection)), createdAt, bodies);
+    }
+
+    /**
+     * Map collection name to a safe file name, names that had to be changed get hash suffix to stay unique
+     */
+    private static String getFileName(String collection) {
+        String safe = collection.replaceAll("[^A-Za-z0-9_\\-]", "_");
+        if (!safe.equals(collection)){
+            safe += "_" + Integer.toHexString(collection.hashCode());
+        }
+        return safe + FILE_EXTENSION;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.model;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Key;
+
+/**
+ * Failure of a single entity of a bulk save request, see {@link KinveySaveBatchResponse}
+ */
+public class KinveyBatchInsertError extends GenericJson {
+
+    @Key
+    private int index;
+
+    @Key
+    private int code;
+
+    @Key
+    private String errmsg;
+
+    public KinveyBatchInsertError() {}
+
+    public KinveyBatchInsertError(int index, int code, String errmsg) {
+        this.index = index;
+        this.code = code;
+        this.errmsg = errmsg;
+    }
+
+    /**
+     * @return position of the failed entity in the saved list
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return error code reported by the backend, or http status code if the whole request failed,
+     * 0 if the request failed without a response
+     */
+    public int getCode() {
+        return code;
+    }
+
+    public String getErrmsg() {
+        return errmsg;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.model;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Key;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Response of a bulk save request.
+ *
+ * Entities are listed in the order they were sent, failed entities are null and described by errors.
+ */
+public class KinveySaveBatchResponse<T extends GenericJson> extends GenericJson {
+
+    @Key
+    private List<T> entities;
+
+    @Key
+    private List<KinveyBatchInsertError> errors;
+
+    /**
+     * Response as it is parsed from the backend, entities are converted to the entity class later
+     */
+    public static class Generic extends KinveySaveBatchResponse<GenericJson> {}
+
+    public KinveySaveBatchResponse() {}
+
+    public KinveySaveBatchResponse(List<T> entities, List<KinveyBatchInsertError> errors) {
+        this.entities = entities;
+        this.errors = errors;
+    }
+
+    /**
+     * @return saved entities, null for failed ones
+     */
+    public List<T> getEntities() {
+        return entities != null ? entities : new ArrayList<T>();
+    }
+
+    /**
+     * @return failures of single entities
+     */
+    public List<KinveyBatchInsertError> getErrors() {
+        return errors != null ? errors : new ArrayList<KinveyBatchInsertError>();
+    }
+}
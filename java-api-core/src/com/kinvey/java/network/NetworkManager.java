@@ -16,7 +16,11 @@
 
 package com.kinvey.java.network;
 
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.Json;
+import com.google.api.client.util.Data;
 import com.google.api.client.util.GenericData;
 import com.google.api.client.util.Key;
 import com.google.common.base.Joiner;
@@ -30,11 +34,14 @@ import java.util.ArrayList;
 import com.kinvey.java.AbstractClient;
 import com.kinvey.java.Query;
 import com.kinvey.java.annotations.ReferenceHelper;
+import com.kinvey.java.core.AbstractKinveyClientRequest;
 import com.kinvey.java.core.AbstractKinveyJsonClientRequest;
 import com.kinvey.java.deltaset.DeltaSetItem;
 import com.kinvey.java.deltaset.DeltaSetMerge;
 import com.kinvey.java.model.AggregateEntity;
+import com.kinvey.java.model.KinveyBatchInsertError;
 import com.kinvey.java.model.KinveyDeleteResponse;
+import com.kinvey.java.model.KinveySaveBatchResponse;
 import com.kinvey.java.query.MongoQueryFilter;
 
 import java.util.Arrays;
@@ -63,6 +70,12 @@ public class NetworkManager<T extends GenericJson> {
      * static final String representing universal "_geoloc" value, used for geoqueries
      */
     public static final String GEOLOC_FIELD_NAME = "_geoloc";
+    /**
+     * static final int representing default count of entities sent in a single bulk request
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
 
 
     private String clientAppVersion = null;
@@ -308,6 +321,20 @@ public class NetworkManager<T extends GenericJson> {
         return get;
     }
 
+    /**
+     * Method to get ids of entities matching a query, without their content.
+     *
+     * @param query Query to get
+     * @return MetadataGet object, with _id of every entity in the order of the query
+     * @throws IOException
+     */
+    public MetadataGet getIdsBlocking(Query query) throws IOException {
+        Preconditions.checkNotNull(query);
+        MetadataGet get = new MetadataGet(query, "_id");
+        client.initializeRequest(get);
+        return get;
+    }
+
     /**
      * Save (create or update) an entity to a collection.
      *
@@ -323,31 +350,7 @@ public class NetworkManager<T extends GenericJson> {
         GenericJson jsonEntity = (GenericJson) entity;
         sourceID = (String) jsonEntity.get(ID_FIELD_NAME);
 
-        //prepare entity relation data saving
-        try {
-            ReferenceHelper.processReferences(entity, new ReferenceHelper.ReferenceListener() {
-                @Override
-                public String onUnsavedReferenceFound(String collection, GenericJson object) {
-                    if (object.containsKey("_id")){
-                        return object.get("_id").toString();
-                    }
-
-                    NetworkManager<GenericJson> manager = new NetworkManager<GenericJson>(collection, GenericJson.class, client);
-                    try {
-                        GenericJson saved = manager.saveBlocking(object).execute();
-                        return saved.get(ID_FIELD_NAME).toString();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                    return null;
-                }
-            });
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-        }
+        processReferences(entity);
 
         if (sourceID != null) {
             save = new Save(entity, myClass, sourceID, SaveMode.PUT);
@@ -386,6 +389,62 @@ public class NetworkManager<T extends GenericJson> {
         return delete;
     }
 
+    /**
+     * Save new entities to a collection with bulk requests, each request carries up to {@link #getBatchSize()} entities.
+     *
+     * Entities are created by the multi-insert endpoint, existing entities should be updated with {@link #saveBlocking(GenericJson)}.
+     *
+     * @param entities Entities to save
+     * @return SaveBatch object
+     * @throws IOException
+     */
+    public SaveBatch saveBatchBlocking(List<T> entities) throws IOException {
+        Preconditions.checkNotNull(entities);
+        List<SaveBatchPart> parts = new ArrayList<SaveBatchPart>();
+        for (int i = 0; i < entities.size(); i += batchSize){
+            List<T> part = entities.subList(i, Math.min(i + batchSize, entities.size()));
+            for (T entity : part){
+                processReferences(entity);
+            }
+            SaveBatchPart save = new SaveBatchPart(part, i);
+            client.initializeRequest(save);
+            parts.add(save);
+        }
+        return new SaveBatch(parts);
+    }
+
+    /**
+     * Delete entities from a collection by IDs with bulk requests, each request carries up to {@link #getBatchSize()} IDs.
+     *
+     * @param entityIDs IDs of entities to delete
+     * @return DeleteBatch object
+     * @throws IOException
+     */
+    public DeleteBatch deleteBatchBlocking(List<String> entityIDs) throws IOException {
+        Preconditions.checkNotNull(entityIDs);
+        List<Delete> parts = new ArrayList<Delete>();
+        for (int i = 0; i < entityIDs.size(); i += batchSize){
+            List<String> part = entityIDs.subList(i, Math.min(i + batchSize, entityIDs.size()));
+            parts.add(deleteBlocking(new Query().in(ID_FIELD_NAME, part.toArray())));
+        }
+        return new DeleteBatch(parts);
+    }
+
+    /**
+     * @return max count of entities sent in a single bulk request
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize max count of entities sent in a single bulk request, {@link #DEFAULT_BATCH_SIZE} by default
+     */
+    public void setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be positive.");
+        this.batchSize = batchSize;
+    }
+
     /**
      * Retrieve a group by COUNT on a collection or filtered collection
      *
@@ -477,7 +536,12 @@ public class NetworkManager<T extends GenericJson> {
     }
     
     
-    private class MetadataGet extends AbstractKinveyJsonClientRequest<DeltaSetItem[]>{
+    /**
+     * Get _id and _kmd of entities, constructs the HTTP request object for the metadata part of
+     * {@link DeltaGet} and for {@link #getIdsBlocking(Query)}.
+     *
+     */
+    public class MetadataGet extends AbstractKinveyJsonClientRequest<DeltaSetItem[]>{
         private static final String REST_PATH = "appdata/{appKey}/{collectionName}/" +
                 "{?query,fields,tls,sort,limit,skip,resolve,resolve_depth,retainReference}";
         @Key
@@ -520,6 +584,23 @@ public class NetworkManager<T extends GenericJson> {
         }
 
 
+        MetadataGet(Query query, String fields){
+            super(client, "GET", REST_PATH, null, DeltaSetItem[].class);
+            this.collectionName = NetworkManager.this.collectionName;
+            this.queryFilter = query.getQueryFilterJson(client.getJsonFactory());
+            int queryLimit = query.getLimit();
+            int querySkip = query.getSkip();
+            this.limit = queryLimit > 0 ? Integer.toString(queryLimit) : null;
+            this.skip = querySkip > 0 ? Integer.toString(querySkip) : null;
+            String sortString = query.getSortString();
+            this.sortFilter = !(sortString.equals("")) ? sortString : null;
+            this.fields = fields;
+            this.getRequestHeaders().put("X-Kinvey-Client-App-Version", NetworkManager.this.clientAppVersion);
+            if (NetworkManager.this.customRequestProperties != null && !NetworkManager.this.customRequestProperties.isEmpty()){
+                this.getRequestHeaders().put("X-Kinvey-Custom-Request-Properties", new Gson().toJson(NetworkManager.this.customRequestProperties) );
+            }
+        }
+
         public DeltaSetItem[] execute() throws IOException {
             return super.execute();
         }
@@ -742,6 +823,34 @@ public class NetworkManager<T extends GenericJson> {
         }
     }
 
+    private void processReferences(T entity) {
+        //prepare entity relation data saving
+        try {
+            ReferenceHelper.processReferences(entity, new ReferenceHelper.ReferenceListener() {
+                @Override
+                public String onUnsavedReferenceFound(String collection, GenericJson object) {
+                    if (object.containsKey("_id")){
+                        return object.get("_id").toString();
+                    }
+
+                    NetworkManager<GenericJson> manager = new NetworkManager<GenericJson>(collection, GenericJson.class, client);
+                    try {
+                        GenericJson saved = manager.saveBlocking(object).execute();
+                        return saved.get(ID_FIELD_NAME).toString();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+
+                    return null;
+                }
+            });
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+        }
+    }
+
     /** used internally **/
     protected enum SaveMode {
         POST,
@@ -827,6 +936,125 @@ public class NetworkManager<T extends GenericJson> {
         }
     }
 
+    /**
+     * Bulk Save class.  Constructs the HTTP request object for a part of
+     * bulk Create requests, see {@link SaveBatch}.
+     *
+     */
+    public class SaveBatchPart extends AbstractKinveyClientRequest<KinveySaveBatchResponse.Generic> {
+        private static final String REST_PATH = "appdata/{appKey}/{collectionName}";
+        @Key
+        private String collectionName;
+
+        private final int offset;
+        private final int size;
+
+        SaveBatchPart(List<T> entities, int offset) {
+            super(client, "POST", REST_PATH, new JsonHttpContent(client.getJsonFactory(), entities),
+                    KinveySaveBatchResponse.Generic.class);
+            this.collectionName = NetworkManager.this.collectionName;
+            this.offset = offset;
+            this.size = entities.size();
+            this.getRequestHeaders().setContentType(Json.MEDIA_TYPE);
+            this.getRequestHeaders().put("X-Kinvey-Client-App-Version", NetworkManager.this.clientAppVersion);
+            if (NetworkManager.this.customRequestProperties != null && !NetworkManager.this.customRequestProperties.isEmpty()){
+                this.getRequestHeaders().put("X-Kinvey-Custom-Request-Properties", new Gson().toJson(NetworkManager.this.customRequestProperties) );
+            }
+        }
+    }
+
+    /**
+     * Bulk Save class, executes the bulk Create requests one by one and maps their
+     * results and errors back to the positions of saved entities.
+     *
+     * A part that fails as a whole, by an http error or an I/O failure, reports an error for each of its entities
+     * and the rest of parts are still executed, the first of such failures is kept, see {@link #getFailure()}.
+     *
+     */
+    public class SaveBatch {
+        private final List<SaveBatchPart> parts;
+        private IOException failure;
+
+        SaveBatch(List<SaveBatchPart> parts) {
+            this.parts = parts;
+        }
+
+        public List<SaveBatchPart> getParts() {
+            return parts;
+        }
+
+        /**
+         * @return exception of the first part that failed as a whole, null if every part reached the backend
+         */
+        public IOException getFailure() {
+            return failure;
+        }
+
+        public KinveySaveBatchResponse<T> execute() throws IOException {
+            List<T> entities = new ArrayList<T>();
+            List<KinveyBatchInsertError> errors = new ArrayList<KinveyBatchInsertError>();
+            for (SaveBatchPart part : parts){
+                KinveySaveBatchResponse<?> response;
+                try {
+                    response = part.execute();
+                } catch (IOException e) {
+                    if (failure == null){
+                        failure = e;
+                    }
+                    int code = e instanceof HttpResponseException ? ((HttpResponseException) e).getStatusCode() : 0;
+                    for (int i = 0; i < part.size; i++){
+                        entities.add(null);
+                        errors.add(new KinveyBatchInsertError(part.offset + i, code, e.getMessage()));
+                    }
+                    continue;
+                }
+                List<?> saved = response != null ? response.getEntities() : Collections.emptyList();
+                for (int i = 0; i < part.size; i++){
+                    Object entity = i < saved.size() ? saved.get(i) : null;
+                    entities.add(entity != null && !Data.isNull(entity) ? client.getJsonFactory().fromString(
+                            client.getJsonFactory().toString(entity), myClass) : null);
+                }
+                if (response != null){
+                    for (KinveyBatchInsertError error : response.getErrors()){
+                        error.setIndex(part.offset + error.getIndex());
+                        errors.add(error);
+                    }
+                }
+            }
+            return new KinveySaveBatchResponse<T>(entities, errors);
+        }
+    }
+
+    /**
+     * Bulk Delete class, executes the Delete requests of a bulk delete one by one.
+     *
+     */
+    public class DeleteBatch {
+        private final List<Delete> parts;
+
+        DeleteBatch(List<Delete> parts) {
+            this.parts = parts;
+        }
+
+        public List<Delete> getParts() {
+            return parts;
+        }
+
+        /**
+         * @return total count of deleted entities
+         */
+        public KinveyDeleteResponse execute() throws IOException {
+            KinveyDeleteResponse ret = new KinveyDeleteResponse();
+            for (Delete part : parts){
+                KinveyDeleteResponse response = part.execute();
+                if (response != null){
+                    ret.setCount(ret.getCount() + response.getCount());
+                }
+            }
+            return ret;
+        }
+    }
+
     /**
      * Generic Aggregate<T> class, constructs the HTTP request object for
      * Aggregate requests.
@@ -20,8 +20,15 @@ import com.google.api.client.json.GenericJson;
 import com.google.common.base.Preconditions;
 import com.kinvey.java.AbstractClient;
 import com.kinvey.java.Query;
+import com.kinvey.java.cache.CacheBatch;
 import com.kinvey.java.cache.ICache;
+import com.kinvey.java.cache.ICacheCursor;
 import com.kinvey.java.cache.KinveyCachedClientCallback;
+import com.kinvey.java.cache.QueryAggregator;
+import com.kinvey.java.cache.QueryCursor;
+import com.kinvey.java.deltaset.DeltaSetItem;
+import com.kinvey.java.model.AggregateEntity;
+import com.kinvey.java.model.Aggregation;
 import com.kinvey.java.network.NetworkManager;
 import com.kinvey.java.store.requests.data.PushRequest;
 import com.kinvey.java.store.requests.data.delete.DeleteIdsRequest;
@@ -33,10 +40,17 @@ import com.kinvey.java.store.requests.data.save.SaveRequest;
 import com.kinvey.java.store.requests.data.read.ReadAllRequest;
 import com.kinvey.java.store.requests.data.read.ReadIdsRequest;
 import com.kinvey.java.store.requests.data.read.ReadQueryRequest;
+import com.kinvey.java.sync.SyncManager;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 public class BaseDataStore<T extends GenericJson> {
@@ -48,6 +62,7 @@ public class BaseDataStore<T extends GenericJson> {
     private ICache<T> cache;
     NetworkManager<T> networkManager;
     private String collectionName;
+    private long resultCacheMaxAge;
 
 
 
@@ -153,13 +168,22 @@ public class BaseDataStore<T extends GenericJson> {
         Preconditions.checkArgument(client.isInitialize(), "client must be initialized.");
         Preconditions.checkNotNull(query, "query must not be null.");
         Preconditions.checkArgument(cachedCallback == null || storeType == StoreType.CACHE, "KinveyCachedClientCallback can only be used with StoreType.CACHE");
+        Object key = resultKey(query);
+        List<T> ret = client.getQueryResultCache().get(collectionName, key, resultCacheMaxAge, storeItemType);
+        if (ret != null){
+            if (cachedCallback != null){
+                cachedCallback.onSuccess(ret);
+            }
+            return ret;
+        }
+        long version = client.getQueryResultCache().version(collectionName);
         // perform request based on policy
-        List<T> ret = null;
         if (storeType == StoreType.CACHE && cachedCallback != null) {
             ret = new ReadQueryRequest<T>(cache, networkManager, ReadPolicy.FORCE_LOCAL, query).execute();
             cachedCallback.onSuccess(ret);
         }
         ret = new ReadQueryRequest<T>(cache, networkManager, this.storeType.readPolicy, query).execute();
+        putResult(key, version, query, ret);
         return ret;
     }
 
@@ -172,6 +196,104 @@ public class BaseDataStore<T extends GenericJson> {
         return find(query, null);
     }
 
+    /**
+     * Lookup objects in given collection by given query without loading all of them at once,
+     * for {@link ReadPolicy#FORCE_LOCAL} objects are read from local storage as the cursor advances
+     * @param query prepared query we have to look with
+     * @return cursor over objects that are found, should be closed when it is not needed anymore
+     */
+    public ICacheCursor<T> findCursor(Query query) throws IOException {
+        Preconditions.checkNotNull(client, "client must not be null.");
+        Preconditions.checkArgument(client.isInitialize(), "client must be initialized.");
+        Preconditions.checkNotNull(query, "query must not be null.");
+        if (storeType.readPolicy == ReadPolicy.FORCE_LOCAL){
+            return cache.iterate(query);
+        }
+        //network response is loaded at once anyway
+        return QueryCursor.of(new ReadQueryRequest<T>(cache, networkManager, this.storeType.readPolicy, query).execute());
+    }
+
+    /**
+     * Count objects stored locally grouped by given fields, should be used with {@link StoreType#CACHE} or {@link StoreType#SYNC}
+     * @param fields fields to group by
+     * @param query query to filter objects, all local objects are counted if null
+     * @return count per group
+     */
+    public Aggregation countBlocking(ArrayList<String> fields, Query query) {
+        return aggregateBlocking(fields, AggregateEntity.AggregateType.COUNT, null, query);
+    }
+
+    /**
+     * Sum values of the field for objects stored locally grouped by given fields
+     * @param fields fields to group by
+     * @param sumField field to sum
+     * @param query query to filter objects, all local objects are used if null
+     * @return sum per group
+     */
+    public Aggregation sumBlocking(ArrayList<String> fields, String sumField, Query query) {
+        Preconditions.checkNotNull(sumField, "sumField must not be null.");
+        return aggregateBlocking(fields, AggregateEntity.AggregateType.SUM, sumField, query);
+    }
+
+    /**
+     * Find max value of the field for objects stored locally grouped by given fields
+     * @param fields fields to group by
+     * @param maxField field to find max value of
+     * @param query query to filter objects, all local objects are used if null
+     * @return max value per group
+     */
+    public Aggregation maxBlocking(ArrayList<String> fields, String maxField, Query query) {
+        Preconditions.checkNotNull(maxField, "maxField must not be null.");
+        return aggregateBlocking(fields, AggregateEntity.AggregateType.MAX, maxField, query);
+    }
+
+    /**
+     * Find min value of the field for objects stored locally grouped by given fields
+     * @param fields fields to group by
+     * @param minField field to find min value of
+     * @param query query to filter objects, all local objects are used if null
+     * @return min value per group
+     */
+    public Aggregation minBlocking(ArrayList<String> fields, String minField, Query query) {
+        Preconditions.checkNotNull(minField, "minField must not be null.");
+        return aggregateBlocking(fields, AggregateEntity.AggregateType.MIN, minField, query);
+    }
+
+    /**
+     * Average values of the field for objects stored locally grouped by given fields
+     * @param fields fields to group by
+     * @param averageField field to average
+     * @param query query to filter objects, all local objects are used if null
+     * @return average per group
+     */
+    public Aggregation averageBlocking(ArrayList<String> fields, String averageField, Query query) {
+        Preconditions.checkNotNull(averageField, "averageField must not be null.");
+        return aggregateBlocking(fields, AggregateEntity.AggregateType.AVERAGE, averageField, query);
+    }
+
+    /**
+     * Aggregate objects stored locally in a single pass over the cache, without network requests
+     * @param fields fields to group by
+     * @param type type of aggregation
+     * @param aggregateField field to aggregate on, not used for {@link AggregateEntity.AggregateType#COUNT}
+     * @param query query to filter objects, all local objects are used if null
+     * @return results in the same format server side aggregation returns
+     */
+    public Aggregation aggregateBlocking(ArrayList<String> fields, AggregateEntity.AggregateType type,
+                                         String aggregateField, Query query) {
+        Preconditions.checkArgument(storeType != StoreType.NETWORK, "InvalidDataStoreType");
+        Preconditions.checkNotNull(client, "client must not be null.");
+        Preconditions.checkArgument(client.isInitialize(), "client must be initialized.");
+        Preconditions.checkNotNull(fields, "fields must not be null.");
+        Preconditions.checkNotNull(type, "type must not be null.");
+        ICacheCursor<T> cursor = cache.iterate(query == null ? client.query() : query);
+        try {
+            return QueryAggregator.aggregate(cursor, fields, type, aggregateField);
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * get all objects for given collections
      * @param cachedCallback callback to be executed in case of {@link StoreType#CACHE} is used to get cached data before network
@@ -181,13 +303,22 @@ public class BaseDataStore<T extends GenericJson> {
         Preconditions.checkNotNull(client, "client must not be null.");
         Preconditions.checkArgument(client.isInitialize(), "client must be initialized.");
         Preconditions.checkArgument(cachedCallback == null || storeType == StoreType.CACHE, "KinveyCachedClientCallback can only be used with StoreType.CACHE");
+        Object key = resultKey(null);
+        List<T> ret = client.getQueryResultCache().get(collectionName, key, resultCacheMaxAge, storeItemType);
+        if (ret != null){
+            if (cachedCallback != null){
+                cachedCallback.onSuccess(ret);
+            }
+            return ret;
+        }
+        long version = client.getQueryResultCache().version(collectionName);
         // perform request based on policy
-        List<T> ret = null;
         if (storeType == StoreType.CACHE && cachedCallback != null) {
             ret = new ReadAllRequest<T>(cache, ReadPolicy.FORCE_LOCAL, networkManager).execute();
             cachedCallback.onSuccess(ret);
         }
         ret = new ReadAllRequest<T>(cache, this.storeType.readPolicy, networkManager).execute();
+        putResult(key, version, null, ret);
         return ret;
     }
 
@@ -209,7 +340,17 @@ public class BaseDataStore<T extends GenericJson> {
         Preconditions.checkNotNull(client, "client must not be null.");
         Preconditions.checkArgument(client.isInitialize(), "client must be initialized.");
         Preconditions.checkNotNull(objects, "objects must not be null.");
-        return new SaveListRequest<T>(cache, networkManager, this.storeType.writePolicy, objects, client.getSycManager()).execute();
+        List<T> ret = null;
+        try {
+            ret = new SaveListRequest<T>(cache, networkManager, this.storeType.writePolicy, objects, client.getSycManager()).execute();
+            return ret;
+        } finally {
+            if (ret != null){
+                client.getQueryResultCache().saved(collectionName, ret);
+            } else {
+                client.getQueryResultCache().invalidate(collectionName);
+            }
+        }
     }
 
 
@@ -223,7 +364,17 @@ public class BaseDataStore<T extends GenericJson> {
         Preconditions.checkNotNull(client, "client must not be null.");
         Preconditions.checkArgument(client.isInitialize(), "client must be initialized.");
         Preconditions.checkNotNull(object, "object must not be null.");
-        return new SaveRequest<T>(cache, networkManager, this.storeType.writePolicy, object, client.getSycManager()).execute();
+        T ret = null;
+        try {
+            ret = new SaveRequest<T>(cache, networkManager, this.storeType.writePolicy, object, client.getSycManager()).execute();
+            return ret;
+        } finally {
+            if (ret != null){
+                client.getQueryResultCache().saved(collectionName, Collections.singletonList(ret));
+            } else {
+                client.getQueryResultCache().invalidate(collectionName);
+            }
+        }
     }
 
     /**
@@ -236,7 +387,11 @@ public class BaseDataStore<T extends GenericJson> {
         Preconditions.checkNotNull(client, "client must not be null.");
         Preconditions.checkArgument(client.isInitialize(), "client must be initialized.");
         Preconditions.checkNotNull(id, "id must not be null.");
-        return new DeleteSingleRequest<T>(cache, networkManager, this.storeType.writePolicy, id, client.getSycManager()).execute();
+        try {
+            return new DeleteSingleRequest<T>(cache, networkManager, this.storeType.writePolicy, id, client.getSycManager()).execute();
+        } finally {
+            client.getQueryResultCache().deleted(collectionName, Collections.singletonList(id));
+        }
     }
 
     /**
@@ -249,7 +404,11 @@ public class BaseDataStore<T extends GenericJson> {
         Preconditions.checkNotNull(client, "client must not be null.");
         Preconditions.checkArgument(client.isInitialize(), "client must be initialized.");
         Preconditions.checkNotNull(query, "query must not be null.");
-        return new DeleteQueryRequest<T>(cache, networkManager, this.storeType.writePolicy, query, client.getSycManager()).execute();
+        try {
+            return new DeleteQueryRequest<T>(cache, networkManager, this.storeType.writePolicy, query, client.getSycManager()).execute();
+        } finally {
+            client.getQueryResultCache().invalidate(collectionName);
+        }
     }
 
     /**
@@ -262,7 +421,11 @@ public class BaseDataStore<T extends GenericJson> {
         Preconditions.checkNotNull(client, "client must not be null.");
         Preconditions.checkArgument(client.isInitialize(), "client must be initialized.");
         Preconditions.checkNotNull(ids, "ids must not be null.");
-        return new DeleteIdsRequest<T>(cache, networkManager, this.storeType.writePolicy, ids, client.getSycManager()).execute();
+        try {
+            return new DeleteIdsRequest<T>(cache, networkManager, this.storeType.writePolicy, ids, client.getSycManager()).execute();
+        } finally {
+            client.getQueryResultCache().deleted(collectionName, ids);
+        }
     }
 
     /**
@@ -279,6 +442,11 @@ public class BaseDataStore<T extends GenericJson> {
     /**
      * Pull network data with given query into local storage
      * should be user with {@link StoreType#SYNC}
+     *
+     * Highest _kmd.lmt pulled for a query without skip and limit is kept, so later pulls of the query fetch only
+     * entities changed since then, along with _id of the whole query result. Local entities missing from it
+     * were deleted on the backend, entities missing locally (evicted or expired) are fetched by their ids.
+     * @return entities of the query on the backend, in its order
      */
     public List<T> pullBlocking(Query query) throws IOException {
         Preconditions.checkArgument(storeType != StoreType.NETWORK, "InvalidDataStoreType");
@@ -287,9 +455,76 @@ public class BaseDataStore<T extends GenericJson> {
         Preconditions.checkArgument(client.getSycManager().getCount(getCollectionName()) == 0, "InvalidOperation. You must push all pending sync items before new data is pulled. Call push() on the data store instance to push pending items, or purge() to remove them.");
         List<T> networkData = null;
         query = query == null ? client.query() : query;
-        networkData = Arrays.asList(networkManager.getBlocking(query, cache.get(query)).execute());
-        cache.delete(query);
-        cache.save(networkData);
+        SyncManager syncManager = client.getSycManager();
+        //only whole query results are pulled incrementally
+        String filter = query.getLimit() <= 0 && query.getSkip() <= 0 ? query.getQueryFilterJson(client.getJsonFactory()) : null;
+        String watermark = filter != null ? syncManager.getPullWatermark(collectionName, filter) : null;
+        try {
+            if (watermark != null){
+                List<T> changed = Arrays.asList(networkManager.getBlocking(changedSince(filter, watermark)).execute());
+                DeltaSetItem[] ids = networkManager.getIdsBlocking(query).execute();
+                Map<String, T> entities = new HashMap<String, T>();
+                List<String> deleted = new ArrayList<String>();
+                Set<String> backendIds = new HashSet<String>();
+                for (DeltaSetItem item : ids){
+                    backendIds.add(item.getId());
+                }
+                for (T item : cache.get(query)){
+                    String id = item.get("_id").toString();
+                    if (backendIds.contains(id)){
+                        entities.put(id, item);
+                    } else {
+                        //deleted on the backend or does not match the query anymore
+                        deleted.add(id);
+                    }
+                }
+                List<T> saved = new ArrayList<T>();
+                for (T item : changed){
+                    String id = item.get("_id").toString();
+                    if (backendIds.contains(id)){
+                        entities.put(id, item);
+                        saved.add(item);
+                    } else {
+                        //deleted after it was pulled
+                        deleted.add(id);
+                    }
+                }
+                List<String> missing = new ArrayList<String>();
+                for (String id : backendIds){
+                    if (!entities.containsKey(id)){
+                        missing.add(id);
+                    }
+                }
+                List<T> fetched = new ArrayList<T>();
+                for (int i = 0; i < missing.size(); i += NetworkManager.DEFAULT_BATCH_SIZE){
+                    List<String> part = missing.subList(i, Math.min(i + NetworkManager.DEFAULT_BATCH_SIZE, missing.size()));
+                    fetched.addAll(Arrays.asList(networkManager.getBlocking(part.toArray(new String[part.size()])).execute()));
+                }
+                for (T item : fetched){
+                    entities.put(item.get("_id").toString(), item);
+                }
+                cache.execute(new CacheBatch<T>().delete(deleted).save(saved).save(fetched));
+                //fetched entities may be newer than changes of other entities not pulled yet, so only changed ones move the watermark
+                syncManager.setPullWatermark(collectionName, filter, maxLmt(changed, watermark));
+
+                networkData = new ArrayList<T>(ids.length);
+                for (DeltaSetItem item : ids){
+                    T entity = entities.get(item.getId());
+                    if (entity != null){
+                        networkData.add(entity);
+                    }
+                }
+                return networkData;
+            }
+            networkData = Arrays.asList(networkManager.getBlocking(query, cache.get(query)).execute());
+            cache.replace(query, networkData);
+            String lmt = filter != null ? maxLmt(networkData, watermark) : null;
+            if (lmt != null){
+                syncManager.setPullWatermark(collectionName, filter, lmt);
+            }
+        } finally {
+            client.getQueryResultCache().invalidate(collectionName);
+        }
         return networkData;
     }
 
@@ -307,6 +542,8 @@ public class BaseDataStore<T extends GenericJson> {
         Preconditions.checkNotNull(client, "client must not be null.");
         Preconditions.checkArgument(client.isInitialize(), "client must be initialized.");
         client.getSycManager().clear(collectionName);
+        //local changes are dropped, so entities not changed on the backend should be pulled as well
+        client.getSycManager().clearPullWatermarks(collectionName);
         pullBlocking(null);
     }
 
@@ -320,6 +557,15 @@ public class BaseDataStore<T extends GenericJson> {
         this.storeType = storeType;
     }
 
+    /**
+     * Let repeated find calls with the same query reuse recent results, without network and local storage reads.
+     * Results are dropped when saves, deletes or pulls of this client change them.
+     * @param maxAge how long results are reused, in milliseconds, 0 (default) disables reuse
+     */
+    public void setResultCacheMaxAge(long maxAge) {
+        this.resultCacheMaxAge = maxAge > 0 ? maxAge : 0;
+    }
+
     /**
      * Getter for client
      * @return Client instance for given BaseDataStore
@@ -336,5 +582,46 @@ public class BaseDataStore<T extends GenericJson> {
         return collectionName;
     }
 
+    /**
+     * Key of find results, queries with the same filter, sort, skip and limit share results
+     */
+    private Object resultKey(Query query) {
+        if (query == null){
+            return Arrays.asList(storeItemType, storeType.readPolicy);
+        }
+        return Arrays.asList(storeItemType, storeType.readPolicy, query.getQueryFilterJson(client.getJsonFactory()),
+                query.getSortString(), query.getSkip(), query.getLimit());
+    }
+
+    private void putResult(Object key, long version, Query query, List<T> result) {
+        if (resultCacheMaxAge > 0){
+            client.getQueryResultCache().put(collectionName, key, version, query, result);
+        }
+    }
+
+    /**
+     * Query for entities matching given filter that were changed since given _kmd.lmt,
+     * entities changed at the same time are included
+     */
+    private Query changedSince(String filter, String lmt) throws IOException {
+        String condition = "{\"_kmd.lmt\":{\"$gte\":" + client.getJsonFactory().toString(lmt) + "}}";
+        boolean empty = filter == null || filter.isEmpty() || filter.equals("{}");
+        return new Query().setQueryString(empty ? condition : "{\"$and\":[" + filter + "," + condition + "]}");
+    }
+
+    /**
+     * @return highest _kmd.lmt of given entities and lmt, null if there is none
+     */
+    private static String maxLmt(List<? extends GenericJson> items, String lmt) {
+        for (GenericJson item : items){
+            Object kmd = item.get("_kmd");
+            Object itemLmt = kmd instanceof Map ? ((Map) kmd).get("lmt") : null;
+            if (itemLmt != null && (lmt == null || itemLmt.toString().compareTo(lmt) > 0)){
+                lmt = itemLmt.toString();
+            }
+        }
+        return lmt;
+    }
+
 
 }
@@ -0,0 +1,231 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.store;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.Query;
+import com.kinvey.java.cache.QueryMatcher;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Results of recent queries of a client, lets repeated reads skip the network and local storage.
+ *
+ * Results are dropped when data store writes could change them: saved entity matches the query or was
+ * in the result, deleted entity was in the result; deletes by query and pulls drop all results of the collection.
+ * Results of queries with skip or limit are dropped on any write to the collection, as entities outside of them
+ * shift their window.
+ */
+public class QueryResultCache {
+
+    /**
+     * Max amount of results kept for a single collection, least recently used are dropped first
+     */
+    static final int MAX_RESULTS = 64;
+
+    private final ConcurrentHashMap<String, Results> collections = new ConcurrentHashMap<String, Results>();
+
+    /**
+     * Result of a single query
+     */
+    private static class Result {
+        final Map<String, Object> filter;
+        final int skip;
+        final int limit;
+        final Set<String> ids;
+        final List<? extends GenericJson> items;
+        final long createdAt;
+
+        Result(Query query, List<? extends GenericJson> items) {
+            this.filter = query != null ? query.getQueryFilterMap() : null;
+            this.skip = query != null ? query.getSkip() : 0;
+            this.limit = query != null ? query.getLimit() : 0;
+            this.ids = new HashSet<String>();
+            this.items = items;
+            this.createdAt = System.currentTimeMillis();
+            for (GenericJson item : items){
+                if (item.get("_id") != null){
+                    ids.add(item.get("_id").toString());
+                }
+            }
+        }
+
+        /**
+         * @return true if result is a page of the query, any change of the collection could shift it
+         */
+        boolean isWindowed() {
+            return skip > 0 || limit > 0;
+        }
+
+        /**
+         * @return true if saved entity could change result of the query
+         */
+        boolean isAffectedBy(GenericJson saved) {
+            if (isWindowed() || saved.get("_id") == null || ids.contains(saved.get("_id").toString())){
+                return true;
+            }
+            try {
+                return QueryMatcher.matches(saved, filter);
+            } catch (RuntimeException e) {
+                //condition could not be evaluated locally
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Results of a single collection, guarded by its own monitor
+     */
+    private static class Results {
+        final LinkedHashMap<Object, Result> entries = new LinkedHashMap<Object, Result>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Result> eldest) {
+                return size() > MAX_RESULTS;
+            }
+        };
+        //incremented on every change, results read before the change are not stored
+        long version;
+    }
+
+    private Results results(String collection) {
+        Results ret = collections.get(collection);
+        if (ret == null){
+            Results created = new Results();
+            ret = collections.putIfAbsent(collection, created);
+            if (ret == null){
+                ret = created;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return current version of the collection, should be taken before the read which result is passed to
+     * {@link #put(String, Object, long, Query, List)}
+     */
+    public long version(String collection) {
+        Results results = results(collection);
+        synchronized (results){
+            return results.version;
+        }
+    }
+
+    /**
+     * @param maxAge how long result is considered fresh, in milliseconds
+     * @param type class of entities of the result, key should be specific to it
+     * @return copy of fresh result stored with given key or null
+     */
+    public <T extends GenericJson> List<T> get(String collection, Object key, long maxAge, Class<T> type) {
+        if (maxAge <= 0){
+            return null;
+        }
+        Results results = results(collection);
+        Result result;
+        synchronized (results){
+            result = results.entries.get(key);
+            if (result != null && System.currentTimeMillis() - result.createdAt > maxAge){
+                results.entries.remove(key);
+                result = null;
+            }
+        }
+        return result != null ? copy(result.items, type) : null;
+    }
+
+    /**
+     * Store the result, unless collection was changed since given version
+     */
+    public <T extends GenericJson> void put(String collection, Object key, long version, Query query, List<T> items) {
+        if (items == null){
+            return;
+        }
+        Result result = new Result(query, copy(items, GenericJson.class));
+        Results results = results(collection);
+        synchronized (results){
+            if (results.version == version){
+                results.entries.put(key, result);
+            }
+        }
+    }
+
+    /**
+     * Drop results that could change because of saved entities
+     */
+    public void saved(String collection, Iterable<? extends GenericJson> items) {
+        Results results = results(collection);
+        synchronized (results){
+            results.version++;
+            for (Iterator<Result> it = results.entries.values().iterator(); it.hasNext();){
+                Result result = it.next();
+                for (GenericJson item : items){
+                    if (item == null || result.isAffectedBy(item)){
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop results containing deleted entities, and pages of queries
+     */
+    public void deleted(String collection, Iterable<String> ids) {
+        Results results = results(collection);
+        synchronized (results){
+            results.version++;
+            for (Iterator<Result> it = results.entries.values().iterator(); it.hasNext();){
+                Result result = it.next();
+                if (result.isWindowed()){
+                    it.remove();
+                    continue;
+                }
+                for (String id : ids){
+                    if (result.ids.contains(id)){
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop all results of the collection
+     */
+    public void invalidate(String collection) {
+        Results results = results(collection);
+        synchronized (results){
+            results.version++;
+            results.entries.clear();
+        }
+    }
+
+    private static <T extends GenericJson> List<T> copy(List<? extends GenericJson> items, Class<T> type) {
+        List<T> ret = new ArrayList<T>(items.size());
+        for (GenericJson item : items){
+            ret.add(item != null ? type.cast(item.clone()) : null);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.store.requests.data;
+
+import com.kinvey.java.AbstractClient;
+import com.kinvey.java.KinveyException;
+import com.kinvey.java.network.NetworkManager;
+import com.kinvey.java.sync.SyncManager;
+import com.kinvey.java.sync.dto.SyncRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Push pending requests of all collections, see {@link SyncManager#getCollectionTables()}.
+ *
+ * Requests of different entities are executed concurrently by a pool of given size, requests of the same entity
+ * are executed in the order they were queued, and once one of them fails the rest are put back to the queue.
+ * Entities that are only created are saved with bulk requests, see {@link SyncManager#executeBatch}.
+ * Deletes by query are executed alone, after all requests queued before them in the collection and before
+ * all requests queued after them. Once a request of a collection fails, later steps of the collection are not
+ * executed and are put back to the queue in their order. If the push is interrupted, requests that were not
+ * handed to a worker are put back to the queue as well.
+ */
+public class PushAllRequest implements IRequest<PushAllRequest.Result> {
+
+    private final AbstractClient client;
+    private final SyncManager syncManager;
+    private final int concurrency;
+    private final ProgressListener listener;
+
+    /**
+     * Receives progress of the push, called from worker threads
+     */
+    public interface ProgressListener {
+        void onProgress(long current, long all);
+    }
+
+    /**
+     * Outcome of the push
+     */
+    public static class Result {
+        private final int successCount;
+        private final List<Exception> listOfExceptions;
+
+        Result(int successCount, List<Exception> listOfExceptions) {
+            this.successCount = successCount;
+            this.listOfExceptions = listOfExceptions;
+        }
+
+        public int getSuccessCount() {
+            return successCount;
+        }
+
+        public List<Exception> getListOfExceptions() {
+            return listOfExceptions;
+        }
+    }
+
+    /**
+     * Requests pushed by a single worker, requests of a task that never started are put back to the queue
+     */
+    private abstract static class Task implements Callable<Void> {
+        private final List<SyncRequest> requests;
+        private final Set<SyncRequest> handled;
+        private boolean started;
+
+        Task(List<SyncRequest> requests, Set<SyncRequest> handled) {
+            this.requests = requests;
+            this.handled = handled;
+        }
+
+        @Override
+        public Void call() {
+            synchronized (handled){
+                if (started){
+                    return null;
+                }
+                started = true;
+                handled.addAll(requests);
+            }
+            run();
+            return null;
+        }
+
+        /**
+         * Prevent the task from being started, NOTE: should be called with handled set monitor held
+         */
+        void abandon() {
+            started = true;
+        }
+
+        abstract void run();
+    }
+
+    /**
+     * @param client client to execute requests with
+     * @param concurrency count of requests executed at the same time
+     * @param listener listener of the progress, could be null
+     */
+    public PushAllRequest(AbstractClient client, int concurrency, ProgressListener listener) {
+        this.client = client;
+        this.syncManager = client.getSycManager();
+        this.concurrency = Math.max(concurrency, 1);
+        this.listener = listener;
+    }
+
+    @Override
+    public Result execute() throws IOException {
+        List<List<List<SyncRequest>>> collections = new ArrayList<List<List<SyncRequest>>>();
+        List<AtomicBoolean> failed = new ArrayList<AtomicBoolean>();
+        List<SyncRequest> popped = new ArrayList<SyncRequest>();
+        //requests executed by started workers or already put back to the queue
+        Set<SyncRequest> handled = Collections.newSetFromMap(new IdentityHashMap<SyncRequest, Boolean>());
+        List<Task> tasks = new ArrayList<Task>();
+        int total = 0;
+        for (String collection : syncManager.getCollectionTables()){
+            List<SyncRequest> requests = syncManager.popSingleQueue(collection);
+            popped.addAll(requests);
+            total += requests.size();
+            collections.add(steps(requests));
+            failed.add(new AtomicBoolean());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "KinveyPush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final AtomicInteger progress = new AtomicInteger();
+        final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+        final int all = total;
+        try {
+            for (int step = 0; ; step++){
+                List<Future<?>> running = new ArrayList<Future<?>>();
+                for (int c = 0; c < collections.size(); c++){
+                    List<List<SyncRequest>> steps = collections.get(c);
+                    final AtomicBoolean collectionFailed = failed.get(c);
+                    if (step < steps.size()){
+                        //new entities are created with bulk requests, grouped by their custom headers
+                        Map<String, List<SyncRequest>> created = new LinkedHashMap<String, List<SyncRequest>>();
+                        for (final List<SyncRequest> sequence : entities(steps.get(step))){
+                            if (isCreate(sequence)){
+                                SyncRequest.SyncMetaData meta = sequence.get(0).getEntityID();
+                                String key = meta.customerVersion + "\n" + meta.customheader;
+                                if (!created.containsKey(key)){
+                                    created.put(key, new ArrayList<SyncRequest>());
+                                }
+                                created.get(key).add(sequence.get(0));
+                                continue;
+                            }
+                            Task task = new Task(sequence, handled) {
+                                @Override
+                                void run() {
+                                    push(sequence, progress, all, errors, collectionFailed);
+                                }
+                            };
+                            tasks.add(task);
+                            running.add(executor.submit(task));
+                        }
+                        for (List<SyncRequest> group : created.values()){
+                            for (int i = 0; i < group.size(); i += NetworkManager.DEFAULT_BATCH_SIZE){
+                                final List<SyncRequest> part = group.subList(i,
+                                        Math.min(i + NetworkManager.DEFAULT_BATCH_SIZE, group.size()));
+                                Task task = new Task(part, handled) {
+                                    @Override
+                                    void run() {
+                                        pushBatch(part, progress, all, errors, collectionFailed);
+                                    }
+                                };
+                                tasks.add(task);
+                                running.add(executor.submit(task));
+                            }
+                        }
+                    }
+                }
+                if (running.isEmpty()){
+                    break;
+                }
+                for (Future<?> future : running){
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Push was interrupted");
+                    } catch (ExecutionException e) {
+                        errors.add(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                    }
+                }
+                for (int c = 0; c < collections.size(); c++){
+                    List<List<SyncRequest>> steps = collections.get(c);
+                    if (failed.get(c).get() && step + 1 < steps.size()){
+                        //later requests must not reach the backend before the failed ones
+                        List<List<SyncRequest>> left = steps.subList(step + 1, steps.size());
+                        for (List<SyncRequest> requests : left){
+                            for (SyncRequest request : requests){
+                                syncManager.enqueueRequest(request);
+                            }
+                            synchronized (handled){
+                                handled.addAll(requests);
+                            }
+                        }
+                        left.clear();
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            //requests no worker took are left only if the push did not complete, they are put back to the queue
+            List<SyncRequest> left = new ArrayList<SyncRequest>();
+            synchronized (handled){
+                for (Task task : tasks){
+                    task.abandon();
+                }
+                for (SyncRequest request : popped){
+                    if (!handled.contains(request)){
+                        left.add(request);
+                    }
+                }
+            }
+            for (SyncRequest request : left){
+                syncManager.enqueueRequest(request);
+            }
+        }
+        return new Result(progress.get(), new ArrayList<Exception>(errors));
+    }
+
+    @Override
+    public void cancel() {
+
+    }
+
+    /**
+     * Execute requests of a single entity in order, requests left after a failure are put back to the queue
+     */
+    private void push(List<SyncRequest> sequence, AtomicInteger progress, int all, List<Exception> errors,
+                      AtomicBoolean failed) {
+        for (int i = 0; i < sequence.size(); i++){
+            try {
+                syncManager.executeRequest(client, sequence.get(i));
+            } catch (Exception e) {
+                errors.add(e);
+                failed.set(true);
+                for (SyncRequest left : sequence.subList(i + 1, sequence.size())){
+                    syncManager.enqueueRequest(left);
+                }
+                return;
+            }
+            int current = progress.incrementAndGet();
+            if (listener != null){
+                listener.onProgress(current, all);
+            }
+        }
+    }
+
+    /**
+     * Create entities of a collection with bulk requests, failed requests are put back to the queue
+     */
+    private void pushBatch(List<SyncRequest> requests, AtomicInteger progress, int all, List<Exception> errors,
+                           AtomicBoolean failed) {
+        List<KinveyException> failures;
+        try {
+            failures = syncManager.executeBatch(client, requests.get(0).getCollectionName(), requests);
+        } catch (Exception e) {
+            errors.add(e);
+            failed.set(true);
+            return;
+        }
+        errors.addAll(failures);
+        if (!failures.isEmpty()){
+            failed.set(true);
+        }
+        int current = progress.addAndGet(requests.size() - failures.size());
+        if (listener != null){
+            listener.onProgress(current, all);
+        }
+    }
+
+    /**
+     * Split queue of a collection into steps, deletes by query form steps of their own
+     */
+    private static List<List<SyncRequest>> steps(List<SyncRequest> requests) {
+        List<List<SyncRequest>> ret = new ArrayList<List<SyncRequest>>();
+        List<SyncRequest> current = new ArrayList<SyncRequest>();
+        for (SyncRequest request : requests){
+            if (entityKey(request) == null){
+                if (!current.isEmpty()){
+                    ret.add(current);
+                    current = new ArrayList<SyncRequest>();
+                }
+                ret.add(Collections.singletonList(request));
+            } else {
+                current.add(request);
+            }
+        }
+        if (!current.isEmpty()){
+            ret.add(current);
+        }
+        return ret;
+    }
+
+    /**
+     * Group requests of a step by entity, keeping their order
+     */
+    private static Iterable<List<SyncRequest>> entities(List<SyncRequest> step) {
+        Map<Object, List<SyncRequest>> ret = new LinkedHashMap<Object, List<SyncRequest>>();
+        for (SyncRequest request : step){
+            Object key = entityKey(request);
+            if (key == null){
+                key = request;
+            }
+            List<SyncRequest> sequence = ret.get(key);
+            if (sequence == null){
+                sequence = new ArrayList<SyncRequest>();
+                ret.put(key, sequence);
+            }
+            sequence.add(request);
+        }
+        return ret.values();
+    }
+
+    /**
+     * @return true if the sequence is a single request creating an entity
+     */
+    private static boolean isCreate(List<SyncRequest> sequence) {
+        SyncRequest request = sequence.get(0);
+        return sequence.size() == 1 && request.getHttpVerb() == SyncRequest.HttpVerb.POST &&
+                request.getEntityID().data != null;
+    }
+
+    /**
+     * @return id of the entity affected by the request, or null for requests affecting a query
+     */
+    private static String entityKey(SyncRequest request) {
+        String id = request.getEntityID() != null ? request.getEntityID().id : null;
+        if (id == null || (id.startsWith("{") && id.endsWith("}"))){
+            return null;
+        }
+        return id;
+    }
+}
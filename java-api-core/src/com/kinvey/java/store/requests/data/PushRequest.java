@@ -17,11 +17,14 @@
 package com.kinvey.java.store.requests.data;
 
 import com.google.api.client.json.GenericJson;
+import com.google.common.base.Objects;
 import com.kinvey.java.AbstractClient;
+import com.kinvey.java.KinveyException;
 import com.kinvey.java.sync.SyncManager;
 import com.kinvey.java.sync.dto.SyncRequest;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -43,12 +46,54 @@ public class PushRequest<T extends GenericJson> extends AbstractKinveyExecuteReq
     @Override
     public Void execute() throws IOException {
         List<SyncRequest> requestList = syncManager.popSingleQueue(collectionName);
-        for (SyncRequest syncRequest: requestList) {
-            syncManager.executeRequest(client, syncRequest);
+        //consecutive creates are pushed with bulk requests
+        List<SyncRequest> created = new ArrayList<SyncRequest>();
+        //requests before this one were executed or handed to the sync manager, which puts failed ones back
+        int next = 0;
+        boolean pushed = false;
+        try {
+            for (int i = 0; i < requestList.size(); i++) {
+                SyncRequest syncRequest = requestList.get(i);
+                if (!created.isEmpty() && !(isCreate(syncRequest) && sameHeaders(created.get(0), syncRequest))){
+                    pushCreated(created);
+                }
+                next = i + 1;
+                if (isCreate(syncRequest)){
+                    created.add(syncRequest);
+                } else {
+                    syncManager.executeRequest(client, syncRequest);
+                }
+            }
+            pushCreated(created);
+            pushed = true;
+        } finally {
+            if (!pushed){
+                //requests left after a failure are put back to the queue in their order
+                for (SyncRequest left : requestList.subList(next, requestList.size())){
+                    syncManager.enqueueRequest(left);
+                }
+            }
         }
         return null;
     }
 
+    private void pushCreated(List<SyncRequest> created) throws IOException {
+        List<KinveyException> failures = syncManager.executeBatch(client, collectionName, created);
+        created.clear();
+        if (!failures.isEmpty()){
+            throw failures.get(0);
+        }
+    }
+
+    private static boolean isCreate(SyncRequest request) {
+        return request.getHttpVerb() == SyncRequest.HttpVerb.POST && request.getEntityID().data != null;
+    }
+
+    private static boolean sameHeaders(SyncRequest lhs, SyncRequest rhs) {
+        return Objects.equal(lhs.getEntityID().customerVersion, rhs.getEntityID().customerVersion) &&
+                Objects.equal(lhs.getEntityID().customheader, rhs.getEntityID().customheader);
+    }
+
     @Override
     public void cancel() {
 
@@ -23,6 +23,9 @@ import com.kinvey.java.store.ReadPolicy;
 import com.kinvey.java.store.requests.data.AbstractKinveyDataListRequest;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -32,6 +35,8 @@ public abstract class AbstractReadRequest<T extends GenericJson> extends Abstrac
     protected final ICache<T> cache;
     private final ReadPolicy readPolicy;
     private NetworkManager<T> networkManager;
+    private volatile boolean cancelled;
+    private volatile InFlightReads.Call joined;
 
     public AbstractReadRequest(ICache<T> cache, ReadPolicy readPolicy, NetworkManager<T> networkManager) {
         this.cache = cache;
@@ -39,8 +44,65 @@ public abstract class AbstractReadRequest<T extends GenericJson> extends Abstrac
         this.networkManager = networkManager;
     }
 
+    /**
+     * Concurrent requests with the same read key share a single read, see {@link #getReadKey()}
+     */
     @Override
     public List<T> execute() throws IOException {
+        Object key = readPolicy != ReadPolicy.FORCE_LOCAL ? getReadKey() : null;
+        if (key == null){
+            return read();
+        }
+        InFlightReads.Call candidate = new InFlightReads.Call();
+        InFlightReads.Call call = InFlightReads.join(key, candidate);
+        if (call == candidate){
+            List<T> ret = null;
+            IOException error = null;
+            RuntimeException failure = null;
+            try {
+                ret = read();
+            } catch (IOException e) {
+                error = e;
+                throw e;
+            } catch (RuntimeException e) {
+                failure = e;
+                throw e;
+            } finally {
+                //waiters get copies of a snapshot no caller holds, so changes of returned entities are not shared
+                InFlightReads.complete(key, call, ret != null ? copy(ret, networkManager.getCurrentClass()) : null, error, failure);
+            }
+            return cancelled ? null : ret;
+        }
+        joined = call;
+        try {
+            synchronized (call){
+                while (!call.isDone() && !cancelled){
+                    call.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for identical read in progress");
+        } finally {
+            joined = null;
+        }
+        if (cancelled){
+            return null;
+        }
+        //read key includes the entity class, so the shared read holds entities of this class
+        List<?> shared = call.get();
+        return shared != null ? copy(shared, networkManager.getCurrentClass()) : null;
+    }
+
+    private static <T extends GenericJson> List<T> copy(List<?> items, Class<T> type) {
+        List<T> ret = new ArrayList<T>(items.size());
+        for (Object item : items){
+            ret.add(item != null ? type.cast(((GenericJson) item).clone()) : null);
+        }
+        return ret;
+    }
+
+    private List<T> read() throws IOException {
         List<T> ret = null;
         switch (readPolicy){
             case FORCE_LOCAL:
@@ -61,9 +123,33 @@ public abstract class AbstractReadRequest<T extends GenericJson> extends Abstrac
         return networkManager;
     }
 
+    /**
+     * Request waiting for identical read stops waiting and returns null, the shared read is completed for other requests
+     */
     @Override
     public void cancel() {
+        cancelled = true;
+        InFlightReads.Call call = joined;
+        if (call != null){
+            call.wakeUp();
+        }
+    }
+
+    /**
+     * Key of the read, requests with equal keys return the same entities
+     * @return key of the read or null if read should not be shared
+     */
+    protected Object getReadKey() {
+        return null;
+    }
 
+    /**
+     * @param target what is read, for example query
+     * @return read key for target in the collection of this request
+     */
+    protected Object readKey(Object target) {
+        return Arrays.asList(networkManager.getClient(), networkManager.getCollectionName(),
+                networkManager.getCurrentClass(), readPolicy, target);
     }
 
     abstract protected List<T> getCached();
@@ -0,0 +1,91 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.store.requests.data.read;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of network reads in progress.
+ *
+ * The first request with a given key executes the read, identical requests started before it completes
+ * wait for it and get the same entities instead of issuing their own network call.
+ */
+class InFlightReads {
+
+    private static final ConcurrentHashMap<Object, Call> CALLS = new ConcurrentHashMap<Object, Call>();
+
+    /**
+     * Single shared read, waiters are notified on its monitor
+     */
+    static class Call {
+        private boolean done;
+        private List<?> result;
+        private IOException error;
+        private RuntimeException failure;
+
+        synchronized void complete(List<?> result, IOException error, RuntimeException failure) {
+            this.result = result;
+            this.error = error;
+            this.failure = failure;
+            this.done = true;
+            notifyAll();
+        }
+
+        /**
+         * Wake up waiters to let them check if they were cancelled
+         */
+        synchronized void wakeUp() {
+            notifyAll();
+        }
+
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        /**
+         * @return result of the read, or the exception it failed with is thrown
+         */
+        synchronized List<?> get() throws IOException {
+            if (error != null){
+                throw error;
+            }
+            if (failure != null){
+                throw failure;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return new call if caller should execute the read and {@link #complete(Object, Call, List, IOException, RuntimeException)} it,
+     * or call in progress caller should wait for
+     */
+    static Call join(Object key, Call candidate) {
+        Call existing = CALLS.putIfAbsent(key, candidate);
+        return existing != null ? existing : candidate;
+    }
+
+    /**
+     * Publish result of the read, requests started after this method execute their own reads
+     */
+    static void complete(Object key, Call call, List<?> result, IOException error, RuntimeException failure) {
+        CALLS.remove(key, call);
+        call.complete(result, error, failure);
+    }
+}
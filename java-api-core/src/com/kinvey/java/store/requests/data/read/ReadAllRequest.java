@@ -46,4 +46,9 @@ public class ReadAllRequest<T extends GenericJson> extends AbstractReadRequest<T
     protected List<T> getNetwork() throws IOException {
         return Arrays.asList(getNetworkData().getBlocking().execute());
     }
+
+    @Override
+    protected Object getReadKey() {
+        return readKey("all");
+    }
 }
@@ -18,6 +18,7 @@ package com.kinvey.java.store.requests.data.read;
 
 import com.google.api.client.json.GenericJson;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.kinvey.java.AbstractClient;
 import com.kinvey.java.cache.ICache;
 import com.kinvey.java.network.NetworkManager;
@@ -49,4 +50,9 @@ public class ReadIdsRequest<T extends GenericJson> extends AbstractReadRequest<T
     protected List<T> getNetwork() throws IOException {
         return Arrays.asList(getNetworkData().getBlocking(Iterables.toArray(ids, String.class)).execute());
     }
+
+    @Override
+    protected Object getReadKey() {
+        return readKey(Lists.newArrayList(ids));
+    }
 }
@@ -49,4 +49,10 @@ public class ReadQueryRequest<T extends GenericJson> extends AbstractReadRequest
     protected List<T> getNetwork() throws IOException {
         return Arrays.asList(getNetworkData().getBlocking(query).execute());
     }
+
+    @Override
+    protected Object getReadKey() {
+        return readKey(Arrays.asList(query.getQueryFilterJson(getNetworkData().getClient().getJsonFactory()),
+                query.getSortString(), query.getSkip(), query.getLimit()));
+    }
 }
@@ -18,10 +18,14 @@ package com.kinvey.java.store.requests.data.save;
 
 import com.google.api.client.json.GenericJson;
 import com.kinvey.java.AbstractClient;
+import com.kinvey.java.KinveyException;
 import com.kinvey.java.cache.ICache;
+import com.kinvey.java.model.KinveyBatchInsertError;
+import com.kinvey.java.model.KinveySaveBatchResponse;
 import com.kinvey.java.network.NetworkManager;
 import com.kinvey.java.store.WritePolicy;
 import com.kinvey.java.store.requests.data.IRequest;
+import com.kinvey.java.store.requests.data.PushRequest;
 import com.kinvey.java.sync.SyncManager;
 
 import java.io.IOException;
@@ -52,14 +56,71 @@ public class SaveListRequest<T extends GenericJson> implements IRequest<List<T>>
     @Override
     public List<T> execute() throws IOException {
         List<T> ret = new ArrayList<T>();
+        List<T> created = new ArrayList<T>();
+        List<Integer> positions = new ArrayList<Integer>();
         for (T obj : objects){
-            SaveRequest<T> save = new SaveRequest<T>(
-                    cache, networkManager , writePolicy, obj, syncManager);
-            ret.add(save.execute());
+            if (writePolicy != WritePolicy.FORCE_LOCAL && obj.get(NetworkManager.ID_FIELD_NAME) == null){
+                //new entities are created with bulk requests, after entities that already have ids are saved
+                positions.add(ret.size());
+                created.add(obj);
+                ret.add(obj);
+            } else {
+                SaveRequest<T> save = new SaveRequest<T>(
+                        cache, networkManager , writePolicy, obj, syncManager);
+                ret.add(save.execute());
+            }
+        }
+        if (!created.isEmpty()){
+            List<T> saved = saveBatch(created);
+            for (int i = 0; i < positions.size(); i++){
+                ret.set(positions.get(i), saved.get(i));
+            }
         }
         return ret;
     }
 
+    private List<T> saveBatch(List<T> created) throws IOException {
+        NetworkManager<T>.SaveBatch batch = networkManager.saveBatchBlocking(created);
+        if (writePolicy == WritePolicy.LOCAL_THEN_NETWORK){
+            PushRequest<T> pushRequest = new PushRequest<T>(networkManager.getCollectionName(),
+                    networkManager.getClient());
+            try {
+                pushRequest.execute();
+            } catch (Throwable t){
+                // silent fall, will be synced next time
+            }
+            cache.save(created);
+        }
+
+        //parts that failed report errors of their entities, only these entities are put to the sync queue
+        KinveySaveBatchResponse<T> response = batch.execute();
+
+        List<T> saved = new ArrayList<T>();
+        for (T obj : response.getEntities()){
+            if (obj != null){
+                saved.add(obj);
+            }
+        }
+        if (writePolicy == WritePolicy.LOCAL_THEN_NETWORK){
+            cache.save(saved);
+            for (KinveyBatchInsertError error : response.getErrors()){
+                syncManager.enqueueRequest(networkManager.getCollectionName(),
+                        networkManager.saveBlocking(created.get(error.getIndex())));
+            }
+        }
+        if (batch.getFailure() != null){
+            //a part did not reach the backend, callers handle it like a failed single save
+            throw batch.getFailure();
+        }
+        if (!response.getErrors().isEmpty()){
+            KinveyBatchInsertError error = response.getErrors().get(0);
+            throw new KinveyException("Could not save " + response.getErrors().size() + " of " + created.size() +
+                    " entities of collection " + networkManager.getCollectionName(),
+                    "Check errors reported by the backend", error.getErrmsg());
+        }
+        return response.getEntities();
+    }
+
     @Override
     public void cancel() {
         //TODO: put async and track cancel
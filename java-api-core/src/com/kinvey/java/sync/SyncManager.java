@@ -16,32 +16,47 @@
 
 package com.kinvey.java.sync;
 
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.Json;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.kinvey.java.AbstractClient;
+import com.kinvey.java.KinveyException;
 import com.kinvey.java.Query;
 import com.kinvey.java.cache.ICache;
 import com.kinvey.java.cache.ICacheManager;
+import com.kinvey.java.cache.IndexType;
+import com.kinvey.java.cache.QueryMatcher;
+import com.kinvey.java.core.AbstractKinveyClientRequest;
 import com.kinvey.java.core.AbstractKinveyJsonClientRequest;
+import com.kinvey.java.model.KinveyBatchInsertError;
+import com.kinvey.java.model.KinveySaveBatchResponse;
+import com.kinvey.java.network.NetworkManager;
 import com.kinvey.java.query.MongoQueryFilter;
-import com.kinvey.java.store.BaseDataStore;
-import com.kinvey.java.store.StoreType;
+import com.kinvey.java.sync.dto.PullWatermark;
 import com.kinvey.java.sync.dto.SyncCollections;
 import com.kinvey.java.sync.dto.SyncRequest;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by Prots on 2/24/16.
  */
 public class SyncManager {
 
+    //guards coalescing of the queue, managers are created for every operation
+    private static final Object QUEUE_LOCK = new Object();
+
     private ICacheManager cacheManager;
 
     public SyncManager(ICacheManager cacheManager){
@@ -70,18 +85,22 @@ public class SyncManager {
         ICache<SyncRequest> requestCache = cacheManager.getCache("sync", SyncRequest.class, Long.MAX_VALUE);
         Query q = new Query(new MongoQueryFilter.MongoQueryFilterBuilder())
                 .equals("collection", collectionName);
-        List<SyncRequest> requests = requestCache.get(q);
-
-        //delete request from the queue
-
-        if (requests.size() > 0) {
-            List<String> ids = new ArrayList<String>();
-            for (SyncRequest request: requests){
-                if(request != null){
-                    ids.add(request.get("_id").toString());
+        List<SyncRequest> requests;
+        //coalescing should only see requests that are still queued
+        synchronized (QUEUE_LOCK){
+            requests = requestCache.get(q);
+
+            //delete request from the queue
+
+            if (requests.size() > 0) {
+                List<String> ids = new ArrayList<String>();
+                for (SyncRequest request: requests){
+                    if(request != null){
+                        ids.add(request.get("_id").toString());
+                    }
                 }
+                requestCache.delete(ids);
             }
-            requestCache.delete(ids);
         }
         return requests;
     }
@@ -115,17 +134,51 @@ public class SyncManager {
                 collectionName
         );
         ICache<SyncRequest> requestCache = cacheManager.getCache("sync", SyncRequest.class, Long.MAX_VALUE);
-        requestCache.save(request);
+        synchronized (QUEUE_LOCK){
+            //pending requests of the entity are looked up on every enqueue
+            requestCache.createIndex("meta.id", IndexType.HASH);
+            if (coalesce(requestCache, request)){
+                requestCache.save(request);
+            }
+            ICache<SyncCollections> collectionsCache = cacheManager.getCache("syncCollections", SyncCollections.class, Long.MAX_VALUE);
+            if (collectionsCache.get(collectionName) == null){
+                collectionsCache.save(new SyncCollections(collectionName));
+            }
+        }
 
     }
 
+    /**
+     * Put request back to the queue as is, used for requests that failed to be pushed
+     */
     public void enqueueRequest(SyncRequest request) {
         ICache<SyncRequest> requestCache = cacheManager.getCache("sync", SyncRequest.class, Long.MAX_VALUE);
-        requestCache.save(request);
+        synchronized (QUEUE_LOCK){
+            requestCache.save(request);
+        }
 
     }
 
 
+    /**
+     * Get ids of entities that have requests waiting to be pushed
+     * @param collectionName the name of the collection we want to get the info
+     * @return ids of entities of given collection with pending sync requests
+     */
+    public Set<String> getPendingIds(String collectionName){
+        ICache<SyncRequest> requestCache = cacheManager.getCache("sync", SyncRequest.class, Long.MAX_VALUE);
+        Query q = new Query(new MongoQueryFilter.MongoQueryFilterBuilder())
+                .equals("collection", collectionName);
+
+        Set<String> ret = new HashSet<String>();
+        for (SyncRequest request : requestCache.get(q)){
+            if (request.getEntityID() != null && request.getEntityID().id != null){
+                ret.add(request.getEntityID().id);
+            }
+        }
+        return ret;
+    }
+
     /**
      * This methods gets the count of sync operation to be performed
      * @param collectionName the name of the collection we want to get the info
@@ -140,89 +193,179 @@ public class SyncManager {
     }
 
     /**
-     * This method uses the AnsycAppData API to execute requests.  It contains an if/else block for the verb of the request
-     * and then calls the appropriate appdata method.  As it uses the Async API, every request has a callback.
+     * Replay queued request through the http transport of the client, with the payload, verb, url and
+     * custom headers it was queued with. Authorization and standard headers are set by the client.
      * <p/>
-     * Dependant on the verb and the result, this method will also update the local database.
+     * Requests that fail are put back to the queue, except deletes of single entities the backend does not have
+     * anymore (404), there is nothing left to delete.
      *
      * @param client kinvey client to execute request with
      * @param request Sync request to be executed
      */
     public void executeRequest(final AbstractClient client, SyncRequest request) throws IOException {
+        SyncRequest.HttpVerb verb = request.getHttpVerb();
+        String curID = request.getEntityID().id;
+        boolean save = verb == SyncRequest.HttpVerb.PUT || verb == SyncRequest.HttpVerb.POST;
+        if (save && request.getEntityID().data == null || !save && verb != SyncRequest.HttpVerb.DELETE){
+            return;
+        }
 
-        client.setClientAppVersion(request.getEntityID().customerVersion);
-        client.setCustomRequestProperties(new Gson().fromJson(request.getEntityID().customheader, GenericJson.class));
-
-        GenericJson entity = null;
+        ReplayRequest<Void> replay = new ReplayRequest<Void>(client, verb.name(), request.getUrl(),
+                request.getEntityID(), request.getEntityID().data, Void.class);
+        client.initializeRequest(replay);
         try {
-            if (request.getEntityID().data != null) {
-                entity = client.getJsonFactory().createJsonParser(request.getEntityID().data).parse(GenericJson.class);
-
-            }
+            replay.execute();
         } catch (IOException e) {
-            e.printStackTrace();
+            boolean query = curID == null || (curID.startsWith("{") && curID.endsWith("}"));
+            boolean gone = e instanceof HttpResponseException && ((HttpResponseException) e).getStatusCode() == 404;
+            if (save || query || !gone){
+                enqueueRequest(request);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            enqueueRequest(request);
+            throw e;
         }
+    }
 
-        BaseDataStore networkDataStore = BaseDataStore.collection(request.getCollectionName(), GenericJson.class, StoreType.NETWORK, client);
-
-        if (request.getHttpVerb().equals(SyncRequest.HttpVerb.PUT) || request.getHttpVerb().equals((SyncRequest.HttpVerb.POST))) {
-
-            if (entity != null){
-                try {
-                    GenericJson ret = networkDataStore.save(entity);
-                } catch (Exception e){
-                    enqueueRequest(request);
-                    throw e;
+    /**
+     * Create entities of given POST requests of a collection with bulk requests, see
+     * {@link NetworkManager#saveBatchBlocking(List)}. Queued payloads are sent as they are, requests
+     * that fail are put back to the queue.
+     *
+     * @param client kinvey client to execute requests with
+     * @param collectionName collection of the requests
+     * @param requests POST requests sharing client app version and custom request properties
+     * @return failures of single requests, empty if all of them were pushed
+     */
+    public List<KinveyException> executeBatch(final AbstractClient client, String collectionName, List<SyncRequest> requests) throws IOException {
+        List<KinveyException> ret = new ArrayList<KinveyException>();
+        for (int i = 0; i < requests.size(); i += NetworkManager.DEFAULT_BATCH_SIZE){
+            List<SyncRequest> part = requests.subList(i, Math.min(i + NetworkManager.DEFAULT_BATCH_SIZE, requests.size()));
+            StringBuilder body = new StringBuilder("[");
+            for (SyncRequest request : part){
+                if (body.length() > 1){
+                    body.append(',');
                 }
+                body.append(request.getEntityID().data);
             }
-        } else if (request.getHttpVerb().equals(SyncRequest.HttpVerb.DELETE)){
-            String curID = request.getEntityID().id;
-
-            if (curID != null && curID.startsWith("{") && curID.endsWith("}")){
-                //it's a query
-                Query q = new Query().setQueryString(curID);
-                try {
-                    networkDataStore.delete(q);
-                } catch(Exception e) {
+            body.append(']');
+
+            ReplayRequest<KinveySaveBatchResponse.Generic> replay = new ReplayRequest<KinveySaveBatchResponse.Generic>(client, "POST",
+                    part.get(0).getUrl(), part.get(0).getEntityID(), body.toString(), KinveySaveBatchResponse.Generic.class);
+            client.initializeRequest(replay);
+            KinveySaveBatchResponse<?> response;
+            try {
+                response = replay.execute();
+            } catch (IOException e) {
+                for (SyncRequest request : requests.subList(i, requests.size())){
                     enqueueRequest(request);
-                    throw e;
                 }
+                throw e;
+            }
+            if (response != null){
+                for (KinveyBatchInsertError error : response.getErrors()){
+                    enqueueRequest(part.get(error.getIndex()));
+                    ret.add(new KinveyException(error.getErrmsg()));
+                }
+            }
+        }
+        return ret;
+    }
 
+    /**
+     * Merge new request with pending requests of the same collection, so every entity is pushed at most once:
+     * <ul>
+     *     <li>request for an entity replaces pending requests for it, the last write wins</li>
+     *     <li>delete of an entity created by a pending request drops both, entity never reaches the backend</li>
+     *     <li>delete by query replaces pending saves of entities matching it, with deletes of these entities,
+     *     or drops them if they were created by the pending saves</li>
+     * </ul>
+     * NOTE: should be called with QUEUE_LOCK held
+     * @return true if the request should be added to the queue
+     */
+    private boolean coalesce(ICache<SyncRequest> requestCache, SyncRequest request) {
+        SyncRequest.HttpVerb verb = request.getHttpVerb();
+        String id = request.getEntityID() != null ? request.getEntityID().id : null;
+        if (verb == null || (id != null && id.startsWith("{") && id.endsWith("}"))){
+            return true;
+        }
+        Query q = new Query(new MongoQueryFilter.MongoQueryFilterBuilder())
+                .equals("collection", request.getCollectionName());
+        if (id == null){
+            //only deletes by query have to look at the whole queue of the collection
+            if (verb == SyncRequest.HttpVerb.DELETE){
+                coalesceDeleteByQuery(requestCache, request, requestCache.get(q));
+            }
+            return true;
+        }
 
-            } else if (curID == null && request.getUrl().contains("?query=")) {
-
-                String url = request.getUrl();
-                int index = url.indexOf("?query=") + 7;
-                String qString = url.substring(index);
-                String decodedQuery = null;
-                try {
-                    decodedQuery = URLDecoder.decode(qString, "UTF-8");
-                } catch (UnsupportedEncodingException e) {
-                    e.printStackTrace();
-                }
-                if (decodedQuery == null) {
-                    return;
-                }
-                Query q = new Query().setQueryString(decodedQuery);
-                try {
-                    networkDataStore.delete(q);
-                } catch(Exception e) {
-                    enqueueRequest(request);
-                    throw e;
-                }
+        List<String> superseded = new ArrayList<String>();
+        boolean created = false;
+        String createUrl = null;
+        for (SyncRequest previous : requestCache.get(q.equals("meta.id", id))){
+            superseded.add(previous.get("_id").toString());
+            if (previous.getHttpVerb() == SyncRequest.HttpVerb.POST){
+                created = true;
+                createUrl = previous.getUrl();
+            }
+        }
+        requestCache.delete(superseded);
+        if (created && verb == SyncRequest.HttpVerb.DELETE){
+            return false;
+        }
+        if (created){
+            //keep track of the entity being created, so its delete could drop it
+            request.setHttpVerb(SyncRequest.HttpVerb.POST);
+            request.setUrl(createUrl);
+        }
+        return true;
+    }
 
+    /**
+     * NOTE: should be called with QUEUE_LOCK held
+     */
+    private void coalesceDeleteByQuery(ICache<SyncRequest> requestCache, SyncRequest request, List<SyncRequest> pending) {
+        GenericUrl url = new GenericUrl(request.getUrl());
+        Object filter = url.getFirst("query");
+        if (filter == null || url.getFirst("limit") != null || url.getFirst("skip") != null){
+            return;
+        }
+        Gson gson = new Gson();
+        Map<?, ?> query;
+        try {
+            query = gson.fromJson(filter.toString(), Map.class);
+        } catch (JsonParseException e) {
+            return;
+        }
+        List<String> dropped = new ArrayList<String>();
+        for (SyncRequest previous : pending){
+            SyncRequest.HttpVerb verb = previous.getHttpVerb();
+            SyncRequest.SyncMetaData meta = previous.getEntityID();
+            if ((verb != SyncRequest.HttpVerb.PUT && verb != SyncRequest.HttpVerb.POST)
+                    || meta == null || meta.id == null || meta.data == null){
+                continue;
+            }
+            boolean matches;
+            try {
+                matches = QueryMatcher.matches(gson.fromJson(meta.data, Map.class), query);
+            } catch (RuntimeException e) {
+                //query could not be evaluated locally, entities are left as they are
+                return;
+            }
+            if (!matches){
+                continue;
+            }
+            if (verb == SyncRequest.HttpVerb.POST){
+                dropped.add(previous.get("_id").toString());
             } else {
-                    //it's a single ID
-                    try {
-                        networkDataStore.delete(request.getEntityID().id);
-                    } catch(Exception e) {
-                        //TODO: need to check the errors
-                        //enqueueRequest(request);
-                        throw e;
-                    }
-
-                }
+                //backend copy may not match the query, so it is deleted by id as it was locally
+                previous.setHttpVerb(SyncRequest.HttpVerb.DELETE);
+                meta.data = null;
+                requestCache.save(previous);
             }
+        }
+        requestCache.delete(dropped);
     }
 
     public int clear(String collectionName) {
@@ -232,4 +375,56 @@ public class SyncManager {
 
         return requestCache.delete(q);
     }
+
+    /**
+     * @param collectionName collection that was pulled
+     * @param query filter of the pull
+     * @return highest _kmd.lmt of entities pulled for the query, or null if the query was not pulled yet
+     */
+    public String getPullWatermark(String collectionName, String query) {
+        ICache<PullWatermark> watermarkCache = cacheManager.getCache("pullWatermarks", PullWatermark.class, Long.MAX_VALUE);
+        PullWatermark watermark = watermarkCache.get(new PullWatermark(collectionName, query, null).get("_id").toString());
+        return watermark != null ? watermark.getLmt() : null;
+    }
+
+    public void setPullWatermark(String collectionName, String query, String lmt) {
+        ICache<PullWatermark> watermarkCache = cacheManager.getCache("pullWatermarks", PullWatermark.class, Long.MAX_VALUE);
+        watermarkCache.save(new PullWatermark(collectionName, query, lmt));
+    }
+
+    /**
+     * Forget pulled watermarks of the collection, so next pulls fetch whole query results
+     */
+    public int clearPullWatermarks(String collectionName) {
+        ICache<PullWatermark> watermarkCache = cacheManager.getCache("pullWatermarks", PullWatermark.class, Long.MAX_VALUE);
+        Query q = new Query(new MongoQueryFilter.MongoQueryFilterBuilder())
+                .equals("collection", collectionName);
+        return watermarkCache.delete(q);
+    }
+
+    /**
+     * Request replaying queued payload as is, the payload is neither parsed nor serialized again
+     */
+    private static class ReplayRequest<T> extends AbstractKinveyClientRequest<T> {
+        private final String url;
+
+        ReplayRequest(AbstractClient client, String requestMethod, String url, SyncRequest.SyncMetaData meta,
+                      String payload, Class<T> responseClass) throws IOException {
+            super(client, requestMethod, url, payload == null ? null :
+                    new ByteArrayContent(Json.MEDIA_TYPE, payload.getBytes("UTF-8")), responseClass);
+            this.url = url;
+            if (meta.customerVersion != null){
+                getRequestHeaders().put("X-Kinvey-Client-App-Version", meta.customerVersion);
+            }
+            if (meta.customheader != null && !meta.customheader.isEmpty()){
+                getRequestHeaders().put("X-Kinvey-Custom-Request-Properties", meta.customheader);
+            }
+        }
+
+        @Override
+        protected GenericUrl buildHttpRequestUrl() {
+            //url was expanded when the request was queued
+            return new GenericUrl(url);
+        }
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.sync.dto;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Key;
+
+/**
+ * Highest _kmd.lmt of entities pulled for a query of a collection
+ */
+public class PullWatermark extends GenericJson {
+    @Key("_id")
+    private String key;
+
+    @Key("collection")
+    private String collectionName;
+
+    @Key
+    private String lmt;
+
+    public PullWatermark(){}
+
+    public PullWatermark(String collectionName, String query, String lmt){
+        this.key = collectionName + "\n" + query;
+        this.collectionName = collectionName;
+        this.lmt = lmt;
+    }
+
+    public String getCollectionName() {
+        return collectionName;
+    }
+
+    public String getLmt() {
+        return lmt;
+    }
+}
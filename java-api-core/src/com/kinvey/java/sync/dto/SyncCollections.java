@@ -26,6 +26,8 @@ public class SyncCollections extends GenericJson {
     @Key("_id")
     private String collectionName;
 
+    public SyncCollections(){}
+
     public SyncCollections(String collectionName){
 
         this.collectionName = collectionName;
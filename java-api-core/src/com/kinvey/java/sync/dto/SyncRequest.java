@@ -103,6 +103,14 @@ public class SyncRequest extends GenericJson implements Serializable {
         return HttpVerb.fromString(this.verb);
     }
 
+    /**
+     * Change the HTTP VERB of this request, used when pending requests are merged.
+     * @param httpVerb the HTTP Verb to be used by this request
+     */
+    public void setHttpVerb(HttpVerb httpVerb) {
+        this.verb = httpVerb.name();
+    }
+
     /**
      * Get the entity used by this request.
      * @return the _id of the entity affected by this request
@@ -124,6 +132,10 @@ public class SyncRequest extends GenericJson implements Serializable {
         return url;
     }
 
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
     /**
      * This class represents the uniqueness of an entity, containing the _id, customerAppVersion, and any CustomHeaders.
      *
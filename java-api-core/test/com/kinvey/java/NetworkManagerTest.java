@@ -15,15 +15,28 @@
  */
 package com.kinvey.java;
 
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
 import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
 import com.google.api.client.util.Key;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.kinvey.java.core.KinveyMockUnitTest;
+import com.kinvey.java.model.KinveySaveBatchResponse;
 import com.kinvey.java.network.NetworkManager;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 /**
  * @author mjsalinger
@@ -218,6 +231,110 @@ public class NetworkManagerTest extends KinveyMockUnitTest {
         assertEquals("DELETE", myDelete.getRequestMethod());
     }
 
+    public void testSaveBatch() throws IOException {
+        final List<String> bodies = new ArrayList<String>();
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+                assertEquals("POST", method);
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        bodies.add(getContentAsString());
+                        JsonArray entities = new JsonParser().parse(getContentAsString()).getAsJsonArray();
+                        JsonArray saved = new JsonArray();
+                        JsonArray errors = new JsonArray();
+                        for (int i = 0; i < entities.size(); i++){
+                            if (entities.get(i).getAsJsonObject().has("fail")){
+                                JsonObject error = new JsonObject();
+                                error.addProperty("index", i);
+                                error.addProperty("code", 11000);
+                                error.addProperty("errmsg", "failed");
+                                errors.add(error);
+                                saved.add(JsonNull.INSTANCE);
+                            } else {
+                                entities.get(i).getAsJsonObject().addProperty("_id", "saved" + bodies.size() + i);
+                                saved.add(entities.get(i));
+                            }
+                        }
+                        JsonObject response = new JsonObject();
+                        response.add("entities", saved);
+                        response.add("errors", errors);
+                        return new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE).setContent(response.toString());
+                    }
+                };
+            }
+        };
+        NetworkManager<GenericJson> appData = new NetworkManager<GenericJson>("myCollection", GenericJson.class, getClient(transport));
+        appData.setBatchSize(2);
+        List<GenericJson> entities = new ArrayList<GenericJson>();
+        for (int i = 0; i < 5; i++){
+            GenericJson entity = new GenericJson();
+            entity.put("Name", "name" + i);
+            entities.add(entity);
+        }
+        entities.get(2).put("fail", true);
+
+        NetworkManager<GenericJson>.SaveBatch batch = appData.saveBatchBlocking(entities);
+        assertEquals(3, batch.getParts().size());
+        KinveySaveBatchResponse<GenericJson> response = batch.execute();
+        assertEquals(3, bodies.size());
+        assertEquals(5, response.getEntities().size());
+        assertEquals("name1", response.getEntities().get(1).get("Name"));
+        assertEquals("saved21", response.getEntities().get(3).get("_id"));
+        assertNull(response.getEntities().get(2));
+        assertEquals(1, response.getErrors().size());
+        assertEquals(2, response.getErrors().get(0).getIndex());
+        assertEquals(11000, response.getErrors().get(0).getCode());
+    }
+
+    public void testSaveBatchContinuesAfterFailedPart() throws IOException {
+        MockHttpTransport transport = new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() throws IOException {
+                        if (getContentAsString().contains("drop")){
+                            throw new IOException("connection reset");
+                        }
+                        return new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE)
+                                .setContent("{\"entities\":" + getContentAsString() + "}");
+                    }
+                };
+            }
+        };
+        NetworkManager<GenericJson> appData = new NetworkManager<GenericJson>("myCollection", GenericJson.class, getClient(transport));
+        appData.setBatchSize(2);
+        List<GenericJson> entities = new ArrayList<GenericJson>();
+        for (int i = 0; i < 4; i++){
+            GenericJson entity = new GenericJson();
+            entity.put("Name", i == 0 ? "drop" : "name" + i);
+            entities.add(entity);
+        }
+
+        NetworkManager<GenericJson>.SaveBatch batch = appData.saveBatchBlocking(entities);
+        KinveySaveBatchResponse<GenericJson> response = batch.execute();
+        assertEquals("connection reset", batch.getFailure().getMessage());
+        assertEquals(4, response.getEntities().size());
+        assertNull(response.getEntities().get(0));
+        assertNull(response.getEntities().get(1));
+        assertEquals("name3", response.getEntities().get(3).get("Name"));
+        assertEquals(2, response.getErrors().size());
+        assertEquals(1, response.getErrors().get(1).getIndex());
+        assertEquals(0, response.getErrors().get(1).getCode());
+    }
+
+    public void testDeleteBatch() throws IOException {
+        NetworkManager<GenericJson> appData = new NetworkManager<GenericJson>("myCollection", GenericJson.class,
+                getClient(new MockHttpTransport()));
+        appData.setBatchSize(2);
+        NetworkManager<GenericJson>.DeleteBatch batch = appData.deleteBatchBlocking(Arrays.asList("1", "2", "3"));
+        assertEquals(2, batch.getParts().size());
+        assertEquals("DELETE", batch.getParts().get(0).getRequestMethod());
+        assertEquals("{\"_id\":{\"$in\":[\"3\"]}}", batch.getParts().get(1).get("query"));
+    }
+
 //    public void testDeleteNullEntityID() throws IOException {
 //        NetworkManager<Entity> appData = getGenericAppData(Entity.class);
 //        String entityID = "myEntity";
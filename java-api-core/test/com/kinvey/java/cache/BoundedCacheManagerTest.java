@@ -0,0 +1,141 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.http.GenericUrl;
+import com.kinvey.java.Query;
+import com.kinvey.java.cache.InMemoryCacheTest.Person;
+import com.kinvey.java.sync.SyncManager;
+import com.kinvey.java.sync.dto.SyncRequest;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link BoundedCacheManager} eviction policies and limits
+ */
+public class BoundedCacheManagerTest extends TestCase {
+
+    private SyncManager syncManager;
+
+    @Override
+    protected void setUp() {
+        syncManager = new SyncManager(new InMemoryCacheManager());
+    }
+
+    private ICache<Person> fill(BoundedCacheManager cacheManager, String collection, int count) {
+        ICache<Person> cache = cacheManager.getCache(collection, Person.class, Long.MAX_VALUE);
+        for (int i = 0; i < count; i++){
+            cache.save(new Person(String.valueOf(i), "Person" + i, i));
+        }
+        return cache;
+    }
+
+    public void testLru() {
+        BoundedCacheManager cacheManager = new BoundedCacheManager(new InMemoryCacheManager(), EvictionPolicy.LRU, syncManager);
+        cacheManager.setLimit("persons", 3, 0);
+        ICache<Person> cache = fill(cacheManager, "persons", 3);
+        cache.get("0");
+        cache.save(new Person("3", "Person3", 3));
+        assertEquals(3, cache.count(new Query()));
+        assertNotNull(cache.get("0"));
+        assertNull(cache.get("1"));
+        assertEquals(1, cacheManager.getEvictedCount());
+    }
+
+    public void testLfu() {
+        BoundedCacheManager cacheManager = new BoundedCacheManager(new InMemoryCacheManager(), EvictionPolicy.LFU, syncManager);
+        cacheManager.setLimit("persons", 3, 0);
+        ICache<Person> cache = fill(cacheManager, "persons", 3);
+        cache.get("0");
+        cache.get("0");
+        cache.get("2");
+        cache.save(new Person("3", "Person3", 3));
+        assertNull(cache.get("1"));
+        cache.save(new Person("4", "Person4", 4));
+        assertNull(cache.get("3"));
+        assertNotNull(cache.get("0"));
+        assertNotNull(cache.get("2"));
+    }
+
+    public void testTinyLfuResistsScan() {
+        BoundedCacheManager cacheManager = new BoundedCacheManager(new InMemoryCacheManager(), EvictionPolicy.W_TINY_LFU, syncManager);
+        cacheManager.setLimit("persons", 100, 0);
+        ICache<Person> cache = fill(cacheManager, "persons", 100);
+        for (int round = 0; round < 5; round++){
+            for (int i = 0; i < 10; i++){
+                cache.get(String.valueOf(i));
+            }
+        }
+        for (int i = 100; i < 300; i++){
+            cache.save(new Person(String.valueOf(i), "Scan" + i, i));
+        }
+        assertEquals(100, cache.count(new Query()));
+        for (int i = 0; i < 10; i++){
+            assertNotNull(cache.get(String.valueOf(i)));
+        }
+    }
+
+    public void testPendingEntitiesAreKept() {
+        BoundedCacheManager cacheManager = new BoundedCacheManager(new InMemoryCacheManager(), EvictionPolicy.LRU, syncManager);
+        cacheManager.setLimit("persons", 2, 0);
+        syncManager.enqueueRequest(new SyncRequest(SyncRequest.HttpVerb.PUT, new SyncRequest.SyncMetaData("0"),
+                new GenericUrl("http://localhost/"), "persons"));
+        ICache<Person> cache = fill(cacheManager, "persons", 4);
+        assertNotNull(cache.get("0"));
+        assertNull(cache.get("1"));
+        assertNull(cache.get("2"));
+        assertNotNull(cache.get("3"));
+    }
+
+    public void testGlobalByteLimit() {
+        InMemoryCacheManager storage = new InMemoryCacheManager();
+        storage.getCache("existing", Person.class, Long.MAX_VALUE).save(new Person("old", "Existing", 1));
+
+        BoundedCacheManager cacheManager = new BoundedCacheManager(storage, EvictionPolicy.LRU, null);
+        ICache<Person> existing = cacheManager.getCache("existing", Person.class, Long.MAX_VALUE);
+        long size = cacheManager.getBytes("existing");
+        assertTrue(size > 0);
+        cacheManager.setGlobalLimit(0, size * 4);
+
+        ICache<Person> cache = fill(cacheManager, "persons", 10);
+        assertNull(existing.get("old"));
+        assertTrue(cacheManager.getBytes("persons") <= size * 4);
+        assertNotNull(cache.get("9"));
+
+        cache.clear();
+        assertEquals(0, cacheManager.getEntries("persons"));
+    }
+
+    public void testDeleteByQueryTracksAllRemovedIds() throws InterruptedException {
+        BoundedCacheManager cacheManager = new BoundedCacheManager(new InMemoryCacheManager(), EvictionPolicy.LRU, syncManager);
+        ICache<Person> cache = cacheManager.getCache("persons", Person.class, 1L);
+        for (int i = 0; i < 3; i++){
+            cache.save(new Person(String.valueOf(i), "Person" + i, i));
+        }
+        Thread.sleep(10);
+        assertEquals(3, cacheManager.getEntries("persons"));
+        assertEquals(3, cache.delete(new Query().setSkip(1).setLimit(1)));
+        assertEquals(0, cacheManager.getEntries("persons"));
+
+        fill(cacheManager, "paged", 3);
+        assertEquals(0, cacheManager.getCache("paged", Person.class, Long.MAX_VALUE)
+                .replace(new Query().setLimit(1), Collections.<Person>emptyList()).size());
+        assertEquals(0, cacheManager.getEntries("paged"));
+    }
+}
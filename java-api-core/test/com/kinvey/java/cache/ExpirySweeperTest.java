@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.kinvey.java.Query;
+import com.kinvey.java.cache.InMemoryCacheTest.Person;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests of {@link ExpirySweeper}
+ */
+public class ExpirySweeperTest extends TestCase {
+
+    private static List<Person> persons(String prefix, int count) {
+        List<Person> ret = new ArrayList<Person>();
+        for (int i = 0; i < count; i++){
+            ret.add(new Person(prefix + i, "Person" + i, i));
+        }
+        return ret;
+    }
+
+    private void fill(ICacheManager cacheManager) throws InterruptedException {
+        cacheManager.getCache("expiring", Person.class, 1L).save(persons("e", 25));
+        cacheManager.getCache("persons", Person.class, Long.MAX_VALUE).save(persons("p", 5));
+        Thread.sleep(10);
+    }
+
+    public void testSweepInBatches() throws InterruptedException {
+        InMemoryCacheManager cacheManager = new InMemoryCacheManager();
+        fill(cacheManager);
+        ExpirySweeper sweeper = cacheManager.getSweeper();
+        sweeper.stop();
+        sweeper.setDefaultBatchSize(10);
+
+        assertEquals(10, sweeper.sweep().getRows());
+        assertEquals(10, sweeper.sweep().getRows());
+        assertEquals(5, sweeper.sweep().getRows());
+        assertEquals(0, sweeper.sweep().getRows());
+        assertEquals(25, sweeper.getStats("expiring").getRows());
+        assertEquals(0, sweeper.getStats("persons").getRows());
+        assertEquals(5, cacheManager.getCache("persons", Person.class, Long.MAX_VALUE).count(new Query()));
+    }
+
+    public void testCollectionBatchSize() throws InterruptedException {
+        OffHeapCacheManager cacheManager = new OffHeapCacheManager(64 * 1024, 4 * 1024, new GsonFactory());
+        fill(cacheManager);
+        ExpirySweeper sweeper = cacheManager.getSweeper();
+        sweeper.stop();
+        sweeper.setBatchSize("expiring", 0);
+        assertEquals(0, sweeper.sweep().getRows());
+
+        long used = cacheManager.getUsedBytes();
+        sweeper.setBatchSize("expiring", 100);
+        SweepStats stats = sweeper.sweep();
+        assertEquals(25, stats.getRows());
+        assertTrue(stats.getBytes() >= 25 * OffHeapTable.HEADER_SIZE);
+        assertEquals(stats.getBytes(), sweeper.getStats().getBytes());
+
+        //released chunks are reused
+        cacheManager.getCache("expiring", Person.class, 1L).save(persons("e", 25));
+        assertEquals(used, cacheManager.getUsedBytes());
+    }
+
+    public void testBackgroundSweep() throws InterruptedException {
+        InMemoryCacheManager cacheManager = new InMemoryCacheManager();
+        cacheManager.getSweeper().setPeriod(5);
+        fill(cacheManager);
+        for (int i = 0; i < 200 && cacheManager.getSweeper().getStats().getRows() < 25; i++){
+            Thread.sleep(10);
+        }
+        assertEquals(25, cacheManager.getSweeper().getStats().getRows());
+        cacheManager.getSweeper().stop();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.gson.GsonFactory;
+import com.kinvey.java.Query;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests of geospatial query conditions evaluated by the local cache
+ */
+public class GeoQueryTest extends TestCase {
+
+    private ICache<GenericJson> cache;
+
+    @Override
+    protected void setUp() {
+        cache = new OffHeapCacheManager(1024 * 1024, 16 * 1024, new GsonFactory())
+                .getCache("places", GenericJson.class, Long.MAX_VALUE);
+        List<GenericJson> places = new ArrayList<GenericJson>();
+        for (int lon = -20; lon <= 20; lon++){
+            for (int lat = 80; lat <= 100; lat++){
+                GenericJson place = new GenericJson();
+                place.put("_id", lon + ":" + lat);
+                place.put("_geoloc", new Double[]{lon / 2.0, lat / 2.0});
+                places.add(place);
+            }
+        }
+        cache.save(places);
+    }
+
+    private void assertSameWithIndex(Query query, int expected) {
+        List<GenericJson> scanned = cache.get(query);
+        cache.createIndex("_geoloc", IndexType.GEO);
+        List<GenericJson> indexed = cache.get(query);
+        assertEquals(expected, scanned.size());
+        assertEquals(ids(scanned), ids(indexed));
+        assertEquals(expected, cache.count(query));
+    }
+
+    private static List<Object> ids(List<GenericJson> items) {
+        List<Object> ret = new ArrayList<Object>();
+        for (GenericJson item : items){
+            ret.add(item.get("_id"));
+        }
+        return ret;
+    }
+
+    public void testNearSphere() {
+        //half a degree of latitude is about 34.6 miles, of longitude at 45 degrees about 24.5 miles
+        Query query = new Query().nearSphere("_geoloc", 45, 0, 30);
+        assertSameWithIndex(query, 3);
+        List<GenericJson> near = cache.get(query);
+        assertEquals("0:90", near.get(0).get("_id"));
+        double[] center = new double[]{0, 45};
+        double previous = 0;
+        for (GenericJson place : near){
+            double distance = GeoMatcher.distance(GeoMatcher.point(place.get("_geoloc")), center);
+            assertTrue(distance <= 30);
+            assertTrue(distance >= previous);
+            previous = distance;
+        }
+
+        ICacheCursor<GenericJson> cursor = cache.iterate(new Query().nearSphere("_geoloc", 45.1, 0.1, 30));
+        assertEquals("0:90", cursor.next().get("_id"));
+        cursor.close();
+    }
+
+    public void testWithinBox() {
+        Query query = (Query) new Query().withinBox("_geoloc", 44, -1, 45, 1);
+        assertSameWithIndex(query, 15);
+    }
+
+    public void testWithinPolygon() {
+        Query query = (Query) new Query().withinPolygon("_geoloc", 43.9, -1.1, 45.1, -1.1, 45.1, 1.1, 43.9, 1.1);
+        assertSameWithIndex(query, 15);
+        //triangle, last vertex is repeated
+        query = (Query) new Query().withinPolygon("_geoloc", 44.8, -0.1, 46.1, -0.1, 46.1, 1.1, 46.1, 1.1);
+        assertSameWithIndex(query, 6);
+    }
+
+    public void testCombinedWithOtherConditions() {
+        Query query = new Query().nearSphere("_geoloc", 45, 0, 30).notEqual("_id", "0:90");
+        assertSameWithIndex(query, 2);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.util.Key;
+import com.kinvey.java.KinveyException;
+import com.kinvey.java.Query;
+import com.kinvey.java.query.AbstractQuery;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests of {@link InMemoryCache}, queries and secondary indexes
+ */
+public class InMemoryCacheTest extends TestCase {
+
+    private InMemoryCacheManager cacheManager;
+    private ICache<Person> cache;
+
+    public static class Person extends GenericJson {
+        @Key("_id")
+        private String id;
+        @Key
+        private String name;
+        @Key
+        private int age;
+
+        public Person(){}
+
+        public Person(String id, String name, int age) {
+            this.id = id;
+            this.name = name;
+            this.age = age;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        cacheManager = new InMemoryCacheManager();
+        cache = cacheManager.getCache("persons", Person.class, Long.MAX_VALUE);
+        cache.save(Arrays.asList(
+                new Person("1", "Alice", 30),
+                new Person("2", "Bob", 25),
+                new Person("3", "Carol", 35),
+                new Person("4", "Dave", 25)));
+    }
+
+    public void testSaveAssignsId() {
+        Person p = cache.save(new Person(null, "Eve", 20));
+        assertNotNull(p.get("_id"));
+        assertEquals("Eve", cache.get(p.get("_id").toString()).getName());
+    }
+
+    public void testSavedCopyIsIsolated() {
+        Person p = new Person("5", "Frank", 40);
+        cache.save(p);
+        p.put("name", "Changed");
+        assertEquals("Frank", cache.get("5").getName());
+        cache.get("5").put("name", "Changed");
+        assertEquals("Frank", cache.get("5").getName());
+    }
+
+    public void testGetByIds() {
+        List<Person> ret = cache.get(Arrays.asList("1", "3", "missing"));
+        assertEquals(2, ret.size());
+    }
+
+    public void testQueryOperators() {
+        assertEquals(2, cache.get(new Query().equals("age", 25)).size());
+        assertEquals(2, cache.get(new Query().greaterThan("age", 25)).size());
+        assertEquals(3, cache.get(new Query().lessThanEqualTo("age", 30)).size());
+        assertEquals(3, cache.get(new Query().notEqual("name", "Bob")).size());
+        assertEquals(2, cache.get(new Query().in("name", new String[]{"Bob", "Carol"})).size());
+        assertEquals(2, cache.get(new Query().notIn("name", new String[]{"Bob", "Carol"})).size());
+        assertEquals(1, cache.get(new Query().startsWith("name", "Ca")).size());
+        assertEquals(3, cache.get(new Query().equals("age", 25).or(new Query().equals("name", "Alice"))).size());
+        assertEquals(1, cache.get(new Query().equals("age", 25).and(new Query().equals("name", "Bob"))).size());
+    }
+
+    public void testSortSkipLimit() {
+        Query q = new Query().addSort("age", AbstractQuery.SortOrder.DESC).addSort("name", AbstractQuery.SortOrder.ASC);
+        List<Person> ret = cache.get(q);
+        assertEquals("Carol", ret.get(0).getName());
+        assertEquals("Bob", ret.get(2).getName());
+
+        q.setSkip(1).setLimit(2);
+        ret = cache.get(q);
+        assertEquals(2, ret.size());
+        assertEquals("Alice", ret.get(0).getName());
+        assertEquals("Bob", ret.get(1).getName());
+    }
+
+    public void testDelete() {
+        assertEquals(2, cache.delete(new Query().equals("age", 25)));
+        assertEquals(1, cache.delete("1"));
+        assertEquals(0, cache.delete("1"));
+        assertEquals(1, cache.delete(Arrays.asList("3", "4")));
+        assertEquals(0, cache.count(new Query()));
+    }
+
+    public void testCountAndFirst() {
+        assertEquals(4, cache.count(new Query()));
+        assertEquals("Alice", cache.getFirst().getName());
+        assertEquals("Bob", cache.getFirst(new Query().equals("age", 25)).getName());
+    }
+
+    public void testTtl() throws InterruptedException {
+        ICache<Person> expiring = cacheManager.getCache("persons", Person.class, 0L);
+        expiring.save(new Person("6", "Ghost", 99));
+        Thread.sleep(5);
+        assertNull(cache.get("6"));
+        assertEquals(4, cache.get().size());
+    }
+
+    public void testSharedStorageAndGenericAccess() {
+        ICache<GenericJson> generic = cacheManager.getCache("persons", GenericJson.class, Long.MAX_VALUE);
+        assertEquals(4, generic.get().size());
+        assertEquals("Alice", generic.get("1").get("name"));
+    }
+
+    public void testIncompatibleClass() {
+        try {
+            cacheManager.getCache("persons", OtherEntity.class, 0L);
+            fail("KinveyException should be thrown");
+        } catch (KinveyException e) {}
+    }
+
+    public void testClear() {
+        cacheManager.clear();
+        assertEquals(0, cacheManager.getCache("persons", Person.class, Long.MAX_VALUE).count(new Query()));
+    }
+
+    public void testHashIndex() {
+        cache.createIndex("age", IndexType.HASH);
+        assertEquals(2, cache.get(new Query().equals("age", 25)).size());
+        assertEquals(3, cache.get(new Query().in("age", new Integer[]{25, 35})).size());
+        assertEquals(1, cache.get(new Query().equals("age", 25).equals("name", "Dave")).size());
+        assertEquals(2, cache.count(new Query().equals("age", 25L)));
+
+        cache.save(new Person("2", "Bob", 26));
+        assertEquals(1, cache.get(new Query().equals("age", 25)).size());
+        assertEquals("Bob", cache.getFirst(new Query().equals("age", 26)).getName());
+        cache.delete("4");
+        assertEquals(0, cache.get(new Query().equals("age", 25)).size());
+        assertEquals(1, cache.delete(new Query().equals("age", 26)));
+        assertEquals(2, cache.count(new Query()));
+    }
+
+    public void testSortedIndex() {
+        cache.createIndex("age", IndexType.SORTED);
+        assertEquals(2, cache.get(new Query().greaterThan("age", 25)).size());
+        assertEquals(3, cache.get(new Query().greaterThanEqualTo("age", 25).lessThan("age", 35)).size());
+        assertEquals(0, cache.get(new Query().greaterThan("age", "25")).size());
+        assertEquals(3, cache.get(new Query().greaterThan("age", 30).or(new Query().equals("age", 25))).size());
+
+        Query q = new Query().addSort("age", AbstractQuery.SortOrder.DESC).setLimit(2);
+        List<Person> ret = cache.get(q);
+        assertEquals(2, ret.size());
+        assertEquals("Carol", ret.get(0).getName());
+        assertEquals("Alice", ret.get(1).getName());
+
+        q = new Query().addSort("age", AbstractQuery.SortOrder.ASC).setSkip(1).setLimit(2);
+        ret = cache.get(q);
+        assertEquals("Dave", ret.get(0).getName());
+        assertEquals("Alice", ret.get(1).getName());
+    }
+
+    public void testIndexedQueryKeepsStorageOrder() {
+        Query q = new Query().greaterThanEqualTo("age", 25).setSkip(1).setLimit(2);
+        List<Person> scanned = cache.get(q);
+        cache.createIndex("age", IndexType.SORTED);
+        cache.save(new Person("5", "Eve", 20));
+        cache.save(new Person("1", "Alice", 31));
+        List<Person> indexed = cache.get(q);
+        assertEquals(2, indexed.size());
+        assertEquals("Bob", scanned.get(0).getName());
+        assertEquals("Carol", scanned.get(1).getName());
+        assertEquals("Bob", indexed.get(0).getName());
+        assertEquals("Carol", indexed.get(1).getName());
+
+        ICacheCursor<Person> cursor = cache.iterate(new Query().in("age", new Integer[]{25, 31}));
+        assertEquals("Alice", cursor.next().getName());
+        assertEquals("Bob", cursor.next().getName());
+        assertEquals("Dave", cursor.next().getName());
+        assertFalse(cursor.hasNext());
+        cursor.close();
+    }
+
+    public void testPrefixIndex() {
+        cache.save(Arrays.asList(
+                new Person("5", "Alfred", 40),
+                new Person("6", "Al", 45),
+                new Person("7", "Bo", 50)));
+        assertEquals(3, cache.get(new Query().startsWith("name", "Al")).size());
+        cache.createIndex("name", IndexType.SORTED);
+        assertEquals(3, cache.get(new Query().startsWith("name", "Al")).size());
+        assertEquals(1, cache.get(new Query().startsWith("name", "Alf")).size());
+        assertEquals(0, cache.get(new Query().startsWith("name", "Alx")).size());
+        assertEquals(2, cache.get(new Query().regEx("name", "^Bo")).size());
+        assertEquals(1, cache.get(new Query().regEx("name", "^Bob?$").greaterThan("age", 45)).size());
+        assertEquals(2, cache.get(new Query().regEx("name", "^.*e$")).size());
+        assertEquals(1, cache.get(new Query().startsWith("name", "Al").lessThan("name", "Alf")).size());
+        assertEquals(1, cache.delete(new Query().startsWith("name", "Alf")));
+        assertEquals(2, cache.count(new Query().startsWith("name", "Al")));
+
+        assertEquals("Al", QueryMatcher.prefix("^Al.*", null));
+        assertEquals("A", QueryMatcher.prefix("^Al?", null));
+        assertEquals("a.b", QueryMatcher.prefix("^a\\.b\\d", null));
+        assertNull(QueryMatcher.prefix("Al", null));
+        assertNull(QueryMatcher.prefix("^Al|Bo", null));
+        assertNull(QueryMatcher.prefix("^Al", "i"));
+    }
+
+    public void testIndexOnNestedField() {
+        Person p = new Person("5", "Eve", 20);
+        GenericJson kmd = new GenericJson();
+        kmd.put("lmt", "2016-01-01T00:00:00.000Z");
+        p.put("_kmd", kmd);
+        cache.save(p);
+        cache.createIndex("_kmd.lmt", IndexType.SORTED);
+        assertEquals(1, cache.get(new Query().greaterThan("_kmd.lmt", "2015")).size());
+        assertEquals(0, cache.get(new Query().greaterThan("_kmd.lmt", "2017")).size());
+    }
+
+    public void testIterate() {
+        ICacheCursor<Person> cursor = cache.iterate(new Query().equals("age", 25));
+        assertTrue(cursor.hasNext());
+        assertEquals("Bob", cursor.next().getName());
+        cache.delete("4");
+        //entities are loaded when cursor reaches them
+        assertFalse(cursor.hasNext());
+        cursor.close();
+
+        cursor = cache.iterate(new Query().addSort("age", AbstractQuery.SortOrder.ASC).setSkip(1).setLimit(2));
+        assertEquals("Alice", cursor.next().getName());
+        assertEquals("Carol", cursor.next().getName());
+        assertFalse(cursor.hasNext());
+
+        cache.createIndex("age", IndexType.SORTED);
+        cursor = cache.iterate(new Query().addSort("age", AbstractQuery.SortOrder.DESC).setLimit(1));
+        assertEquals("Carol", cursor.next().getName());
+        assertFalse(cursor.hasNext());
+
+        cursor = cache.iterate(new Query());
+        cursor.next();
+        cursor.close();
+        assertFalse(cursor.hasNext());
+    }
+
+    public void testReplace() {
+        cache.createIndex("age", IndexType.HASH);
+        List<Person> saved = cache.replace(new Query().equals("age", 25), Arrays.asList(
+                new Person("2", "Bobby", 26),
+                new Person("5", "Eve", 25)));
+        assertEquals(2, saved.size());
+        assertNull(cache.get("4"));
+        assertEquals("Bobby", cache.get("2").getName());
+        assertEquals(1, cache.get(new Query().equals("age", 25)).size());
+        assertEquals(4, cache.count(new Query()));
+    }
+
+    public static class OtherEntity extends GenericJson {
+        public OtherEntity(){}
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.kinvey.java.Query;
+import com.kinvey.java.cache.InMemoryCacheTest.Person;
+import com.kinvey.java.query.AbstractQuery;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests of {@link MappedFileCache}, recovery and compaction of its log
+ */
+public class MappedFileCacheTest extends TestCase {
+
+    private File folder;
+    private MappedFileCacheManager cacheManager;
+    private ICache<Person> cache;
+
+    @Override
+    protected void setUp() throws IOException {
+        folder = File.createTempFile("kinvey", "cache");
+        folder.delete();
+        reopen();
+        cache.save(Arrays.asList(
+                new Person("1", "Alice", 30),
+                new Person("2", "Bob", 25),
+                new Person("3", "Carol", 35)));
+    }
+
+    @Override
+    protected void tearDown() {
+        cacheManager.close();
+        for (File f : folder.listFiles()){
+            f.delete();
+        }
+        folder.delete();
+    }
+
+    private void reopen() {
+        if (cacheManager != null){
+            cacheManager.close();
+        }
+        cacheManager = new MappedFileCacheManager(folder, new GsonFactory(), false);
+        cache = cacheManager.getCache("persons", Person.class, Long.MAX_VALUE);
+    }
+
+    private File log() {
+        return new File(folder, "persons.log");
+    }
+
+    public void testGetAndQuery() {
+        assertEquals("Bob", cache.get("2").getName());
+        assertNull(cache.get("missing"));
+        assertEquals(2, cache.get(Arrays.asList("1", "3", "missing")).size());
+        assertEquals(2, cache.get(new Query().greaterThan("age", 26)).size());
+        assertEquals(3, cache.count(new Query()));
+
+        List<Person> sorted = cache.get(new Query().addSort("age", AbstractQuery.SortOrder.DESC).setLimit(2));
+        assertEquals(2, sorted.size());
+        assertEquals("Carol", sorted.get(0).getName());
+    }
+
+    public void testSurvivesRestart() {
+        cache.save(new Person("2", "Bobby", 26));
+        cache.delete("3");
+        reopen();
+        assertEquals(2, cache.count(new Query()));
+        assertEquals("Bobby", cache.get("2").getName());
+        assertNull(cache.get("3"));
+        assertEquals("Alice", cache.getFirst().getName());
+    }
+
+    public void testTruncatedTailIsDropped() throws IOException {
+        long valid = log().length();
+        cache.save(new Person("4", "Dave", 40));
+        RandomAccessFile raf = new RandomAccessFile(log(), "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        reopen();
+        assertNull(cache.get("4"));
+        assertEquals(3, cache.count(new Query()));
+        assertEquals(valid, log().length());
+
+        cache.save(new Person("4", "Dave", 40));
+        reopen();
+        assertEquals("Dave", cache.get("4").getName());
+    }
+
+    public void testCorruptedRecordIsDropped() throws IOException {
+        long valid = log().length();
+        cache.save(new Person("4", "Dave", 40));
+        RandomAccessFile raf = new RandomAccessFile(log(), "rw");
+        raf.seek(raf.length() - 2);
+        raf.write('x');
+        raf.close();
+
+        reopen();
+        assertNull(cache.get("4"));
+        assertEquals(valid, log().length());
+    }
+
+    public void testCompaction() throws IOException {
+        SegmentFile segment = new SegmentFile(new File(folder, "compacted.log"), false);
+        MappedFileCache<Person> compacted = new MappedFileCache<Person>("compacted", segment, cacheManager, Person.class, Long.MAX_VALUE);
+        for (int i = 0; i < 100; i++){
+            compacted.save(new Person("1", "Alice" + i, i));
+        }
+        compacted.save(new Person("2", "Bob", 25));
+        compacted.delete("2");
+        long before = segment.size();
+
+        segment.lock.writeLock().lock();
+        try {
+            segment.compact();
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        assertTrue(segment.size() < before / 50);
+        assertEquals(0, segment.garbage());
+        assertEquals("Alice99", compacted.get("1").getName());
+        assertNull(compacted.get("2"));
+        segment.close();
+
+        segment = new SegmentFile(new File(folder, "compacted.log"), false);
+        compacted = new MappedFileCache<Person>("compacted", segment, cacheManager, Person.class, Long.MAX_VALUE);
+        assertEquals(1, compacted.count(new Query()));
+        assertEquals("Alice99", compacted.get("1").getName());
+        segment.close();
+    }
+
+    public void testReadsInterleavedWithAppends() throws IOException {
+        SegmentFile segment = new SegmentFile(new File(folder, "appended.log"), false);
+        MappedFileCache<Person> appended = new MappedFileCache<Person>("appended", segment, cacheManager, Person.class, Long.MAX_VALUE);
+        for (int i = 0; i < 200; i++){
+            appended.save(new Person(String.valueOf(i), "Person" + i, i));
+            assertEquals("Person" + i, appended.get(String.valueOf(i)).getName());
+            assertEquals("Person0", appended.get("0").getName());
+        }
+        for (int i = 0; i < 200; i += 2){
+            appended.delete(String.valueOf(i));
+        }
+        segment.lock.writeLock().lock();
+        try {
+            segment.compact();
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+        assertEquals(100, appended.count(new Query()));
+        assertEquals("Person199", appended.get("199").getName());
+        segment.close();
+    }
+
+    public void testDeleteByQueryAndClear() {
+        assertEquals(2, cache.delete(new Query().lessThan("age", 31)));
+        reopen();
+        assertEquals(1, cache.count(new Query()));
+        cacheManager.clear();
+        reopen();
+        assertEquals(0, cache.count(new Query()));
+    }
+
+    public void testBatchIsSingleAppend() {
+        long size = log().length();
+        List<Person> saved = cache.execute(new CacheBatch<Person>()
+                .delete(new Query().lessThan("age", 31))
+                .save(Arrays.asList(new Person("2", "Bobby", 26), new Person("4", "Dave", 40)))
+                .delete(Arrays.asList("4")));
+        assertEquals(2, saved.size());
+        assertTrue(log().length() > size);
+        reopen();
+        assertNull(cache.get("1"));
+        assertNull(cache.get("4"));
+        assertEquals("Bobby", cache.get("2").getName());
+        assertEquals(2, cache.count(new Query()));
+
+        cache.replace(new Query(), Arrays.asList(new Person("5", "Eve", 20)));
+        reopen();
+        assertEquals(1, cache.get().size());
+        assertEquals("Eve", cache.getFirst().getName());
+    }
+
+    public void testBatchWithoutCommitIsDropped() throws IOException {
+        long valid = log().length();
+        cache.replace(new Query(), Arrays.asList(new Person("4", "Dave", 40), new Person("5", "Eve", 20)));
+        RandomAccessFile raf = new RandomAccessFile(log(), "rw");
+        //cut the commit record, tombstones and records before it are intact
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        reopen();
+        assertEquals(3, cache.count(new Query()));
+        assertEquals("Alice", cache.get("1").getName());
+        assertNull(cache.get("4"));
+        assertEquals(valid, log().length());
+    }
+
+    public void testIterate() {
+        ICacheCursor<Person> cursor = cache.iterate(new Query().greaterThan("age", 26).setSkip(1));
+        assertTrue(cursor.hasNext());
+        assertEquals("Carol", cursor.next().getName());
+        assertFalse(cursor.hasNext());
+        cursor.close();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.kinvey.java.KinveyException;
+import com.kinvey.java.Query;
+import com.kinvey.java.cache.InMemoryCacheTest.Person;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests of {@link OffHeapCache}, memory budget and rollback of batches
+ */
+public class OffHeapCacheTest extends TestCase {
+
+    private OffHeapCacheManager cacheManager;
+    private ICache<Person> cache;
+
+    @Override
+    protected void setUp() {
+        cacheManager = new OffHeapCacheManager(64 * 1024, 4 * 1024, new GsonFactory());
+        cache = cacheManager.getCache("persons", Person.class, Long.MAX_VALUE);
+        cache.save(Arrays.asList(
+                new Person("1", "Alice", 30),
+                new Person("2", "Bob", 25),
+                new Person("3", "Carol", 35)));
+    }
+
+    public void testGetAndQuery() {
+        assertEquals("Bob", cache.get("2").getName());
+        assertNull(cache.get("missing"));
+        assertEquals(2, cache.get(Arrays.asList("1", "3", "missing")).size());
+        assertEquals(2, cache.get(new Query().greaterThan("age", 26)).size());
+        assertEquals(3, cache.count(new Query()));
+        assertEquals("Alice", cache.getFirst().getName());
+    }
+
+    public void testUpdateKeepsOrder() {
+        cache.save(new Person("1", "Alice with a much longer name that does not fit into the old chunk", 31));
+        cache.save(new Person("2", "Bobby", 26));
+        List<Person> all = cache.get();
+        assertEquals(3, all.size());
+        assertEquals("1", all.get(0).get("_id"));
+        assertEquals("Bobby", all.get(1).getName());
+        assertEquals(31, cache.get("1").get("age"));
+    }
+
+    public void testManyEntitiesWithDeletes() {
+        List<Person> persons = new ArrayList<Person>();
+        for (int i = 0; i < 500; i++){
+            persons.add(new Person("p" + i, "Person" + i, i));
+        }
+        cache.save(persons);
+        for (int i = 0; i < 500; i += 2){
+            assertEquals(1, cache.delete("p" + i));
+        }
+        assertEquals(253, cache.count(new Query()));
+        for (int i = 0; i < 500; i++){
+            assertEquals(i % 2 == 1, cache.get("p" + i) != null);
+        }
+        List<Person> all = cache.get();
+        assertEquals("p1", all.get(3).get("_id"));
+        assertEquals("p499", all.get(all.size() - 1).get("_id"));
+    }
+
+    public void testMemoryIsReused() {
+        for (int i = 0; i < 100; i++){
+            cache.save(new Person("tmp" + i, "Temporary", i));
+        }
+        long used = cacheManager.getUsedBytes();
+        for (int round = 0; round < 10; round++){
+            assertEquals(100, cache.delete(new Query().equals("name", "Temporary")));
+            for (int i = 0; i < 100; i++){
+                cache.save(new Person("tmp" + i, "Temporary", i));
+            }
+        }
+        assertEquals(used, cacheManager.getUsedBytes());
+    }
+
+    public void testBudgetIsNotExceeded() {
+        try {
+            for (int i = 0; i < 10000; i++){
+                cache.save(new Person("p" + i, "Person" + i, i));
+            }
+            fail("KinveyException should be thrown");
+        } catch (KinveyException e) {}
+        assertTrue(cacheManager.getUsedBytes() <= cacheManager.getBudget());
+        assertEquals("Alice", cache.get("1").getName());
+    }
+
+    public void testFailedBatchIsRolledBack() {
+        List<Person> persons = new ArrayList<Person>();
+        for (int i = 0; i < 10000; i++){
+            persons.add(new Person("p" + i, "Person" + i, i));
+        }
+        cache.createIndex("age", IndexType.HASH);
+        try {
+            cache.replace(new Query(), persons);
+            fail("KinveyException should be thrown");
+        } catch (KinveyException e) {}
+        assertEquals(3, cache.count(new Query()));
+        assertNull(cache.get("p0"));
+        assertEquals("Bob", cache.getFirst(new Query().equals("age", 25)).getName());
+        assertEquals(0, cache.count(new Query().equals("age", 0)));
+
+        try {
+            cache.save(persons);
+            fail("KinveyException should be thrown");
+        } catch (KinveyException e) {}
+        assertEquals(3, cache.count(new Query()));
+        assertEquals("Alice", cache.get("1").getName());
+
+        //space taken by the failed batches is available again
+        cache.replace(new Query(), persons.subList(0, 100));
+        assertEquals(100, cache.count(new Query()));
+    }
+
+    public void testRollbackWithFullBudget() {
+        int count = fillBudget();
+        List<Person> updates = new ArrayList<Person>();
+        for (int i = 0; i < count; i++){
+            updates.add(new Person("p" + i, name(200), i));
+        }
+        try {
+            cache.save(updates);
+            fail("KinveyException should be thrown");
+        } catch (KinveyException e) {}
+        assertEquals(count + 3, cache.count(new Query()));
+        for (int i = 0; i < count; i++){
+            assertEquals("Person" + i, cache.get("p" + i).getName());
+        }
+        assertTrue(cacheManager.getUsedBytes() <= cacheManager.getBudget());
+    }
+
+    public void testEmptySlabsAreReclaimed() {
+        int count = fillBudget();
+        for (int i = 0; i < count; i++){
+            assertEquals(1, cache.delete("p" + i));
+        }
+        //slabs split for small records are split again for large ones
+        for (int i = 0; i < 20; i++){
+            cache.save(new Person("large" + i, name(1500), i));
+        }
+        assertEquals(23, cache.count(new Query()));
+        assertEquals("Alice", cache.get("1").getName());
+    }
+
+    private int fillBudget() {
+        int count = 0;
+        try {
+            while (true){
+                cache.save(new Person("p" + count, "Person" + count, count));
+                count++;
+            }
+        } catch (KinveyException e) {}
+        return count;
+    }
+
+    private static String name(int length) {
+        StringBuilder ret = new StringBuilder();
+        while (ret.length() < length){
+            ret.append('n');
+        }
+        return ret.toString();
+    }
+
+    public void testClear() {
+        cacheManager.clear();
+        assertEquals(0, cache.count(new Query()));
+        cache.save(new Person("1", "Alice", 30));
+        assertEquals(1, cache.get().size());
+    }
+}
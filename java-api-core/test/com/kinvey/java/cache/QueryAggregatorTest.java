@@ -0,0 +1,84 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.kinvey.java.Query;
+import com.kinvey.java.cache.InMemoryCacheTest.Person;
+import com.kinvey.java.model.AggregateEntity;
+import com.kinvey.java.model.Aggregation;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests of {@link QueryAggregator}
+ */
+public class QueryAggregatorTest extends TestCase {
+
+    private ICache<Person> cache;
+
+    @Override
+    protected void setUp() {
+        cache = new InMemoryCacheManager().getCache("persons", Person.class, Long.MAX_VALUE);
+        cache.save(Arrays.asList(
+                new Person("1", "Alice", 30),
+                new Person("2", "Bob", 25),
+                new Person("3", "Alice", 35),
+                new Person("4", "Dave", 25)));
+    }
+
+    private Aggregation aggregate(AggregateEntity.AggregateType type, String field, Query query, String... groupBy) {
+        ICacheCursor<Person> cursor = cache.iterate(query);
+        try {
+            return QueryAggregator.aggregate(cursor, new ArrayList<String>(Arrays.asList(groupBy)), type, field);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testGroupedCount() {
+        Aggregation aggregation = aggregate(AggregateEntity.AggregateType.COUNT, null, new Query(), "name");
+        assertEquals(3, aggregation.results.length);
+        assertEquals(Collections.<Number>singletonList(2L), aggregation.getResultsFor("name", "Alice"));
+        assertEquals(Collections.<Number>singletonList(1L), aggregation.getResultsFor("name", "Dave"));
+    }
+
+    public void testSumMinMaxAverage() {
+        assertEquals(65L, aggregate(AggregateEntity.AggregateType.SUM, "age", new Query(), "name")
+                .getResultsFor("name", "Alice").get(0));
+        assertEquals(30, aggregate(AggregateEntity.AggregateType.MIN, "age", new Query(), "name")
+                .getResultsFor("name", "Alice").get(0));
+        assertEquals(35, aggregate(AggregateEntity.AggregateType.MAX, "age", new Query())
+                .results[0].result);
+        assertEquals(28.75, aggregate(AggregateEntity.AggregateType.AVERAGE, "age", new Query())
+                .results[0].result.doubleValue(), 0.001);
+    }
+
+    public void testQueryAndMissingValues() {
+        Aggregation aggregation = aggregate(AggregateEntity.AggregateType.SUM, "missing",
+                new Query().equals("age", 25), "age");
+        assertEquals(1, aggregation.results.length);
+        assertEquals(0L, aggregation.results[0].result);
+        assertEquals(25, aggregation.results[0].get("age"));
+
+        assertNull(aggregate(AggregateEntity.AggregateType.MIN, "missing", new Query()).results[0].result);
+        assertEquals(0, aggregate(AggregateEntity.AggregateType.COUNT, null, new Query().equals("age", 99)).results.length);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.cache;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.gson.GsonFactory;
+import com.kinvey.java.Query;
+import com.kinvey.java.cache.InMemoryCacheTest.Person;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of {@link WarmStartCacheManager}
+ */
+public class WarmStartCacheManagerTest extends TestCase {
+
+    private File folder;
+    private InMemoryCacheManager storage;
+
+    /**
+     * Cache manager that opens collections only once it is allowed to
+     */
+    private static class SlowCacheManager implements ICacheManager {
+        final CountDownLatch opened = new CountDownLatch(1);
+        final ICacheManager cacheManager;
+
+        SlowCacheManager(ICacheManager cacheManager) {
+            this.cacheManager = cacheManager;
+        }
+
+        @Override
+        public <T extends GenericJson> ICache<T> getCache(String collection, Class<T> collectionItemClass, Long ttl) {
+            try {
+                opened.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return cacheManager.getCache(collection, collectionItemClass, ttl);
+        }
+
+        @Override
+        public void clear() {
+            cacheManager.clear();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        folder = File.createTempFile("kinvey", "snapshot");
+        folder.delete();
+        storage = new InMemoryCacheManager();
+        WarmStartCacheManager manager = new WarmStartCacheManager(storage, folder, new GsonFactory(), "persons");
+        ICache<Person> cache = manager.getCache("persons", Person.class, Long.MAX_VALUE);
+        cache.save(Arrays.asList(
+                new Person("1", "Alice", 30),
+                new Person("2", "Bob", 25),
+                new Person("3", "Carol", 35)));
+        manager.writeSnapshots().get();
+        manager.close();
+    }
+
+    @Override
+    protected void tearDown() {
+        for (File f : folder.listFiles()){
+            f.delete();
+        }
+        folder.delete();
+    }
+
+    public void testReadsFromSnapshotUntilOpened() throws Exception {
+        SlowCacheManager slow = new SlowCacheManager(storage);
+        WarmStartCacheManager manager = new WarmStartCacheManager(slow, folder, new GsonFactory(), "persons");
+        ICache<Person> cache = manager.getCache("persons", Person.class, Long.MAX_VALUE);
+        cache.createIndex("age", IndexType.SORTED);
+        assertEquals(3, cache.get().size());
+        assertEquals("Bob", cache.get("2").getName());
+        assertEquals(2, cache.count(new Query().greaterThan("age", 25)));
+
+        storage.getCache("persons", Person.class, Long.MAX_VALUE).save(new Person("4", "Dave", 40));
+        slow.opened.countDown();
+        cache.save(new Person("5", "Eve", 45));
+        assertEquals(5, cache.get().size());
+        assertEquals(4, cache.count(new Query().greaterThan("age", 25)));
+        manager.close();
+    }
+
+    public void testColdCollectionsAreOpenedDirectly() {
+        WarmStartCacheManager manager = new WarmStartCacheManager(storage, folder, new GsonFactory());
+        assertEquals(3, manager.getCache("persons", Person.class, Long.MAX_VALUE).get().size());
+        manager.close();
+    }
+
+    public void testCorruptedSnapshotIsIgnored() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(folder, "persons.snapshot"), "rw");
+        try {
+            file.seek(file.length() - 10);
+            file.write(0);
+        } finally {
+            file.close();
+        }
+        SnapshotFile snapshot = SnapshotFile.read(new File(folder, "persons.snapshot"));
+        assertNotNull(snapshot);
+        try {
+            snapshot.getBodies();
+            fail("IOException should be thrown");
+        } catch (IOException e) {}
+        WarmStartCacheManager manager = new WarmStartCacheManager(storage, folder, new GsonFactory(), "persons");
+        assertEquals(3, manager.getCache("persons", Person.class, Long.MAX_VALUE).get().size());
+        manager.close();
+    }
+
+    public void testExpiredSnapshotIsIgnored() throws InterruptedException {
+        Thread.sleep(5);
+        WarmStartCacheManager manager = new WarmStartCacheManager(storage, folder, new GsonFactory(), "persons");
+        assertEquals(3, manager.getCache("persons", Person.class, 1L).get().size());
+        manager.close();
+    }
+}
@@ -32,6 +32,7 @@ import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.kinvey.java.cache.ICacheManager;
+import com.kinvey.java.cache.InMemoryCacheManager;
 import com.kinvey.java.network.NetworkManager;
 import com.kinvey.java.query.MongoQueryFilter;
 
@@ -65,6 +66,10 @@ public abstract class KinveyMockUnitTest extends TestCase {
 
         private ConcurrentHashMap<String, NetworkManager> appDataInstanceCache;
 
+        private final ICacheManager cacheManager = new InMemoryCacheManager();
+
+        private final ICacheManager syncCacheManager = new InMemoryCacheManager();
+
 
         MockTestClient(HttpTransport transport, HttpRequestInitializer httpRequestInitializer,
                        String rootUrl, String servicePath, JsonObjectParser objectParser,
@@ -117,7 +122,7 @@ public abstract class KinveyMockUnitTest extends TestCase {
 
         @Override
         public ICacheManager getCacheManager() {
-            return null;
+            return cacheManager;
         }
 
         @Override
@@ -127,7 +132,7 @@ public abstract class KinveyMockUnitTest extends TestCase {
 
         @Override
         protected ICacheManager getSyncCacheManager() {
-            return null;
+            return syncCacheManager;
         }
 
 
@@ -0,0 +1,136 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.store;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.cache.InMemoryCacheManager;
+import com.kinvey.java.core.KinveyMockUnitTest;
+import com.kinvey.java.network.NetworkManager;
+import com.kinvey.java.store.requests.data.read.AbstractReadRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of {@link com.kinvey.java.store.requests.data.read.InFlightReads}
+ */
+public class InFlightReadsTest extends KinveyMockUnitTest {
+
+    private final AtomicInteger networkCalls = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ExecutorService executor;
+
+    private class BlockingRead extends AbstractReadRequest<GenericJson> {
+        private final String key;
+
+        BlockingRead(String key) {
+            super(new InMemoryCacheManager().getCache("items", GenericJson.class, Long.MAX_VALUE),
+                    ReadPolicy.FORCE_NETWORK, new NetworkManager<GenericJson>("items", GenericJson.class, getClient()));
+            this.key = key;
+        }
+
+        @Override
+        protected List<GenericJson> getCached() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        protected List<GenericJson> getNetwork() throws IOException {
+            networkCalls.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e.getMessage());
+            }
+            List<GenericJson> ret = new ArrayList<GenericJson>();
+            GenericJson item = new GenericJson();
+            item.put("_id", key);
+            ret.add(item);
+            return ret;
+        }
+
+        @Override
+        protected Object getReadKey() {
+            return key;
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private Future<List<GenericJson>> submit(final BlockingRead read) {
+        return executor.submit(new Callable<List<GenericJson>>() {
+            @Override
+            public List<GenericJson> call() throws IOException {
+                return read.execute();
+            }
+        });
+    }
+
+    public void testIdenticalReadsShareNetworkCall() throws Exception {
+        List<Future<List<GenericJson>>> results = new ArrayList<Future<List<GenericJson>>>();
+        for (int i = 0; i < 4; i++){
+            results.add(submit(new BlockingRead("same")));
+        }
+        Future<List<GenericJson>> other = submit(new BlockingRead("other"));
+        Thread.sleep(200);
+        release.countDown();
+        for (Future<List<GenericJson>> result : results){
+            GenericJson entity = result.get(5, TimeUnit.SECONDS).get(0);
+            assertEquals("same", entity.get("_id"));
+            //entities are not shared between requests
+            entity.put("_id", "changed");
+        }
+        assertEquals("other", other.get(5, TimeUnit.SECONDS).get(0).get("_id"));
+        assertEquals(2, networkCalls.get());
+
+        //completed reads are not reused
+        assertEquals(1, new BlockingRead("same").execute().size());
+        assertEquals(3, networkCalls.get());
+    }
+
+    public void testCancelledWaiterDoesNotAffectOthers() throws Exception {
+        Future<List<GenericJson>> first = submit(new BlockingRead("same"));
+        Thread.sleep(100);
+        BlockingRead cancelled = new BlockingRead("same");
+        Future<List<GenericJson>> second = submit(cancelled);
+        Thread.sleep(100);
+        cancelled.cancel();
+        assertNull(second.get(5, TimeUnit.SECONDS));
+        assertFalse(first.isDone());
+        release.countDown();
+        assertEquals(1, first.get(5, TimeUnit.SECONDS).size());
+        assertEquals(1, networkCalls.get());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.store;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.kinvey.java.AbstractClient;
+import com.kinvey.java.core.KinveyMockUnitTest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests of incremental pull of a collection into the local cache
+ */
+public class IncrementalPullTest extends KinveyMockUnitTest {
+
+    private final Map<String, JsonObject> backend = new LinkedHashMap<String, JsonObject>();
+    private final List<String> requests = new ArrayList<String>();
+    private AbstractClient client;
+    private BaseDataStore<GenericJson> store;
+
+    private class BackendTransport extends MockHttpTransport {
+        @Override
+        public LowLevelHttpRequest buildRequest(final String method, final String url) throws IOException {
+            return new MockLowLevelHttpRequest(url) {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException {
+                    GenericUrl parsed = new GenericUrl(url);
+                    Object query = parsed.getFirst("query");
+                    String content;
+                    if ("_id".equals(parsed.getFirst("fields"))){
+                        requests.add("ids");
+                        JsonArray ret = new JsonArray();
+                        for (JsonObject entity : backend.values()){
+                            JsonObject item = new JsonObject();
+                            item.add("_id", entity.get("_id"));
+                            ret.add(item);
+                        }
+                        content = ret.toString();
+                    } else if (parsed.getFirst("fields") != null){
+                        requests.add("metadata");
+                        JsonArray ret = new JsonArray();
+                        for (JsonObject entity : backend.values()){
+                            JsonObject item = new JsonObject();
+                            item.add("_id", entity.get("_id"));
+                            item.add("_kmd", entity.get("_kmd"));
+                            ret.add(item);
+                        }
+                        content = ret.toString();
+                    } else if (query != null && query.toString().contains("$gte")){
+                        requests.add("changed");
+                        String lmt = query.toString().replaceAll(".*\"\\$gte\":\"([^\"]*)\".*", "$1");
+                        JsonArray ret = new JsonArray();
+                        for (JsonObject entity : backend.values()){
+                            if (lmt(entity).compareTo(lmt) >= 0){
+                                ret.add(entity);
+                            }
+                        }
+                        content = ret.toString();
+                    } else if (query != null && query.toString().contains("$in")){
+                        requests.add("byIds");
+                        JsonArray ret = new JsonArray();
+                        JsonArray ids = new JsonParser().parse(query.toString()).getAsJsonObject()
+                                .getAsJsonObject("_id").getAsJsonArray("$in");
+                        for (JsonElement id : ids){
+                            if (backend.containsKey(id.getAsString())){
+                                ret.add(backend.get(id.getAsString()));
+                            }
+                        }
+                        content = ret.toString();
+                    } else {
+                        requests.add("all");
+                        JsonArray ret = new JsonArray();
+                        for (JsonObject entity : backend.values()){
+                            ret.add(entity);
+                        }
+                        content = ret.toString();
+                    }
+                    return new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE).setContent(content);
+                }
+            };
+        }
+    }
+
+    private static String lmt(JsonObject entity) {
+        return entity.getAsJsonObject("_kmd").get("lmt").getAsString();
+    }
+
+    private void put(String id, String lmt) {
+        JsonElement entity = new JsonParser().parse("{\"_id\":\"" + id + "\",\"_kmd\":{\"lmt\":\"" + lmt + "\"}}");
+        backend.put(id, entity.getAsJsonObject());
+    }
+
+    @Override
+    protected void setUp() {
+        client = getClient(new BackendTransport());
+        store = BaseDataStore.collection("items", GenericJson.class, StoreType.SYNC, client);
+        put("1", "2016-01-01T00:00:01.000Z");
+        put("2", "2016-01-01T00:00:02.000Z");
+        put("3", "2016-01-01T00:00:03.000Z");
+    }
+
+    public void testPullsOnlyChangedEntities() throws IOException {
+        assertEquals(3, store.pullBlocking(null).size());
+        assertEquals("[all]", requests.toString());
+
+        requests.clear();
+        put("2", "2016-01-01T00:00:04.000Z");
+        put("4", "2016-01-01T00:00:05.000Z");
+        List<GenericJson> ret = store.pullBlocking(null);
+        assertEquals("[changed, ids]", requests.toString());
+        assertEquals(4, ret.size());
+        //same result as a full pull, in the backend order
+        assertEquals("1", ret.get(0).get("_id"));
+        assertEquals("2", ret.get(1).get("_id"));
+        assertEquals("4", ret.get(3).get("_id"));
+        assertEquals("2016-01-01T00:00:04.000Z", ((Map) store.find("2").get("_kmd")).get("lmt"));
+    }
+
+    public void testDetectsDeletedEntities() throws IOException {
+        store.pullBlocking(null);
+        requests.clear();
+        backend.remove("1");
+        assertEquals(2, store.pullBlocking(null).size());
+        assertEquals("[changed, ids]", requests.toString());
+        assertNull(store.find("1"));
+
+        requests.clear();
+        store.purge();
+        //without watermark the whole collection metadata is compared again
+        assertEquals("[metadata]", requests.toString());
+    }
+
+    public void testFetchesEntitiesMissingLocally() throws IOException {
+        store.pullBlocking(null);
+        requests.clear();
+        //local entity is evicted and another one is deleted on the backend, counts are the same
+        client.getCacheManager().getCache("items", GenericJson.class, Long.MAX_VALUE).delete("2");
+        backend.remove("3");
+        List<GenericJson> ret = store.pullBlocking(null);
+        assertEquals("[changed, ids, byIds]", requests.toString());
+        assertEquals(2, ret.size());
+        assertNotNull(store.find("2"));
+        assertNull(store.find("3"));
+    }
+}
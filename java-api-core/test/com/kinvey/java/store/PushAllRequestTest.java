@@ -0,0 +1,243 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.store;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.kinvey.java.AbstractClient;
+import com.kinvey.java.Query;
+import com.kinvey.java.core.KinveyMockUnitTest;
+import com.kinvey.java.network.NetworkManager;
+import com.kinvey.java.store.requests.data.PushAllRequest;
+import com.kinvey.java.store.requests.data.PushRequest;
+import com.kinvey.java.sync.SyncManager;
+import com.kinvey.java.sync.dto.SyncRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of {@link PushAllRequest}
+ */
+public class PushAllRequestTest extends KinveyMockUnitTest {
+
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private volatile long delay = 20;
+    private AbstractClient client;
+    private SyncManager syncManager;
+
+    private class RecordingTransport extends MockHttpTransport {
+        @Override
+        public LowLevelHttpRequest buildRequest(final String method, final String url) throws IOException {
+            return new MockLowLevelHttpRequest(url) {
+                @Override
+                public LowLevelHttpResponse execute() throws IOException {
+                    int current = running.incrementAndGet();
+                    synchronized (maxRunning){
+                        maxRunning.set(Math.max(maxRunning.get(), current));
+                    }
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e.getMessage());
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                    String path = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+                    //path after appdata/{appKey}/
+                    path = path.substring(path.indexOf("appdata/") + 8);
+                    path = path.substring(path.indexOf('/') + 1).replaceAll("/$", "");
+                    executed.add(method + " " + path);
+                    MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+                            .setContentType(Json.MEDIA_TYPE)
+                            .setContent(method.equals("DELETE") ? "{\"count\":1}" :
+                                    method.equals("POST") ? "{\"entities\":" + getContentAsString() + "}" : "{}");
+                    if (url.endsWith("/broken") || url.contains("%22broken%22")){
+                        response.setStatusCode(500);
+                    }
+                    return response;
+                }
+            };
+        }
+    }
+
+    @Override
+    protected void setUp() {
+        client = getClient(new RecordingTransport());
+        syncManager = client.getSycManager();
+    }
+
+    private void save(String collection, String id) throws IOException {
+        GenericJson item = new GenericJson();
+        item.put("_id", id);
+        NetworkManager<GenericJson> networkManager = new NetworkManager<GenericJson>(collection, GenericJson.class, client);
+        syncManager.enqueueRequest(collection, networkManager.saveBlocking(item));
+    }
+
+    private void create(String collection, String id) throws IOException {
+        GenericJson item = new GenericJson();
+        NetworkManager<GenericJson> networkManager = new NetworkManager<GenericJson>(collection, GenericJson.class, client);
+        NetworkManager<GenericJson>.Save save = networkManager.saveBlocking(item);
+        //id is assigned by the local cache after request is created
+        item.put("_id", id);
+        syncManager.enqueueRequest(collection, save);
+    }
+
+    public void testPushesAllCollectionsConcurrently() throws IOException {
+        for (int i = 0; i < 8; i++){
+            save("items", "item" + i);
+            save("others", "other" + i);
+        }
+        final List<Long> progress = Collections.synchronizedList(new ArrayList<Long>());
+        PushAllRequest.Result result = new PushAllRequest(client, 4, new PushAllRequest.ProgressListener() {
+            @Override
+            public void onProgress(long current, long all) {
+                assertEquals(16, all);
+                progress.add(current);
+            }
+        }).execute();
+
+        assertEquals(16, result.getSuccessCount());
+        assertTrue(result.getListOfExceptions().isEmpty());
+        assertEquals(16, executed.size());
+        assertEquals(16, progress.size());
+        assertTrue(maxRunning.get() > 1);
+        assertTrue(maxRunning.get() <= 4);
+        assertTrue(syncManager.popSingleQueue("items").isEmpty());
+    }
+
+    public void testDeleteByQueryIsBarrier() throws IOException {
+        save("items", "1");
+        save("items", "2");
+        NetworkManager<GenericJson> networkManager = new NetworkManager<GenericJson>("items", GenericJson.class, client);
+        syncManager.enqueueRequest("items", networkManager.deleteBlocking(new Query().equals("value", 1)));
+        save("items", "3");
+
+        PushAllRequest.Result result = new PushAllRequest(client, 4, null).execute();
+        assertEquals(4, result.getSuccessCount());
+        assertEquals("DELETE items", executed.get(2));
+        assertEquals("PUT items/3", executed.get(3));
+    }
+
+    public void testFailedDeleteByQueryStopsLaterRequests() throws IOException {
+        save("items", "1");
+        NetworkManager<GenericJson> networkManager = new NetworkManager<GenericJson>("items", GenericJson.class, client);
+        syncManager.enqueueRequest("items", networkManager.deleteBlocking(new Query().equals("value", "broken")));
+        save("items", "3");
+        save("items", "4");
+
+        PushAllRequest.Result result = new PushAllRequest(client, 4, null).execute();
+        assertEquals(1, result.getSuccessCount());
+        assertEquals(1, result.getListOfExceptions().size());
+        assertEquals(2, executed.size());
+        assertEquals("PUT items/1", executed.get(0));
+        assertEquals("DELETE items", executed.get(1));
+
+        List<SyncRequest> queued = syncManager.popSingleQueue("items");
+        assertEquals(3, queued.size());
+        assertEquals(SyncRequest.HttpVerb.DELETE, queued.get(0).getHttpVerb());
+        assertEquals("3", queued.get(1).getEntityID().id);
+        assertEquals("4", queued.get(2).getEntityID().id);
+    }
+
+    public void testCollectionPushRequeuesRequestsLeftAfterFailure() throws IOException {
+        create("items", "new0");
+        save("items", "broken");
+        save("items", "2");
+        create("items", "new1");
+
+        try {
+            new PushRequest<GenericJson>("items", client).execute();
+            fail("exception should be thrown");
+        } catch (IOException e) {}
+        assertEquals(Arrays.asList("POST items", "PUT items/broken"), executed);
+
+        List<SyncRequest> queued = syncManager.popSingleQueue("items");
+        assertEquals(3, queued.size());
+        assertEquals("broken", queued.get(0).getEntityID().id);
+        assertEquals("2", queued.get(1).getEntityID().id);
+        assertEquals("new1", queued.get(2).getEntityID().id);
+    }
+
+    public void testCreatesArePushedInBulk() throws IOException {
+        for (int i = 0; i < 5; i++){
+            create("items", "new" + i);
+        }
+        save("items", "1");
+
+        PushAllRequest.Result result = new PushAllRequest(client, 4, null).execute();
+        assertEquals(6, result.getSuccessCount());
+        assertEquals(2, executed.size());
+        assertTrue(executed.contains("POST items"));
+        assertTrue(executed.contains("PUT items/1"));
+    }
+
+    public void testInterruptedPushRequeuesRequests() throws Exception {
+        save("items", "1");
+        save("items", "2");
+        save("items", "3");
+        delay = 10000;
+        final Exception[] thrown = new Exception[1];
+        Thread push = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new PushAllRequest(client, 1, null).execute();
+                } catch (Exception e) {
+                    thrown[0] = e;
+                }
+            }
+        });
+        push.start();
+        while (running.get() == 0){
+            Thread.sleep(5);
+        }
+        push.interrupt();
+        push.join(5000);
+        assertTrue(thrown[0] instanceof IOException);
+
+        //request in progress is interrupted by the shutdown of workers and put back by the sync manager
+        long deadline = System.currentTimeMillis() + 5000;
+        while (syncManager.getCount("items") < 3 && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        assertTrue(executed.isEmpty());
+        List<SyncRequest> queued = syncManager.popSingleQueue("items");
+        assertEquals(3, queued.size());
+    }
+
+    public void testFailedEntityIsRequeued() throws IOException {
+        save("items", "broken");
+        save("items", "fine");
+
+        PushAllRequest.Result result = new PushAllRequest(client, 2, null).execute();
+        assertEquals(1, result.getSuccessCount());
+        assertEquals(1, result.getListOfExceptions().size());
+        assertEquals("broken", syncManager.popSingleQueue("items").get(0).getEntityID().id);
+    }
+}
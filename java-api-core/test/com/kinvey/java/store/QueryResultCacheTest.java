@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.store;
+
+import com.google.api.client.json.GenericJson;
+import com.kinvey.java.Query;
+import com.kinvey.java.query.AbstractQuery;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests of {@link QueryResultCache}
+ */
+public class QueryResultCacheTest extends TestCase {
+
+    private QueryResultCache cache;
+    private Query adults;
+    private Query all;
+
+    private static GenericJson person(String id, int age) {
+        GenericJson ret = new GenericJson();
+        ret.put("_id", id);
+        ret.put("age", age);
+        return ret;
+    }
+
+    @Override
+    protected void setUp() {
+        cache = new QueryResultCache();
+        adults = new Query().greaterThanEqualTo("age", 18);
+        all = new Query();
+        long version = cache.version("persons");
+        cache.put("persons", "adults", version, adults, Arrays.asList(person("1", 30), person("2", 40)));
+        cache.put("persons", "all", version, all, Arrays.asList(person("1", 30), person("2", 40), person("3", 10)));
+    }
+
+    public void testGetReturnsCopies() {
+        List<GenericJson> ret = cache.get("persons", "adults", Long.MAX_VALUE, GenericJson.class);
+        assertEquals(2, ret.size());
+        ret.get(0).put("age", 99);
+        assertEquals(30, cache.get("persons", "adults", Long.MAX_VALUE, GenericJson.class).get(0).get("age"));
+        assertNull(cache.get("persons", "adults", 0, GenericJson.class));
+        assertNull(cache.get("other", "adults", Long.MAX_VALUE, GenericJson.class));
+    }
+
+    public void testSaveDropsAffectedResults() {
+        //matches neither adults nor is in their result
+        cache.saved("persons", Collections.singletonList(person("4", 5)));
+        assertNotNull(cache.get("persons", "adults", Long.MAX_VALUE, GenericJson.class));
+        assertNull(cache.get("persons", "all", Long.MAX_VALUE, GenericJson.class));
+
+        //was in the result, does not match anymore
+        cache.saved("persons", Collections.singletonList(person("1", 12)));
+        assertNull(cache.get("persons", "adults", Long.MAX_VALUE, GenericJson.class));
+    }
+
+    public void testSaveOfMatchingEntityDropsResult() {
+        cache.saved("persons", Collections.singletonList(person("5", 20)));
+        assertNull(cache.get("persons", "adults", Long.MAX_VALUE, GenericJson.class));
+    }
+
+    public void testDeleteDropsResultsContainingEntity() {
+        cache.deleted("persons", Collections.singletonList("3"));
+        assertNotNull(cache.get("persons", "adults", Long.MAX_VALUE, GenericJson.class));
+        assertNull(cache.get("persons", "all", Long.MAX_VALUE, GenericJson.class));
+        cache.invalidate("persons");
+        assertNull(cache.get("persons", "adults", Long.MAX_VALUE, GenericJson.class));
+    }
+
+    public void testChangeOutsideOfPageDropsIt() {
+        Query secondPage = new Query().greaterThanEqualTo("age", 18)
+                .addSort("age", AbstractQuery.SortOrder.ASC).setSkip(1).setLimit(1);
+        cache.put("persons", "page", cache.version("persons"), secondPage, Arrays.asList(person("2", 40)));
+        //deleted entity was on the first page
+        cache.deleted("persons", Collections.singletonList("1"));
+        assertNull(cache.get("persons", "page", Long.MAX_VALUE, GenericJson.class));
+
+        cache.put("persons", "page", cache.version("persons"), secondPage, Arrays.asList(person("2", 40)));
+        //saved entity left the first page
+        cache.saved("persons", Collections.singletonList(person("1", 12)));
+        assertNull(cache.get("persons", "page", Long.MAX_VALUE, GenericJson.class));
+    }
+
+    public void testResultReadBeforeChangeIsNotStored() {
+        long version = cache.version("persons");
+        cache.deleted("persons", Collections.singletonList("missing"));
+        cache.put("persons", "minors", version, new Query().lessThan("age", 18), Arrays.asList(person("3", 10)));
+        assertNull(cache.get("persons", "minors", Long.MAX_VALUE, GenericJson.class));
+    }
+
+    public void testExpiredResultIsDropped() throws InterruptedException {
+        Thread.sleep(20);
+        assertNull(cache.get("persons", "adults", 10, GenericJson.class));
+        assertNull(cache.get("persons", "adults", Long.MAX_VALUE, GenericJson.class));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright (c) 2016, Kinvey, Inc. All rights reserved.
+ *
+ * This software is licensed to you under the Kinvey terms of service located at
+ * http://www.kinvey.com/terms-of-use. By downloading, accessing and/or using this
+ * software, you hereby accept such terms of service  (and any agreement referenced
+ * therein) and agree that you have read, understand and agree to be bound by such
+ * terms of service and are of legal age to agree to such terms with Kinvey.
+ *
+ * This software contains valuable confidential and proprietary information of
+ * KINVEY, INC and is subject to applicable licensing agreements.
+ * Unauthorized reproduction, transmission or distribution of this file and its
+ * contents is a violation of applicable laws.
+ *
+ */
+
+package com.kinvey.java.sync;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.kinvey.java.AbstractClient;
+import com.kinvey.java.Query;
+import com.kinvey.java.cache.InMemoryCacheManager;
+import com.kinvey.java.core.KinveyMockUnitTest;
+import com.kinvey.java.network.NetworkManager;
+import com.kinvey.java.sync.dto.SyncRequest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests of coalescing and replay of queued requests by {@link SyncManager}
+ */
+public class SyncManagerTest extends KinveyMockUnitTest {
+
+    private SyncManager syncManager;
+    private NetworkManager<GenericJson> networkManager;
+
+    @Override
+    protected void setUp() {
+        syncManager = new SyncManager(new InMemoryCacheManager());
+        networkManager = new NetworkManager<GenericJson>("items", GenericJson.class, getClient(new MockHttpTransport()));
+    }
+
+    private static GenericJson item(String id, int value) {
+        GenericJson ret = new GenericJson();
+        if (id != null){
+            ret.put("_id", id);
+        }
+        ret.put("value", value);
+        return ret;
+    }
+
+    private void save(GenericJson item) throws IOException {
+        NetworkManager<GenericJson>.Save save = networkManager.saveBlocking(item);
+        if (item.get("_id") == null){
+            //id is assigned by the local cache after request is created
+            item.put("_id", "created");
+        }
+        syncManager.enqueueRequest("items", save);
+    }
+
+    private List<SyncRequest> queue() {
+        List<SyncRequest> ret = syncManager.popSingleQueue("items");
+        for (SyncRequest request : ret){
+            syncManager.enqueueRequest(request);
+        }
+        return ret;
+    }
+
+    public void testLastWriteWins() throws IOException {
+        for (int i = 0; i < 50; i++){
+            save(item("1", i));
+        }
+        save(item("2", 0));
+        List<SyncRequest> queue = queue();
+        assertEquals(2, queue.size());
+        assertEquals(SyncRequest.HttpVerb.PUT, queue.get(0).getHttpVerb());
+        assertTrue(queue.get(0).getEntityID().data.contains("49"));
+    }
+
+    public void testOtherCollectionsAreNotMerged() throws IOException {
+        save(item("1", 1));
+        NetworkManager<GenericJson> other = new NetworkManager<GenericJson>("other", GenericJson.class, getClient(new MockHttpTransport()));
+        syncManager.enqueueRequest("other", other.saveBlocking(item("1", 2)));
+        save(item("1", 3));
+        assertEquals(1, syncManager.getCount("items"));
+        assertEquals(1, syncManager.getCount("other"));
+        assertTrue(queue().get(0).getEntityID().data.contains("3"));
+    }
+
+    public void testCreateThenDeleteIsDropped() throws IOException {
+        save(item(null, 1));
+        save(item("created", 2));
+        List<SyncRequest> queue = queue();
+        assertEquals(1, queue.size());
+        assertEquals(SyncRequest.HttpVerb.POST, queue.get(0).getHttpVerb());
+
+        syncManager.enqueueRequest("items", networkManager.deleteBlocking("created"));
+        assertEquals(0, syncManager.getCount("items"));
+    }
+
+    public void testUpdateThenDeleteKeepsDelete() throws IOException {
+        save(item("1", 1));
+        syncManager.enqueueRequest("items", networkManager.deleteBlocking("1"));
+        List<SyncRequest> queue = queue();
+        assertEquals(1, queue.size());
+        assertEquals(SyncRequest.HttpVerb.DELETE, queue.get(0).getHttpVerb());
+    }
+
+    public void testDeleteByQueryMergesMatchingSaves() throws IOException {
+        save(item("1", 1));
+        save(item("2", 5));
+        save(item(null, 7));
+        syncManager.enqueueRequest("items", networkManager.deleteBlocking(new Query().greaterThan("value", 3)));
+        List<SyncRequest> queue = queue();
+        assertEquals(3, queue.size());
+        assertEquals(SyncRequest.HttpVerb.PUT, queue.get(0).getHttpVerb());
+        assertEquals(SyncRequest.HttpVerb.DELETE, queue.get(1).getHttpVerb());
+        assertEquals("2", queue.get(1).getEntityID().id);
+        assertNull(queue.get(1).getEntityID().data);
+        assertEquals(SyncRequest.HttpVerb.DELETE, queue.get(2).getHttpVerb());
+        assertNull(queue.get(2).getEntityID().id);
+    }
+
+    public void testReplaySendsQueuedPayload() throws IOException {
+        final List<MockLowLevelHttpRequest> sent = new ArrayList<MockLowLevelHttpRequest>();
+        final List<String> methods = new ArrayList<String>();
+        AbstractClient client = getClient(new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+                MockLowLevelHttpRequest request = new MockLowLevelHttpRequest(url);
+                request.setResponse(new MockLowLevelHttpResponse().setContentType(Json.MEDIA_TYPE).setContent("{}"));
+                methods.add(method);
+                sent.add(request);
+                return request;
+            }
+        });
+        client.setClientAppVersion("1.2.3");
+        networkManager = new NetworkManager<GenericJson>("items", GenericJson.class, client);
+        save(item(null, 1));
+        save(item("created", 2));
+        SyncRequest queued = queue().get(0);
+
+        syncManager.executeRequest(client, queued);
+        assertEquals(1, sent.size());
+        assertEquals("POST", methods.get(0));
+        assertTrue(sent.get(0).getUrl().endsWith("/items/"));
+        assertEquals(queued.getEntityID().data, sent.get(0).getContentAsString());
+        assertEquals("1.2.3", sent.get(0).getFirstHeaderValue("x-kinvey-client-app-version"));
+    }
+
+    public void testFailedDeleteIsRequeuedUnlessEntityIsGone() throws IOException {
+        final int[] status = new int[]{500};
+        AbstractClient client = getClient(new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+                MockLowLevelHttpRequest request = new MockLowLevelHttpRequest(url);
+                request.setResponse(new MockLowLevelHttpResponse().setStatusCode(status[0])
+                        .setContentType(Json.MEDIA_TYPE).setContent("{}"));
+                return request;
+            }
+        });
+        networkManager = new NetworkManager<GenericJson>("items", GenericJson.class, client);
+        syncManager.enqueueRequest("items", networkManager.deleteBlocking("1"));
+        SyncRequest delete = syncManager.popSingleQueue("items").get(0);
+
+        try {
+            syncManager.executeRequest(client, delete);
+            fail("exception should be thrown");
+        } catch (IOException e) {}
+        assertEquals(1, syncManager.getCount("items"));
+
+        status[0] = 404;
+        delete = syncManager.popSingleQueue("items").get(0);
+        try {
+            syncManager.executeRequest(client, delete);
+            fail("exception should be thrown");
+        } catch (IOException e) {}
+        assertEquals(0, syncManager.getCount("items"));
+    }
+}
@@ -30,10 +30,16 @@ import com.kinvey.java.auth.Credential;
 import com.kinvey.java.auth.CredentialManager;
 import com.kinvey.java.auth.CredentialStore;
 import com.kinvey.java.auth.InMemoryCredentialStore;
+import com.kinvey.java.cache.BoundedCacheManager;
+import com.kinvey.java.cache.EvictionPolicy;
 import com.kinvey.java.cache.ICacheManager;
+import com.kinvey.java.cache.InMemoryCacheManager;
+import com.kinvey.java.cache.MappedFileCacheManager;
 import com.kinvey.java.core.KinveyClientRequestInitializer;
 import com.kinvey.java.network.NetworkManager;
+import com.kinvey.java.sync.SyncManager;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -50,6 +56,9 @@ public class Client extends AbstractClient {
     private com.kinvey.nativejava.NetworkFileManager file;
     private UserGroup userGroup;
     private ClientUser clientUser;
+    private ICacheManager cacheManager;
+    private ICacheManager syncCacheManager;
+    private String cacheFolder;
 
 
     /**
@@ -66,6 +75,8 @@ public class Client extends AbstractClient {
     protected Client(HttpTransport transport, HttpRequestInitializer httpRequestInitializer, String rootUrl, String servicePath, JsonObjectParser objectParser, KinveyClientRequestInitializer kinveyRequestInitializer, CredentialStore store, BackOffPolicy requestPolicy) {
         super(transport, httpRequestInitializer, rootUrl, servicePath, objectParser, kinveyRequestInitializer, store, requestPolicy);
         Logger.init(new JavaLogger());
+        cacheManager = new InMemoryCacheManager();
+        syncCacheManager = new InMemoryCacheManager();
 
     }
     /**
@@ -191,17 +202,17 @@ public class Client extends AbstractClient {
 
     @Override
     public ICacheManager getCacheManager() {
-        return null;
+        return cacheManager;
     }
 
     @Override
     public String getFileCacheFolder() {
-        return null;
+        return cacheFolder;
     }
 
     @Override
     protected ICacheManager getSyncCacheManager() {
-        return null;
+        return syncCacheManager;
     }
 
 
@@ -244,6 +255,10 @@ public class Client extends AbstractClient {
 
         private boolean debugMode = false;
         private JsonFactory factory = JavaJson.newCompatibleJsonFactory(JavaJson.JSONPARSER.GSON);
+        private File cacheFolder;
+        private EvictionPolicy evictionPolicy;
+        private long cacheMaxEntries;
+        private long cacheMaxBytes;
 
 
         /**
@@ -286,8 +301,36 @@ public class Client extends AbstractClient {
             return this;
         }
 
+        /**
+         * Keep local cache, sync queue and downloaded files in given folder, so they survive restarts of the application.
+         * By default all local data is kept in memory only.
+         *
+         * @param cacheFolder folder to store local data in
+         * @return this builder
+         */
+        public Builder setCacheFolder(File cacheFolder){
+            this.cacheFolder = cacheFolder;
+            return this;
+        }
+
 
 
+        /**
+         * Keep local cache within given limits, entities are evicted in the order of given policy.
+         * Entities that have not been pushed yet are never evicted. By default local cache is not limited.
+         *
+         * @param policy order in which entities are evicted
+         * @param maxEntries maximum count of cached entities, 0 for no limit
+         * @param maxBytes maximum approximate size of cached entities, 0 for no limit
+         * @return this builder
+         */
+        public Builder setCacheLimit(EvictionPolicy policy, long maxEntries, long maxBytes){
+            this.evictionPolicy = policy;
+            this.cacheMaxEntries = maxEntries;
+            this.cacheMaxBytes = maxBytes;
+            return this;
+        }
+
         /**
          * @return an instantiated Kinvey Android Client,
          * which contains factory methods for accessing various functionality.
@@ -298,6 +341,17 @@ public class Client extends AbstractClient {
                     getHttpRequestInitializer(), getBaseUrl(),
                     getServicePath(), getObjectParser(), getKinveyClientRequestInitializer(), getCredentialStore(),
                     getRequestBackoffPolicy());
+            if (cacheFolder != null){
+                client.cacheFolder = new File(cacheFolder, "files").getAbsolutePath();
+                client.cacheManager = new MappedFileCacheManager(new File(cacheFolder, "cache"), client.getJsonFactory());
+                client.syncCacheManager = new MappedFileCacheManager(new File(cacheFolder, "sync"), client.getJsonFactory());
+            }
+            if (evictionPolicy != null){
+                BoundedCacheManager cacheManager = new BoundedCacheManager(client.cacheManager, evictionPolicy,
+                        new SyncManager(client.syncCacheManager));
+                cacheManager.setGlobalLimit(cacheMaxEntries, cacheMaxBytes);
+                client.cacheManager = cacheManager;
+            }
             // TODO: 10.2.17 get user from java user storage
 //            client.clientUser =
             try {